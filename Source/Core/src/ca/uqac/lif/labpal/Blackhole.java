@@ -0,0 +1,127 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+/**
+ * A sink for values computed by code being timed. The just-in-time compiler
+ * can remove computations whose result is never used, which makes them look
+ * much faster than they are; passing these results to one of the
+ * {@code consume} methods prevents this, at a very small cost.
+ * <p>
+ * Each method compares the value it receives with fields the compiler
+ * cannot assume anything about, since they are volatile. The comparison
+ * never succeeds, but the compiler has to compute the value to know it.
+ *
+ * @author Sylvain Hallé
+ */
+public class Blackhole
+{
+	/*
+	 * Pairs of fields with different values: a value can never be equal to
+	 * both of them
+	 */
+	private volatile int m_int1 = 1;
+	private volatile int m_int2 = 2;
+	private volatile long m_long1 = 1;
+	private volatile long m_long2 = 2;
+	private volatile double m_double1 = 1;
+	private volatile double m_double2 = 2;
+	private volatile boolean m_boolean1 = false;
+	private volatile boolean m_boolean2 = true;
+
+	/**
+	 * An object that is never equal to a consumed object
+	 */
+	private volatile Object m_object = new Object();
+
+	/**
+	 * Where consumed objects are occasionally stored
+	 */
+	private volatile Object m_sink;
+
+	/**
+	 * A counter used to decide when to store a consumed object
+	 */
+	private int m_tlr = (int) System.nanoTime();
+
+	/**
+	 * Consumes an object
+	 * @param o The object
+	 */
+	public final void consume(Object o)
+	{
+		int tlr = (m_tlr = m_tlr * 1664525 + 1013904223);
+		if ((tlr & 0x7fffffff) == 0)
+		{
+			// Very rarely, keep a reference, so that the object must exist
+			m_sink = o;
+		}
+		else if (o == m_object)
+		{
+			throw new IllegalStateException("Blackhole failure");
+		}
+	}
+
+	/**
+	 * Consumes an integer
+	 * @param x The integer
+	 */
+	public final void consume(int x)
+	{
+		if (x == m_int1 & x == m_int2)
+		{
+			throw new IllegalStateException("Blackhole failure");
+		}
+	}
+
+	/**
+	 * Consumes a long
+	 * @param x The long
+	 */
+	public final void consume(long x)
+	{
+		if (x == m_long1 & x == m_long2)
+		{
+			throw new IllegalStateException("Blackhole failure");
+		}
+	}
+
+	/**
+	 * Consumes a double
+	 * @param x The double
+	 */
+	public final void consume(double x)
+	{
+		if (x == m_double1 & x == m_double2)
+		{
+			throw new IllegalStateException("Blackhole failure");
+		}
+	}
+
+	/**
+	 * Consumes a Boolean
+	 * @param x The Boolean
+	 */
+	public final void consume(boolean x)
+	{
+		if (x == m_boolean1 & x == m_boolean2)
+		{
+			throw new IllegalStateException("Blackhole failure");
+		}
+	}
+}
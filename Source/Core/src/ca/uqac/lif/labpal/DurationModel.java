@@ -0,0 +1,558 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.uqac.lif.json.JsonElement;
+import ca.uqac.lif.json.JsonList;
+import ca.uqac.lif.json.JsonMap;
+import ca.uqac.lif.json.JsonNumber;
+import ca.uqac.lif.json.JsonParser;
+import ca.uqac.lif.json.JsonParser.JsonParseException;
+
+/**
+ * Predicts the duration of experiments from the durations of the
+ * experiments that have already run. The model records, for each class of
+ * experiments, the numeric input parameters and the running time of every
+ * experiment that finished successfully. It then fits a log-log linear
+ * regression of the running time over these parameters, which captures
+ * the usual polynomial relationships (e.g. a running time proportional to
+ * the square of the size); parameters that take a single value are
+ * ignored. Until a class has enough observations, the model predicts the
+ * geometric mean of the durations observed so far.
+ * <p>
+ * Durations are multiplied by {@link Laboratory#s_parkMips} before being
+ * recorded, and divided by it when predicting, so that a model built on a
+ * machine gives sensible predictions on a faster or slower one.
+ * <p>
+ * The model is saved with the lab, and can also be saved to a separate
+ * file with {@link #save(File)} and reused by other labs with
+ * {@link #load(File)}.
+ *
+ * @author Sylvain Hallé
+ */
+public class DurationModel
+{
+	/**
+	 * The maximum number of observations kept for each class of
+	 * experiments. Beyond this number, the oldest observations are
+	 * replaced.
+	 */
+	public static final int MAX_OBSERVATIONS = 1000;
+
+	/**
+	 * The regularization added to the regression, to keep it stable when
+	 * parameters are correlated
+	 */
+	protected static final double RIDGE = 1e-6;
+
+	/**
+	 * The models of each class of experiments, indexed by class name
+	 */
+	private HashMap<String,ClassModel> m_models;
+
+	/**
+	 * Creates a new empty model
+	 */
+	public DurationModel()
+	{
+		super();
+		m_models = new HashMap<String,ClassModel>();
+	}
+
+	/**
+	 * Records the duration of an experiment that has finished. Experiments
+	 * that did not finish successfully are ignored, since their running
+	 * time says nothing about the time they would normally take.
+	 * @param e The experiment
+	 * @return {@code true} if the predictions for this class of experiments
+	 * have changed, {@code false} otherwise
+	 */
+	public boolean record(Experiment e)
+	{
+		Experiment.Status s = e.getStatus();
+		if (s != Experiment.Status.DONE && s != Experiment.Status.DONE_WARNING)
+		{
+			return false;
+		}
+		long start = e.getStartTime(), end = e.getEndTime();
+		if (start <= 0 || end < start)
+		{
+			return false;
+		}
+		return record(e, (end - start) / 1000f);
+	}
+
+	/**
+	 * Records the duration of an experiment
+	 * @param e The experiment
+	 * @param seconds The time it took, in seconds
+	 * @return {@code true} if the predictions for this class of experiments
+	 * have changed, {@code false} otherwise
+	 */
+	public synchronized boolean record(Experiment e, float seconds)
+	{
+		String name = e.getClass().getName();
+		ClassModel m = m_models.get(name);
+		if (m == null)
+		{
+			m = new ClassModel();
+			m_models.put(name, m);
+		}
+		return m.add(new Observation(getFeatures(e), seconds * getSpeed()));
+	}
+
+	/**
+	 * Predicts the duration of an experiment
+	 * @param e The experiment
+	 * @return The predicted duration, in seconds, or -1 if no experiment of
+	 * the same class has been recorded
+	 */
+	public synchronized float predict(Experiment e)
+	{
+		ClassModel m = m_models.get(e.getClass().getName());
+		if (m == null || m.m_observations.isEmpty())
+		{
+			return -1;
+		}
+		return (float) (m.predict(getFeatures(e)) / getSpeed());
+	}
+
+	/**
+	 * Gets the number of durations recorded for a class of experiments
+	 * @param c The class
+	 * @return The number of durations
+	 */
+	public synchronized int getObservationCount(Class<? extends Experiment> c)
+	{
+		ClassModel m = m_models.get(c.getName());
+		return m == null ? 0 : m.m_count;
+	}
+
+	/**
+	 * Adds to this model the durations recorded by another one
+	 * @param model The other model
+	 */
+	public void mergeWith(DurationModel model)
+	{
+		if (model == this)
+		{
+			return;
+		}
+		Map<String,ClassModel> others;
+		synchronized (model)
+		{
+			others = new HashMap<String,ClassModel>(model.m_models);
+		}
+		synchronized (this)
+		{
+			for (Map.Entry<String,ClassModel> entry : others.entrySet())
+			{
+				ClassModel m = m_models.get(entry.getKey());
+				if (m == null)
+				{
+					m = new ClassModel();
+					m_models.put(entry.getKey(), m);
+				}
+				for (Observation o : entry.getValue().m_observations)
+				{
+					m.add(o);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forgets all the recorded durations
+	 */
+	public synchronized void clear()
+	{
+		m_models.clear();
+	}
+
+	/**
+	 * Saves the recorded durations to a file
+	 * @param f The file
+	 */
+	public synchronized void save(File f)
+	{
+		JsonMap classes = new JsonMap();
+		for (Map.Entry<String,ClassModel> entry : m_models.entrySet())
+		{
+			JsonList list = new JsonList();
+			for (Observation o : entry.getValue().m_observations)
+			{
+				JsonMap params = new JsonMap();
+				for (Map.Entry<String,Double> p : o.m_parameters.entrySet())
+				{
+					params.put(p.getKey(), p.getValue());
+				}
+				JsonMap obs = new JsonMap();
+				obs.put("parameters", params);
+				obs.put("work", o.m_work);
+				list.add(obs);
+			}
+			classes.put(entry.getKey(), list);
+		}
+		FileHelper.writeFromString(f, classes.toString());
+	}
+
+	/**
+	 * Adds to this model the durations saved in a file with
+	 * {@link #save(File)}. Nothing is done if the file does not exist.
+	 * @param f The file
+	 * @throws JsonParseException If the file does not contain a valid
+	 * model
+	 */
+	public void load(File f) throws JsonParseException
+	{
+		if (!f.exists())
+		{
+			return;
+		}
+		JsonElement je = new JsonParser().parse(FileHelper.readToString(f));
+		if (!(je instanceof JsonMap))
+		{
+			throw new JsonParseException("Expected a map of classes");
+		}
+		DurationModel model = new DurationModel();
+		for (Map.Entry<String,JsonElement> entry : ((JsonMap) je).entrySet())
+		{
+			if (!(entry.getValue() instanceof JsonList))
+			{
+				continue;
+			}
+			ClassModel m = new ClassModel();
+			for (JsonElement obs : (JsonList) entry.getValue())
+			{
+				if (!(obs instanceof JsonMap) || !(((JsonMap) obs).get("work") instanceof JsonNumber))
+				{
+					continue;
+				}
+				HashMap<String,Double> params = new HashMap<String,Double>();
+				JsonElement p_map = ((JsonMap) obs).get("parameters");
+				if (p_map instanceof JsonMap)
+				{
+					for (Map.Entry<String,JsonElement> p : ((JsonMap) p_map).entrySet())
+					{
+						if (p.getValue() instanceof JsonNumber)
+						{
+							params.put(p.getKey(), ((JsonNumber) p.getValue()).numberValue().doubleValue());
+						}
+					}
+				}
+				m.add(new Observation(params, ((JsonNumber) ((JsonMap) obs).get("work")).numberValue().doubleValue()));
+			}
+			model.m_models.put(entry.getKey(), m);
+		}
+		mergeWith(model);
+	}
+
+	/**
+	 * Gets the numeric input parameters of an experiment
+	 * @param e The experiment
+	 * @return A map from parameter names to their values
+	 */
+	protected static HashMap<String,Double> getFeatures(Experiment e)
+	{
+		HashMap<String,Double> features = new HashMap<String,Double>();
+		for (Map.Entry<String,JsonElement> entry : e.getInputParameters().entrySet())
+		{
+			if (entry.getValue() instanceof JsonNumber)
+			{
+				features.put(entry.getKey(), ((JsonNumber) entry.getValue()).numberValue().doubleValue());
+			}
+		}
+		return features;
+	}
+
+	/**
+	 * Gets the speed of the machine used to normalize durations
+	 * @return The speed
+	 */
+	protected static double getSpeed()
+	{
+		return Laboratory.s_parkMips > 0 ? Laboratory.s_parkMips : 1;
+	}
+
+	/**
+	 * The duration of an experiment, along with its parameters
+	 */
+	protected static class Observation
+	{
+		/**
+		 * The numeric input parameters of the experiment
+		 */
+		protected HashMap<String,Double> m_parameters;
+
+		/**
+		 * The duration of the experiment, multiplied by the speed of the
+		 * machine
+		 */
+		protected double m_work;
+
+		protected Observation()
+		{
+			this(new HashMap<String,Double>(), 0);
+		}
+
+		public Observation(HashMap<String,Double> parameters, double work)
+		{
+			super();
+			m_parameters = parameters;
+			m_work = work;
+		}
+	}
+
+	/**
+	 * The regression fitted on the durations of a class of experiments
+	 */
+	protected static class ClassModel
+	{
+		/**
+		 * The recorded durations
+		 */
+		protected ArrayList<Observation> m_observations = new ArrayList<Observation>();
+
+		/**
+		 * The number of durations recorded so far, including those that have
+		 * been replaced
+		 */
+		protected int m_count = 0;
+
+		/**
+		 * The number of durations when the regression was last fitted
+		 */
+		private transient int m_fitCount = 0;
+
+		/**
+		 * The parameters used by the regression
+		 */
+		private transient List<String> m_features = null;
+
+		/**
+		 * The coefficients of the regression: the intercept, followed by the
+		 * exponent of each parameter
+		 */
+		private transient double[] m_coefficients = null;
+
+		/**
+		 * The mean of the logarithm of the durations
+		 */
+		private transient double m_meanLog = 0;
+
+		/**
+		 * Adds a duration to the model. The regression is fitted again when the
+		 * number of durations has grown by a quarter since the last fit, so that
+		 * the cost of fitting remains small compared to the number of
+		 * experiments run.
+		 * @param o The duration
+		 * @return {@code true} if the regression has been fitted again,
+		 * {@code false} otherwise
+		 */
+		public boolean add(Observation o)
+		{
+			if (m_observations.size() < MAX_OBSERVATIONS)
+			{
+				m_observations.add(o);
+			}
+			else
+			{
+				m_observations.set(m_count % MAX_OBSERVATIONS, o);
+			}
+			m_count++;
+			if (m_count <= 8 || m_count * 4 >= m_fitCount * 5)
+			{
+				fit();
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Predicts the duration of an experiment
+		 * @param parameters The numeric input parameters of the experiment
+		 * @return The duration, multiplied by the speed of the machine
+		 */
+		public double predict(Map<String,Double> parameters)
+		{
+			if (m_fitCount == 0)
+			{
+				// The model has been deserialized and never fitted
+				fit();
+			}
+			if (m_coefficients == null)
+			{
+				return Math.exp(m_meanLog);
+			}
+			double y = m_coefficients[0];
+			for (int i = 0; i < m_features.size(); i++)
+			{
+				Double x = parameters.get(m_features.get(i));
+				if (x == null || x <= 0)
+				{
+					return Math.exp(m_meanLog);
+				}
+				y += m_coefficients[i + 1] * Math.log(x);
+			}
+			return Math.exp(y);
+		}
+
+		/**
+		 * Fits the regression on the recorded durations
+		 */
+		protected void fit()
+		{
+			m_fitCount = m_count;
+			m_coefficients = null;
+			int n = m_observations.size();
+			double[] y = new double[n];
+			m_meanLog = 0;
+			for (int i = 0; i < n; i++)
+			{
+				y[i] = Math.log(Math.max(m_observations.get(i).m_work, 1e-6));
+				m_meanLog += y[i] / n;
+			}
+			// Keep the parameters that are positive everywhere and vary
+			final Map<String,Double> variances = new HashMap<String,Double>();
+			for (String name : m_observations.get(0).m_parameters.keySet())
+			{
+				double sum = 0, sum_sq = 0;
+				boolean usable = true;
+				for (Observation o : m_observations)
+				{
+					Double x = o.m_parameters.get(name);
+					if (x == null || x <= 0)
+					{
+						usable = false;
+						break;
+					}
+					double lx = Math.log(x);
+					sum += lx;
+					sum_sq += lx * lx;
+				}
+				double variance = sum_sq / n - (sum / n) * (sum / n);
+				if (usable && variance > 1e-9)
+				{
+					variances.put(name, variance);
+				}
+			}
+			List<String> features = new ArrayList<String>(variances.keySet());
+			// With few durations, keep only the parameters that vary the most
+			Collections.sort(features, new Comparator<String>()
+			{
+				@Override
+				public int compare(String s1, String s2)
+				{
+					return Double.compare(variances.get(s2), variances.get(s1));
+				}
+			});
+			while (features.size() > n - 2)
+			{
+				features.remove(features.size() - 1);
+			}
+			if (features.isEmpty())
+			{
+				return;
+			}
+			// Solve the normal equations (X'X + rI) b = X'y
+			int k = features.size() + 1;
+			double[][] a = new double[k][k + 1];
+			double[] x = new double[k];
+			for (int i = 0; i < n; i++)
+			{
+				Map<String,Double> params = m_observations.get(i).m_parameters;
+				x[0] = 1;
+				for (int j = 1; j < k; j++)
+				{
+					x[j] = Math.log(params.get(features.get(j - 1)));
+				}
+				for (int r = 0; r < k; r++)
+				{
+					for (int c = 0; c < k; c++)
+					{
+						a[r][c] += x[r] * x[c];
+					}
+					a[r][k] += x[r] * y[i];
+				}
+			}
+			for (int r = 1; r < k; r++)
+			{
+				a[r][r] += RIDGE * n;
+			}
+			double[] b = solve(a);
+			if (b != null)
+			{
+				m_features = features;
+				m_coefficients = b;
+			}
+		}
+
+		/**
+		 * Solves a system of linear equations by Gaussian elimination
+		 * @param a The augmented matrix of the system, which is modified
+		 * @return The solution, or {@code null} if the system is singular
+		 */
+		protected static double[] solve(double[][] a)
+		{
+			int k = a.length;
+			for (int c = 0; c < k; c++)
+			{
+				int pivot = c;
+				for (int r = c + 1; r < k; r++)
+				{
+					if (Math.abs(a[r][c]) > Math.abs(a[pivot][c]))
+					{
+						pivot = r;
+					}
+				}
+				if (Math.abs(a[pivot][c]) < 1e-12)
+				{
+					return null;
+				}
+				double[] tmp = a[c];
+				a[c] = a[pivot];
+				a[pivot] = tmp;
+				for (int r = 0; r < k; r++)
+				{
+					if (r != c)
+					{
+						double f = a[r][c] / a[c][c];
+						for (int j = c; j <= k; j++)
+						{
+							a[r][j] -= f * a[c][j];
+						}
+					}
+				}
+			}
+			double[] b = new double[k];
+			for (int r = 0; r < k; r++)
+			{
+				b[r] = a[r][k] / a[r][r];
+			}
+			return b;
+		}
+	}
+}
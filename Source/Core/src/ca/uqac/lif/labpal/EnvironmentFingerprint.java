@@ -0,0 +1,340 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Description of the hardware and software environment in which a lab is
+ * run. The fingerprint is collected when the lab starts and saved with it,
+ * so that results obtained on different machines can be told apart. The
+ * settings of the JVM (its arguments and heap size) are compared
+ * separately, as they are chosen for each run rather than imposed by the
+ * machine. On
+ * Linux, hardware information is read from {@code /proc} and {@code /sys};
+ * on other systems, fields that cannot be determined are left empty.
+ *
+ * @author Sylvain Hallé
+ */
+public class EnvironmentFingerprint
+{
+	/**
+	 * The model of the processor
+	 */
+	protected String m_cpuModel = "";
+
+	/**
+	 * The number of processors available to the JVM
+	 */
+	protected int m_cores = 0;
+
+	/**
+	 * The maximum frequency of the processor, in MHz
+	 */
+	protected long m_cpuMaxFrequency = 0;
+
+	/**
+	 * The governor of the processor's frequency scaling
+	 */
+	protected String m_governor = "";
+
+	/**
+	 * The total physical memory, in kB
+	 */
+	protected long m_memory = 0;
+
+	/**
+	 * The name of the operating system
+	 */
+	protected String m_osName = "";
+
+	/**
+	 * The version of the operating system (for Linux, the kernel version)
+	 */
+	protected String m_osVersion = "";
+
+	/**
+	 * The architecture of the machine
+	 */
+	protected String m_arch = "";
+
+	/**
+	 * The vendor of the JVM
+	 */
+	protected String m_jvmVendor = "";
+
+	/**
+	 * The name and version of the JVM
+	 */
+	protected String m_jvmVersion = "";
+
+	/**
+	 * The arguments passed to the JVM
+	 */
+	protected String m_jvmArguments = "";
+
+	/**
+	 * The maximum size of the heap, in bytes
+	 */
+	protected long m_maxHeap = 0;
+
+	/**
+	 * Creates an empty fingerprint. Use {@link #collect()} to obtain the
+	 * fingerprint of the current environment.
+	 */
+	public EnvironmentFingerprint()
+	{
+		super();
+	}
+
+	/**
+	 * Collects the fingerprint of the current environment
+	 * @return The fingerprint
+	 */
+	public static EnvironmentFingerprint collect()
+	{
+		EnvironmentFingerprint f = new EnvironmentFingerprint();
+		f.m_cores = Runtime.getRuntime().availableProcessors();
+		f.m_maxHeap = Runtime.getRuntime().maxMemory();
+		f.m_osName = System.getProperty("os.name", "");
+		f.m_osVersion = System.getProperty("os.version", "");
+		f.m_arch = System.getProperty("os.arch", "");
+		f.m_jvmVendor = System.getProperty("java.vendor", "");
+		f.m_jvmVersion = System.getProperty("java.vm.name", "") + " " + System.getProperty("java.version", "");
+		RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+		StringBuilder args = new StringBuilder();
+		for (String arg : runtime.getInputArguments())
+		{
+			if (args.length() > 0)
+			{
+				args.append(" ");
+			}
+			args.append(arg);
+		}
+		f.m_jvmArguments = args.toString();
+		f.m_cpuModel = readField(new File("/proc/cpuinfo"), "model name");
+		String mem = readField(new File("/proc/meminfo"), "MemTotal");
+		if (!mem.isEmpty())
+		{
+			f.m_memory = parseLong(mem.split("\\s+")[0]);
+		}
+		File cpufreq = new File("/sys/devices/system/cpu/cpu0/cpufreq");
+		f.m_governor = readFile(new File(cpufreq, "scaling_governor"));
+		String max_freq = readFile(new File(cpufreq, "cpuinfo_max_freq"));
+		if (!max_freq.isEmpty())
+		{
+			// The file gives the frequency in kHz
+			f.m_cpuMaxFrequency = parseLong(max_freq) / 1000;
+		}
+		return f;
+	}
+
+	/**
+	 * Reads the value of a field in a file made of lines of the form
+	 * {@code name : value}, such as {@code /proc/cpuinfo}
+	 * @param f The file
+	 * @param name The name of the field
+	 * @return The value of the first occurrence of the field, or the empty
+	 * string if the field or the file does not exist
+	 */
+	protected static String readField(File f, String name)
+	{
+		for (String line : readFile(f).split("\n"))
+		{
+			int colon = line.indexOf(':');
+			if (colon > 0 && line.substring(0, colon).trim().equals(name))
+			{
+				return line.substring(colon + 1).trim();
+			}
+		}
+		return "";
+	}
+
+	/**
+	 * Reads the contents of a file
+	 * @param f The file
+	 * @return The contents, trimmed, or the empty string if the file cannot
+	 * be read
+	 */
+	protected static String readFile(File f)
+	{
+		if (!f.canRead())
+		{
+			return "";
+		}
+		String s = FileHelper.readToString(f);
+		return s == null ? "" : s.trim();
+	}
+
+	/**
+	 * Parses a number, ignoring errors
+	 * @param s The string to parse
+	 * @return The number, or 0 if the string is not a number
+	 */
+	protected static long parseLong(String s)
+	{
+		try
+		{
+			return Long.parseLong(s.trim());
+		}
+		catch (NumberFormatException e)
+		{
+			return 0;
+		}
+	}
+
+	/**
+	 * Compares the hardware and software of this fingerprint with another
+	 * one
+	 * @param f The other fingerprint
+	 * @return A list of descriptions of the differences, such as
+	 * {@code CPU: X vs. Y}. The list is empty if both fingerprints describe
+	 * the same environment.
+	 * @see #getSettingDifferences(EnvironmentFingerprint)
+	 */
+	public List<String> getDifferences(EnvironmentFingerprint f)
+	{
+		List<String> diffs = new ArrayList<String>();
+		compare(diffs, "CPU", m_cpuModel, f.m_cpuModel);
+		compare(diffs, "Processors", m_cores, f.m_cores);
+		compare(diffs, "CPU frequency (MHz)", m_cpuMaxFrequency, f.m_cpuMaxFrequency);
+		compare(diffs, "Frequency governor", m_governor, f.m_governor);
+		compare(diffs, "Memory (kB)", m_memory, f.m_memory);
+		compare(diffs, "OS", m_osName + " " + m_osVersion, f.m_osName + " " + f.m_osVersion);
+		compare(diffs, "Architecture", m_arch, f.m_arch);
+		compare(diffs, "JVM", m_jvmVendor + " " + m_jvmVersion, f.m_jvmVendor + " " + f.m_jvmVersion);
+		return diffs;
+	}
+
+	/**
+	 * Compares the settings of the JVM in this fingerprint with another one
+	 * @param f The other fingerprint
+	 * @return A list of descriptions of the differences, such as
+	 * {@code Maximum heap: X vs. Y}. The list is empty if both JVMs were
+	 * started with the same settings.
+	 */
+	public List<String> getSettingDifferences(EnvironmentFingerprint f)
+	{
+		List<String> diffs = new ArrayList<String>();
+		compare(diffs, "JVM arguments", m_jvmArguments, f.m_jvmArguments);
+		compare(diffs, "Maximum heap", m_maxHeap, f.m_maxHeap);
+		return diffs;
+	}
+
+	/**
+	 * Compares a field of two fingerprints
+	 * @param diffs The list where differences are added
+	 * @param name The name of the field
+	 * @param v1 The value of the field in this fingerprint
+	 * @param v2 The value of the field in the other fingerprint
+	 */
+	protected static void compare(List<String> diffs, String name, Object v1, Object v2)
+	{
+		String s1 = v1 == null ? "" : v1.toString().trim();
+		String s2 = v2 == null ? "" : v2.toString().trim();
+		if (!s1.equals(s2))
+		{
+			diffs.add(name + ": " + s1 + " vs. " + s2);
+		}
+	}
+
+	/**
+	 * Gets the model of the processor
+	 * @return The model, or the empty string if it is unknown
+	 */
+	public String getCpuModel()
+	{
+		return m_cpuModel;
+	}
+
+	/**
+	 * Gets the number of processors available to the JVM
+	 * @return The number of processors
+	 */
+	public int getCores()
+	{
+		return m_cores;
+	}
+
+	/**
+	 * Gets the maximum frequency of the processor
+	 * @return The frequency in MHz, or 0 if it is unknown
+	 */
+	public long getCpuMaxFrequency()
+	{
+		return m_cpuMaxFrequency;
+	}
+
+	/**
+	 * Gets the governor of the processor's frequency scaling
+	 * @return The governor, or the empty string if it is unknown
+	 */
+	public String getGovernor()
+	{
+		return m_governor;
+	}
+
+	/**
+	 * Gets the total physical memory
+	 * @return The memory in kB, or 0 if it is unknown
+	 */
+	public long getMemory()
+	{
+		return m_memory;
+	}
+
+	/**
+	 * Gets the version of the operating system
+	 * @return The version
+	 */
+	public String getOsVersion()
+	{
+		return m_osVersion;
+	}
+
+	/**
+	 * Gets the vendor, name and version of the JVM
+	 * @return The description of the JVM
+	 */
+	public String getJvm()
+	{
+		return m_jvmVendor + " " + m_jvmVersion;
+	}
+
+	/**
+	 * Gets the arguments passed to the JVM
+	 * @return The arguments, separated by spaces
+	 */
+	public String getJvmArguments()
+	{
+		return m_jvmArguments;
+	}
+
+	/**
+	 * Gets the maximum size of the heap
+	 * @return The size in bytes
+	 */
+	public long getMaxHeap()
+	{
+		return m_maxHeap;
+	}
+}
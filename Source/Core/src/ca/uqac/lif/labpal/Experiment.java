@@ -20,6 +20,8 @@ package ca.uqac.lif.labpal;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -32,6 +34,7 @@ import ca.uqac.lif.json.JsonMap;
 import ca.uqac.lif.json.JsonNumber;
 import ca.uqac.lif.json.JsonPath;
 import ca.uqac.lif.json.JsonString;
+import ca.uqac.lif.labpal.probe.ExperimentProbe;
 import ca.uqac.lif.labpal.provenance.ExperimentValue;
 import ca.uqac.lif.petitpoucet.DataOwner;
 import ca.uqac.lif.petitpoucet.NodeFunction;
@@ -47,7 +50,7 @@ public abstract class Experiment implements Runnable, DataOwner {
 	 * The status of the experiment
 	 */
 	public static enum Status {
-		DUNNO, PREREQ_NOK, PREREQ_OK, PREREQ_F, RUNNING, DONE, DONE_WARNING, FAILED, TIMEOUT, INTERRUPTED, RUNNING_REMOTELY
+		DUNNO, PREREQ_NOK, PREREQ_OK, PREREQ_F, RUNNING, DONE, DONE_WARNING, FAILED, TIMEOUT, INTERRUPTED, RUNNING_REMOTELY, SKIPPED
 	};
 
 	/**
@@ -99,6 +102,128 @@ public abstract class Experiment implements Runnable, DataOwner {
 	 */
 	private long m_maxDuration = -1;
 
+	/**
+	 * The maximum processor time for this experiment (in milliseconds). If the
+	 * thread running the experiment uses more processor time than this value,
+	 * the lab assistant can interrupt it. A negative value indicates that no
+	 * such limit applies.
+	 */
+	private long m_maxCpuTime = -1;
+
+	/**
+	 * The number of processor cores this experiment uses when running
+	 */
+	private transient int m_cores = 1;
+
+	/**
+	 * The amount of heap memory (in bytes) this experiment is expected to
+	 * use when running. A value of 0 indicates that no estimate is given.
+	 */
+	private transient long m_expectedHeap = 0;
+
+	/**
+	 * Whether this experiment must run alone, i.e. without any other
+	 * experiment running at the same time
+	 */
+	private transient boolean m_exclusive = false;
+
+	/**
+	 * The priority of this experiment, used by
+	 * {@link SchedulingPolicy.Priority}
+	 */
+	private transient int m_priority = 0;
+
+	/**
+	 * The experiments whose results this experiment uses
+	 */
+	private transient List<Experiment> m_dependencies = new ArrayList<Experiment>();
+
+	/**
+	 * The options passed to the JVM when this experiment is run in a
+	 * separate JVM
+	 */
+	private transient List<String> m_jvmOptions = new ArrayList<String>(0);
+
+	/**
+	 * The number of times the experiment is executed (not counting warmup
+	 * runs), or the minimum number of times in adaptive mode
+	 */
+	private transient int m_repetitions = 1;
+
+	/**
+	 * The number of runs executed before the measured ones, and whose results
+	 * are discarded
+	 */
+	private transient int m_warmup = 0;
+
+	/**
+	 * In adaptive mode, the half-width of the 95% confidence interval,
+	 * relative to the mean, under which the experiment stops repeating. A
+	 * non-positive value disables adaptive mode.
+	 */
+	private transient double m_targetPrecision = -1;
+
+	/**
+	 * In adaptive mode, the maximum time (in milliseconds) spent repeating
+	 * the experiment
+	 */
+	private transient long m_maxRepetitionTime = -1;
+
+	/**
+	 * The output parameters whose values are collected over repeated runs
+	 */
+	private transient List<String> m_sampledKeys = new ArrayList<String>(0);
+
+	/**
+	 * The maximum number of executions discarded because the JVM interfered
+	 * with them, or -1 if interference is not detected
+	 */
+	private transient int m_maxReruns = -1;
+
+	/**
+	 * The name of the output parameter containing the number of executions
+	 * discarded because the JVM interfered with them
+	 */
+	public static final String DISCARDED_RUNS = "discarded_runs";
+
+	/**
+	 * The name of the output parameter containing the duration of each phase
+	 * of the experiment
+	 */
+	public static final String PHASES = "phases";
+
+	/**
+	 * The character separating the name of a nested phase from the name of
+	 * its parent
+	 */
+	public static final String PHASE_SEPARATOR = ":";
+
+	/**
+	 * The name of the phase where the experiment fulfills its prerequisites
+	 */
+	public static final String PHASE_PREREQUISITES = "prerequisites";
+
+	/**
+	 * The name of the phase where the experiment is executed
+	 */
+	public static final String PHASE_EXECUTE = "execute";
+
+	/**
+	 * The name of the phase where the experiment is validated
+	 */
+	public static final String PHASE_VALIDATE = "validate";
+
+	/**
+	 * The full names of the phases currently started, from the outermost to
+	 * the innermost
+	 */
+	private final transient List<String> m_phaseNames = new ArrayList<String>();
+
+	/**
+	 * The times at which the phases currently started began, in nanoseconds
+	 */
+	private final transient List<Long> m_phaseStarts = new ArrayList<Long>();
+
 	/**
 	 * A list of exceptions that the experiment does not throw, but rather adds to a
 	 * list
@@ -120,6 +245,12 @@ public abstract class Experiment implements Runnable, DataOwner {
 	 */
 	private long m_endTime = -1;
 
+	/**
+	 * The time at which the last execution of the experiment returned,
+	 * before the probes of the lab are stopped
+	 */
+	private transient long m_executionEnd = -1;
+
 	/**
 	 * An approximate measurement of the experiment's progression
 	 */
@@ -145,6 +276,17 @@ public abstract class Experiment implements Runnable, DataOwner {
 	 */
 	transient ca.uqac.lif.labpal.Random m_random;
 
+	/**
+	 * The lab this experiment belongs to
+	 */
+	transient Laboratory m_lab;
+
+	/**
+	 * A lock preventing the prerequisites from being fulfilled by two
+	 * threads at the same time
+	 */
+	private final transient Object m_prepareLock = new Object();
+
 	/**
 	 * A flag to signal the experiment to stop
 	 */
@@ -731,13 +873,26 @@ public abstract class Experiment implements Runnable, DataOwner {
 		return m_status;
 	}
 
-	@Override
-	public final void run() {
-		m_running = true;
-		m_startTime = System.currentTimeMillis();
-		if (!prerequisitesFulfilled()) {
+	/**
+	 * Fulfills the prerequisites of this experiment, if they are not already
+	 * fulfilled. This method can be called by a lab assistant ahead of the
+	 * execution of the experiment. If it is called by several threads at the
+	 * same time, only one of them fulfills the prerequisites, and the others
+	 * wait until it is done.
+	 * 
+	 * @return {@code true} if the prerequisites are fulfilled, {@code false} if
+	 *         they could not be fulfilled; in such a case, the status of the
+	 *         experiment is set to {@link Status#PREREQ_F PREREQ_F}
+	 */
+	public final boolean prepare() {
+		synchronized (m_prepareLock) {
+			if (prerequisitesFulfilled()) {
+				return true;
+			}
+			long start = System.nanoTime();
 			try {
 				fulfillPrerequisites();
+				setPhaseDuration(PHASE_PREREQUISITES, System.nanoTime() - start);
 			} catch (Exception e) {
 				// If the call throws anything, we consider it a failure
 				m_status = Status.PREREQ_F;
@@ -745,36 +900,410 @@ public abstract class Experiment implements Runnable, DataOwner {
 				PrintWriter pw = new PrintWriter(sw);
 				e.printStackTrace(pw);
 				setErrorMessage(sw.toString());
-				return;
+				return false;
 			}
+			return true;
+		}
+	}
+
+	@Override
+	public final void run() {
+		m_running = true;
+		m_startTime = System.currentTimeMillis();
+		m_executionEnd = -1;
+		clearPhases();
+		if (!prepare()) {
+			return;
 		}
 		m_status = Status.PREREQ_OK;
 		m_status = Status.RUNNING;
 		try {
-			execute();
-			m_status = Status.DONE;
-			if (m_status != Status.INTERRUPTED) {
-				// The interrupt() method may have already changed the
-				// experiment's status. If so, we don't overwrite it with
-				// DONE
-				m_status = Status.DONE;
+			executeProbed();
+			// The interrupt() or kill() methods may have already changed the
+			// experiment's status. If so, we don't overwrite it with DONE
+			if (!setEndStatus(Status.DONE)) {
+				m_running = false;
+				return;
 			}
 		} catch (Exception e) {
 			// If the experiment throws anything, we consider it a failure
-			m_status = Status.FAILED;
+			if (!setEndStatus(Status.FAILED)) {
+				// The exception is most likely caused by the interruption
+				m_running = false;
+				return;
+			}
 			StringWriter sw = new StringWriter();
 			PrintWriter pw = new PrintWriter(sw);
 			e.printStackTrace(pw);
 			setErrorMessage(sw.toString());
 		}
-		m_endTime = System.currentTimeMillis();
+		long start = System.nanoTime();
 		validate();
+		addPhaseDuration(PHASE_VALIDATE, System.nanoTime() - start);
 		if (hasWarnings() && m_status == Status.DONE) {
 			m_status = Status.DONE_WARNING;
 		}
 		m_running = false;
 	}
 
+	/**
+	 * Starts timing a phase of the experiment. A phase started while another
+	 * one is running is nested in it: its full name is the name of the
+	 * enclosing phase, followed by {@link #PHASE_SEPARATOR} and its own name.
+	 * The duration of each phase is written in milliseconds in the output
+	 * parameter {@link #PHASES}, where tables can read it with a path such as
+	 * {@code phases.load}. If a phase is timed more than once in the same run,
+	 * for example in a loop or in repeated executions, its durations are
+	 * added.
+	 * <p>
+	 * The lab times the phases {@link #PHASE_PREREQUISITES},
+	 * {@link #PHASE_EXECUTE} and {@link #PHASE_VALIDATE} by itself; phases
+	 * started by the experiment are not nested in them.
+	 * 
+	 * @param name
+	 *            The name of the phase
+	 * @return This experiment
+	 */
+	public final Experiment startPhase(String name) {
+		synchronized (m_phaseNames) {
+			int depth = m_phaseNames.size();
+			m_phaseNames.add(depth == 0 ? name : m_phaseNames.get(depth - 1) + PHASE_SEPARATOR + name);
+			m_phaseStarts.add(System.nanoTime());
+		}
+		return this;
+	}
+
+	/**
+	 * Stops timing the innermost phase started with {@link #startPhase(String)}
+	 * 
+	 * @return The duration of the phase, in nanoseconds
+	 */
+	public final long stopPhase() {
+		long end = System.nanoTime();
+		synchronized (m_phaseNames) {
+			int depth = m_phaseNames.size();
+			if (depth == 0) {
+				throw new IllegalStateException("No phase has been started");
+			}
+			String name = m_phaseNames.remove(depth - 1);
+			long duration = end - m_phaseStarts.remove(depth - 1);
+			addPhaseDuration(name, duration);
+			return duration;
+		}
+	}
+
+	/**
+	 * Gets the duration of the phases of the last run of the experiment
+	 * 
+	 * @return A map from the full name of each phase to its duration, in
+	 *         milliseconds
+	 */
+	public final Map<String, Double> getPhaseDurations() {
+		Map<String, Double> durations = new HashMap<String, Double>();
+		synchronized (m_phaseNames) {
+			JsonElement phases = m_outputParameters.get(PHASES);
+			if (phases instanceof JsonMap) {
+				for (Map.Entry<String, JsonElement> entry : ((JsonMap) phases).entrySet()) {
+					if (entry.getValue() instanceof JsonNumber) {
+						durations.put(entry.getKey(), ((JsonNumber) entry.getValue()).numberValue().doubleValue());
+					}
+				}
+			}
+		}
+		return durations;
+	}
+
+	/**
+	 * Adds time to the duration of a phase
+	 * 
+	 * @param name
+	 *            The full name of the phase
+	 * @param nanos
+	 *            The time to add, in nanoseconds
+	 */
+	private void addPhaseDuration(String name, long nanos) {
+		synchronized (m_phaseNames) {
+			JsonMap phases = getPhaseMap();
+			double ms = nanos / 1e6;
+			JsonElement previous = phases.get(name);
+			if (previous instanceof JsonNumber) {
+				ms += ((JsonNumber) previous).numberValue().doubleValue();
+			}
+			phases.put(name, ms);
+		}
+	}
+
+	/**
+	 * Sets the duration of a phase
+	 * 
+	 * @param name
+	 *            The full name of the phase
+	 * @param nanos
+	 *            The duration, in nanoseconds
+	 */
+	private void setPhaseDuration(String name, long nanos) {
+		synchronized (m_phaseNames) {
+			getPhaseMap().put(name, nanos / 1e6);
+		}
+	}
+
+	/**
+	 * Gets the map of phase durations in the output parameters, creating it
+	 * if necessary
+	 * 
+	 * @return The map
+	 */
+	private JsonMap getPhaseMap() {
+		JsonElement phases = m_outputParameters.get(PHASES);
+		if (!(phases instanceof JsonMap)) {
+			phases = new JsonMap();
+			m_outputParameters.put(PHASES, phases);
+		}
+		return (JsonMap) phases;
+	}
+
+	/**
+	 * Forgets the durations of the phases of a previous run. The duration of
+	 * the prerequisites is kept, since they may have been fulfilled ahead of
+	 * the run.
+	 */
+	private void clearPhases() {
+		synchronized (m_phaseNames) {
+			m_phaseNames.clear();
+			m_phaseStarts.clear();
+			JsonElement phases = m_outputParameters.get(PHASES);
+			if (phases instanceof JsonMap) {
+				((JsonMap) phases).keySet().retainAll(Collections.singleton(PHASE_PREREQUISITES));
+			}
+		}
+	}
+
+	/**
+	 * Executes the experiment, and records the measurements of the probes of
+	 * the lab it belongs to
+	 * 
+	 * @throws Exception
+	 *             Any exception thrown by {@link #execute()}
+	 */
+	private void executeProbed() throws Exception {
+		List<ExperimentProbe.Measurement> measurements = new ArrayList<ExperimentProbe.Measurement>();
+		if (m_lab != null) {
+			for (ExperimentProbe probe : m_lab.getProbes()) {
+				try {
+					ExperimentProbe.Measurement m = probe.start(this);
+					if (m != null) {
+						measurements.add(m);
+					}
+				} catch (RuntimeException ex) {
+					addWarning("Probe " + probe.getClass().getSimpleName() + " could not start: " + ex);
+				}
+			}
+		}
+		// Time the execution only, and not the work of the probes
+		long start = System.nanoTime();
+		try {
+			executeRepeatedly();
+		} finally {
+			addPhaseDuration(PHASE_EXECUTE, System.nanoTime() - start);
+			m_executionEnd = System.currentTimeMillis();
+			// Stop the probes in reverse order, so that each one measures as
+			// little as possible of the others
+			for (int i = measurements.size() - 1; i >= 0; i--) {
+				try {
+					measurements.get(i).stop(this);
+				} catch (RuntimeException ex) {
+					addWarning("A probe could not record its measurement: " + ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Executes the experiment as many times as specified by
+	 * {@link #setRepetitions(int, int)} and
+	 * {@link #setAdaptiveRepetitions(double, long)}, and computes statistics on
+	 * the values of the parameters declared with {@link #sample(String...)}
+	 * 
+	 * @throws Exception
+	 *             Any exception thrown by {@link #execute()}
+	 */
+	private void executeRepeatedly() throws Exception {
+		if (m_sampledKeys.isEmpty() && m_repetitions == 1 && m_warmup == 0 && m_maxReruns < 0) {
+			execute();
+			return;
+		}
+		for (int i = 0; i < m_warmup && m_running; i++) {
+			execute();
+		}
+		Map<String, Statistics> stats = new HashMap<String, Statistics>();
+		for (String key : m_sampledKeys) {
+			stats.put(key, new Statistics());
+		}
+		long start = System.currentTimeMillis();
+		int runs = 0;
+		int discarded = 0, affected = 0;
+		String last_interference = null;
+		InterferenceMonitor monitor = m_maxReruns >= 0 ? new InterferenceMonitor() : null;
+		while (m_running) {
+			String interference = null;
+			if (monitor != null) {
+				monitor.start();
+				try {
+					execute();
+				} finally {
+					interference = monitor.stop();
+				}
+			} else {
+				execute();
+			}
+			if (interference != null) {
+				if (discarded < m_maxReruns && m_running) {
+					discarded++;
+					continue;
+				}
+				affected++;
+				last_interference = interference;
+			}
+			runs++;
+			for (String key : m_sampledKeys) {
+				JsonElement value = m_outputParameters.get(key);
+				if (value instanceof JsonNumber) {
+					stats.get(key).add(((JsonNumber) value).numberValue().doubleValue());
+				}
+			}
+			if (runs < m_repetitions || !m_running) {
+				continue;
+			}
+			if (m_targetPrecision <= 0 || System.currentTimeMillis() - start >= m_maxRepetitionTime
+					|| isPrecise(stats)) {
+				break;
+			}
+		}
+		for (String key : m_sampledKeys) {
+			writeStatistics(key, stats.get(key));
+		}
+		if (monitor != null) {
+			write(DISCARDED_RUNS, discarded);
+		}
+		if (affected > 0) {
+			addWarning(affected + " run(s) may be distorted by the JVM, for example by " + last_interference);
+		}
+	}
+
+	/**
+	 * Times a short operation with a microbenchmark using the default
+	 * settings, and writes the results in output parameters
+	 * 
+	 * @param key
+	 *            The name of the parameter
+	 * @param op
+	 *            The operation
+	 * @return The time per call of each timed batch, in nanoseconds
+	 * @throws Exception
+	 *             Any exception thrown by the operation
+	 * @see #measure(String, Microbenchmark, Microbenchmark.Operation)
+	 */
+	protected final Statistics measure(String key, Microbenchmark.Operation op) throws Exception {
+		return measure(key, new Microbenchmark(), op);
+	}
+
+	/**
+	 * Times a short operation with a microbenchmark, and writes the results
+	 * in output parameters. The parameter {@code key} holds the mean time per
+	 * call, in nanoseconds, and statistics on this time are written under the
+	 * same suffixed names as for a parameter declared with
+	 * {@link #sample(String...)}. In addition, {@code key_ops} holds the
+	 * number of calls per second, and {@code key_iterations} the number of
+	 * calls in each timed batch.
+	 * 
+	 * @param key
+	 *            The name of the parameter
+	 * @param mb
+	 *            The microbenchmark
+	 * @param op
+	 *            The operation
+	 * @return The time per call of each timed batch, in nanoseconds
+	 * @throws Exception
+	 *             Any exception thrown by the operation
+	 */
+	protected final Statistics measure(String key, Microbenchmark mb, Microbenchmark.Operation op)
+			throws Exception {
+		Statistics st = mb.run(op);
+		writeStatistics(key, st);
+		write(key + "_ops", 1e9 / st.getMean());
+		write(key + "_iterations", mb.getIterations());
+		if (!mb.isSteady()) {
+			addWarning("The execution time of " + key + " did not become steady during warmup");
+		}
+		return st;
+	}
+
+	/**
+	 * Checks if the confidence intervals of all the sampled parameters are
+	 * narrow enough to stop repeating the experiment
+	 * 
+	 * @param stats
+	 *            The values collected for each parameter
+	 * @return {@code true} if the target precision is reached
+	 */
+	private boolean isPrecise(Map<String, Statistics> stats) {
+		for (Statistics st : stats.values()) {
+			if (st.getCount() > 0 && st.getRelativeHalfWidth() > m_targetPrecision) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the statistics computed on a sampled parameter
+	 * 
+	 * @param key
+	 *            The name of the parameter
+	 * @param st
+	 *            The values collected for this parameter
+	 * @see #sample(String...)
+	 */
+	private void writeStatistics(String key, Statistics st) {
+		if (st.getCount() == 0) {
+			return;
+		}
+		double mean = st.getMean();
+		write(key, mean);
+		write(key + "_mean", mean);
+		write(key + "_median", st.getMedian());
+		write(key + "_stddev", st.getStandardDeviation());
+		write(key + "_min", st.getMin());
+		write(key + "_max", st.getMax());
+		if (st.getCount() >= 2) {
+			// With a single value, the interval is not defined
+			write(key + "_ci", st.getConfidenceHalfWidth());
+		}
+		write(key + "_n", st.getCount());
+		JsonList samples = new JsonList();
+		for (double x : st.getSamples()) {
+			samples.add(new JsonNumber(x));
+		}
+		write(key + "_samples", samples);
+	}
+
+	/**
+	 * Sets the status of the experiment once its execution is over, unless it
+	 * has been interrupted or killed in the meantime
+	 * 
+	 * @param s The status
+	 * @return {@code true} if the status has been set, {@code false} if the
+	 *         experiment had been interrupted or killed
+	 */
+	private synchronized boolean setEndStatus(Status s) {
+		if (m_status == Status.INTERRUPTED || m_status == Status.TIMEOUT) {
+			return false;
+		}
+		m_status = s;
+		m_endTime = m_executionEnd > 0 ? m_executionEnd : System.currentTimeMillis();
+		return true;
+	}
+
 	/**
 	 * Checks if the experiment is supposed to run
 	 * 
@@ -959,7 +1488,7 @@ public abstract class Experiment implements Runnable, DataOwner {
 	 * 
 	 * @return This experiment
 	 */
-	public final Experiment interrupt() {
+	public final synchronized Experiment interrupt() {
 		m_running = false;
 		m_status = Status.INTERRUPTED;
 		m_errorMessage = "The experiment was manually interrupted";
@@ -986,6 +1515,55 @@ public abstract class Experiment implements Runnable, DataOwner {
 		return m_random;
 	}
 
+	/**
+	 * Gets the fixtures used by this experiment. Experiments sharing costly
+	 * objects, such as input data sets, should override this method and
+	 * obtain these objects with {@link #getFixture(Fixture)}. By default, an
+	 * experiment has no fixture.
+	 * <p>
+	 * Since the lab and its assistant call this method at various moments,
+	 * it should be cheap to evaluate, and return fixtures with the same keys
+	 * every time.
+	 * 
+	 * @return The collection of fixtures
+	 */
+	public Collection<Fixture<?>> getFixtures() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Gets the object produced by a fixture. If the experiment belongs to a
+	 * lab, the object is created only once and shared by all the experiments
+	 * of the lab that use the same fixture; such experiments should not
+	 * modify it.
+	 * 
+	 * @param f
+	 *            The fixture
+	 * @return The object
+	 * @throws ExperimentException
+	 *             If the object cannot be created
+	 */
+	protected final <T> T getFixture(Fixture<T> f) throws ExperimentException {
+		if (m_lab == null) {
+			return f.create();
+		}
+		return m_lab.getFixtureManager().get(f);
+	}
+
+	/**
+	 * Gets the cache where this experiment can store the data it generates as
+	 * its prerequisites. This is the cache of the lab the experiment belongs
+	 * to, or a cache in the default directory if it does not belong to a lab.
+	 * 
+	 * @return The cache
+	 */
+	protected final PrerequisiteCache getPrerequisiteCache() {
+		if (m_lab == null) {
+			return new PrerequisiteCache();
+		}
+		return m_lab.getPrerequisiteCache();
+	}
+
 	/**
 	 * Sets the current progression of the execution of the experiment
 	 * 
@@ -1040,16 +1618,419 @@ public abstract class Experiment implements Runnable, DataOwner {
 	}
 
 	/**
-	 * Interrupts the current experiment
+	 * Gets the maximum processor time for this experiment
+	 * 
+	 * @return The time, in milliseconds
+	 */
+	public final long getMaxCpuTime() {
+		return m_maxCpuTime;
+	}
+
+	/**
+	 * Sets the maximum processor time for this experiment. Contrary to
+	 * {@link #setMaxDuration(long)}, this limit only counts the time the
+	 * thread running the experiment actually spends on a processor; time
+	 * spent waiting, or waiting for other experiments running at the same
+	 * time, is not counted.
+	 * 
+	 * @param time The time, in milliseconds. A negative value indicates that no
+	 *         limit applies.
+	 * @return This experiment
+	 */
+	public final Experiment setMaxCpuTime(long time) {
+		m_maxCpuTime = time;
+		return this;
+	}
+
+	/**
+	 * Gets the number of processor cores this experiment uses when running
+	 * 
+	 * @return The number of cores
+	 */
+	public final int getCores() {
+		return m_cores;
+	}
+
+	/**
+	 * Declares the number of processor cores this experiment uses when
+	 * running. Lab assistants that run multiple experiments at the same time
+	 * may use this value to avoid oversubscribing the machine.
+	 * 
+	 * @param cores
+	 *            The number of cores. Values lower than 1 are replaced by 1.
+	 * @return This experiment
+	 */
+	public final Experiment setCores(int cores) {
+		m_cores = Math.max(1, cores);
+		return this;
+	}
+
+	/**
+	 * Gets the amount of heap memory this experiment is expected to use
+	 * 
+	 * @return The amount of memory, in bytes; 0 if no estimate is given
+	 */
+	public final long getExpectedHeap() {
+		return m_expectedHeap;
+	}
+
+	/**
+	 * Declares the amount of heap memory this experiment is expected to use
+	 * when running
+	 * 
+	 * @param bytes
+	 *            The amount of memory, in bytes
+	 * @return This experiment
+	 */
+	public final Experiment setExpectedHeap(long bytes) {
+		m_expectedHeap = Math.max(0, bytes);
+		return this;
+	}
+
+	/**
+	 * Sets the number of times the experiment is executed each time it is
+	 * run. The values of the parameters declared with {@link #sample(String...)}
+	 * are collected after each execution, and statistics on these values are
+	 * written once all the executions are over.
+	 * 
+	 * @param runs
+	 *            The number of executions whose results are kept
+	 * @param warmup
+	 *            The number of executions done before, and whose results are
+	 *            discarded
+	 * @return This experiment
+	 */
+	public final Experiment setRepetitions(int runs, int warmup) {
+		m_repetitions = Math.max(1, runs);
+		m_warmup = Math.max(0, warmup);
+		return this;
+	}
+
+	/**
+	 * Gets the number of times the experiment is executed each time it is
+	 * run, not counting warmup runs
+	 * 
+	 * @return The number of executions, or the minimum number of executions
+	 *         in adaptive mode
+	 */
+	public final int getRepetitions() {
+		return m_repetitions;
+	}
+
+	/**
+	 * Gets the number of executions done before the measured ones
+	 * 
+	 * @return The number of executions
+	 */
+	public final int getWarmup() {
+		return m_warmup;
+	}
+
+	/**
+	 * Makes the experiment repeat its executions until the 95% confidence
+	 * interval of all the sampled parameters is narrow enough, or a time limit
+	 * is reached. The experiment is executed at least the number of times
+	 * given to {@link #setRepetitions(int, int)}.
+	 * 
+	 * @param precision
+	 *            The half-width of the confidence interval, relative to the
+	 *            mean (e.g. 0.02 for 2%). A non-positive value disables
+	 *            adaptive mode.
+	 * @param max_time
+	 *            The maximum time spent repeating the executions, in
+	 *            milliseconds
+	 * @return This experiment
+	 */
+	public final Experiment setAdaptiveRepetitions(double precision, long max_time) {
+		if (precision > 0 && max_time <= 0) {
+			throw new IllegalArgumentException("Adaptive repetitions require a time limit");
+		}
+		m_targetPrecision = precision;
+		m_maxRepetitionTime = max_time;
+		return this;
+	}
+
+	/**
+	 * Makes the experiment detect executions affected by a major garbage
+	 * collection, a long collection pause or a burst of JIT compilation (see
+	 * {@link InterferenceMonitor}). Such executions are discarded and done
+	 * again, up to a limit; if the limit is reached, the results of the last
+	 * affected executions are kept and the experiment ends with a warning.
+	 * The number of discarded executions is written in the output parameter
+	 * {@link #DISCARDED_RUNS}. The activity is that of the whole JVM: when
+	 * experiments run in parallel, an execution can be discarded because of
+	 * the activity caused by another one.
+	 * 
+	 * @param max_reruns
+	 *            The maximum number of executions to discard. Use 0 to only
+	 *            warn about affected executions, and a negative value to
+	 *            disable detection.
+	 * @return This experiment
+	 */
+	public final Experiment detectInterference(int max_reruns) {
+		m_maxReruns = max_reruns < 0 ? -1 : max_reruns;
+		if (m_maxReruns >= 0) {
+			describe(DISCARDED_RUNS, "Number of runs discarded because of GC or JIT activity");
+		}
+		return this;
+	}
+
+	/**
+	 * Gets the maximum number of executions discarded because the JVM
+	 * interfered with them
+	 * 
+	 * @return The number of executions, or -1 if interference is not
+	 *         detected
+	 */
+	public final int getMaxReruns() {
+		return m_maxReruns;
+	}
+
+	/**
+	 * Declares output parameters whose values are collected over repeated
+	 * executions of the experiment. These parameters must be numbers written
+	 * by {@link #execute()}. Once all the executions are over, each of them
+	 * holds the mean of its values, and statistics on these values are
+	 * written under the parameter's name followed by a suffix: {@code _mean},
+	 * {@code _median}, {@code _stddev}, {@code _min}, {@code _max}, {@code _ci}
+	 * (half-width of the 95% confidence interval, omitted if there is a
+	 * single run), {@code _n} (number of runs) and {@code _samples} (the values of all the runs).
+	 * 
+	 * @param keys
+	 *            The names of the parameters
+	 * @return This experiment
+	 */
+	public final Experiment sample(String... keys) {
+		for (String key : keys) {
+			if (!m_sampledKeys.contains(key)) {
+				m_sampledKeys.add(key);
+				String desc = getDescription(key);
+				if (!desc.isEmpty()) {
+					describe(key + "_stddev", desc + " (standard deviation)");
+					describe(key + "_ci", desc + " (half-width of the 95% confidence interval)");
+					describe(key + "_n", "Number of runs for " + key);
+				}
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Gets the priority of this experiment
+	 * 
+	 * @return The priority
+	 */
+	public final int getPriority() {
+		return m_priority;
+	}
+
+	/**
+	 * Sets the priority of this experiment. Lab assistants using the
+	 * {@link SchedulingPolicy.Priority} policy start the experiments with the
+	 * highest priority first; other policies ignore this value.
+	 * 
+	 * @param priority
+	 *            The priority. The default value is 0.
+	 * @return This experiment
+	 */
+	public final Experiment setPriority(int priority) {
+		m_priority = priority;
+		return this;
+	}
+
+	/**
+	 * Declares that this experiment uses the results of other experiments.
+	 * Lab assistants start an experiment only once the experiments it
+	 * depends on are done; when they put an experiment in their queue, they
+	 * also queue the experiments it depends on. If one of these experiments
+	 * fails, this experiment is not run, and its status becomes
+	 * {@link Status#SKIPPED SKIPPED}. Dependencies are typically declared in
+	 * the lab's {@code setup()} method.
+	 * <p>
+	 * When experiments run in separate JVMs, an experiment cannot read the
+	 * output parameters of the experiments it depends on; they must exchange
+	 * their results through files.
+	 * 
+	 * @param experiments
+	 *            The experiments this experiment depends on
+	 * @return This experiment
+	 * @throws IllegalArgumentException
+	 *             If one of the experiments depends, directly or not, on this
+	 *             experiment
+	 */
+	public final Experiment addDependency(Experiment... experiments) {
+		for (Experiment e : experiments) {
+			if (e == this || e.dependsOn(this)) {
+				throw new IllegalArgumentException("Experiment " + getId() + " cannot depend on experiment " + e.getId()
+						+ ", which would create a cycle");
+			}
+			if (!m_dependencies.contains(e)) {
+				m_dependencies.add(e);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Gets the experiments this experiment directly depends on
+	 * 
+	 * @return The list of experiments
+	 */
+	public final List<Experiment> getDependencies() {
+		return Collections.unmodifiableList(m_dependencies);
+	}
+
+	/**
+	 * Checks if this experiment depends on another one, directly or through
+	 * other experiments
+	 * 
+	 * @param e
+	 *            The other experiment
+	 * @return {@code true} if this experiment depends on {@code e},
+	 *         {@code false} otherwise
+	 */
+	public final boolean dependsOn(Experiment e) {
+		Set<Experiment> visited = new HashSet<Experiment>();
+		List<Experiment> to_visit = new ArrayList<Experiment>(m_dependencies);
+		while (!to_visit.isEmpty()) {
+			Experiment d = to_visit.remove(to_visit.size() - 1);
+			if (d == e) {
+				return true;
+			}
+			if (visited.add(d)) {
+				to_visit.addAll(d.m_dependencies);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Marks this experiment as not run because one of the experiments it
+	 * depends on did not complete
+	 * 
+	 * @param cause
+	 *            The experiment that did not complete
+	 */
+	synchronized void skip(Experiment cause) {
+		m_status = Status.SKIPPED;
+		m_queueStatus = QueueStatus.NOT_QUEUED;
+		m_errorMessage = "The experiment was not run, since experiment " + cause.getId()
+				+ ", on which it depends, did not complete";
+	}
+
+	/**
+	 * Checks if this experiment must run alone
+	 * 
+	 * @return {@code true} if the experiment must run alone, {@code false} if
+	 *         it can share the machine with other experiments
+	 */
+	public final boolean isExclusive() {
+		return m_exclusive;
+	}
+
+	/**
+	 * Declares whether this experiment must run alone. This should be the
+	 * case of experiments that measure running times or other quantities that
+	 * can be affected by experiments running at the same time.
+	 * 
+	 * @param b
+	 *            Set to {@code true} to make the experiment exclusive,
+	 *            {@code false} to let it share the machine with others
+	 * @return This experiment
+	 */
+	public final Experiment setExclusive(boolean b) {
+		m_exclusive = b;
+		return this;
+	}
+
+	/**
+	 * Gets the options passed to the JVM when this experiment is run in a
+	 * separate JVM
+	 * 
+	 * @return The list of options
+	 */
+	public final List<String> getJvmOptions() {
+		return m_jvmOptions;
+	}
+
+	/**
+	 * Sets the options passed to the JVM when this experiment is run in a
+	 * separate JVM by a {@link ForkedAssistant}. These options are added after
+	 * those of the assistant, and hence take precedence over them. Other lab
+	 * assistants ignore these options.
+	 * 
+	 * @param options
+	 *            The options, such as {@code -Xmx2g} or {@code -XX:+UseG1GC}
+	 * @return This experiment
+	 */
+	public final Experiment setJvmOptions(String ... options) {
+		m_jvmOptions = new ArrayList<String>(options.length);
+		for (String o : options) {
+			m_jvmOptions.add(o);
+		}
+		return this;
+	}
+
+	/**
+	 * Marks this experiment as being run outside of the current JVM
+	 */
+	synchronized void startRemotely() {
+		m_status = Status.RUNNING_REMOTELY;
+		m_startTime = System.currentTimeMillis();
+		m_endTime = -1;
+		m_errorMessage = "";
+	}
+
+	/**
+	 * Marks this experiment as failed for a reason external to the experiment
+	 * itself, unless it has been interrupted or killed in the meantime
+	 * 
+	 * @param message
+	 *            The error message
+	 */
+	void fail(String message) {
+		if (setEndStatus(Status.FAILED)) {
+			setErrorMessage(message);
+		}
+	}
+
+	/**
+	 * Interrupts the current experiment because it is taking too long. An
+	 * experiment that has already ended is left as it is.
 	 * 
 	 * @return This experiment
 	 */
 	public final Experiment kill() {
+		timeOut();
+		return this;
+	}
+
+	/**
+	 * Marks the experiment as timed out, unless it has already ended. The
+	 * check and the change are done under the experiment's lock, so that an
+	 * experiment that finishes just as its deadline passes keeps its status.
+	 * 
+	 * @return {@code true} if the experiment has been marked as timed out,
+	 *         {@code false} if it had already ended
+	 */
+	synchronized boolean timeOut() {
+		switch (m_status) {
+		case DONE:
+		case DONE_WARNING:
+		case FAILED:
+		case PREREQ_F:
+		case TIMEOUT:
+		case INTERRUPTED:
+		case SKIPPED:
+			return false;
+		default:
+			break;
+		}
 		m_running = false;
 		m_status = Status.TIMEOUT;
 		m_errorMessage = "The experiment was interrupted by the lab assistant because it was taking too long";
 		m_endTime = System.currentTimeMillis();
-		return this;
+		return true;
 	}
 
 	/**
@@ -1155,6 +2136,27 @@ public abstract class Experiment implements Runnable, DataOwner {
 		return true;
 	}
 
+	/**
+	 * Replaces the input parameters and the state of this experiment by those
+	 * of another instance of the same experiment, read from a file. The
+	 * settings of this experiment that are not serialized are kept.
+	 * 
+	 * @param e
+	 *            The other instance
+	 */
+	synchronized void restoreFrom(Experiment e) {
+		m_inputParameters = e.m_inputParameters;
+		m_outputParameters = e.m_outputParameters;
+		m_status = e.m_status;
+		m_queueStatus = e.m_queueStatus;
+		m_warnings = e.m_warnings;
+		m_progression = e.m_progression;
+		m_errorMessage = e.m_errorMessage;
+		m_startTime = e.m_startTime;
+		m_endTime = e.m_endTime;
+		m_runBy = e.m_runBy;
+	}
+
 	/**
 	 * Checks if a parameter is an input parameter
 	 * 
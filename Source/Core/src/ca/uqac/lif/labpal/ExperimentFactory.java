@@ -18,6 +18,8 @@
 package ca.uqac.lif.labpal;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Factory object that creates instances of experiments based on regions,
@@ -47,6 +49,12 @@ public abstract class ExperimentFactory<L extends Laboratory,T extends Experimen
    */
   /*@ non_null @*/ protected Class<T> m_class;
 
+  /**
+   * The JVM configurations that can be given to the experiments, indexed
+   * by name
+   */
+  /*@ non_null @*/ protected Map<String,JvmConfiguration> m_jvmConfigurations;
+
   /**
    * Creates a new experiment factory
    * @param lab The lab in which the experiments are to be added
@@ -57,6 +65,24 @@ public abstract class ExperimentFactory<L extends Laboratory,T extends Experimen
     super();
     m_lab = lab;
     m_class = c;
+    m_jvmConfigurations = new HashMap<String,JvmConfiguration>();
+  }
+
+  /**
+   * Adds JVM configurations to this factory. When an experiment is fetched
+   * with a region whose {@value JvmConfiguration#PARAMETER} dimension has the
+   * name of one of these configurations, the configuration is applied to the
+   * experiment.
+   * @param configurations The configurations
+   * @return This factory
+   */
+  public ExperimentFactory<L,T> addJvmConfiguration(JvmConfiguration ... configurations)
+  {
+    for (JvmConfiguration c : configurations)
+    {
+      m_jvmConfigurations.put(c.getName(), c);
+    }
+    return this;
   }
 
   /**
@@ -79,6 +105,7 @@ public abstract class ExperimentFactory<L extends Laboratory,T extends Experimen
       exp = createExperiment(r);
       if (exp != null)
       {
+        applyJvmConfiguration(exp, r);
         m_lab.add(exp);
       }
     }
@@ -88,6 +115,9 @@ public abstract class ExperimentFactory<L extends Laboratory,T extends Experimen
       {
         exp = (T) e;
       }
+      // JVM options are not serialized; apply them again to an experiment
+      // coming from a saved lab
+      applyJvmConfiguration(exp, r);
     }
     return exp;
   }
@@ -99,4 +129,19 @@ public abstract class ExperimentFactory<L extends Laboratory,T extends Experimen
    * @return The new experiment
    */
   protected abstract T createExperiment(Region r);
+
+  /**
+   * Applies to an experiment the JVM configuration designated by a region,
+   * if any
+   * @param e The experiment
+   * @param r The region
+   */
+  protected void applyJvmConfiguration(/*@ non_null @*/ T e, /*@ non_null @*/ Region r)
+  {
+    JvmConfiguration c = m_jvmConfigurations.get(r.getString(JvmConfiguration.PARAMETER));
+    if (c != null)
+    {
+      c.applyTo(e);
+    }
+  }
 }
\ No newline at end of file
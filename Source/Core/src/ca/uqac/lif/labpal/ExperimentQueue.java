@@ -0,0 +1,545 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Queue of experiments waiting to be started by a lab assistant, in the
+ * order decided by a {@link SchedulingPolicy}. Adding, removing and taking
+ * the next experiment take a time logarithmic in the size of the queue, and
+ * checking whether an experiment is in the queue takes a constant time.
+ * <p>
+ * Experiments are identified by their ID: the queue contains at most one
+ * experiment with a given ID.
+ * <p>
+ * An experiment that depends on other experiments (see
+ * {@link Experiment#addDependency(Experiment...)}) waits aside until they
+ * are all done; it is then placed in the queue according to the policy.
+ * Assistants tell the queue when an experiment is finished with
+ * {@link #finished(Experiment)}; if that experiment did not complete, the
+ * experiments waiting for it are removed from the queue and skipped.
+ * <p>
+ * This class is not thread-safe; assistants access it while holding the
+ * lock of their queue.
+ *
+ * @author Sylvain Hallé
+ */
+public class ExperimentQueue implements Iterable<Experiment>
+{
+	/**
+	 * The policy deciding the order of the experiments
+	 */
+	private SchedulingPolicy m_policy;
+
+	/**
+	 * The lab the experiments belong to
+	 */
+	private Laboratory m_lab = null;
+
+	/**
+	 * The entries of the queue, in the order they will be started
+	 */
+	private final TreeSet<Entry> m_entries = new TreeSet<Entry>();
+
+	/**
+	 * The entries of the queue, indexed by experiment ID
+	 */
+	private final Map<Integer,Entry> m_index = new HashMap<Integer,Entry>();
+
+	/**
+	 * The experiments waiting for their dependencies, indexed by ID
+	 */
+	private final Map<Integer,Experiment> m_waiting = new LinkedHashMap<Integer,Experiment>();
+
+	/**
+	 * For each experiment that is not done, the waiting experiments that
+	 * depend on it
+	 */
+	private final Map<Experiment,List<Experiment>> m_dependents = new HashMap<Experiment,List<Experiment>>();
+
+	/**
+	 * The sequence number given to the next experiment added at the end of
+	 * the queue
+	 */
+	private long m_lastSequence = 0;
+
+	/**
+	 * The sequence number given to the next experiment put back at the front
+	 * of the queue
+	 */
+	private long m_firstSequence = 0;
+
+	/**
+	 * Creates a new empty queue
+	 * @param policy The policy deciding the order of the experiments
+	 */
+	public ExperimentQueue(SchedulingPolicy policy)
+	{
+		super();
+		m_policy = policy;
+	}
+
+	/**
+	 * Creates a new empty queue starting the experiments in the order they
+	 * are added
+	 */
+	public ExperimentQueue()
+	{
+		this(new SchedulingPolicy());
+	}
+
+	/**
+	 * Sets the lab the experiments belong to. Some policies use it to
+	 * estimate durations or to find groups.
+	 * @param lab The lab
+	 */
+	public void setLaboratory(Laboratory lab)
+	{
+		m_lab = lab;
+	}
+
+	/**
+	 * Gets the policy deciding the order of the experiments
+	 * @return The policy
+	 */
+	public SchedulingPolicy getPolicy()
+	{
+		return m_policy;
+	}
+
+	/**
+	 * Sets the policy deciding the order of the experiments. The experiments
+	 * already in the queue are put back in the queue according to the new
+	 * policy.
+	 * @param policy The policy
+	 */
+	public void setPolicy(SchedulingPolicy policy)
+	{
+		m_policy = policy;
+		List<Entry> entries = new ArrayList<Entry>(m_entries);
+		m_entries.clear();
+		m_index.clear();
+		for (Entry en : entries)
+		{
+			insert(en.m_experiment);
+		}
+	}
+
+	/**
+	 * Adds an experiment to the queue, at the position given by the policy
+	 * @param e The experiment
+	 * @return {@code true} if the experiment was added, {@code false} if an
+	 * experiment with the same ID was already in the queue
+	 */
+	public boolean add(Experiment e)
+	{
+		if (contains(e.getId()))
+		{
+			return false;
+		}
+		if (isReady(e))
+		{
+			insert(e);
+			return true;
+		}
+		m_waiting.put(e.getId(), e);
+		for (Experiment d : e.getDependencies())
+		{
+			if (!isSuccessful(d))
+			{
+				List<Experiment> list = m_dependents.get(d);
+				if (list == null)
+				{
+					list = new ArrayList<Experiment>();
+					m_dependents.put(d, list);
+				}
+				list.add(e);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Puts an experiment at the front of the queue, regardless of the
+	 * policy. This is used to give back experiments that were taken from the
+	 * queue but not started.
+	 * @param e The experiment
+	 * @return {@code true} if the experiment was added, {@code false} if an
+	 * experiment with the same ID was already in the queue
+	 */
+	public boolean addFirst(Experiment e)
+	{
+		if (contains(e.getId()))
+		{
+			return false;
+		}
+		insert(new Entry(e, Double.NEGATIVE_INFINITY, --m_firstSequence));
+		return true;
+	}
+
+	/**
+	 * Removes an experiment from the queue
+	 * @param id The ID of the experiment
+	 * @return The experiment, or {@code null} if no experiment with this ID
+	 * is in the queue
+	 */
+	public Experiment remove(int id)
+	{
+		Entry en = m_index.remove(id);
+		if (en == null)
+		{
+			return m_waiting.remove(id);
+		}
+		m_entries.remove(en);
+		return en.m_experiment;
+	}
+
+	/**
+	 * Removes an experiment from the queue
+	 * @param e The experiment
+	 * @return {@code true} if the experiment was in the queue, {@code false}
+	 * otherwise
+	 */
+	public boolean remove(Experiment e)
+	{
+		return remove(e.getId()) != null;
+	}
+
+	/**
+	 * Checks if an experiment is in the queue
+	 * @param id The ID of the experiment
+	 * @return {@code true} if the experiment is in the queue, {@code false}
+	 * otherwise
+	 */
+	public boolean contains(int id)
+	{
+		return m_index.containsKey(id) || m_waiting.containsKey(id);
+	}
+
+	/**
+	 * Checks if an experiment is in the queue
+	 * @param e The experiment
+	 * @return {@code true} if the experiment is in the queue, {@code false}
+	 * otherwise
+	 */
+	public boolean contains(Experiment e)
+	{
+		return contains(e.getId());
+	}
+
+	/**
+	 * Gets the next experiment to start, without removing it from the queue
+	 * @return The experiment, or {@code null} if no experiment can be started
+	 */
+	public Experiment peek()
+	{
+		return m_entries.isEmpty() ? null : m_entries.first().m_experiment;
+	}
+
+	/**
+	 * Removes the next experiment to start from the queue
+	 * @return The experiment, or {@code null} if no experiment can be started
+	 */
+	public Experiment poll()
+	{
+		Entry en = m_entries.pollFirst();
+		if (en == null)
+		{
+			return null;
+		}
+		m_index.remove(en.m_experiment.getId());
+		return en.m_experiment;
+	}
+
+	/**
+	 * Gets the number of experiments in the queue, including those waiting
+	 * for their dependencies
+	 * @return The number of experiments
+	 */
+	public int size()
+	{
+		return m_entries.size() + m_waiting.size();
+	}
+
+	/**
+	 * Checks if the queue is empty
+	 * @return {@code true} if the queue is empty, {@code false} otherwise
+	 */
+	public boolean isEmpty()
+	{
+		return m_entries.isEmpty() && m_waiting.isEmpty();
+	}
+
+	/**
+	 * Removes all the experiments from the queue
+	 */
+	public void clear()
+	{
+		m_entries.clear();
+		m_index.clear();
+		m_waiting.clear();
+		m_dependents.clear();
+		m_policy.reset();
+	}
+
+	/**
+	 * Records that an experiment has left the queue for good, whether it ran
+	 * or not. If it is done, the experiments that were waiting only for it
+	 * are placed in the queue. Otherwise, the experiments that depend on it,
+	 * directly or not, are removed from the queue and marked as
+	 * {@link Experiment.Status#SKIPPED SKIPPED}.
+	 * @param e The experiment
+	 * @return The experiments that have been skipped
+	 */
+	public List<Experiment> finished(Experiment e)
+	{
+		List<Experiment> skipped = new ArrayList<Experiment>();
+		List<Experiment> to_process = new ArrayList<Experiment>();
+		to_process.add(e);
+		while (!to_process.isEmpty())
+		{
+			Experiment f = to_process.remove(to_process.size() - 1);
+			List<Experiment> dependents = m_dependents.remove(f);
+			if (dependents == null)
+			{
+				continue;
+			}
+			boolean success = isSuccessful(f);
+			Experiment.Status s = f.getStatus();
+			if (s == Experiment.Status.RUNNING || s == Experiment.Status.RUNNING_REMOTELY)
+			{
+				// Run by someone else: it may still complete
+				m_dependents.put(f, dependents);
+				continue;
+			}
+			for (Experiment w : dependents)
+			{
+				if (m_waiting.get(w.getId()) != w)
+				{
+					// No longer waiting
+					continue;
+				}
+				if (!success)
+				{
+					m_waiting.remove(w.getId());
+					w.skip(f);
+					skipped.add(w);
+					to_process.add(w);
+				}
+				else if (isReady(w))
+				{
+					m_waiting.remove(w.getId());
+					insert(w);
+				}
+			}
+		}
+		return skipped;
+	}
+
+	/**
+	 * Skips all the experiments waiting for their dependencies. Assistants
+	 * call this method when no experiment is running and none can be
+	 * started: the remaining experiments wait for experiments that are not
+	 * in the queue, and would otherwise wait forever.
+	 * @return The experiments that have been skipped
+	 */
+	public List<Experiment> skipWaiting()
+	{
+		List<Experiment> skipped = new ArrayList<Experiment>();
+		for (Experiment w : new ArrayList<Experiment>(m_waiting.values()))
+		{
+			if (m_waiting.get(w.getId()) != w)
+			{
+				// Already skipped along with another one
+				continue;
+			}
+			m_waiting.remove(w.getId());
+			Experiment cause = null;
+			for (Experiment d : w.getDependencies())
+			{
+				if (!isSuccessful(d))
+				{
+					cause = d;
+					break;
+				}
+			}
+			if (cause == null)
+			{
+				insert(w);
+				continue;
+			}
+			w.skip(cause);
+			skipped.add(w);
+			skipped.addAll(finished(w));
+		}
+		return skipped;
+	}
+
+	/**
+	 * Checks if an experiment is done
+	 * @param e The experiment
+	 * @return {@code true} if the experiment ended successfully,
+	 * {@code false} otherwise
+	 */
+	protected static boolean isSuccessful(Experiment e)
+	{
+		Experiment.Status s = e.getStatus();
+		return s == Experiment.Status.DONE || s == Experiment.Status.DONE_WARNING;
+	}
+
+	/**
+	 * Checks if all the experiments an experiment depends on are done
+	 * @param e The experiment
+	 * @return {@code true} if the experiment can be started, {@code false}
+	 * otherwise
+	 */
+	protected static boolean isReady(Experiment e)
+	{
+		for (Experiment d : e.getDependencies())
+		{
+			if (!isSuccessful(d))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the first experiments of the queue
+	 * @param n The maximum number of experiments
+	 * @return The experiments, in the order they will be started
+	 */
+	public List<Experiment> head(int n)
+	{
+		List<Experiment> list = new ArrayList<Experiment>(Math.min(n, m_entries.size()));
+		Iterator<Entry> it = m_entries.iterator();
+		while (list.size() < n && it.hasNext())
+		{
+			list.add(it.next().m_experiment);
+		}
+		return list;
+	}
+
+	/**
+	 * Gets the IDs of the experiments in the queue
+	 * @return The IDs, in the order the experiments will be started; the
+	 * experiments waiting for their dependencies come last
+	 */
+	public List<Integer> getIds()
+	{
+		List<Integer> ids = new ArrayList<Integer>(size());
+		for (Entry en : m_entries)
+		{
+			ids.add(en.m_experiment.getId());
+		}
+		ids.addAll(m_waiting.keySet());
+		return ids;
+	}
+
+	/**
+	 * Iterates over the experiments that can be started, in the order they
+	 * will be started. The iterator supports removal.
+	 */
+	@Override
+	public Iterator<Experiment> iterator()
+	{
+		final Iterator<Entry> it = m_entries.iterator();
+		return new Iterator<Experiment>()
+		{
+			private Entry m_current = null;
+
+			@Override
+			public boolean hasNext()
+			{
+				return it.hasNext();
+			}
+
+			@Override
+			public Experiment next()
+			{
+				m_current = it.next();
+				return m_current.m_experiment;
+			}
+
+			@Override
+			public void remove()
+			{
+				it.remove();
+				m_index.remove(m_current.m_experiment.getId());
+			}
+		};
+	}
+
+	/**
+	 * Adds an experiment to the queue, at the position given by the policy
+	 * @param e The experiment
+	 */
+	protected void insert(Experiment e)
+	{
+		insert(new Entry(e, m_policy.getRank(e, m_lab), m_lastSequence++));
+	}
+
+	/**
+	 * Adds an entry to the queue
+	 * @param en The entry
+	 */
+	protected void insert(Entry en)
+	{
+		m_entries.add(en);
+		m_index.put(en.m_experiment.getId(), en);
+	}
+
+	/**
+	 * An experiment in the queue, along with its position
+	 */
+	protected static class Entry implements Comparable<Entry>
+	{
+		protected final Experiment m_experiment;
+
+		protected final double m_rank;
+
+		protected final long m_sequence;
+
+		public Entry(Experiment e, double rank, long sequence)
+		{
+			super();
+			m_experiment = e;
+			m_rank = rank;
+			m_sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Entry en)
+		{
+			int c = Double.compare(m_rank, en.m_rank);
+			if (c != 0)
+			{
+				return c;
+			}
+			return m_sequence < en.m_sequence ? -1 : (m_sequence > en.m_sequence ? 1 : 0);
+		}
+	}
+}
@@ -45,7 +45,8 @@ public class ExperimentThread extends Thread
 		m_experiment.setRunning(false);
 		try 
 		{
-			join();
+			// Don't wait forever for an experiment that ignores the request
+			join(Watchdog.DEFAULT_GRACE_PERIOD);
 		}
 		catch (InterruptedException e) 
 		{
@@ -54,6 +55,16 @@ public class ExperimentThread extends Thread
 		m_experiment.interrupt();
 	}
 	
+	/**
+	 * Interrupts the thread only, without waiting for it and without
+	 * changing the status of its experiment. This is what the watchdog uses
+	 * on an experiment it has already marked as timed out.
+	 */
+	public void interruptThread()
+	{
+		super.interrupt();
+	}
+	
 	public void kill()
 	{
 		m_experiment.setRunning(false);
@@ -69,7 +80,8 @@ public class ExperimentThread extends Thread
 		}
 		try 
 		{
-			join();
+			// Don't wait forever for an experiment that ignores the request
+			join(Watchdog.DEFAULT_GRACE_PERIOD);
 		}
 		catch (InterruptedException e) 
 		{
@@ -27,10 +27,18 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
@@ -62,6 +70,31 @@ public class FileHelper
 	 */
 	public static final transient String SLASH = System.getProperty("file.separator");
 
+	/**
+	 * The first four bytes of a file in the binary dataset format
+	 */
+	protected static final int DATASET_MAGIC = 0x4c504453;
+
+	/**
+	 * The size of the header of a file in the binary dataset format
+	 */
+	protected static final int DATASET_HEADER = 16;
+
+	/**
+	 * The type of a dataset of integers
+	 */
+	protected static final byte DATASET_INT = 'I';
+
+	/**
+	 * The type of a dataset of longs
+	 */
+	protected static final byte DATASET_LONG = 'J';
+
+	/**
+	 * The type of a dataset of doubles
+	 */
+	protected static final byte DATASET_DOUBLE = 'D';
+
 	/**
 	 * Reads the contents of a file and puts it into a string.
 	 * @param f The file to read
@@ -209,6 +242,289 @@ public class FileHelper
 		}
 	}
 
+	/**
+	 * Writes an array of integers to a file in the binary dataset format.
+	 * Such a file has a 16-byte header, followed by the values in
+	 * little-endian order; it can be read back with {@link #readInts(File)}
+	 * or {@link #mapInts(File)}. This is much faster and more compact than
+	 * writing the values as text. The values are first written to a
+	 * temporary file, which then replaces the file: another thread or
+	 * process reading the file never sees it partially written.
+	 * @param f The file to write to. If the file does not exist, it will be
+	 *   created
+	 * @param values The values to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void writeInts(File f, int[] values) throws IOException
+	{
+		File tmp = createTempDataset(f);
+		boolean done = false;
+		try
+		{
+			createDataset(tmp, DATASET_INT, 4, values.length).asIntBuffer().put(values);
+			moveDataset(tmp, f);
+			done = true;
+		}
+		finally
+		{
+			if (!done)
+			{
+				tmp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Writes an array of longs to a file in the binary dataset format
+	 * @param f The file to write to. If the file does not exist, it will be
+	 *   created
+	 * @param values The values to write
+	 * @throws IOException If the file cannot be written
+	 * @see #writeInts(File, int[])
+	 */
+	public static void writeLongs(File f, long[] values) throws IOException
+	{
+		File tmp = createTempDataset(f);
+		boolean done = false;
+		try
+		{
+			createDataset(tmp, DATASET_LONG, 8, values.length).asLongBuffer().put(values);
+			moveDataset(tmp, f);
+			done = true;
+		}
+		finally
+		{
+			if (!done)
+			{
+				tmp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Writes an array of doubles to a file in the binary dataset format
+	 * @param f The file to write to. If the file does not exist, it will be
+	 *   created
+	 * @param values The values to write
+	 * @throws IOException If the file cannot be written
+	 * @see #writeInts(File, int[])
+	 */
+	public static void writeDoubles(File f, double[] values) throws IOException
+	{
+		File tmp = createTempDataset(f);
+		boolean done = false;
+		try
+		{
+			createDataset(tmp, DATASET_DOUBLE, 8, values.length).asDoubleBuffer().put(values);
+			moveDataset(tmp, f);
+			done = true;
+		}
+		finally
+		{
+			if (!done)
+			{
+				tmp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Maps a file in the binary dataset format containing integers. The
+	 * buffer reads directly from the file, without copying its contents
+	 * into the heap; it remains valid after the method returns.
+	 * @param f The file to read
+	 * @return A read-only buffer over the values
+	 * @throws IOException If the file cannot be read, or is not a dataset
+	 *   of integers
+	 */
+	public static IntBuffer mapInts(File f) throws IOException
+	{
+		return mapDataset(f, DATASET_INT).asIntBuffer();
+	}
+
+	/**
+	 * Maps a file in the binary dataset format containing longs
+	 * @param f The file to read
+	 * @return A read-only buffer over the values
+	 * @throws IOException If the file cannot be read, or is not a dataset
+	 *   of longs
+	 * @see #mapInts(File)
+	 */
+	public static LongBuffer mapLongs(File f) throws IOException
+	{
+		return mapDataset(f, DATASET_LONG).asLongBuffer();
+	}
+
+	/**
+	 * Maps a file in the binary dataset format containing doubles
+	 * @param f The file to read
+	 * @return A read-only buffer over the values
+	 * @throws IOException If the file cannot be read, or is not a dataset
+	 *   of doubles
+	 * @see #mapInts(File)
+	 */
+	public static DoubleBuffer mapDoubles(File f) throws IOException
+	{
+		return mapDataset(f, DATASET_DOUBLE).asDoubleBuffer();
+	}
+
+	/**
+	 * Reads a file in the binary dataset format containing integers into
+	 * an array
+	 * @param f The file to read
+	 * @return The values
+	 * @throws IOException If the file cannot be read, or is not a dataset
+	 *   of integers
+	 */
+	public static int[] readInts(File f) throws IOException
+	{
+		IntBuffer buf = mapInts(f);
+		int[] values = new int[buf.remaining()];
+		buf.get(values);
+		return values;
+	}
+
+	/**
+	 * Reads a file in the binary dataset format containing longs into an
+	 * array
+	 * @param f The file to read
+	 * @return The values
+	 * @throws IOException If the file cannot be read, or is not a dataset
+	 *   of longs
+	 */
+	public static long[] readLongs(File f) throws IOException
+	{
+		LongBuffer buf = mapLongs(f);
+		long[] values = new long[buf.remaining()];
+		buf.get(values);
+		return values;
+	}
+
+	/**
+	 * Reads a file in the binary dataset format containing doubles into an
+	 * array
+	 * @param f The file to read
+	 * @return The values
+	 * @throws IOException If the file cannot be read, or is not a dataset
+	 *   of doubles
+	 */
+	public static double[] readDoubles(File f) throws IOException
+	{
+		DoubleBuffer buf = mapDoubles(f);
+		double[] values = new double[buf.remaining()];
+		buf.get(values);
+		return values;
+	}
+
+	/**
+	 * Creates an empty temporary file next to a dataset to be written
+	 * @param f The dataset
+	 * @return The temporary file
+	 * @throws IOException If the file cannot be created
+	 */
+	protected static File createTempDataset(File f) throws IOException
+	{
+		createIfNotExists(f);
+		return File.createTempFile("." + f.getName() + ".", ".tmp", f.getAbsoluteFile().getParentFile());
+	}
+
+	/**
+	 * Replaces a dataset by the temporary file where it was written
+	 * @param tmp The temporary file
+	 * @param f The dataset
+	 * @throws IOException If the file cannot be replaced
+	 */
+	protected static void moveDataset(File tmp, File f) throws IOException
+	{
+		if (!tmp.renameTo(f))
+		{
+			// Some systems cannot rename a file over an existing one
+			f.delete();
+			if (!tmp.renameTo(f))
+			{
+				throw new IOException("Cannot write to " + f);
+			}
+		}
+	}
+
+	/**
+	 * Creates a file in the binary dataset format and maps it into memory
+	 * @param f The file to create
+	 * @param type The type of the values
+	 * @param width The size of each value, in bytes
+	 * @param count The number of values
+	 * @return A buffer where the values are to be written
+	 * @throws IOException If the file cannot be written
+	 */
+	protected static ByteBuffer createDataset(File f, byte type, int width, int count) throws IOException
+	{
+		long size = DATASET_HEADER + (long) width * count;
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try
+		{
+			raf.setLength(size);
+			MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			buf.putInt(DATASET_MAGIC);
+			buf.put(type);
+			buf.put(new byte[3]);
+			buf.putLong(count);
+			return buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+		}
+		finally
+		{
+			// The mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Maps into memory a file in the binary dataset format
+	 * @param f The file to map
+	 * @param type The expected type of the values
+	 * @return A read-only buffer positioned at the first value
+	 * @throws IOException If the file cannot be read, or is not a dataset
+	 *   of the expected type
+	 */
+	protected static ByteBuffer mapDataset(File f, byte type) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try
+		{
+			long size = raf.length();
+			if (size < DATASET_HEADER)
+			{
+				throw new IOException("File " + f + " is not a dataset");
+			}
+			MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			if (buf.getInt() != DATASET_MAGIC)
+			{
+				throw new IOException("File " + f + " is not a dataset");
+			}
+			byte actual_type = buf.get();
+			if (actual_type != type)
+			{
+				throw new IOException("File " + f + " contains values of type "
+						+ (char) actual_type + " instead of " + (char) type);
+			}
+			buf.position(buf.position() + 3);
+			long count = buf.getLong();
+			int width = type == DATASET_INT ? 4 : 8;
+			if (size - DATASET_HEADER < count * width)
+			{
+				throw new IOException("File " + f + " is truncated");
+			}
+			ByteBuffer values = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+			values.limit((int) (count * width));
+			return values;
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
 	/**
 	 * Deletes a file
 	 * @param filename The filename
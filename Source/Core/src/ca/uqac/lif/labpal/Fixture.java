@@ -0,0 +1,104 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+/**
+ * An object shared by several experiments, which is costly to create and
+ * should only be created once. Typical fixtures are input data sets: in a
+ * lab comparing sorting algorithms, all the experiments sorting arrays of
+ * the same size can use the same array.
+ * <p>
+ * Fixtures are identified by a key: two fixtures with the same key are
+ * considered to produce the same object. An experiment declares the
+ * fixtures it uses by overriding {@link Experiment#getFixtures()}, and
+ * obtains their contents with {@link Experiment#getFixture(Fixture)}. The
+ * lab's {@link FixtureManager} makes sure that each fixture is created only
+ * once, even when several experiments ask for it at the same time, and
+ * releases it when no experiment in the queue needs it anymore.
+ *
+ * @param <T> The type of the object produced by the fixture
+ * @author Sylvain Hallé
+ */
+public abstract class Fixture<T>
+{
+	/**
+	 * The key identifying the fixture
+	 */
+	protected final String m_key;
+
+	/**
+	 * Creates a new fixture
+	 * @param key The key identifying the fixture
+	 */
+	public Fixture(String key)
+	{
+		super();
+		m_key = key;
+	}
+
+	/**
+	 * Gets the key identifying the fixture
+	 * @return The key
+	 */
+	public final String getKey()
+	{
+		return m_key;
+	}
+
+	/**
+	 * Creates the object produced by the fixture. This method is called at
+	 * most once for a given key as long as the object is kept by the fixture
+	 * manager.
+	 * @return The object
+	 * @throws ExperimentException If the object cannot be created
+	 */
+	protected abstract T create() throws ExperimentException;
+
+	/**
+	 * Releases the resources held by an object produced by the fixture. This
+	 * method is called when the object is evicted by the fixture manager. By
+	 * default, it does nothing.
+	 * @param object The object
+	 */
+	protected void dispose(T object)
+	{
+		// Do nothing
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return m_key.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof Fixture))
+		{
+			return false;
+		}
+		return m_key.equals(((Fixture<?>) o).m_key);
+	}
+
+	@Override
+	public String toString()
+	{
+		return m_key;
+	}
+}
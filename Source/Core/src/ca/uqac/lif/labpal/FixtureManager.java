@@ -0,0 +1,292 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Keeps the objects produced by {@link Fixture}s while experiments need
+ * them.
+ * <ul>
+ * <li>Each fixture is created only once. When several threads ask for the
+ * same fixture at the same time, one of them creates it and the others wait
+ * for the result.</li>
+ * <li>The manager counts, for each fixture, the number of experiments that
+ * have declared it and that are queued or running. Lab assistants update
+ * this count with {@link #acquire(Experiment)} and
+ * {@link #release(Experiment)}. When it drops to zero, the object is
+ * evicted and the fixture is disposed of.</li>
+ * </ul>
+ * A fixture requested by an experiment that has not acquired it (for example,
+ * an experiment run outside of a lab assistant) is created but not kept.
+ *
+ * @author Sylvain Hallé
+ */
+public class FixtureManager
+{
+	/**
+	 * The entries of the fixtures currently in use, indexed by key
+	 */
+	protected final Map<String,Entry> m_entries;
+
+	/**
+	 * Creates a new fixture manager
+	 */
+	public FixtureManager()
+	{
+		super();
+		m_entries = new HashMap<String,Entry>();
+	}
+
+	/**
+	 * Declares that an experiment will need its fixtures
+	 * @param e The experiment
+	 */
+	public void acquire(Experiment e)
+	{
+		Collection<Fixture<?>> fixtures = e.getFixtures();
+		if (fixtures.isEmpty())
+		{
+			return;
+		}
+		synchronized (this)
+		{
+			for (Fixture<?> f : fixtures)
+			{
+				Entry en = m_entries.get(f.getKey());
+				if (en == null)
+				{
+					en = new Entry();
+					m_entries.put(f.getKey(), en);
+				}
+				en.m_references++;
+			}
+		}
+	}
+
+	/**
+	 * Declares that an experiment no longer needs its fixtures. Fixtures
+	 * that are no longer needed by any experiment are evicted.
+	 * @param e The experiment
+	 */
+	public void release(Experiment e)
+	{
+		Collection<Fixture<?>> fixtures = e.getFixtures();
+		if (fixtures.isEmpty())
+		{
+			return;
+		}
+		List<Entry> evicted = new ArrayList<Entry>();
+		synchronized (this)
+		{
+			for (Fixture<?> f : fixtures)
+			{
+				Entry en = m_entries.get(f.getKey());
+				if (en == null)
+				{
+					continue;
+				}
+				en.m_references--;
+				if (en.m_references <= 0)
+				{
+					m_entries.remove(f.getKey());
+					evicted.add(en);
+				}
+			}
+		}
+		for (Entry en : evicted)
+		{
+			dispose(en);
+		}
+	}
+
+	/**
+	 * Gets the object produced by a fixture, creating it if needed
+	 * @param f The fixture
+	 * @return The object
+	 * @throws ExperimentException If the object cannot be created
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(final Fixture<T> f) throws ExperimentException
+	{
+		FutureTask<Object> task = null;
+		boolean owner = false;
+		synchronized (this)
+		{
+			Entry en = m_entries.get(f.getKey());
+			if (en == null)
+			{
+				// Nobody declared this fixture: create it without keeping it
+				return f.create();
+			}
+			if (en.m_task == null)
+			{
+				en.m_task = new FutureTask<Object>(new Callable<Object>()
+				{
+					@Override
+					public Object call() throws Exception
+					{
+						return f.create();
+					}
+				});
+				en.m_fixture = f;
+				owner = true;
+			}
+			task = en.m_task;
+		}
+		if (owner)
+		{
+			// This thread creates the object; the others wait for it
+			task.run();
+		}
+		try
+		{
+			return (T) task.get();
+		}
+		catch (InterruptedException ex)
+		{
+			throw new ExperimentException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			synchronized (this)
+			{
+				// Let the next request try again
+				Entry en = m_entries.get(f.getKey());
+				if (en != null && en.m_task == task)
+				{
+					en.m_task = null;
+				}
+			}
+			Throwable cause = ex.getCause();
+			if (cause instanceof ExperimentException)
+			{
+				throw (ExperimentException) cause;
+			}
+			throw new ExperimentException(cause);
+		}
+	}
+
+	/**
+	 * Determines if the object produced by a fixture is available without
+	 * having to create it
+	 * @param f The fixture
+	 * @return {@code true} if the object is available, {@code false}
+	 * otherwise
+	 */
+	public synchronized boolean isWarm(Fixture<?> f)
+	{
+		Entry en = m_entries.get(f.getKey());
+		return en != null && en.m_task != null && en.m_task.isDone();
+	}
+
+	/**
+	 * Determines if all the fixtures of an experiment are available without
+	 * having to create them
+	 * @param e The experiment
+	 * @return {@code true} if the experiment has fixtures and all of them are
+	 * available, {@code false} otherwise
+	 */
+	public boolean isWarm(Experiment e)
+	{
+		Collection<Fixture<?>> fixtures = e.getFixtures();
+		if (fixtures.isEmpty())
+		{
+			return false;
+		}
+		for (Fixture<?> f : fixtures)
+		{
+			if (!isWarm(f))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Evicts all the fixtures
+	 */
+	public void clear()
+	{
+		Map<String,Entry> entries;
+		synchronized (this)
+		{
+			entries = new HashMap<String,Entry>(m_entries);
+			m_entries.clear();
+		}
+		for (Entry en : entries.values())
+		{
+			dispose(en);
+		}
+	}
+
+	/**
+	 * Disposes of the object held by an entry, if it has been created
+	 * @param en The entry
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	protected static void dispose(Entry en)
+	{
+		if (en.m_task == null || !en.m_task.isDone())
+		{
+			return;
+		}
+		try
+		{
+			((Fixture) en.m_fixture).dispose(en.m_task.get());
+		}
+		catch (InterruptedException ex)
+		{
+			// Nothing to dispose of
+		}
+		catch (ExecutionException ex)
+		{
+			// Nothing to dispose of
+		}
+	}
+
+	/**
+	 * The state of a fixture in use
+	 */
+	protected static class Entry
+	{
+		/**
+		 * The number of experiments queued or running that need the fixture
+		 */
+		protected int m_references = 0;
+
+		/**
+		 * The task creating the object, or {@code null} if it has not been
+		 * requested yet
+		 */
+		protected FutureTask<Object> m_task = null;
+
+		/**
+		 * The fixture that produces the object
+		 */
+		protected Fixture<?> m_fixture = null;
+	}
+}
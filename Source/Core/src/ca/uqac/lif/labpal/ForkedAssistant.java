@@ -0,0 +1,634 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ca.uqac.lif.azrael.PrintException;
+import ca.uqac.lif.azrael.ReadException;
+import ca.uqac.lif.json.JsonParser;
+import ca.uqac.lif.json.JsonParser.JsonParseException;
+
+/**
+ * Lab assistant that runs each experiment in a separate JVM. This isolates
+ * experiments from each other: the state of the JIT compiler, the heap and
+ * the garbage collector left by an experiment does not influence the
+ * experiments that follow, and an experiment that runs out of memory or
+ * crashes does not bring down the whole lab.
+ * <p>
+ * The assistant serializes the experiment to run, and starts a child JVM
+ * with the same classpath as the lab, executing the {@link ForkedRunner}.
+ * The child creates a new instance of the lab, runs the experiment, and
+ * serializes it back; its results are then merged into the experiment of the
+ * lab with {@link Experiment#mergeWith(Experiment, boolean) mergeWith()}.
+ * <p>
+ * Two modes are available:
+ * <ul>
+ * <li>By default, a new JVM is started for every experiment. This provides
+ * the best isolation, at the price of the JVM's startup time.</li>
+ * <li>In pooled mode (see {@link #setPooled(boolean)}), each worker of the
+ * assistant keeps its JVM and reuses it for the following experiments, as
+ * long as they require the same JVM options.</li>
+ * </ul>
+ * The options passed to the child JVMs are those of the assistant (see
+ * {@link #setJvmOptions(String...)}), followed by those of the experiment
+ * (see {@link Experiment#setJvmOptions(String...)}). When an experiment
+ * exceeds its maximum duration, its JVM is killed.
+ * <p>
+ * Since every experiment runs in a fresh instance of the lab, experiments
+ * run by this assistant should not depend on state shared with other
+ * experiments, or on state that is not serialized.
+ *
+ * @author Sylvain Hallé
+ */
+public class ForkedAssistant extends ThreadPoolAssistant
+{
+	/**
+	 * The maximum number of characters of the child's standard error that
+	 * are kept to explain a failure
+	 */
+	protected static final int MAX_ERROR_LENGTH = 4096;
+
+	/**
+	 * The options passed to all child JVMs
+	 */
+	private transient List<String> m_jvmOptions;
+
+	/**
+	 * Whether child JVMs are reused from one experiment to the next
+	 */
+	private transient boolean m_pooled = false;
+
+	/**
+	 * The object reading the hardware counters of child JVMs, or
+	 * {@code null} if they are not read
+	 */
+	private transient PerfStat m_perfStat = null;
+
+	/**
+	 * The child JVMs currently running an experiment
+	 */
+	protected transient final Map<Experiment,ChildJvm> m_children = new ConcurrentHashMap<Experiment,ChildJvm>();
+
+	/**
+	 * The child JVMs kept by each worker in pooled mode
+	 */
+	protected transient final Map<Thread,ChildJvm> m_pool = new ConcurrentHashMap<Thread,ChildJvm>();
+
+	/**
+	 * Creates a new assistant
+	 * @param lab The lab this assistant will coordinate
+	 * @param num_threads The maximum number of child JVMs that can run
+	 * at the same time
+	 */
+	public ForkedAssistant(Laboratory lab, int num_threads)
+	{
+		super(lab, num_threads);
+		m_jvmOptions = new ArrayList<String>();
+	}
+
+	/**
+	 * Creates a new assistant
+	 * @param num_threads The maximum number of child JVMs that can run
+	 * at the same time
+	 */
+	public ForkedAssistant(int num_threads)
+	{
+		this(null, num_threads);
+	}
+
+	/**
+	 * Creates a new assistant running one child JVM at a time
+	 */
+	public ForkedAssistant()
+	{
+		this(null, 1);
+	}
+
+	/**
+	 * Sets the options passed to all child JVMs
+	 * @param options The options, such as {@code -Xmx2g} or
+	 * {@code -XX:+UseG1GC}
+	 * @return This assistant
+	 */
+	public ForkedAssistant setJvmOptions(String ... options)
+	{
+		m_jvmOptions = new ArrayList<String>(options.length);
+		for (String o : options)
+		{
+			m_jvmOptions.add(o);
+		}
+		return this;
+	}
+
+	/**
+	 * Gets the options passed to all child JVMs
+	 * @return The list of options
+	 */
+	public List<String> getJvmOptions()
+	{
+		return m_jvmOptions;
+	}
+
+	/**
+	 * Sets whether child JVMs are reused from one experiment to the next
+	 * @param b Set to {@code true} to reuse child JVMs, {@code false} to
+	 * start a new JVM for each experiment
+	 * @return This assistant
+	 */
+	public ForkedAssistant setPooled(boolean b)
+	{
+		m_pooled = b;
+		return this;
+	}
+
+	/**
+	 * Makes the assistant run each child JVM under {@code perf stat}, and
+	 * write the hardware counters it reports in the experiment's output
+	 * parameters (see {@link PerfStat}). The counters include the startup of
+	 * the JVM and the deserialization of the experiment. They are not read
+	 * in pooled mode, where a JVM runs several experiments.
+	 * @param perf The object reading the counters, or {@code null} to stop
+	 * reading them
+	 * @return This assistant
+	 */
+	public ForkedAssistant setPerfStat(PerfStat perf)
+	{
+		m_perfStat = perf;
+		return this;
+	}
+
+	/**
+	 * Determines whether child JVMs are reused from one experiment to the next
+	 * @return {@code true} if child JVMs are reused, {@code false} otherwise
+	 */
+	public boolean isPooled()
+	{
+		return m_pooled;
+	}
+
+	@Override
+	public void run()
+	{
+		super.run();
+		// Let the pooled JVMs exit
+		for (ChildJvm child : m_pool.values())
+		{
+			child.close();
+		}
+		m_pool.clear();
+	}
+
+	@Override
+	public LabAssistant stop()
+	{
+		super.stop();
+		for (ChildJvm child : m_children.values())
+		{
+			child.destroy();
+		}
+		return this;
+	}
+
+	@Override
+	public void experimentTimedOut(Experiment e, Thread t)
+	{
+		// The experiment is already marked as timed out; kill its JVM
+		ChildJvm child = m_children.get(e);
+		if (child != null)
+		{
+			child.destroy();
+		}
+		super.experimentTimedOut(e, t);
+	}
+
+	@Override
+	protected void execute(Experiment e)
+	{
+		e.startRemotely();
+		File in_file = null;
+		File out_file = null;
+		File perf_file = null;
+		try
+		{
+			in_file = File.createTempFile("labpal-in-", ".json");
+			out_file = File.createTempFile("labpal-out-", ".json");
+			// The output file only exists if the child has written to it
+			out_file.delete();
+			FileHelper.writeFromString(in_file, m_lab.saveExperimentToJson(e).toString());
+			List<String> options = getOptions(e);
+			ChildJvm child = null;
+			String error = null;
+			if (m_pooled)
+			{
+				child = m_pool.get(Thread.currentThread());
+				if (child != null && !child.getOptions().equals(options))
+				{
+					child.close();
+					child = null;
+				}
+				if (child == null)
+				{
+					child = new ChildJvm(options, getCommand(options, null, null), true);
+					m_pool.put(Thread.currentThread(), child);
+				}
+				m_children.put(e, child);
+				if (!child.send(in_file, out_file))
+				{
+					error = child.getErrorMessage();
+					m_pool.remove(Thread.currentThread());
+				}
+			}
+			else
+			{
+				List<String> command = getCommand(options, in_file, out_file);
+				if (m_perfStat != null && m_perfStat.isAvailable())
+				{
+					perf_file = File.createTempFile("labpal-perf-", ".csv");
+					command = m_perfStat.wrap(command, perf_file);
+				}
+				child = new ChildJvm(options, command, false);
+				m_children.put(e, child);
+				if (child.waitFor() != 0)
+				{
+					error = child.getErrorMessage();
+				}
+			}
+			m_children.remove(e);
+			mergeResults(e, out_file, error);
+			if (perf_file != null && e.getStatus() != Experiment.Status.TIMEOUT
+					&& e.getStatus() != Experiment.Status.INTERRUPTED)
+			{
+				m_perfStat.writeCounters(e, perf_file);
+			}
+		}
+		catch (IOException ex)
+		{
+			m_children.remove(e);
+			e.fail("The experiment could not be run in a separate JVM: " + ex.getMessage());
+		}
+		catch (PrintException ex)
+		{
+			m_children.remove(e);
+			e.fail("The experiment could not be serialized: " + ex.getMessage());
+		}
+		finally
+		{
+			if (in_file != null)
+			{
+				in_file.delete();
+			}
+			if (out_file != null)
+			{
+				out_file.delete();
+			}
+			if (perf_file != null)
+			{
+				perf_file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Merges the experiment written by a child JVM into the experiment of
+	 * the lab
+	 * @param e The experiment of the lab
+	 * @param out_file The file where the child has written the experiment
+	 * @param error An error message explaining why the child JVM ended
+	 * abnormally, or {@code null} if it ended normally
+	 */
+	protected void mergeResults(Experiment e, File out_file, String error)
+	{
+		Experiment.Status s = e.getStatus();
+		if (s == Experiment.Status.TIMEOUT || s == Experiment.Status.INTERRUPTED)
+		{
+			// Results of a killed experiment are discarded
+			return;
+		}
+		if (!out_file.exists())
+		{
+			if (!isRunning())
+			{
+				e.interrupt();
+			}
+			else
+			{
+				e.fail("The separate JVM ended without producing results" + (error == null ? "" : "\n" + error));
+			}
+			return;
+		}
+		try
+		{
+			JsonParser parser = new JsonParser();
+			Experiment child_e = m_lab.loadExperimentFromJson(parser.parse(FileHelper.readToString(out_file)));
+			e.mergeWith(child_e, false);
+		}
+		catch (ReadException ex)
+		{
+			e.fail("The results of the experiment could not be read: " + ex.getMessage());
+		}
+		catch (JsonParseException ex)
+		{
+			e.fail("The results of the experiment could not be read: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Gets the options passed to the JVM running an experiment
+	 * @param e The experiment
+	 * @return The list of options
+	 */
+	protected List<String> getOptions(Experiment e)
+	{
+		List<String> options = new ArrayList<String>(m_jvmOptions);
+		options.addAll(e.getJvmOptions());
+		return options;
+	}
+
+	/**
+	 * Builds the command line starting a child JVM
+	 * @param options The options passed to the JVM
+	 * @param in_file The file containing the experiment to run, or
+	 * {@code null} to start a pooled JVM
+	 * @param out_file The file where the experiment is written once
+	 * finished, or {@code null} to start a pooled JVM
+	 * @return The command line
+	 */
+	protected List<String> getCommand(List<String> options, File in_file, File out_file)
+	{
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(options);
+		String probes = ForkedRunner.getProbeClasses(m_lab);
+		if (!probes.isEmpty())
+		{
+			command.add("-D" + ForkedRunner.PROBES_PROPERTY + "=" + probes);
+		}
+		if (m_lab.hasPrerequisiteCache())
+		{
+			// Make the children use the same cache as the lab
+			PrerequisiteCache cache = m_lab.getPrerequisiteCache();
+			command.add("-D" + ForkedRunner.CACHE_DIR_PROPERTY + "=" + cache.getDirectory().getAbsolutePath());
+			command.add("-D" + ForkedRunner.CACHE_SIZE_PROPERTY + "=" + cache.getBudget());
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ForkedRunner.class.getName());
+		command.add(m_lab.getClass().getName());
+		command.add(Integer.toString(m_lab.getRandomSeed()));
+		if (in_file != null && out_file != null)
+		{
+			command.add(in_file.getAbsolutePath());
+			command.add(out_file.getAbsolutePath());
+		}
+		return command;
+	}
+
+	/**
+	 * A child JVM started by the assistant
+	 */
+	protected static class ChildJvm
+	{
+		/**
+		 * The process of the JVM
+		 */
+		protected final Process m_process;
+
+		/**
+		 * The options the JVM was started with
+		 */
+		protected final List<String> m_options;
+
+		/**
+		 * A reader on the standard output of the JVM, used to communicate
+		 * with a pooled JVM
+		 */
+		protected final BufferedReader m_stdout;
+
+		/**
+		 * A writer on the standard input of the JVM
+		 */
+		protected final Writer m_stdin;
+
+		/**
+		 * The thread collecting the end of the standard error of the JVM
+		 */
+		protected final StreamCollector m_stderr;
+
+		/**
+		 * Starts a new child JVM
+		 * @param options The options the JVM is started with
+		 * @param command The command line starting the JVM
+		 * @param pooled Whether the JVM is a pooled JVM
+		 * @throws IOException If the JVM cannot be started
+		 */
+		public ChildJvm(List<String> options, List<String> command, boolean pooled) throws IOException
+		{
+			super();
+			m_options = options;
+			m_process = new ProcessBuilder(command).start();
+			if (pooled)
+			{
+				m_stdout = new BufferedReader(new InputStreamReader(m_process.getInputStream()));
+			}
+			else
+			{
+				// Nothing is expected on the standard output, but it must be read
+				// so that the JVM does not block if something is written to it
+				m_stdout = null;
+				new StreamCollector(m_process.getInputStream()).start();
+			}
+			m_stdin = new OutputStreamWriter(m_process.getOutputStream());
+			m_stderr = new StreamCollector(m_process.getErrorStream());
+			m_stderr.start();
+		}
+
+		/**
+		 * Gets the options the JVM was started with
+		 * @return The options
+		 */
+		public List<String> getOptions()
+		{
+			return m_options;
+		}
+
+		/**
+		 * Asks a pooled JVM to run an experiment, and waits until it is done
+		 * @param in_file The file containing the experiment to run
+		 * @param out_file The file where the experiment is written once
+		 * finished
+		 * @return {@code true} if the experiment ran normally, {@code false}
+		 * if the JVM ended in the meantime
+		 */
+		public boolean send(File in_file, File out_file)
+		{
+			try
+			{
+				m_stdin.write(in_file.getAbsolutePath() + "\t" + out_file.getAbsolutePath() + "\n");
+				m_stdin.flush();
+				String line;
+				while ((line = m_stdout.readLine()) != null)
+				{
+					if (line.equals(ForkedRunner.DONE))
+					{
+						return true;
+					}
+				}
+			}
+			catch (IOException e)
+			{
+				// The JVM is gone
+			}
+			destroy();
+			return false;
+		}
+
+		/**
+		 * Waits until the JVM ends
+		 * @return The exit code of the JVM
+		 */
+		public int waitFor()
+		{
+			try
+			{
+				return m_process.waitFor();
+			}
+			catch (InterruptedException e)
+			{
+				destroy();
+				return -1;
+			}
+		}
+
+		/**
+		 * Asks a pooled JVM to exit once it has finished its current experiment
+		 */
+		public void close()
+		{
+			try
+			{
+				m_stdin.close();
+			}
+			catch (IOException e)
+			{
+				// The JVM is already gone
+			}
+		}
+
+		/**
+		 * Kills the JVM
+		 */
+		public void destroy()
+		{
+			m_process.destroy();
+		}
+
+		/**
+		 * Gets a message explaining why the JVM ended abnormally
+		 * @return The message
+		 */
+		public String getErrorMessage()
+		{
+			int code = -1;
+			try
+			{
+				code = m_process.waitFor();
+				// Give the collector a chance to read what is left
+				m_stderr.join(100);
+			}
+			catch (InterruptedException e)
+			{
+				// Do nothing
+			}
+			return "Exit code " + code + "\n" + m_stderr.getContents();
+		}
+	}
+
+	/**
+	 * Thread that reads a stream and keeps the last characters it contains
+	 */
+	protected static class StreamCollector extends Thread
+	{
+		/**
+		 * The stream to read
+		 */
+		protected final InputStream m_is;
+
+		/**
+		 * The last characters read from the stream
+		 */
+		protected final StringBuilder m_contents;
+
+		/**
+		 * Creates a new collector
+		 * @param is The stream to read
+		 */
+		public StreamCollector(InputStream is)
+		{
+			super();
+			setDaemon(true);
+			m_is = is;
+			m_contents = new StringBuilder();
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				byte[] buffer = new byte[8192];
+				int len = -1;
+				while ((len = m_is.read(buffer)) > 0)
+				{
+					synchronized (this)
+					{
+						m_contents.append(new String(buffer, 0, len));
+						if (m_contents.length() > MAX_ERROR_LENGTH)
+						{
+							m_contents.delete(0, m_contents.length() - MAX_ERROR_LENGTH);
+						}
+					}
+				}
+				m_is.close();
+			}
+			catch (IOException e)
+			{
+				// The JVM is gone
+			}
+		}
+
+		/**
+		 * Gets the last characters read from the stream
+		 * @return The characters
+		 */
+		public synchronized String getContents()
+		{
+			return m_contents.toString();
+		}
+	}
+}
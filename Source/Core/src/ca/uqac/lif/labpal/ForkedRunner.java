@@ -0,0 +1,295 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+import ca.uqac.lif.azrael.PrintException;
+import ca.uqac.lif.azrael.ReadException;
+import ca.uqac.lif.json.JsonParser;
+import ca.uqac.lif.json.JsonParser.JsonParseException;
+import ca.uqac.lif.labpal.probe.ExperimentProbe;
+
+/**
+ * Entry point of the child JVMs started by a {@link ForkedAssistant}.
+ * The runner creates an instance of the lab, sets it up, and then runs the
+ * experiments it is given. Each experiment is read from a JSON file written
+ * by the parent, and the experiment, with its results, is written back to
+ * another JSON file once it is finished. The runner executes the instance
+ * created by the lab's {@link Laboratory#setup() setup()} with the same ID,
+ * into which the state read from the file is merged: this way, the settings
+ * that are not serialized (repetitions, sampled parameters, reruns on
+ * interference, limits, and so on) also apply in the child.
+ * <p>
+ * The runner is called with the following arguments:
+ * <pre>
+ * ForkedRunner lab_class seed [input_file output_file]
+ * </pre>
+ * If the input and output files are given, the runner runs this single
+ * experiment and exits. Otherwise, it reads from its standard input lines
+ * made of the input and output files separated by a tab, and writes
+ * {@link #DONE} on its standard output after each experiment. Anything the
+ * experiments print on the standard output is sent to the standard error
+ * instead, so that it does not interfere with this exchange.
+ *
+ * @author Sylvain Hallé
+ */
+public class ForkedRunner
+{
+	/**
+	 * The line written on the standard output when an experiment is finished
+	 */
+	public static final String DONE = "@LabPal:done";
+
+	/**
+	 * The exit code of the runner when the lab cannot be created
+	 */
+	public static final int ERR_LAB = 2;
+
+	/**
+	 * The system property giving the classes of the probes to add to the lab,
+	 * separated by commas
+	 */
+	public static final String PROBES_PROPERTY = "labpal.probes";
+
+	/**
+	 * The system property giving the directory of the lab's prerequisite
+	 * cache
+	 */
+	public static final String CACHE_DIR_PROPERTY = "labpal.cache.dir";
+
+	/**
+	 * The system property giving the budget of the lab's prerequisite cache,
+	 * in bytes
+	 */
+	public static final String CACHE_SIZE_PROPERTY = "labpal.cache.size";
+
+	private ForkedRunner()
+	{
+		super();
+	}
+
+	/**
+	 * Gets the classes of the probes of a lab, so that they can be passed to
+	 * a child JVM
+	 * @param lab The lab
+	 * @return The names of the classes, separated by commas
+	 */
+	static String getProbeClasses(Laboratory lab)
+	{
+		StringBuilder out = new StringBuilder();
+		for (ExperimentProbe p : lab.getProbes())
+		{
+			if (out.length() > 0)
+			{
+				out.append(",");
+			}
+			out.append(p.getClass().getName());
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Adds to a lab the probes given by the parent JVM, unless the lab
+	 * already adds them itself
+	 * @param lab The lab
+	 * @param classes The names of the classes of the probes, separated by
+	 * commas
+	 * @throws Exception If a probe cannot be instantiated
+	 */
+	@SuppressWarnings("unchecked")
+	static void addProbes(Laboratory lab, String classes) throws Exception
+	{
+		for (String name : classes.split(","))
+		{
+			name = name.trim();
+			if (name.isEmpty())
+			{
+				continue;
+			}
+			Class<? extends ExperimentProbe> clazz = (Class<? extends ExperimentProbe>) Class.forName(name);
+			if (!lab.hasProbe(clazz))
+			{
+				lab.addProbe(clazz.newInstance());
+			}
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: ForkedRunner lab_class seed [input_file output_file]");
+			System.exit(ERR_LAB);
+		}
+		PrintStream protocol = System.out;
+		System.setOut(System.err);
+		Laboratory lab = null;
+		try
+		{
+			lab = (Laboratory) Class.forName(args[0]).newInstance();
+			lab.setRandomSeed(Integer.parseInt(args[1]));
+			lab.setup();
+			addProbes(lab, System.getProperty(PROBES_PROPERTY, ""));
+			String cache_dir = System.getProperty(CACHE_DIR_PROPERTY);
+			if (cache_dir != null)
+			{
+				long budget = Long.parseLong(System.getProperty(CACHE_SIZE_PROPERTY, "-1"));
+				lab.setPrerequisiteCache(new PrerequisiteCache(new File(cache_dir), budget));
+			}
+		}
+		catch (Exception e)
+		{
+			// If the lab cannot be instantiated or set up, nothing can run
+			e.printStackTrace();
+			System.exit(ERR_LAB);
+		}
+		if (args.length >= 4)
+		{
+			runExperiment(lab, new File(args[2]), new File(args[3]));
+		}
+		else
+		{
+			BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+			String line;
+			try
+			{
+				while ((line = in.readLine()) != null)
+				{
+					String[] parts = line.split("\t");
+					if (parts.length < 2)
+					{
+						continue;
+					}
+					runExperiment(lab, new File(parts[0]), new File(parts[1]));
+					protocol.println(DONE);
+					protocol.flush();
+				}
+			}
+			catch (IOException e)
+			{
+				// The parent is gone
+			}
+		}
+		// Don't wait for threads the experiments may have left behind
+		System.exit(0);
+	}
+
+	/**
+	 * Runs a single experiment
+	 * @param lab The lab the experiment belongs to
+	 * @param in_file The file containing the experiment to run
+	 * @param out_file The file where the experiment is written once
+	 * finished
+	 */
+	protected static void runExperiment(final Laboratory lab, File in_file, final File out_file)
+	{
+		final Experiment e;
+		try
+		{
+			JsonParser parser = new JsonParser();
+			e = getInstance(lab, lab.loadExperimentFromJson(parser.parse(FileHelper.readToString(in_file))));
+		}
+		catch (ReadException ex)
+		{
+			ex.printStackTrace();
+			return;
+		}
+		catch (JsonParseException ex)
+		{
+			ex.printStackTrace();
+			return;
+		}
+		e.m_random = lab.getRandom();
+		// The lab is transient: without it, the experiment would run without
+		// the lab's probes, fixtures and prerequisite cache
+		e.m_lab = lab;
+		// Processor time limits can only be measured from within this JVM
+		Watchdog watchdog = new Watchdog().start();
+		ExperimentThread t = new ExperimentThread(e);
+		watchdog.watch(e, t, new Watchdog.Listener()
+		{
+			@Override
+			public void experimentTimedOut(Experiment ex, Thread th)
+			{
+				// Nothing to do
+			}
+
+			@Override
+			public void experimentAbandoned(Experiment ex, Thread th)
+			{
+				// The experiment will not return: report it and give up
+				writeExperiment(lab, e, out_file);
+				System.exit(0);
+			}
+		});
+		t.start();
+		try
+		{
+			t.join();
+		}
+		catch (InterruptedException ex)
+		{
+			e.interrupt();
+		}
+		watchdog.stop();
+		writeExperiment(lab, e, out_file);
+	}
+
+	/**
+	 * Gets the instance of the lab corresponding to an experiment read from
+	 * the parent, and merges the state of the latter into it. Experiments
+	 * that the lab does not create in its setup (for example, experiments
+	 * spawned while the parent was running) are run as they were read.
+	 * @param lab The lab
+	 * @param read The experiment read from the parent
+	 * @return The experiment to run
+	 */
+	protected static Experiment getInstance(Laboratory lab, Experiment read)
+	{
+		Experiment e = lab.getExperiment(read.getId());
+		if (e == null || e.getClass() != read.getClass())
+		{
+			return read;
+		}
+		e.restoreFrom(read);
+		return e;
+	}
+
+	/**
+	 * Writes an experiment to a file
+	 * @param lab The lab the experiment belongs to
+	 * @param e The experiment
+	 * @param out_file The file
+	 */
+	protected static void writeExperiment(Laboratory lab, Experiment e, File out_file)
+	{
+		try
+		{
+			FileHelper.writeFromString(out_file, lab.saveExperimentToJson(e).toString());
+		}
+		catch (PrintException ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+}
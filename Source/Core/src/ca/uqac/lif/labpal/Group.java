@@ -97,9 +97,12 @@ public class Group
 	{
 		if (exps != null)
 		{
-			for (Experiment e : exps)
+			synchronized (m_members)
 			{
-				m_members.add(e.getId());
+				for (Experiment e : exps)
+				{
+					m_members.add(e.getId());
+				}
 			}
 		}
 		return this;
@@ -149,7 +152,7 @@ public class Group
 		{
 			return false;
 		}
-		return m_members.contains(e.getId());
+		return belongsTo(e.getId());
 	}
 	
 	/**
@@ -159,16 +162,23 @@ public class Group
 	 */
 	public boolean belongsTo(int id)
 	{
-		return m_members.contains(id);
+		synchronized (m_members)
+		{
+			return m_members.contains(id);
+		}
 	}
 	
 	/**
-	 * Gets the set of IDs for experiments belonging to this group
+	 * Gets the set of IDs for experiments belonging to this group. This is
+	 * a copy of the set taken at the moment of the call.
 	 * @return The set of IDs
 	 */
 	public Set<Integer> getExperimentIds()
 	{
-		return m_members;
+		synchronized (m_members)
+		{
+			return new HashSet<Integer>(m_members);
+		}
 	}
 	
 	@Override
@@ -0,0 +1,247 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Detects activity of the JVM that can distort the time measured for an
+ * execution of an experiment: major garbage collections, long garbage
+ * collection pauses, and bursts of just-in-time compilation. The monitor is
+ * started before the execution and stopped after it; it then tells whether
+ * the execution was affected.
+ * <p>
+ * Garbage collections are reported by the notifications of the
+ * {@link GarbageCollectorMXBean}s, and compilation by the total compilation
+ * time of the {@link CompilationMXBean}; JVMs that do not provide them are
+ * not monitored. The notifications are read from their open data rather
+ * than through {@code com.sun.management.GarbageCollectionNotificationInfo},
+ * which does not exist in Java 6.
+ * <p>
+ * Both sources cover the whole JVM, not a single thread. When experiments
+ * run in parallel (e.g. with a {@link ThreadPoolAssistant}), the garbage
+ * collections and compilation caused by one of them are therefore also
+ * blamed on all the executions running at the same time.
+ *
+ * @author Sylvain Hallé
+ */
+public class InterferenceMonitor implements NotificationListener
+{
+	/**
+	 * The type of the notifications sent by the garbage collector beans
+	 * after each collection
+	 */
+	protected static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+
+	/**
+	 * The default duration of a garbage collection above which an execution
+	 * is considered affected, in milliseconds
+	 */
+	public static final long DEFAULT_GC_THRESHOLD = 10;
+
+	/**
+	 * The default compilation time above which an execution is considered
+	 * affected, in milliseconds
+	 */
+	public static final long DEFAULT_JIT_THRESHOLD = 50;
+
+	/**
+	 * The duration of a garbage collection above which an execution is
+	 * considered affected, in milliseconds
+	 */
+	private final long m_gcThreshold;
+
+	/**
+	 * The compilation time above which an execution is considered affected,
+	 * in milliseconds
+	 */
+	private final long m_jitThreshold;
+
+	/**
+	 * The beans this monitor listens to
+	 */
+	private final List<NotificationEmitter> m_emitters = new ArrayList<NotificationEmitter>();
+
+	/**
+	 * The total compilation time when the monitor was started
+	 */
+	private long m_startCompilation = -1;
+
+	/**
+	 * The number of garbage collections that affected the execution
+	 */
+	private int m_collections = 0;
+
+	/**
+	 * The longest of these collections, in milliseconds
+	 */
+	private long m_longestCollection = 0;
+
+	/**
+	 * Whether one of these collections was a major one
+	 */
+	private boolean m_major = false;
+
+	/**
+	 * Creates a new monitor
+	 * @param gc_threshold The duration of a garbage collection above which an
+	 * execution is considered affected, in milliseconds. Major collections
+	 * always affect an execution.
+	 * @param jit_threshold The compilation time above which an execution is
+	 * considered affected, in milliseconds
+	 */
+	public InterferenceMonitor(long gc_threshold, long jit_threshold)
+	{
+		super();
+		m_gcThreshold = gc_threshold;
+		m_jitThreshold = jit_threshold;
+	}
+
+	/**
+	 * Creates a new monitor with the default thresholds
+	 */
+	public InterferenceMonitor()
+	{
+		this(DEFAULT_GC_THRESHOLD, DEFAULT_JIT_THRESHOLD);
+	}
+
+	/**
+	 * Starts monitoring
+	 */
+	public void start()
+	{
+		synchronized (this)
+		{
+			m_collections = 0;
+			m_longestCollection = 0;
+			m_major = false;
+		}
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			if (gc instanceof NotificationEmitter)
+			{
+				NotificationEmitter emitter = (NotificationEmitter) gc;
+				emitter.addNotificationListener(this, null, null);
+				m_emitters.add(emitter);
+			}
+		}
+		CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+		if (jit != null && jit.isCompilationTimeMonitoringSupported())
+		{
+			m_startCompilation = jit.getTotalCompilationTime();
+		}
+	}
+
+	/**
+	 * Stops monitoring
+	 * @return A description of what affected the execution, or {@code null}
+	 * if nothing did
+	 */
+	public String stop()
+	{
+		for (NotificationEmitter emitter : m_emitters)
+		{
+			try
+			{
+				emitter.removeNotificationListener(this);
+			}
+			catch (ListenerNotFoundException e)
+			{
+				// Not registered: nothing to do
+			}
+		}
+		m_emitters.clear();
+		List<String> causes = new ArrayList<String>();
+		synchronized (this)
+		{
+			if (m_major)
+			{
+				causes.add("a major garbage collection");
+			}
+			else if (m_collections > 0)
+			{
+				causes.add(m_collections + " garbage collection(s) of up to " + m_longestCollection + " ms");
+			}
+		}
+		if (m_startCompilation >= 0)
+		{
+			long jit_time = ManagementFactory.getCompilationMXBean().getTotalCompilationTime() - m_startCompilation;
+			if (jit_time > m_jitThreshold)
+			{
+				causes.add(jit_time + " ms of JIT compilation");
+			}
+			m_startCompilation = -1;
+		}
+		if (causes.isEmpty())
+		{
+			return null;
+		}
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < causes.size(); i++)
+		{
+			if (i > 0)
+			{
+				out.append(" and ");
+			}
+			out.append(causes.get(i));
+		}
+		return out.toString();
+	}
+
+	@Override
+	public void handleNotification(Notification notification, Object handback)
+	{
+		if (!GC_NOTIFICATION.equals(notification.getType())
+				|| !(notification.getUserData() instanceof CompositeData))
+		{
+			return;
+		}
+		CompositeData info = (CompositeData) notification.getUserData();
+		Object action = info.get("gcAction");
+		Object gc_info = info.get("gcInfo");
+		long duration = 0;
+		if (gc_info instanceof CompositeData)
+		{
+			Object d = ((CompositeData) gc_info).get("duration");
+			if (d instanceof Number)
+			{
+				duration = ((Number) d).longValue();
+			}
+		}
+		boolean major = action != null && action.toString().contains("major");
+		synchronized (this)
+		{
+			if (major || duration > m_gcThreshold)
+			{
+				m_collections++;
+				m_longestCollection = Math.max(m_longestCollection, duration);
+				m_major = m_major || major;
+			}
+		}
+	}
+}
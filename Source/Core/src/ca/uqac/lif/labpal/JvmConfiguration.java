@@ -0,0 +1,133 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A named set of options passed to the JVM running an experiment. JVM
+ * configurations make it possible to compare the same experiment under
+ * different garbage collectors, heap sizes, etc. within a single lab.
+ * <p>
+ * A JVM configuration can be used as a dimension of a {@link Region}:
+ * <pre>
+ * JvmConfiguration g1 = new JvmConfiguration("G1", "-XX:+UseG1GC");
+ * JvmConfiguration par = new JvmConfiguration("Parallel", "-XX:+UseParallelGC");
+ * Region r = new Region();
+ * r.add("Size", 1000, 2000, 3000);
+ * JvmConfiguration.addTo(r, g1, par);
+ * </pre>
+ * When the experiments are created by an {@link ExperimentFactory} to
+ * which the same configurations have been given (see
+ * {@link ExperimentFactory#addJvmConfiguration(JvmConfiguration...)}),
+ * each experiment receives the name of its configuration as the input
+ * parameter {@value #PARAMETER}, which can be used in tables and plots
+ * like any other parameter, and the options of the configuration as its
+ * JVM options. These options are applied when the lab is run by a
+ * {@link ForkedAssistant}.
+ *
+ * @author Sylvain Hallé
+ */
+public class JvmConfiguration
+{
+	/**
+	 * The name of the input parameter holding the name of the configuration
+	 */
+	public static final String PARAMETER = "JVM";
+
+	/**
+	 * The name of the configuration
+	 */
+	protected final String m_name;
+
+	/**
+	 * The options passed to the JVM
+	 */
+	protected final List<String> m_options;
+
+	/**
+	 * Creates a new JVM configuration
+	 * @param name The name of the configuration
+	 * @param options The options passed to the JVM
+	 */
+	public JvmConfiguration(String name, String ... options)
+	{
+		super();
+		m_name = name;
+		m_options = new ArrayList<String>(options.length);
+		for (String o : options)
+		{
+			m_options.add(o);
+		}
+	}
+
+	/**
+	 * Gets the name of the configuration
+	 * @return The name
+	 */
+	public String getName()
+	{
+		return m_name;
+	}
+
+	/**
+	 * Gets the options passed to the JVM
+	 * @return The list of options
+	 */
+	public List<String> getOptions()
+	{
+		return Collections.unmodifiableList(m_options);
+	}
+
+	/**
+	 * Applies this configuration to an experiment. The experiment receives
+	 * the name of the configuration as an input parameter, and the options
+	 * of the configuration as its JVM options.
+	 * @param e The experiment
+	 */
+	public void applyTo(Experiment e)
+	{
+		e.setInput(PARAMETER, m_name);
+		e.setJvmOptions(m_options.toArray(new String[m_options.size()]));
+	}
+
+	/**
+	 * Adds to a region a dimension whose values are the names of JVM
+	 * configurations
+	 * @param r The region
+	 * @param configurations The configurations
+	 * @return The region
+	 */
+	public static Region addTo(Region r, JvmConfiguration ... configurations)
+	{
+		String[] names = new String[configurations.length];
+		for (int i = 0; i < configurations.length; i++)
+		{
+			names[i] = configurations[i].getName();
+		}
+		return r.add(PARAMETER, names);
+	}
+
+	@Override
+	public String toString()
+	{
+		return m_name + " " + m_options;
+	}
+}
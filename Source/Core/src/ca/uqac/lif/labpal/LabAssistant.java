@@ -17,9 +17,16 @@
  */
 package ca.uqac.lif.labpal;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import ca.uqac.lif.labpal.Experiment.Status;
+
 import ca.uqac.lif.labpal.ResultReporter.ReporterException;
 
 /**
@@ -36,6 +43,12 @@ import ca.uqac.lif.labpal.ResultReporter.ReporterException;
  */
 public abstract class LabAssistant implements Runnable
 {
+	/**
+	 * The number of experiments at the front of the queue among which
+	 * assistants look for one whose fixtures are already available
+	 */
+	protected static final int WARM_FIXTURE_LOOKAHEAD = 64;
+
 	/**
 	 * The assistant's name
 	 */
@@ -61,6 +74,30 @@ public abstract class LabAssistant implements Runnable
 	 * The laboratory this assistant is managing
 	 */
 	protected transient Laboratory m_lab;
+
+	/**
+	 * The number of queued experiments whose prerequisites are fulfilled
+	 * in advance
+	 */
+	private transient int m_prepareAhead = 0;
+
+	/**
+	 * The pool fulfilling the prerequisites of queued experiments in advance
+	 */
+	private transient PreparationPool m_preparer = null;
+
+	/**
+	 * The predicted duration of each experiment that is queued or running,
+	 * in seconds
+	 */
+	private transient final Map<Experiment,Float> m_estimates = new HashMap<Experiment,Float>();
+
+	/**
+	 * The sum of the values in {@link #m_estimates}. It is updated as
+	 * experiments come and go, so that the time estimate does not require
+	 * going through the queue.
+	 */
+	private transient double m_estimateTotal = 0;
 	
 	/**
 	 * Creates a new lab assistant
@@ -97,6 +134,308 @@ public abstract class LabAssistant implements Runnable
 		return time;
 	}
 	
+	/**
+	 * Sets the number of queued experiments whose prerequisites are
+	 * fulfilled in advance, while other experiments are running. This is done
+	 * by a thread of low priority, which may still compete with the running
+	 * experiments for processor time.
+	 * @param n The number of experiments. The default value, 0, disables the
+	 * preparation of experiments in advance.
+	 * @return This assistant
+	 */
+	public LabAssistant setPrepareAhead(int n)
+	{
+		m_prepareAhead = Math.max(0, n);
+		return this;
+	}
+
+	/**
+	 * Gets the number of queued experiments whose prerequisites are
+	 * fulfilled in advance
+	 * @return The number of experiments
+	 */
+	public int getPrepareAhead()
+	{
+		return m_prepareAhead;
+	}
+
+	/**
+	 * Fulfills in the background the prerequisites of the next experiments
+	 * to run. Descendants of this class should call this method every time
+	 * they start an experiment.
+	 * @param upcoming The experiments of the queue that have not started
+	 * yet, in the order they will be started
+	 */
+	protected void prepareAhead(List<Experiment> upcoming)
+	{
+		if (m_prepareAhead <= 0)
+		{
+			return;
+		}
+		List<Experiment> next = new ArrayList<Experiment>(m_prepareAhead);
+		for (int i = 0; i < upcoming.size() && i < m_prepareAhead; i++)
+		{
+			Experiment e = upcoming.get(i);
+			Status s = e.getStatus();
+			if (s == Status.PREREQ_NOK || s == Status.DUNNO)
+			{
+				next.add(e);
+			}
+		}
+		if (next.isEmpty())
+		{
+			return;
+		}
+		synchronized (this)
+		{
+			if (m_preparer == null)
+			{
+				m_preparer = new PreparationPool(1);
+			}
+			m_preparer.prepare(next);
+		}
+	}
+
+	/**
+	 * Stops fulfilling prerequisites in advance. Descendants of this class
+	 * should call this method when they stop running experiments.
+	 */
+	protected synchronized void stopPreparing()
+	{
+		if (m_preparer != null)
+		{
+			m_preparer.shutdown();
+			m_preparer = null;
+		}
+	}
+
+	/**
+	 * Declares that an experiment put in the queue will need its fixtures.
+	 * Descendants of this class must call this method for every experiment
+	 * they add to their queue.
+	 * @param e The experiment
+	 */
+	protected void acquireFixtures(Experiment e)
+	{
+		if (m_lab != null)
+		{
+			m_lab.getFixtureManager().acquire(e);
+		}
+	}
+
+	/**
+	 * Declares that an experiment no longer needs its fixtures. Descendants
+	 * of this class must call this method for every experiment that is
+	 * removed from their queue, or that is finished.
+	 * @param e The experiment
+	 */
+	protected void releaseFixtures(Experiment e)
+	{
+		if (m_lab != null)
+		{
+			m_lab.getFixtureManager().release(e);
+		}
+	}
+
+	/**
+	 * Determines if all the fixtures used by an experiment are already
+	 * available. Assistants can use this information to run experiments
+	 * sharing the same fixtures one after the other.
+	 * @param e The experiment
+	 * @return {@code true} if the experiment has fixtures and all of them are
+	 * available, {@code false} otherwise
+	 */
+	protected boolean hasWarmFixtures(Experiment e)
+	{
+		return m_lab != null && m_lab.getFixtureManager().isWarm(e);
+	}
+
+	/**
+	 * Adds the predicted duration of an experiment to the time estimate.
+	 * Descendants of this class must call this method for every experiment
+	 * they add to their queue.
+	 * @param e The experiment
+	 */
+	protected void addToEstimate(Experiment e)
+	{
+		float t = m_lab != null ? m_lab.estimateDuration(e) : e.getDurationEstimate(Laboratory.s_parkMips);
+		synchronized (m_estimates)
+		{
+			Float old = m_estimates.put(e, t);
+			m_estimateTotal += t - (old == null ? 0 : old);
+		}
+	}
+
+	/**
+	 * Removes the predicted duration of an experiment from the time estimate.
+	 * Descendants of this class must call this method for every experiment
+	 * removed from their queue without being finished.
+	 * @param e The experiment
+	 */
+	protected void removeFromEstimate(Experiment e)
+	{
+		synchronized (m_estimates)
+		{
+			Float old = m_estimates.remove(e);
+			if (old != null)
+			{
+				m_estimateTotal -= old;
+			}
+			if (m_estimates.isEmpty())
+			{
+				// Don't let rounding errors accumulate
+				m_estimateTotal = 0;
+			}
+		}
+	}
+
+	/**
+	 * Records that an experiment is finished. Its duration is given to the
+	 * lab's {@link DurationModel}; if this changes the predictions for its
+	 * class, the estimates of the other experiments of that class are
+	 * updated. Descendants of this class must call this method for every
+	 * experiment they finish running.
+	 * @param e The experiment
+	 */
+	protected void recordCompletion(Experiment e)
+	{
+		removeFromEstimate(e);
+		if (m_lab == null || !m_lab.getDurationModel().record(e))
+		{
+			return;
+		}
+		synchronized (m_estimates)
+		{
+			for (Map.Entry<Experiment,Float> entry : m_estimates.entrySet())
+			{
+				if (entry.getKey().getClass() == e.getClass())
+				{
+					float t = m_lab.estimateDuration(entry.getKey());
+					m_estimateTotal += t - entry.getValue();
+					entry.setValue(t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the predicted time to finish the experiments that are queued or
+	 * running
+	 * @param running The experiments that are running; the time elapsed
+	 * since their start is subtracted from their predicted duration
+	 * @return The time, in seconds
+	 */
+	protected float getRemainingEstimate(Collection<Experiment> running)
+	{
+		long now = System.currentTimeMillis();
+		synchronized (m_estimates)
+		{
+			double time = m_estimateTotal;
+			for (Experiment e : running)
+			{
+				Float t = m_estimates.get(e);
+				if (t != null && e.getStartTime() > 0)
+				{
+					time -= Math.min(t, (now - e.getStartTime()) / 1000f);
+				}
+			}
+			return (float) Math.max(0, time);
+		}
+	}
+
+	/**
+	 * Gets the number of experiments that are queued or running
+	 * @return The number of experiments
+	 */
+	protected int getEstimateCount()
+	{
+		synchronized (m_estimates)
+		{
+			return m_estimates.size();
+		}
+	}
+
+	/**
+	 * Adds to a list of experiments to queue the experiments they depend on
+	 * and that still have to run
+	 * @param experiments The experiments to queue
+	 * @return The list of experiments to queue, where each experiment comes
+	 * after the experiments it depends on
+	 */
+	protected static List<Experiment> withDependencies(Collection<Experiment> experiments)
+	{
+		List<Experiment> out = new ArrayList<Experiment>(experiments.size());
+		Set<Experiment> visited = new HashSet<Experiment>();
+		for (Experiment e : experiments)
+		{
+			addWithDependencies(e, out, visited);
+		}
+		return out;
+	}
+
+	/**
+	 * Adds an experiment to a list, after the experiments it depends on
+	 * @param e The experiment
+	 * @param out The list
+	 * @param visited The experiments already visited
+	 */
+	private static void addWithDependencies(Experiment e, List<Experiment> out, Set<Experiment> visited)
+	{
+		if (!visited.add(e))
+		{
+			return;
+		}
+		for (Experiment d : e.getDependencies())
+		{
+			Status s = d.getStatus();
+			if (s != Status.DONE && s != Status.DONE_WARNING && s != Status.FAILED
+					&& s != Status.RUNNING && s != Status.RUNNING_REMOTELY)
+			{
+				addWithDependencies(d, out, visited);
+			}
+		}
+		out.add(e);
+	}
+
+	/**
+	 * Releases the resources held for experiments that have been removed from
+	 * the queue and skipped, because an experiment they depend on did not
+	 * complete
+	 * @param experiments The experiments
+	 */
+	protected void releaseSkipped(List<Experiment> experiments)
+	{
+		for (Experiment e : experiments)
+		{
+			releaseFixtures(e);
+			removeFromEstimate(e);
+		}
+	}
+
+	/**
+	 * Tells the lab that an experiment has stopped running, giving it a
+	 * chance to spawn new experiments. Descendants of this class must call
+	 * this method before they check whether their queue is empty, otherwise
+	 * they could stop before the experiments spawned by the lab are queued.
+	 * @param e The experiment
+	 */
+	protected void notifyFinished(Experiment e)
+	{
+		if (m_lab == null)
+		{
+			return;
+		}
+		try
+		{
+			m_lab.notifyFinished(e);
+		}
+		catch (RuntimeException ex)
+		{
+			// An error in the lab must not stop the assistant
+			ex.printStackTrace();
+		}
+	}
+
 	/**
 	 * Removes an experiment from the queue
 	 * @param e The experiment
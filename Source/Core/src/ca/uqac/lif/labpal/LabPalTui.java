@@ -860,6 +860,11 @@ public class LabPalTui
 				printer.print("F");
 				printer.resetColors();
 				break;
+			case SKIPPED:
+				printer.setForegroundColor(AnsiPrinter.Color.RED);
+				printer.print("S");
+				printer.resetColors();
+				break;
 			default:
 				printer.setForegroundColor(AnsiPrinter.Color.DARK_GRAY);
 				printer.print("?");
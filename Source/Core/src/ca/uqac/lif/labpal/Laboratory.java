@@ -26,11 +26,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
@@ -55,6 +58,11 @@ import ca.uqac.lif.labpal.export.BatchRunner;
 import ca.uqac.lif.labpal.export.CodeOceanRunner;
 import ca.uqac.lif.labpal.export.LocalBatchRunner;
 import ca.uqac.lif.labpal.macro.Macro;
+import ca.uqac.lif.labpal.probe.ExperimentProbe;
+import ca.uqac.lif.labpal.probe.EnergyProbe;
+import ca.uqac.lif.labpal.probe.JfrProbe;
+import ca.uqac.lif.labpal.probe.NoiseMonitor;
+import ca.uqac.lif.labpal.probe.ResourceProbe;
 import ca.uqac.lif.labpal.provenance.DataTracker;
 import ca.uqac.lif.labpal.server.HomePageCallback;
 import ca.uqac.lif.labpal.server.HttpUtilities;
@@ -101,7 +109,9 @@ public abstract class Laboratory implements OwnershipManager
   private static final transient int s_revisionVersionNumber = 10;
 
   /**
-   * The set of experiments this lab has access to
+   * The set of experiments this lab has access to. Experiments can be
+   * spawned while the lab runs, so every access to this set is
+   * synchronized on it.
    */
   private HashSet<Experiment> m_experiments;
 
@@ -135,6 +145,36 @@ public abstract class Laboratory implements OwnershipManager
    */
   private String m_hostName = guessHostName();
 
+  /**
+   * The description of the environment in which the lab is run
+   */
+  private EnvironmentFingerprint m_fingerprint = EnvironmentFingerprint.collect();
+
+  /**
+   * The model predicting the duration of the experiments from the
+   * durations of those that have already run
+   */
+  private DurationModel m_durationModel = new DurationModel();
+
+  /**
+   * The fingerprint saved with the lab, if it was loaded from a file. The
+   * fingerprint of the current environment is collected again after
+   * loading, and compared to this one.
+   */
+  private transient EnvironmentFingerprint m_savedFingerprint = null;
+
+  /**
+   * The differences between the hardware and software of this lab and of
+   * the labs whose results were loaded or merged into it
+   */
+  private transient List<String> m_environmentDifferences = new ArrayList<String>();
+
+  /**
+   * The differences between the JVM settings of this lab and of the labs
+   * whose results were loaded or merged into it
+   */
+  private transient List<String> m_settingDifferences = new ArrayList<String>();
+
   /**
    * A data tracker for generating provenance info
    */
@@ -205,6 +245,27 @@ public abstract class Laboratory implements OwnershipManager
    */
   private transient Random m_random = new Random();
 
+  /**
+   * The objects shared by the experiments of this lab
+   */
+  private transient FixtureManager m_fixtures = new FixtureManager();
+
+  /**
+   * The cache where experiments store the data they generate as their
+   * prerequisites. It is created on first use.
+   */
+  private transient PrerequisiteCache m_cache = null;
+
+  /**
+   * The probes recording measurements on every experiment of this lab
+   */
+  private transient List<ExperimentProbe> m_probes = new CopyOnWriteArrayList<ExperimentProbe>();
+
+  /**
+   * The parameter searches running in this lab
+   */
+  private transient List<ParameterSearch> m_searches = new CopyOnWriteArrayList<ParameterSearch>();
+
   /**
    * The seed used to initialize the random number generator
    */
@@ -235,6 +296,12 @@ public abstract class Laboratory implements OwnershipManager
    */
   private transient boolean m_isDeserialized = false;
 
+  /**
+   * While the lab is being deserialized, associates each experiment created
+   * by {@link #setup()} with the loaded experiment that replaces it
+   */
+  private transient Map<Experiment,Experiment> m_loadedInstances = new IdentityHashMap<Experiment,Experiment>();
+
   /**
    * A result reporter
    */
@@ -307,6 +374,16 @@ public abstract class Laboratory implements OwnershipManager
     return this;
   }
 
+  /**
+   * Gets the assistant running the experiments of this lab
+   * 
+   * @return The assistant, or {@code null} if none has been set
+   */
+  public LabAssistant getAssistant()
+  {
+    return m_assistant;
+  }
+
   /**
    * Sets the lab's author
    * 
@@ -330,6 +407,100 @@ public abstract class Laboratory implements OwnershipManager
     return m_reporter;
   }
 
+  /**
+   * Gets the manager of the fixtures shared by the experiments of this lab
+   * 
+   * @return The manager
+   */
+  public final FixtureManager getFixtureManager()
+  {
+    return m_fixtures;
+  }
+
+  /**
+   * Gets the cache where the experiments of this lab store the data they
+   * generate as their prerequisites. Unless another cache has been set with
+   * {@link #setPrerequisiteCache(PrerequisiteCache)}, this is a cache with no
+   * size limit in the directory {@value PrerequisiteCache#DEFAULT_DIRECTORY}.
+   * 
+   * @return The cache
+   */
+  public final synchronized PrerequisiteCache getPrerequisiteCache()
+  {
+    if (m_cache == null)
+    {
+      m_cache = new PrerequisiteCache();
+    }
+    return m_cache;
+  }
+
+  /**
+   * Sets the cache where the experiments of this lab store the data they
+   * generate as their prerequisites
+   * 
+   * @param cache The cache
+   * @return This lab
+   */
+  public final synchronized Laboratory setPrerequisiteCache(PrerequisiteCache cache)
+  {
+    m_cache = cache;
+    return this;
+  }
+
+  /**
+   * Adds a probe recording measurements on every experiment of this lab.
+   * The measurements are written in the output parameters of the
+   * experiments.
+   * 
+   * @param probe The probe
+   * @return This lab
+   */
+  public final Laboratory addProbe(ExperimentProbe probe)
+  {
+    m_probes.add(probe);
+    return this;
+  }
+
+  /**
+   * Gets the probes recording measurements on the experiments of this lab
+   * 
+   * @return The list of probes
+   */
+  public final List<ExperimentProbe> getProbes()
+  {
+    return Collections.unmodifiableList(m_probes);
+  }
+
+  /**
+   * Checks if this lab has a probe of a given class
+   * 
+   * @param clazz The class
+   * @return {@code true} if one of the lab's probes is an instance of this
+   * class, {@code false} otherwise
+   */
+  public final boolean hasProbe(Class<? extends ExperimentProbe> clazz)
+  {
+    for (ExperimentProbe p : m_probes)
+    {
+      if (clazz.isInstance(p))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks if the experiments of this lab have used the prerequisite cache
+   * 
+   * @return {@code true} if the cache has been created, {@code false}
+   * otherwise
+   */
+  public final synchronized boolean hasPrerequisiteCache()
+  {
+    return m_cache != null;
+  }
+
   /**
    * Gets the lab's author
    * 
@@ -381,15 +552,19 @@ public abstract class Laboratory implements OwnershipManager
   public Laboratory add(Experiment e, Group group, ExperimentTable... tables)
   {
     Experiment target_e = e;
-    int exp_id = m_idCounter++;
-    target_e.setId(exp_id);
-    addClassToSerialize(target_e.getClass());
-    target_e.m_random = m_random;
-    if (!m_isDeserialized)
+    int exp_id;
+    synchronized (m_experiments)
     {
-      m_experiments.add(e);
+      exp_id = m_idCounter++;
+      target_e.setId(exp_id);
+      if (!m_isDeserialized)
+      {
+        m_experiments.add(e);
+      }
     }
-    else
+    addClassToSerialize(target_e.getClass());
+    target_e.m_random = m_random;
+    if (m_isDeserialized)
     {
       target_e = getExperiment(exp_id);
       if (target_e == null)
@@ -398,7 +573,9 @@ public abstract class Laboratory implements OwnershipManager
         throw new RuntimeException(
             "Experiment #" + exp_id + " cannot be found in deserialized lab.");
       }
+      m_loadedInstances.put(e, target_e);
     }
+    target_e.m_lab = this;
     for (ExperimentTable p : tables)
     {
       p.add(target_e);
@@ -425,6 +602,114 @@ public abstract class Laboratory implements OwnershipManager
     return add(e, null, tables);
   }
 
+  /**
+   * Adds an experiment to the lab while it is running, and queues it
+   * right away. This is meant to be called from
+   * {@link #experimentFinished(Experiment)}, so that a lab can decide
+   * which experiments to run next based on the results obtained so far,
+   * instead of sweeping a whole grid of parameters in {@link #setup()}.
+   * <p>
+   * Contrary to the experiments created in {@link #setup()}, the
+   * experiments spawned by a lab are not recreated when a saved lab is
+   * loaded: they are restored as they were saved, but are no longer
+   * associated to the tables they were added to.
+   * 
+   * @param e
+   *          The experiment
+   * @param group
+   *          The group to add this experiment to
+   * @param tables
+   *          Optional: a number of tables this experiment should be associated
+   *          with
+   * @return This lab
+   */
+  public Laboratory spawn(Experiment e, Group group, ExperimentTable... tables)
+  {
+    add(e, group, tables);
+    if (m_assistant != null)
+    {
+      m_assistant.queue(e);
+    }
+    return this;
+  }
+
+  /**
+   * Adds an experiment to the lab while it is running, and queues it
+   * right away
+   * 
+   * @param e
+   *          The experiment
+   * @param tables
+   *          Optional: a number of tables this experiment should be associated
+   *          with
+   * @return This lab
+   * @see #spawn(Experiment, Group, ExperimentTable...)
+   */
+  public Laboratory spawn(Experiment e, ExperimentTable... tables)
+  {
+    return spawn(e, null, tables);
+  }
+
+  /**
+   * Method called by the lab assistant every time an experiment stops
+   * running, be it successfully or not. It is called from the thread that
+   * ran the experiment, before the assistant picks the next one to run.
+   * Labs that generate experiments adaptively override this method, look
+   * at the results of the experiment, and call
+   * {@link #spawn(Experiment, ExperimentTable...) spawn()} to add new
+   * ones. By default, this method does nothing.
+   * 
+   * @param e
+   *          The experiment
+   */
+  public void experimentFinished(Experiment e)
+  {
+    // Do nothing
+  }
+
+  /**
+   * Adds a parameter search to this lab. The table of the search is added
+   * to the lab, and the experiments for the first points of the search are
+   * created; the other ones are created as the search progresses.
+   * 
+   * @param search
+   *          The search
+   * @return This lab
+   */
+  public Laboratory add(ParameterSearch search)
+  {
+    m_searches.add(search);
+    add(search.getTable());
+    search.start();
+    return this;
+  }
+
+  /**
+   * Gets the parameter searches running in this lab
+   * 
+   * @return The list of searches
+   */
+  public List<ParameterSearch> getSearches()
+  {
+    return Collections.unmodifiableList(m_searches);
+  }
+
+  /**
+   * Tells the searches of this lab, and then the lab itself, that an
+   * experiment has stopped running
+   * 
+   * @param e
+   *          The experiment
+   */
+  void notifyFinished(Experiment e)
+  {
+    for (ParameterSearch s : m_searches)
+    {
+      s.experimentFinished(e);
+    }
+    experimentFinished(e);
+  }
+
   /**
    * Assigns plots to this lab
    * 
@@ -607,13 +892,16 @@ public abstract class Laboratory implements OwnershipManager
    *          The ID
    * @return The experiment if found, null otherwise
    */
-  public synchronized Experiment getExperiment(int id)
+  public Experiment getExperiment(int id)
   {
-    for (Experiment e : m_experiments)
+    synchronized (m_experiments)
     {
-      if (id == e.getId())
+      for (Experiment e : m_experiments)
       {
-        return e;
+        if (id == e.getId())
+        {
+          return e;
+        }
       }
     }
     return null;
@@ -627,7 +915,7 @@ public abstract class Laboratory implements OwnershipManager
   public Set<Integer> getExperimentIds()
   {
     Set<Integer> ids = new HashSet<Integer>();
-    for (Experiment e : m_experiments)
+    for (Experiment e : getExperiments())
     {
       ids.add(e.getId());
     }
@@ -717,9 +1005,47 @@ public abstract class Laboratory implements OwnershipManager
     Plot.resetCounter();
     lab.setup();
     lab.m_isDeserialized = false;
+    lab.restoreDependencies();
+    // Experiments spawned while the lab was running are not created by
+    // setup(); attach them to the lab and reserve their IDs
+    for (Experiment e : lab.getExperiments())
+    {
+      if (e.m_lab == null)
+      {
+        e.m_lab = lab;
+        e.m_random = lab.m_random;
+      }
+      lab.m_idCounter = Math.max(lab.m_idCounter, e.getId() + 1);
+    }
+    // The lab may now run on another machine
+    lab.m_savedFingerprint = lab.m_fingerprint;
+    lab.m_fingerprint = EnvironmentFingerprint.collect();
+    if (lab.m_savedFingerprint != null)
+    {
+      lab.compareEnvironment(lab.m_savedFingerprint, "loaded");
+    }
     return lab;
   }
 
+  /**
+   * Declares on the loaded experiments the dependencies that
+   * {@link #setup()} declared on the experiments it created, which the
+   * loaded ones have replaced. Dependencies are not saved with the lab.
+   */
+  private void restoreDependencies()
+  {
+    for (Map.Entry<Experiment,Experiment> entry : m_loadedInstances.entrySet())
+    {
+      Experiment target_e = entry.getValue();
+      for (Experiment d : entry.getKey().getDependencies())
+      {
+        Experiment target_d = m_loadedInstances.get(d);
+        target_e.addDependency(target_d != null ? target_d : d);
+      }
+    }
+    m_loadedInstances.clear();
+  }
+
   /**
    * Saves the state of the lab assistant to a JSON string
    * 
@@ -752,6 +1078,35 @@ public abstract class Laboratory implements OwnershipManager
     return js_out;
   }
 
+  /**
+   * Saves the state of a single experiment of this lab to a JSON element
+   * 
+   * @param e
+   *          The experiment
+   * @return The JSON element with the experiment's state
+   * @throws PrintException Thrown if the serialization of the experiment
+   * could not be done for some reason
+   */
+  JsonElement saveExperimentToJson(Experiment e) throws PrintException
+  {
+    return m_printer.print(e);
+  }
+
+  /**
+   * Creates an experiment from the contents of a JSON element produced by
+   * {@link #saveExperimentToJson(Experiment)}
+   * 
+   * @param je
+   *          The JSON element with the experiment's state
+   * @return The experiment
+   * @throws ReadException
+   *           If the deserialization could not be done
+   */
+  Experiment loadExperimentFromJson(JsonElement je) throws ReadException
+  {
+    return (Experiment) m_reader.read(je);
+  }
+
   /**
    * Adds a class that must be serialized with the benchmark
    * 
@@ -959,6 +1314,34 @@ public abstract class Laboratory implements OwnershipManager
         .withDescription("Report results every x sec (works with report-to)"));
     parser.addArgument(new Argument().withLongName("filter").withArgument("exp")
         .withDescription("Filter experiments according to expression exp"));
+    parser.addArgument(new Argument().withLongName("threads").withArgument("n")
+        .withDescription("Run up to n experiments at the same time"));
+    parser.addArgument(new Argument().withLongName("fork")
+        .withDescription("Run each experiment in a separate JVM"));
+    parser.addArgument(new Argument().withLongName("resources")
+        .withDescription("Run experiments in parallel according to the cores and memory they declare"));
+    parser.addArgument(new Argument().withLongName("schedule").withArgument("p")
+        .withDescription("Start experiments according to policy p (fifo, shortest, longest, groups or priority)"));
+    parser.addArgument(new Argument().withLongName("prepare-ahead").withArgument("n")
+        .withDescription("Prepare the next n experiments while others are running"));
+    parser.addArgument(new Argument().withLongName("cache-dir").withArgument("dir")
+        .withDescription("Store generated prerequisites in directory dir"));
+    parser.addArgument(new Argument().withLongName("cache-size").withArgument("x")
+        .withDescription("Limit the size of the prerequisite cache to x bytes (e.g. 500M)"));
+    parser.addArgument(new Argument().withLongName("duration-model").withArgument("file")
+        .withDescription("Load the durations of previous runs from file, and save them on exit"));
+    parser.addArgument(new Argument().withLongName("instrument")
+        .withDescription("Record the CPU time, memory and GC activity of each experiment"));
+    parser.addArgument(new Argument().withLongName("jfr").withArgument("ids")
+        .withDescription("Record experiments ids (e.g. 1,4-6, or all) with the Java Flight Recorder"));
+    parser.addArgument(new Argument().withLongName("perf")
+        .withDescription("Read hardware counters with perf stat (with --fork)"));
+    parser.addArgument(new Argument().withLongName("energy")
+        .withDescription("Measure the energy consumed by each experiment with the RAPL counters (Linux)"));
+    parser.addArgument(new Argument().withLongName("noise-monitor")
+        .withDescription("Monitor the machine's speed and load, and flag experiments run in abnormal conditions"));
+    parser.addArgument(new Argument().withLongName("rerun-on-interference").withArgument("n")
+        .withDescription("Run again up to n times the executions affected by GC or JIT activity (of the whole JVM, including experiments running in parallel)"));
     return parser;
   }
 
@@ -968,7 +1351,7 @@ public abstract class Laboratory implements OwnershipManager
   }
 
   public static final int initialize(String[] args, Class<? extends Laboratory> clazz,
-      final LabAssistant assistant)
+      LabAssistant lab_assistant)
   {
 
     final AnsiPrinter stdout = new AnsiPrinter(System.out);
@@ -1027,6 +1410,140 @@ public abstract class Laboratory implements OwnershipManager
         new_lab.mergeWith(lab_to_merge);
       }
     }
+    if (argument_map.hasOption("fork") && !(lab_assistant instanceof ForkedAssistant))
+    {
+      if (lab_assistant instanceof LinearAssistant)
+      {
+        lab_assistant = new ForkedAssistant();
+      }
+      else
+      {
+        System.err.println("WARNING: the lab's assistant does not support the --fork option.");
+      }
+    }
+    if (argument_map.hasOption("resources") && !(lab_assistant instanceof ResourceAwareAssistant))
+    {
+      if (lab_assistant instanceof LinearAssistant)
+      {
+        lab_assistant = new ResourceAwareAssistant();
+      }
+      else
+      {
+        System.err.println("WARNING: the lab's assistant does not support the --resources option.");
+      }
+    }
+    if (argument_map.hasOption("threads"))
+    {
+      int num_threads = Integer.parseInt(argument_map.getOptionValue("threads").trim());
+      if (lab_assistant instanceof ThreadPoolAssistant)
+      {
+        ((ThreadPoolAssistant) lab_assistant).setThreads(num_threads);
+      }
+      else if (lab_assistant instanceof LinearAssistant)
+      {
+        // Replace the default assistant by one that runs experiments in parallel
+        lab_assistant = new ThreadPoolAssistant(num_threads);
+      }
+      else
+      {
+        System.err.println("WARNING: the lab's assistant does not support the --threads option.");
+      }
+    }
+    if (argument_map.hasOption("perf"))
+    {
+      if (lab_assistant instanceof ForkedAssistant)
+      {
+        ((ForkedAssistant) lab_assistant).setPerfStat(new PerfStat());
+      }
+      else
+      {
+        System.err.println("WARNING: the --perf option only applies to experiments run with --fork.");
+      }
+    }
+    if (argument_map.hasOption("schedule"))
+    {
+      SchedulingPolicy policy = SchedulingPolicy.fromString(argument_map.getOptionValue("schedule"));
+      if (policy == null)
+      {
+        System.err.println("WARNING: unknown scheduling policy " + argument_map.getOptionValue("schedule") + "; experiments are started in the order they are queued.");
+      }
+      else if (lab_assistant instanceof ThreadPoolAssistant)
+      {
+        ((ThreadPoolAssistant) lab_assistant).setSchedulingPolicy(policy);
+      }
+      else if (lab_assistant instanceof LinearAssistant)
+      {
+        ((LinearAssistant) lab_assistant).setSchedulingPolicy(policy);
+      }
+      else
+      {
+        System.err.println("WARNING: the lab's assistant does not support the --schedule option.");
+      }
+    }
+    if (argument_map.hasOption("prepare-ahead"))
+    {
+      lab_assistant.setPrepareAhead(Integer.parseInt(argument_map.getOptionValue("prepare-ahead").trim()));
+    }
+    if (argument_map.hasOption("cache-dir") || argument_map.hasOption("cache-size"))
+    {
+      String dir = PrerequisiteCache.DEFAULT_DIRECTORY;
+      long budget = -1;
+      if (argument_map.hasOption("cache-dir"))
+      {
+        dir = argument_map.getOptionValue("cache-dir").trim();
+      }
+      if (argument_map.hasOption("cache-size"))
+      {
+        budget = PrerequisiteCache.parseSize(argument_map.getOptionValue("cache-size"));
+      }
+      new_lab.setPrerequisiteCache(new PrerequisiteCache(new File(dir), budget));
+    }
+    if (argument_map.hasOption("duration-model"))
+    {
+      final File model_file = new File(argument_map.getOptionValue("duration-model").trim());
+      final DurationModel model = new_lab.getDurationModel();
+      try
+      {
+        model.load(model_file);
+      }
+      catch (JsonParseException e)
+      {
+        System.err.println("WARNING: cannot read the durations in " + model_file + "; starting with an empty model.");
+      }
+      Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          model.save(model_file);
+        }
+      }));
+    }
+    if (argument_map.hasOption("instrument") && !new_lab.hasProbe(ResourceProbe.class))
+    {
+      new_lab.addProbe(new ResourceProbe());
+    }
+    if (argument_map.hasOption("noise-monitor") && !new_lab.hasProbe(NoiseMonitor.class))
+    {
+      new_lab.addProbe(new NoiseMonitor());
+    }
+    if (argument_map.hasOption("energy") && !new_lab.hasProbe(EnergyProbe.class))
+    {
+      EnergyProbe probe = new EnergyProbe();
+      if (probe.isAvailable())
+      {
+        new_lab.addProbe(probe);
+      }
+      else
+      {
+        System.err.println("WARNING: cannot read the RAPL energy counters; energy will not be measured.");
+      }
+    }
+    if (argument_map.hasOption("jfr"))
+    {
+      new_lab.addProbe(new JfrProbe(new ExperimentFilter.IdFilter(argument_map.getOptionValue("jfr"))));
+    }
+    final LabAssistant assistant = lab_assistant;
     new_lab.setAssistant(assistant);
 
     // Properly close print streams when closing the program
@@ -1074,6 +1591,28 @@ public abstract class Laboratory implements OwnershipManager
       stdout.println("Loading lab from " + filename);
     }
     new_lab.setup();
+    if (argument_map.hasOption("rerun-on-interference"))
+    {
+      int max_reruns = Integer.parseInt(argument_map.getOptionValue("rerun-on-interference").trim());
+      for (Experiment e : new_lab.getExperiments())
+      {
+        if (e.getMaxReruns() < 0)
+        {
+          e.detectInterference(max_reruns);
+        }
+      }
+    }
+    if (!(assistant instanceof ForkedAssistant))
+    {
+      for (Experiment e : new_lab.getExperiments())
+      {
+        if (!e.getJvmOptions().isEmpty())
+        {
+          System.err.println("WARNING: some experiments specify JVM options, which only apply when the lab is run with --fork.");
+          break;
+        }
+      }
+    }
     if (argument_map.hasOption("report-to"))
     {
       String host = argument_map.getOptionValue("report-to").trim();
@@ -1567,7 +2106,7 @@ public abstract class Laboratory implements OwnershipManager
   public int countDataPoints()
   {
     int pts = 0;
-    for (Experiment e : m_experiments)
+    for (Experiment e : getExperiments())
     {
       pts += e.countDataPoints();
     }
@@ -1587,6 +2126,133 @@ public abstract class Laboratory implements OwnershipManager
     return m_hostName;
   }
 
+  /**
+   * Gets the description of the environment in which the lab was run
+   * 
+   * @return The fingerprint
+   */
+  public final EnvironmentFingerprint getFingerprint()
+  {
+    return m_fingerprint;
+  }
+
+  /**
+   * Gets the fingerprint saved with the lab, if it was loaded from a file
+   * 
+   * @return The fingerprint of the environment in which the saved results
+   *         were obtained, or {@code null} if the lab was not loaded
+   */
+  public final EnvironmentFingerprint getSavedFingerprint()
+  {
+    return m_savedFingerprint;
+  }
+
+  /**
+   * Gets the differences between the hardware and software of this lab and
+   * of the labs whose results were loaded or merged into it with
+   * {@link #mergeWith(Laboratory)}
+   * 
+   * @return A list of descriptions of the differences; the list is empty if
+   *         all results come from the same environment
+   */
+  public final List<String> getEnvironmentDifferences()
+  {
+    return m_environmentDifferences;
+  }
+
+  /**
+   * Gets the differences between the JVM settings of this lab and of the
+   * labs whose results were loaded or merged into it
+   * 
+   * @return A list of descriptions of the differences; the list is empty if
+   *         all results come from JVMs with the same settings
+   */
+  public final List<String> getSettingDifferences()
+  {
+    return m_settingDifferences;
+  }
+
+  /**
+   * Compares the environment of this lab with the one in which other
+   * results were obtained, prints warnings and records the differences
+   * 
+   * @param f
+   *          The fingerprint of the other environment
+   * @param verb
+   *          What is being done with the results, used in the warnings
+   */
+  protected void compareEnvironment(EnvironmentFingerprint f, String verb)
+  {
+    if (m_fingerprint == null || f == null)
+    {
+      return;
+    }
+    List<String> diffs = m_fingerprint.getDifferences(f);
+    if (!diffs.isEmpty())
+    {
+      System.err.println("WARNING: the results being " + verb + " were obtained in a different environment");
+      addDifferences(diffs, m_environmentDifferences);
+    }
+    diffs = m_fingerprint.getSettingDifferences(f);
+    if (!diffs.isEmpty())
+    {
+      System.err.println("WARNING: the results being " + verb + " were obtained with different JVM settings");
+      addDifferences(diffs, m_settingDifferences);
+    }
+  }
+
+  /**
+   * Prints and records differences between environments
+   * 
+   * @param diffs
+   *          The differences
+   * @param recorded
+   *          The list where new differences are added
+   */
+  private static void addDifferences(List<String> diffs, List<String> recorded)
+  {
+    for (String diff : diffs)
+    {
+      System.err.println("  " + diff);
+      if (!recorded.contains(diff))
+      {
+        recorded.add(diff);
+      }
+    }
+  }
+
+  /**
+   * Gets the model predicting the duration of the experiments of this lab.
+   * The model learns from every experiment run by the lab's assistant, and
+   * is saved with the lab.
+   * 
+   * @return The model
+   */
+  public final DurationModel getDurationModel()
+  {
+    return m_durationModel;
+  }
+
+  /**
+   * Estimates the time an experiment will take. The prediction of the
+   * lab's {@link DurationModel} is used as soon as an experiment of the same
+   * class has run; before that, the estimate given by the experiment itself
+   * with {@link Experiment#getDurationEstimate(float)} is used.
+   * 
+   * @param e
+   *          The experiment
+   * @return The estimated time, in seconds
+   */
+  public float estimateDuration(Experiment e)
+  {
+    float t = m_durationModel.predict(e);
+    if (t >= 0)
+    {
+      return t;
+    }
+    return e.getDurationEstimate(s_parkMips);
+  }
+
   /**
    * Guesses the host name by running the <tt>hostname</tt> command at
    * the command line.
@@ -1615,7 +2281,7 @@ public abstract class Laboratory implements OwnershipManager
    */
   public void startAll()
   {
-    for (Experiment e : m_experiments)
+    for (Experiment e : getExperiments())
     {
       if (m_filter.include(e))
       {
@@ -1636,13 +2302,18 @@ public abstract class Laboratory implements OwnershipManager
   }
 
   /**
-   * Gets the set of all experiments in this lab
+   * Gets the set of all experiments in this lab. Since experiments can be
+   * spawned while the lab runs, this method returns a copy of the set
+   * taken at the moment of the call.
    * 
    * @return The experiments
    */
   public Collection<Experiment> getExperiments()
   {
-    return m_experiments;
+    synchronized (m_experiments)
+    {
+      return new ArrayList<Experiment>(m_experiments);
+    }
   }
 
   /**
@@ -1773,6 +2444,12 @@ public abstract class Laboratory implements OwnershipManager
    */
   public boolean mergeWith(Laboratory lab)
   {
+    // A loaded lab holds the results of the environment it was saved in
+    compareEnvironment(lab.m_savedFingerprint != null ? lab.m_savedFingerprint : lab.m_fingerprint, "merged");
+    if (lab.m_durationModel != null)
+    {
+      m_durationModel.mergeWith(lab.m_durationModel);
+    }
     boolean success = true;
     for (Experiment e : getExperiments())
     {
@@ -1807,7 +2484,7 @@ public abstract class Laboratory implements OwnershipManager
     // We only overwrite if the source experiment is running
     return s2 == Status.RUNNING || s2 == Status.DONE || s2 == Status.DONE_WARNING
         || s2 == Status.FAILED || s2 == Status.INTERRUPTED || s2 == Status.TIMEOUT
-        || q2 != QueueStatus.NOT_QUEUED;
+        || s2 == Status.SKIPPED || q2 != QueueStatus.NOT_QUEUED;
   }
 
   /**
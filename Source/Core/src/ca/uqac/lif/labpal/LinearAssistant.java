@@ -17,9 +17,8 @@
  */
 package ca.uqac.lif.labpal;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
@@ -30,7 +29,8 @@ import ca.uqac.lif.labpal.Experiment.Status;
 
 /**
  * Lab assistant that executes the experiments one by one, in the order
- * they have been put in its queue.
+ * they have been put in its queue. Another order can be chosen with
+ * {@link #setSchedulingPolicy(SchedulingPolicy)}.
  * 
  * @author Sylvain Hallé
  */
@@ -49,7 +49,7 @@ public class LinearAssistant extends LabAssistant
 	/**
 	 * The queue of experiments to run
 	 */
-	private transient ArrayList<Experiment> m_queue;
+	private transient ExperimentQueue m_queue;
 	
 	/**
 	 * A lock to control concurrent accesses to the queue
@@ -62,6 +62,11 @@ public class LinearAssistant extends LabAssistant
 	 */
 	private transient int m_sleepInterval = 100;
 
+	/**
+	 * The watchdog enforcing the time limits of the experiments
+	 */
+	private transient final Watchdog m_watchdog = new Watchdog();
+
 	/**
 	 * Creates a new assistant
 	 * @param lab The lab this assistant will coordinate
@@ -70,7 +75,8 @@ public class LinearAssistant extends LabAssistant
 	{
 		super(lab);
 		m_stop = true;
-		m_queue = new ArrayList<Experiment>();
+		m_queue = new ExperimentQueue();
+		m_queue.setLaboratory(lab);
 	}
 	
 	/**
@@ -91,6 +97,39 @@ public class LinearAssistant extends LabAssistant
 		m_sleepInterval = interval;
 	}
 
+	/**
+	 * Sets the policy deciding the order in which the experiments of the
+	 * queue are started
+	 * @param policy The policy
+	 * @return This assistant
+	 */
+	public LinearAssistant setSchedulingPolicy(SchedulingPolicy policy)
+	{
+		m_queueLock.lock();
+		m_queue.setPolicy(policy);
+		m_queueLock.unlock();
+		return this;
+	}
+
+	/**
+	 * Gets the policy deciding the order in which the experiments of the
+	 * queue are started
+	 * @return The policy
+	 */
+	public SchedulingPolicy getSchedulingPolicy()
+	{
+		return m_queue.getPolicy();
+	}
+
+	@Override
+	public void setLaboratory(Laboratory lab)
+	{
+		super.setLaboratory(lab);
+		m_queueLock.lock();
+		m_queue.setLaboratory(lab);
+		m_queueLock.unlock();
+	}
+
 	@Override
 	public void run()
 	{
@@ -102,6 +141,7 @@ public class LinearAssistant extends LabAssistant
 		}
 		m_stop = false;
 		m_lab.getReporter().start();
+		m_watchdog.start();
 		while (!m_stop)
 		{
 			m_queueLock.lock();
@@ -117,61 +157,123 @@ public class LinearAssistant extends LabAssistant
 				m_queueLock.unlock();
 				break;
 			}
-			Experiment e = m_queue.get(0);
+			Experiment e = m_queue.peek();
+			if (e == null)
+			{
+				// The experiments left wait for experiments that are not in the
+				// queue: they would wait forever
+				releaseSkipped(m_queue.skipWaiting());
+				m_queueLock.unlock();
+				continue;
+			}
+			if (!hasWarmFixtures(e))
+			{
+				// Prefer an experiment whose fixtures are already available
+				for (Experiment next : m_queue.head(WARM_FIXTURE_LOOKAHEAD))
+				{
+					if (hasWarmFixtures(next))
+					{
+						e = next;
+						break;
+					}
+				}
+			}
+			m_queue.remove(e);
+			prepareAhead(m_queue.head(getPrepareAhead()));
 			m_queueLock.unlock();
 			Status s = e.getStatus();
-			if (s != Status.RUNNING && s != Status.DONE && s != Status.DONE_WARNING && s != Status.FAILED)
+			if (s == Status.RUNNING || s == Status.DONE || s == Status.DONE_WARNING || s == Status.FAILED)
 			{
-				// Experiment not started: start
-				m_experimentThread = new ExperimentThread(e);
-				e.setWhoRan(m_name);
-				m_experimentThread.start();					
-				while (m_experimentThread.isAlive() && !m_stop)
+				// Experiment is already finished
+				releaseFixtures(e);
+				removeFromEstimate(e);
+				finished(e);
+				continue;
+			}
+			m_experimentThread = new ExperimentThread(e);
+			e.setWhoRan(m_name);
+			m_watchdog.watch(e, m_experimentThread, null);
+			m_experimentThread.start();
+			while (m_experimentThread.isAlive() && !m_stop)
+			{
+				try
+				{
+					// Wait .5 s
+					Thread.sleep(m_sleepInterval);
+				} 
+				catch (InterruptedException e1)
 				{
+					// If something bad happens, stop the loop
+					e1.printStackTrace();
+					break;
+				}
+				Status s1  = e.getStatus();
+				if (s1 == Status.DONE || s1 == Status.FAILED || s1 == Status.DONE_WARNING)
+					break; // Move on to next experiment
+				if (s1 == Status.TIMEOUT)
+				{
+					// The watchdog stopped the experiment; give it some time to
+					// return, and abandon its thread if it does not
 					try
 					{
-						// Wait .5 s
-						Thread.sleep(m_sleepInterval);
-					} 
-					catch (InterruptedException e1)
-					{
-						// If something bad happens, stop the loop
-						e1.printStackTrace();
-						break;
+						m_experimentThread.join(m_watchdog.getGracePeriod());
 					}
-					Status s1  = e.getStatus();
-					if (s1 == Status.DONE || s == Status.FAILED || s1 == Status.DONE_WARNING)
-						break; // Move on to next experiment
-					long duration = System.currentTimeMillis() - e.getStartTime();
-					long max_duration = e.getMaxDuration();
-					if (max_duration > 0 && duration > max_duration)
+					catch (InterruptedException e1)
 					{
-						// Experiment takes too long: kill it
-						m_experimentThread.kill();
-						m_queueLock.lock();
-						m_queue.remove(0);
-						m_queueLock.unlock();
-						m_experimentThread = null;
-						break;
+						// Do nothing
 					}
+					m_experimentThread = null;
+					break;
 				}
 			}
-			else
+			m_watchdog.unwatch(e);
+			Status s1 = e.getStatus();
+			if (s1 == Status.DONE || s1 == Status.FAILED || s1 == Status.DONE_WARNING)
 			{
-				// Experiment is finished: remove from queue
+				releaseFixtures(e);
+				recordCompletion(e);
+				finished(e);
+				notifyFinished(e);
+			}
+			else if (m_stop && s1 != Status.TIMEOUT)
+			{
+				// The assistant was stopped: the experiment will be started
+				// again the next time it runs
 				m_queueLock.lock();
-				m_queue.remove(0);
+				m_queue.addFirst(e);
 				m_queueLock.unlock();
 			}
+			else
+			{
+				releaseFixtures(e);
+				removeFromEstimate(e);
+				finished(e);
+				notifyFinished(e);
+			}
 		}
 		// If some experiment is running, interrupt it
 		if (m_experimentThread != null && m_experimentThread.isAlive())
 		{
 			m_experimentThread.interrupt();
 		}
+		m_watchdog.stop();
+		stopPreparing();
 		m_lab.getReporter().stop();
 	}
 
+	/**
+	 * Records that an experiment has left the queue for good, and skips the
+	 * experiments that depend on it if it did not complete
+	 * @param e The experiment
+	 */
+	protected void finished(Experiment e)
+	{
+		m_queueLock.lock();
+		List<Experiment> skipped = m_queue.finished(e);
+		m_queueLock.unlock();
+		releaseSkipped(skipped);
+	}
+
 	@Override
 	public LabAssistant stop()
 	{
@@ -195,14 +297,14 @@ public class LinearAssistant extends LabAssistant
 	public LabAssistant unqueue(int id)
 	{
 		m_queueLock.lock();
-		for (int i = 0; i < m_queue.size(); i++)
+		Experiment e = m_queue.remove(id);
+		if (e != null)
 		{
-			if (m_queue.get(i).getId() == id)
-			{
-				m_queue.get(i).setQueueStatus(QueueStatus.NOT_QUEUED);
-				m_queue.remove(i);
-				break;
-			}
+			e.setQueueStatus(QueueStatus.NOT_QUEUED);
+			releaseFixtures(e);
+			removeFromEstimate(e);
+			// The experiments depending on it cannot run either
+			releaseSkipped(m_queue.finished(e));
 		}
 		m_queueLock.unlock();
 		reportResults();
@@ -213,11 +315,15 @@ public class LinearAssistant extends LabAssistant
 	public LabAssistant queue(Experiment ... experiments)
 	{
 		m_queueLock.lock();
-		for (Experiment e : experiments)
+		for (Experiment e : withDependencies(Arrays.asList(experiments)))
 		{
-			m_queue.add(e);
-			e.setWhoRan(m_name);
-			e.setQueueStatus(QueueStatus.QUEUED);
+			if (m_queue.add(e))
+			{
+				e.setWhoRan(m_name);
+				e.setQueueStatus(QueueStatus.QUEUED);
+				acquireFixtures(e);
+				addToEstimate(e);
+			}
 		}
 		m_queueLock.unlock();
 		reportResults();
@@ -228,11 +334,15 @@ public class LinearAssistant extends LabAssistant
 	public LabAssistant queue(List<Experiment> experiments)
 	{
 		m_queueLock.lock();
-		for (Experiment e : experiments)
+		for (Experiment e : withDependencies(experiments))
 		{
-			m_queue.add(e);
-			e.setWhoRan(m_name);
-			e.setQueueStatus(QueueStatus.QUEUED);
+			if (m_queue.add(e))
+			{
+				e.setWhoRan(m_name);
+				e.setQueueStatus(QueueStatus.QUEUED);
+				acquireFixtures(e);
+				addToEstimate(e);
+			}
 		}
 		m_queueLock.unlock();
 		reportResults();
@@ -251,16 +361,8 @@ public class LinearAssistant extends LabAssistant
 	@Override
 	public boolean isQueued(int id)
 	{
-		boolean b = false;
 		m_queueLock.lock();
-		for (int i = 0; i < m_queue.size(); i++)
-		{
-			if (m_queue.get(i).getId() == id)
-			{
-				b = true;
-				break;
-			}
-		}
+		boolean b = m_queue.contains(id);
 		m_queueLock.unlock();
 		return b;
 	}
@@ -270,6 +372,11 @@ public class LinearAssistant extends LabAssistant
 	{
 		stop();
 		m_queueLock.lock();
+		for (Experiment e : m_queue)
+		{
+			releaseFixtures(e);
+			removeFromEstimate(e);
+		}
 		m_queue.clear();
 		m_queueLock.unlock();
 		return this;
@@ -278,16 +385,7 @@ public class LinearAssistant extends LabAssistant
 	@Override
 	public float getTimeEstimate()
 	{
-		float time = 0f;
-		float factor = Laboratory.s_parkMips;
-		m_queueLock.lock();
-		for (Experiment e : m_queue)
-		{
-			time += e.getDurationEstimate(factor);
-			time += ((float) m_sleepInterval / 1000);
-		}
-		m_queueLock.unlock();
-		return time;
+		return getRemainingEstimate(getRunningExperiments()) + getEstimateCount() * ((float) m_sleepInterval / 1000);
 	}
 
 	@Override
@@ -300,11 +398,7 @@ public class LinearAssistant extends LabAssistant
 	public List<Integer> getCurrentQueue()
 	{
 		m_queueLock.lock();
-		List<Integer> out = new LinkedList<Integer>();
-		for (Experiment e : m_queue)
-		{
-			out.add(e.getId());
-		}
+		List<Integer> out = m_queue.getIds();
 		m_queueLock.unlock();
 		return out;
 	}
@@ -0,0 +1,311 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+/**
+ * Measures the time taken by a short operation. Timing a single call to
+ * an operation with {@link System#nanoTime()} gives unreliable numbers when
+ * the operation is short: the timer has a limited resolution, the first
+ * calls run slower until the just-in-time compiler optimizes them, and the
+ * compiler may remove computations whose result is unused. A microbenchmark
+ * addresses these problems as follows:
+ * <ol>
+ * <li>It calls the operation repeatedly until its execution time becomes
+ * steady (warmup)</li>
+ * <li>It determines how many calls must be grouped in a batch so that
+ * timing the batch is well above the resolution of the timer
+ * (calibration)</li>
+ * <li>It times a number of batches, and gives statistics on the time per
+ * call</li>
+ * </ol>
+ * The operation receives a {@link Blackhole}, to which it should pass the
+ * values it computes. From within an experiment, a microbenchmark is run
+ * with {@link Experiment#measure(String, Microbenchmark, Operation)}.
+ *
+ * @author Sylvain Hallé
+ */
+public class Microbenchmark
+{
+	/**
+	 * An operation to be timed
+	 */
+	public static abstract class Operation
+	{
+		/**
+		 * Prepares a batch of calls to {@link #run(Blackhole)}. This method is
+		 * not timed. By default, it does nothing.
+		 * @throws Exception If the preparation fails
+		 */
+		public void setUp() throws Exception
+		{
+			// Do nothing
+		}
+
+		/**
+		 * Runs the operation once
+		 * @param bh A sink for the values computed by the operation
+		 * @throws Exception If the operation fails
+		 */
+		public abstract void run(Blackhole bh) throws Exception;
+	}
+
+	/**
+	 * The resolution of {@link System#nanoTime()}, in nanoseconds, measured
+	 * the first time it is needed
+	 */
+	private static long s_timerResolution = -1;
+
+	/**
+	 * The minimum duration of a timed batch, in nanoseconds
+	 */
+	private long m_minBatchTime = 10000000;
+
+	/**
+	 * The number of timed batches
+	 */
+	private int m_batches = 10;
+
+	/**
+	 * The number of consecutive warmup batches whose durations are compared
+	 * to decide if the execution time is steady
+	 */
+	private int m_steadyWindow = 5;
+
+	/**
+	 * The maximum coefficient of variation of the durations of the last
+	 * warmup batches for the execution time to be considered steady
+	 */
+	private double m_steadyTolerance = 0.05;
+
+	/**
+	 * The maximum time spent warming up, in nanoseconds
+	 */
+	private long m_maxWarmupTime = 5000000000L;
+
+	/**
+	 * The sink passed to the operation
+	 */
+	private final Blackhole m_blackhole = new Blackhole();
+
+	/**
+	 * The number of calls in each batch, as determined by the last
+	 * calibration
+	 */
+	private long m_iterations = 1;
+
+	/**
+	 * Whether the execution time was found to be steady during the last
+	 * warmup
+	 */
+	private boolean m_steady = false;
+
+	/**
+	 * Creates a new microbenchmark with default settings: batches of at
+	 * least 10 ms, 10 timed batches, and at most 5 s of warmup
+	 */
+	public Microbenchmark()
+	{
+		super();
+	}
+
+	/**
+	 * Sets the minimum duration of a timed batch. It is raised to 1,000 times
+	 * the resolution of the timer if it is lower.
+	 * @param ms The duration, in milliseconds
+	 * @return This microbenchmark
+	 */
+	public Microbenchmark setMinBatchTime(long ms)
+	{
+		m_minBatchTime = ms * 1000000;
+		return this;
+	}
+
+	/**
+	 * Sets the number of timed batches
+	 * @param batches The number of batches
+	 * @return This microbenchmark
+	 */
+	public Microbenchmark setBatches(int batches)
+	{
+		m_batches = Math.max(1, batches);
+		return this;
+	}
+
+	/**
+	 * Sets the conditions under which the execution time is considered
+	 * steady during warmup
+	 * @param window The number of consecutive batches whose durations are
+	 * compared
+	 * @param tolerance The maximum coefficient of variation (standard
+	 * deviation divided by the mean) of these durations
+	 * @param max_time The maximum time spent warming up, in milliseconds
+	 * @return This microbenchmark
+	 */
+	public Microbenchmark setWarmup(int window, double tolerance, long max_time)
+	{
+		m_steadyWindow = Math.max(2, window);
+		m_steadyTolerance = tolerance;
+		m_maxWarmupTime = max_time * 1000000;
+		return this;
+	}
+
+	/**
+	 * Gets the number of calls in each timed batch, as determined by the last
+	 * run of the microbenchmark
+	 * @return The number of calls
+	 */
+	public long getIterations()
+	{
+		return m_iterations;
+	}
+
+	/**
+	 * Checks if the execution time was found to be steady during the warmup
+	 * of the last run of the microbenchmark
+	 * @return {@code true} if it was steady, {@code false} if the warmup
+	 * stopped because of its time limit
+	 */
+	public boolean isSteady()
+	{
+		return m_steady;
+	}
+
+	/**
+	 * Warms up, calibrates and times an operation
+	 * @param op The operation
+	 * @return The time per call of each timed batch, in nanoseconds
+	 * @throws Exception Any exception thrown by the operation
+	 */
+	public Statistics run(Operation op) throws Exception
+	{
+		long min_batch_time = Math.max(m_minBatchTime, 1000 * getTimerResolution());
+		calibrate(op, min_batch_time);
+		warmup(op);
+		// The operation is faster once warmed up: batches must be longer
+		calibrate(op, min_batch_time);
+		Statistics stats = new Statistics();
+		for (int i = 0; i < m_batches; i++)
+		{
+			stats.add((double) timeBatch(op, m_iterations) / m_iterations);
+		}
+		return stats;
+	}
+
+	/**
+	 * Finds a number of calls whose execution lasts at least a given time
+	 * @param op The operation
+	 * @param min_batch_time The time, in nanoseconds
+	 * @throws Exception Any exception thrown by the operation
+	 */
+	protected void calibrate(Operation op, long min_batch_time) throws Exception
+	{
+		long n = 1;
+		long duration = timeBatch(op, n);
+		while (duration < min_batch_time)
+		{
+			// Aim a bit above the target, since early calls are slower
+			long next = duration <= 0 ? n * 10 : (long) (1.2 * n * min_batch_time / duration);
+			n = Math.max(n + 1, Math.min(next, n * 10));
+			duration = timeBatch(op, n);
+		}
+		m_iterations = n;
+	}
+
+	/**
+	 * Runs batches of calls until their duration is steady, or the time
+	 * limit of the warmup is reached
+	 * @param op The operation
+	 * @throws Exception Any exception thrown by the operation
+	 */
+	protected void warmup(Operation op) throws Exception
+	{
+		long start = System.nanoTime();
+		double[] window = new double[m_steadyWindow];
+		int count = 0;
+		m_steady = false;
+		while (System.nanoTime() - start < m_maxWarmupTime)
+		{
+			window[count % window.length] = timeBatch(op, m_iterations);
+			count++;
+			if (count >= window.length && isSteady(window))
+			{
+				m_steady = true;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Checks if a series of durations vary little enough
+	 * @param durations The durations
+	 * @return {@code true} if the coefficient of variation of the durations
+	 * is below the tolerance
+	 */
+	protected boolean isSteady(double[] durations)
+	{
+		Statistics st = new Statistics();
+		for (double d : durations)
+		{
+			st.add(d);
+		}
+		return st.getStandardDeviation() <= m_steadyTolerance * st.getMean();
+	}
+
+	/**
+	 * Times a batch of calls to an operation
+	 * @param op The operation
+	 * @param n The number of calls
+	 * @return The duration of the batch, in nanoseconds
+	 * @throws Exception Any exception thrown by the operation
+	 */
+	protected long timeBatch(Operation op, long n) throws Exception
+	{
+		op.setUp();
+		Blackhole bh = m_blackhole;
+		long start = System.nanoTime();
+		for (long i = 0; i < n; i++)
+		{
+			op.run(bh);
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Gets the resolution of {@link System#nanoTime()}, that is, the smallest
+	 * non-zero difference between two of its values
+	 * @return The resolution, in nanoseconds
+	 */
+	public static synchronized long getTimerResolution()
+	{
+		if (s_timerResolution < 0)
+		{
+			long min = Long.MAX_VALUE;
+			for (int i = 0; i < 1000; i++)
+			{
+				long t1 = System.nanoTime(), t2;
+				do
+				{
+					t2 = System.nanoTime();
+				} while (t2 == t1);
+				min = Math.min(min, t2 - t1);
+			}
+			s_timerResolution = min;
+		}
+		return s_timerResolution;
+	}
+}
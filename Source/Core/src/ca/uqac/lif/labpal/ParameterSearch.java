@@ -0,0 +1,910 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ca.uqac.lif.json.JsonElement;
+import ca.uqac.lif.json.JsonNumber;
+import ca.uqac.lif.labpal.Experiment.Status;
+import ca.uqac.lif.labpal.table.ExperimentTable;
+
+/**
+ * Searches a region of parameters for the point that optimizes an output
+ * parameter of the experiments, instead of running an experiment for
+ * every point of the region. The search decides which experiment to
+ * create next from the results of the experiments that have finished:
+ * <ul>
+ * <li>When looking for a threshold with {@link #findThreshold(double)},
+ * the region must have a single numerical dimension, and the objective is
+ * assumed to increase with it. The search bisects the values of that
+ * dimension to find the largest one for which the objective stays under
+ * the threshold (e.g. the largest input that can be sorted in less than
+ * one second).</li>
+ * <li>When looking for a minimum or a maximum, the search first runs a
+ * few randomly chosen points, and then fits a Gaussian process on the
+ * results obtained so far. It picks as the next point the one whose
+ * expected improvement over the best value found is the largest.</li>
+ * </ul>
+ * A search is added to a lab in its {@link Laboratory#setup() setup()}
+ * method with {@link Laboratory#add(ParameterSearch)}. This creates the
+ * first experiments of the search; each time one of them finishes, the
+ * lab asks the search for the next points, which are added to the lab and
+ * queued. The search stops once it has run the number of experiments
+ * given by its budget, or when it has nothing left to try. The points it
+ * evaluated are shown in the table returned by {@link #getTable()}.
+ * 
+ * @author Sylvain Hallé
+ * @since 2.11
+ */
+public class ParameterSearch
+{
+	/**
+	 * The possible goals of a search
+	 */
+	public static enum Goal {MINIMIZE, MAXIMIZE, THRESHOLD}
+
+	/**
+	 * The length scales tried when fitting the Gaussian process; the one
+	 * that best explains the values observed is kept. The coordinates of
+	 * the points are normalized between 0 and 1.
+	 */
+	protected static final double[] LENGTH_SCALES = {0.05, 0.1, 0.2, 0.4, 0.8};
+
+	/**
+	 * The variance of the noise assumed on the values observed, relative
+	 * to their own variance
+	 */
+	protected static final double NOISE = 1e-4;
+
+	/**
+	 * The lab in which the experiments are created
+	 */
+	/*@ non_null @*/ protected final Laboratory m_lab;
+
+	/**
+	 * The factory used to create the experiments
+	 */
+	/*@ non_null @*/ protected final ExperimentFactory<?,?> m_factory;
+
+	/**
+	 * The name of the output parameter to optimize
+	 */
+	/*@ non_null @*/ protected final String m_objective;
+
+	/**
+	 * The maximum number of experiments this search can run
+	 */
+	protected final int m_budget;
+
+	/**
+	 * The goal of the search
+	 */
+	protected Goal m_goal = Goal.MINIMIZE;
+
+	/**
+	 * The threshold the objective must not exceed, when the goal is
+	 * {@link Goal#THRESHOLD}
+	 */
+	protected double m_threshold = 0;
+
+	/**
+	 * The number of experiments the search keeps running at the same time
+	 */
+	protected int m_parallelism;
+
+	/**
+	 * The dimensions of the region that have more than one value
+	 */
+	/*@ non_null @*/ protected final List<String> m_dimensions;
+
+	/**
+	 * The points of the region
+	 */
+	/*@ non_null @*/ protected final List<Region> m_candidates;
+
+	/**
+	 * The coordinates of each point along the dimensions that vary,
+	 * normalized between 0 and 1
+	 */
+	/*@ non_null @*/ protected final double[][] m_coordinates;
+
+	/**
+	 * The indices of the points that have been tried, whether their
+	 * experiment has finished or not
+	 */
+	/*@ non_null @*/ protected final Set<Integer> m_tried;
+
+	/**
+	 * The experiments created by the search that have not finished yet,
+	 * associated with the index of their point
+	 */
+	/*@ non_null @*/ protected final Map<Experiment,Integer> m_pending;
+
+	/**
+	 * The indices of the points whose experiment has finished, in the order
+	 * they finished
+	 */
+	/*@ non_null @*/ protected final List<Integer> m_evaluated;
+
+	/**
+	 * The value of the objective for each point in {@link #m_evaluated};
+	 * {@code NaN} if the experiment did not produce it
+	 */
+	/*@ non_null @*/ protected final List<Double> m_values;
+
+	/**
+	 * The experiment that ran at each evaluated point
+	 */
+	/*@ non_null @*/ protected final Map<Integer,Experiment> m_experiments;
+
+	/**
+	 * When bisecting, the points of the region sorted by increasing value
+	 */
+	protected int[] m_order;
+
+	/**
+	 * When bisecting, the position in {@link #m_order} of the largest point
+	 * known to stay under the threshold, or -1 if there is none
+	 */
+	protected int m_low;
+
+	/**
+	 * When bisecting, the position in {@link #m_order} of the smallest point
+	 * known to exceed the threshold
+	 */
+	protected int m_high;
+
+	/**
+	 * The index of the best point found so far, or -1 if there is none
+	 */
+	protected int m_best = -1;
+
+	/**
+	 * The table showing the points evaluated by the search
+	 */
+	/*@ non_null @*/ protected final ExperimentTable m_table;
+
+	/**
+	 * The source of randomness used to pick the first points
+	 */
+	/*@ non_null @*/ protected final java.util.Random m_random;
+
+	/**
+	 * Creates a new search. By default, the search looks for the point
+	 * that minimizes the objective.
+	 * @param lab The lab in which the experiments are created
+	 * @param r The region to search
+	 * @param factory The factory used to create the experiment for each
+	 * point of the region
+	 * @param objective The name of the output parameter to optimize
+	 * @param budget The maximum number of experiments to run
+	 */
+	public ParameterSearch(/*@ non_null @*/ Laboratory lab, /*@ non_null @*/ Region r,
+			/*@ non_null @*/ ExperimentFactory<?,?> factory, /*@ non_null @*/ String objective, int budget)
+	{
+		super();
+		m_lab = lab;
+		m_factory = factory;
+		m_objective = objective;
+		m_budget = budget;
+		m_random = new java.util.Random(lab.getRandomSeed());
+		m_tried = new HashSet<Integer>();
+		m_pending = new HashMap<Experiment,Integer>();
+		m_evaluated = new ArrayList<Integer>();
+		m_values = new ArrayList<Double>();
+		m_experiments = new HashMap<Integer,Experiment>();
+		m_dimensions = new ArrayList<String>();
+		List<String> columns = new ArrayList<String>();
+		for (String name : r.getDimensions())
+		{
+			columns.add(name);
+			if (r.getAll(name).size() > 1)
+			{
+				m_dimensions.add(name);
+			}
+		}
+		columns.add(objective);
+		m_table = new ExperimentTable(columns.toArray(new String[columns.size()]));
+		m_table.setTitle("Search for the " + objective);
+		m_candidates = new ArrayList<Region>();
+		for (Region point : r.all())
+		{
+			m_candidates.add(point);
+		}
+		m_coordinates = new double[m_candidates.size()][m_dimensions.size()];
+		for (int d = 0; d < m_dimensions.size(); d++)
+		{
+			List<JsonElement> values = r.getAll(m_dimensions.get(d));
+			boolean numeric = isNumeric(values);
+			double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			if (numeric)
+			{
+				for (JsonElement v : values)
+				{
+					double x = ((JsonNumber) v).numberValue().doubleValue();
+					min = Math.min(min, x);
+					max = Math.max(max, x);
+				}
+			}
+			for (int i = 0; i < m_candidates.size(); i++)
+			{
+				JsonElement v = m_candidates.get(i).get(m_dimensions.get(d));
+				double x;
+				if (numeric)
+				{
+					x = ((JsonNumber) v).numberValue().doubleValue() - min;
+					x = max > min ? x / (max - min) : 0;
+				}
+				else
+				{
+					// Values that are not numbers are placed at even intervals
+					x = values.indexOf(v) / (double) (values.size() - 1);
+				}
+				m_coordinates[i][d] = x;
+			}
+		}
+		m_parallelism = Math.min(m_candidates.size(), m_dimensions.size() + 2);
+	}
+
+	/**
+	 * Sets the search to look for the point that minimizes the objective
+	 * @return This search
+	 */
+	public ParameterSearch minimize()
+	{
+		m_goal = Goal.MINIMIZE;
+		return this;
+	}
+
+	/**
+	 * Sets the search to look for the point that maximizes the objective
+	 * @return This search
+	 */
+	public ParameterSearch maximize()
+	{
+		m_goal = Goal.MAXIMIZE;
+		return this;
+	}
+
+	/**
+	 * Sets the search to look for the largest value of the region's single
+	 * dimension for which the objective does not exceed a threshold. The
+	 * objective is assumed to increase with the value of the dimension.
+	 * @param threshold The threshold
+	 * @return This search
+	 * @throws IllegalArgumentException If the region does not have exactly
+	 * one dimension with more than one value, or if the values of that
+	 * dimension are not all numbers
+	 */
+	public ParameterSearch findThreshold(double threshold)
+	{
+		if (m_dimensions.size() != 1)
+		{
+			throw new IllegalArgumentException("Finding a threshold requires a region with a single dimension");
+		}
+		final int n = m_candidates.size();
+		for (Region point : m_candidates)
+		{
+			if (!(point.get(m_dimensions.get(0)) instanceof JsonNumber))
+			{
+				throw new IllegalArgumentException("Finding a threshold requires a numerical dimension");
+			}
+		}
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++)
+		{
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer i1, Integer i2)
+			{
+				return Double.compare(m_coordinates[i1][0], m_coordinates[i2][0]);
+			}
+		});
+		m_order = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			m_order[i] = order[i];
+		}
+		m_low = -1;
+		m_high = n;
+		m_goal = Goal.THRESHOLD;
+		m_threshold = threshold;
+		m_parallelism = 1;
+		return this;
+	}
+
+	/**
+	 * Sets the number of experiments the search keeps running at the same
+	 * time when looking for a minimum or a maximum. By default, it is the
+	 * number of dimensions of the region plus two. A bisection always runs
+	 * one experiment at a time.
+	 * @param n The number of experiments
+	 * @return This search
+	 */
+	public ParameterSearch setParallelism(int n)
+	{
+		if (m_goal != Goal.THRESHOLD)
+		{
+			m_parallelism = Math.max(1, n);
+		}
+		return this;
+	}
+
+	/**
+	 * Gets the goal of the search
+	 * @return The goal
+	 */
+	public Goal getGoal()
+	{
+		return m_goal;
+	}
+
+	/**
+	 * Gets the table showing the points evaluated by the search, with one
+	 * column per dimension of the region and a last column for the objective
+	 * @return The table
+	 */
+	public ExperimentTable getTable()
+	{
+		return m_table;
+	}
+
+	/**
+	 * Gets the experiment that ran at the best point found so far
+	 * @return The experiment, or {@code null} if no point has been found
+	 */
+	public synchronized Experiment getBest()
+	{
+		if (m_best < 0)
+		{
+			return null;
+		}
+		return m_experiments.get(m_best);
+	}
+
+	/**
+	 * Gets the best point found so far
+	 * @return The point, or {@code null} if no point has been found
+	 */
+	public synchronized Region getBestPoint()
+	{
+		if (m_best < 0)
+		{
+			return null;
+		}
+		return m_candidates.get(m_best);
+	}
+
+	/**
+	 * Gets the number of points whose experiment has finished
+	 * @return The number of points
+	 */
+	public synchronized int getEvaluationCount()
+	{
+		return m_evaluated.size();
+	}
+
+	/**
+	 * Checks whether the search is over, i.e. it has no experiment left
+	 * running and will not create any other
+	 * @return {@code true} if the search is over
+	 */
+	public synchronized boolean isDone()
+	{
+		return m_pending.isEmpty() && (m_evaluated.size() >= m_budget || nextCandidate(false) < 0);
+	}
+
+	/**
+	 * Starts the search. The experiments that already exist in the lab for
+	 * points of the region and have finished (for example, because the lab
+	 * was loaded from a file) are taken into account; the first points to
+	 * try are then added to the lab. They are not queued: they run when the
+	 * experiments of the lab are started.
+	 */
+	protected synchronized void start()
+	{
+		for (int i = 0; i < m_candidates.size(); i++)
+		{
+			for (Experiment e : m_lab.filterExperiments(m_candidates.get(i), m_factory.m_class))
+			{
+				if (isFinished(e) && !m_tried.contains(i))
+				{
+					m_tried.add(i);
+					record(i, e);
+				}
+			}
+		}
+		propose(false);
+	}
+
+	/**
+	 * Tells the search that an experiment has stopped running. If the
+	 * experiment is one of those created by the search, the result is
+	 * recorded and the next points to try are added to the lab and queued.
+	 * An experiment that was interrupted is recorded as a failure: nothing
+	 * would run it again, and the search would wait for it forever.
+	 * @param e The experiment
+	 */
+	protected synchronized void experimentFinished(Experiment e)
+	{
+		Integer i = m_pending.remove(e);
+		if (i == null)
+		{
+			return;
+		}
+		record(i, e);
+		propose(true);
+	}
+
+	/**
+	 * Creates experiments for the next points to try, until the search
+	 * has the desired number of experiments running or its budget is
+	 * exhausted
+	 * @param queue Set to {@code true} to queue the experiments created
+	 */
+	protected void propose(boolean queue)
+	{
+		while (m_pending.size() < m_parallelism && m_evaluated.size() + m_pending.size() < m_budget)
+		{
+			int i = nextCandidate(true);
+			if (i < 0)
+			{
+				return;
+			}
+			m_tried.add(i);
+			Experiment e = m_factory.get(m_candidates.get(i));
+			if (e == null)
+			{
+				// The factory cannot create this point; consider it a failure
+				record(i, null);
+				continue;
+			}
+			if (isFinished(e))
+			{
+				record(i, e);
+				continue;
+			}
+			m_pending.put(e, i);
+			LabAssistant assistant = m_lab.getAssistant();
+			if (queue && assistant != null)
+			{
+				assistant.queue(e);
+			}
+		}
+	}
+
+	/**
+	 * Records the result of the experiment run at a point
+	 * @param i The index of the point
+	 * @param e The experiment, or {@code null} if none could be created
+	 */
+	protected void record(int i, Experiment e)
+	{
+		double value = e == null ? Double.NaN : getValue(e);
+		m_evaluated.add(i);
+		m_values.add(value);
+		if (e != null)
+		{
+			m_experiments.put(i, e);
+			m_table.add(e);
+		}
+		if (m_goal == Goal.THRESHOLD)
+		{
+			int pos = indexOf(m_order, i);
+			if (!Double.isNaN(value) && value <= m_threshold)
+			{
+				if (pos > m_low)
+				{
+					m_low = pos;
+					m_best = i;
+				}
+			}
+			else if (pos < m_high)
+			{
+				m_high = pos;
+			}
+			return;
+		}
+		if (Double.isNaN(value))
+		{
+			return;
+		}
+		if (m_best < 0)
+		{
+			m_best = i;
+			return;
+		}
+		double best = getValue(m_experiments.get(m_best));
+		if ((m_goal == Goal.MINIMIZE && value < best) || (m_goal == Goal.MAXIMIZE && value > best))
+		{
+			m_best = i;
+		}
+	}
+
+	/**
+	 * Picks the next point to try
+	 * @param random Set to {@code false} to only check whether there is a
+	 * point left to try, without consuming random numbers
+	 * @return The index of the point, or -1 if there is none
+	 */
+	protected int nextCandidate(boolean random)
+	{
+		if (m_goal == Goal.THRESHOLD)
+		{
+			if (m_high - m_low <= 1)
+			{
+				return -1;
+			}
+			return m_order[(m_low + m_high) / 2];
+		}
+		if (m_tried.size() >= m_candidates.size())
+		{
+			return -1;
+		}
+		if (!random)
+		{
+			return 0;
+		}
+		if (m_evaluated.size() < m_parallelism)
+		{
+			return randomCandidate();
+		}
+		int i = maximizeImprovement();
+		return i < 0 ? randomCandidate() : i;
+	}
+
+	/**
+	 * Picks a point that has not been tried, at random
+	 * @return The index of the point
+	 */
+	protected int randomCandidate()
+	{
+		List<Integer> left = new ArrayList<Integer>();
+		for (int i = 0; i < m_candidates.size(); i++)
+		{
+			if (!m_tried.contains(i))
+			{
+				left.add(i);
+			}
+		}
+		return left.get(m_random.nextInt(left.size()));
+	}
+
+	/**
+	 * Fits a Gaussian process on the values observed so far, and picks the
+	 * point that has not been tried with the largest expected improvement
+	 * over the best value. Failed points are given the worst value
+	 * observed, so that the search moves away from them.
+	 * @return The index of the point, or -1 if the process cannot be fitted
+	 */
+	protected int maximizeImprovement()
+	{
+		// Turn every goal into a minimization of standardized values
+		int n = m_evaluated.size();
+		double[] y = new double[n];
+		double worst = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++)
+		{
+			y[i] = m_goal == Goal.MAXIMIZE ? -m_values.get(i) : m_values.get(i);
+			if (!Double.isNaN(y[i]))
+			{
+				worst = Math.max(worst, y[i]);
+			}
+		}
+		if (Double.isInfinite(worst))
+		{
+			return -1;
+		}
+		double mean = 0, variance = 0;
+		for (int i = 0; i < n; i++)
+		{
+			if (Double.isNaN(y[i]))
+			{
+				y[i] = worst;
+			}
+			mean += y[i] / n;
+		}
+		for (int i = 0; i < n; i++)
+		{
+			variance += (y[i] - mean) * (y[i] - mean) / n;
+		}
+		double sd = variance > 1e-24 ? Math.sqrt(variance) : 1;
+		double y_best = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < n; i++)
+		{
+			y[i] = (y[i] - mean) / sd;
+			y_best = Math.min(y_best, y[i]);
+		}
+		// Keep the length scale that maximizes the marginal likelihood
+		double[][] chol = null;
+		double[] alpha = null;
+		double scale = 0, likelihood = Double.NEGATIVE_INFINITY;
+		for (double s : LENGTH_SCALES)
+		{
+			double[][] k = new double[n][n];
+			for (int i = 0; i < n; i++)
+			{
+				for (int j = 0; j < n; j++)
+				{
+					k[i][j] = kernel(m_evaluated.get(i), m_evaluated.get(j), s);
+				}
+				k[i][i] += NOISE;
+			}
+			double[][] l = cholesky(k);
+			if (l == null)
+			{
+				continue;
+			}
+			double[] a = backSubstitute(l, forwardSubstitute(l, y));
+			double lml = 0;
+			for (int i = 0; i < n; i++)
+			{
+				lml -= 0.5 * y[i] * a[i] + Math.log(l[i][i]);
+			}
+			if (lml > likelihood)
+			{
+				likelihood = lml;
+				chol = l;
+				alpha = a;
+				scale = s;
+			}
+		}
+		if (chol == null)
+		{
+			return -1;
+		}
+		int best = -1;
+		double best_ei = Double.NEGATIVE_INFINITY;
+		double[] k_star = new double[n];
+		for (int c = 0; c < m_candidates.size(); c++)
+		{
+			if (m_tried.contains(c))
+			{
+				continue;
+			}
+			double mu = 0;
+			for (int i = 0; i < n; i++)
+			{
+				k_star[i] = kernel(c, m_evaluated.get(i), scale);
+				mu += k_star[i] * alpha[i];
+			}
+			double[] v = forwardSubstitute(chol, k_star);
+			double var = 1;
+			for (int i = 0; i < n; i++)
+			{
+				var -= v[i] * v[i];
+			}
+			double sigma = Math.sqrt(Math.max(var, 1e-12));
+			double z = (y_best - mu) / sigma;
+			double ei = (y_best - mu) * cdf(z) + sigma * pdf(z);
+			if (ei > best_ei)
+			{
+				best_ei = ei;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Computes the squared exponential kernel between two points
+	 * @param i The index of the first point
+	 * @param j The index of the second point
+	 * @param scale The length scale
+	 * @return The value of the kernel
+	 */
+	protected double kernel(int i, int j, double scale)
+	{
+		double d = 0;
+		for (int k = 0; k < m_dimensions.size(); k++)
+		{
+			double delta = m_coordinates[i][k] - m_coordinates[j][k];
+			d += delta * delta;
+		}
+		return Math.exp(-d / (2 * scale * scale));
+	}
+
+	/**
+	 * Gets the value of the objective for an experiment
+	 * @param e The experiment
+	 * @return The value, or {@code NaN} if the experiment did not succeed
+	 * or did not produce a numerical value for the objective
+	 */
+	protected double getValue(Experiment e)
+	{
+		Status s = e.getStatus();
+		if (s != Status.DONE && s != Status.DONE_WARNING)
+		{
+			return Double.NaN;
+		}
+		JsonElement je = e.read(m_objective);
+		if (je instanceof JsonNumber)
+		{
+			return ((JsonNumber) je).numberValue().doubleValue();
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Checks whether an experiment has finished running, be it
+	 * successfully or not
+	 * @param e The experiment
+	 * @return {@code true} if it has finished
+	 */
+	protected static boolean isFinished(Experiment e)
+	{
+		Status s = e.getStatus();
+		return s == Status.DONE || s == Status.DONE_WARNING || s == Status.FAILED
+				|| s == Status.TIMEOUT || s == Status.SKIPPED;
+	}
+
+	/**
+	 * Checks whether a list of values contains only numbers
+	 * @param values The values
+	 * @return {@code true} if all values are numbers
+	 */
+	protected static boolean isNumeric(Collection<JsonElement> values)
+	{
+		for (JsonElement v : values)
+		{
+			if (!(v instanceof JsonNumber))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the position of a value in an array
+	 * @param array The array
+	 * @param value The value
+	 * @return The position, or -1 if the value is not in the array
+	 */
+	protected static int indexOf(int[] array, int value)
+	{
+		for (int i = 0; i < array.length; i++)
+		{
+			if (array[i] == value)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Computes the Cholesky decomposition of a symmetric matrix
+	 * @param a The matrix
+	 * @return The lower triangular matrix <i>L</i> such that
+	 * <i>LL</i><sup>T</sup> = <i>a</i>, or {@code null} if the matrix is not
+	 * positive definite
+	 */
+	protected static double[][] cholesky(double[][] a)
+	{
+		int n = a.length;
+		double[][] l = new double[n][n];
+		for (int i = 0; i < n; i++)
+		{
+			for (int j = 0; j <= i; j++)
+			{
+				double sum = a[i][j];
+				for (int k = 0; k < j; k++)
+				{
+					sum -= l[i][k] * l[j][k];
+				}
+				if (i == j)
+				{
+					if (sum <= 0)
+					{
+						return null;
+					}
+					l[i][i] = Math.sqrt(sum);
+				}
+				else
+				{
+					l[i][j] = sum / l[j][j];
+				}
+			}
+		}
+		return l;
+	}
+
+	/**
+	 * Solves <i>Lx</i> = <i>b</i> for a lower triangular matrix <i>L</i>
+	 * @param l The matrix
+	 * @param b The right-hand side
+	 * @return The solution
+	 */
+	protected static double[] forwardSubstitute(double[][] l, double[] b)
+	{
+		int n = b.length;
+		double[] x = new double[n];
+		for (int i = 0; i < n; i++)
+		{
+			double sum = b[i];
+			for (int k = 0; k < i; k++)
+			{
+				sum -= l[i][k] * x[k];
+			}
+			x[i] = sum / l[i][i];
+		}
+		return x;
+	}
+
+	/**
+	 * Solves <i>L</i><sup>T</sup><i>x</i> = <i>b</i> for a lower triangular
+	 * matrix <i>L</i>
+	 * @param l The matrix
+	 * @param b The right-hand side
+	 * @return The solution
+	 */
+	protected static double[] backSubstitute(double[][] l, double[] b)
+	{
+		int n = b.length;
+		double[] x = new double[n];
+		for (int i = n - 1; i >= 0; i--)
+		{
+			double sum = b[i];
+			for (int k = i + 1; k < n; k++)
+			{
+				sum -= l[k][i] * x[k];
+			}
+			x[i] = sum / l[i][i];
+		}
+		return x;
+	}
+
+	/**
+	 * Computes the density of the standard normal distribution
+	 * @param z The value
+	 * @return The density
+	 */
+	protected static double pdf(double z)
+	{
+		return Math.exp(-z * z / 2) / Math.sqrt(2 * Math.PI);
+	}
+
+	/**
+	 * Computes the cumulative distribution function of the standard normal
+	 * distribution, with the approximation of the error function given by
+	 * Abramowitz and Stegun (7.1.26)
+	 * @param z The value
+	 * @return The probability
+	 */
+	protected static double cdf(double z)
+	{
+		double x = Math.abs(z) / Math.sqrt(2);
+		double t = 1 / (1 + 0.3275911 * x);
+		double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741
+				+ t * (-1.453152027 + t * 1.061405429)))) * Math.exp(-x * x);
+		return z >= 0 ? (1 + erf) / 2 : (1 - erf) / 2;
+	}
+}
@@ -0,0 +1,289 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.uqac.lif.json.JsonMap;
+
+/**
+ * Runs commands under Linux's {@code perf stat} to read the hardware
+ * performance counters of the processor, such as the number of cycles,
+ * instructions, cache misses and branch misses. This applies to experiments
+ * that run an external command (see {@link #run(Experiment, List, String)}),
+ * and to experiments run in separate JVMs by a {@link ForkedAssistant} (see
+ * {@link ForkedAssistant#setPerfStat(PerfStat)}).
+ * <p>
+ * The counters are written in the output parameter {@link #PERF}, where
+ * tables can read them with a path such as {@code perf.cycles}. If
+ * {@code perf} is not installed, or is not allowed to read the counters,
+ * commands are run normally and no counter is written.
+ *
+ * @author Sylvain Hallé
+ */
+public class PerfStat
+{
+	/**
+	 * The name of the output parameter containing the counters
+	 */
+	public static final String PERF = "perf";
+
+	/**
+	 * The events counted by default
+	 */
+	public static final String[] DEFAULT_EVENTS = {"cycles", "instructions", "cache-misses", "branch-misses"};
+
+	/**
+	 * The command starting {@code perf}
+	 */
+	protected final String m_command;
+
+	/**
+	 * The events to count
+	 */
+	protected final String[] m_events;
+
+	/**
+	 * Whether {@code perf} can be run, or {@code null} if this has not been
+	 * checked yet
+	 */
+	private Boolean m_available = null;
+
+	/**
+	 * Creates a new counter reader
+	 * @param command The command starting {@code perf}
+	 * @param events The events to count. If none is given, the default events
+	 * are counted.
+	 */
+	public PerfStat(String command, String ... events)
+	{
+		super();
+		m_command = command;
+		m_events = events.length == 0 ? DEFAULT_EVENTS : events;
+	}
+
+	/**
+	 * Creates a new counter reader for the default events, using the
+	 * {@code perf} command found in the path
+	 */
+	public PerfStat()
+	{
+		this("perf");
+	}
+
+	/**
+	 * Checks if {@code perf} can count the events. This is done by counting
+	 * them for a command that does nothing; it fails if {@code perf} is not
+	 * installed, or if the system does not let the user read the counters.
+	 * @return {@code true} if the events can be counted, {@code false}
+	 * otherwise
+	 */
+	public synchronized boolean isAvailable()
+	{
+		if (m_available == null)
+		{
+			List<String> command = new ArrayList<String>(1);
+			command.add("true");
+			List<String> check = wrap(command, null);
+			CommandRunner runner = new CommandRunner(check, null);
+			runner.run();
+			m_available = runner.getErrorCode() == 0;
+		}
+		return m_available;
+	}
+
+	/**
+	 * Builds a command line that runs a command under {@code perf stat}
+	 * @param command The command
+	 * @param output The file where {@code perf} writes the counters, or
+	 * {@code null} to write them to the standard error
+	 * @return The new command line
+	 */
+	public List<String> wrap(List<String> command, File output)
+	{
+		List<String> out = new ArrayList<String>(command.size() + 8);
+		out.add(m_command);
+		out.add("stat");
+		out.add("-x");
+		out.add(",");
+		if (output != null)
+		{
+			out.add("-o");
+			out.add(output.getAbsolutePath());
+		}
+		out.add("-e");
+		StringBuilder events = new StringBuilder();
+		for (int i = 0; i < m_events.length; i++)
+		{
+			if (i > 0)
+			{
+				events.append(",");
+			}
+			events.append(m_events[i]);
+		}
+		out.add(events.toString());
+		out.add("--");
+		out.addAll(command);
+		return out;
+	}
+
+	/**
+	 * Runs an external command for an experiment, and writes the counters in
+	 * the experiment's output parameters. If {@code perf} cannot be run, the
+	 * command is run alone and the experiment gets a warning.
+	 * @param e The experiment
+	 * @param command The command
+	 * @param stdin A string sent to the standard input of the command, or
+	 * {@code null}
+	 * @return The runner that ran the command, from which its output and
+	 * return code can be obtained
+	 * @throws InterruptedException If the thread is interrupted while the
+	 * command runs; the command is then stopped
+	 */
+	public CommandRunner run(Experiment e, List<String> command, String stdin) throws InterruptedException
+	{
+		if (!isAvailable())
+		{
+			e.addWarning("Hardware counters were not recorded, since perf cannot be run");
+			return runAndWait(command, stdin);
+		}
+		File output;
+		try
+		{
+			output = File.createTempFile("labpal-perf-", ".csv");
+		}
+		catch (IOException ex)
+		{
+			e.addWarning("Hardware counters were not recorded: " + ex.getMessage());
+			return runAndWait(command, stdin);
+		}
+		try
+		{
+			CommandRunner runner = runAndWait(wrap(command, output), stdin);
+			writeCounters(e, output);
+			return runner;
+		}
+		finally
+		{
+			output.delete();
+		}
+	}
+
+	/**
+	 * Runs a command and waits for it to finish
+	 * @param command The command
+	 * @param stdin A string sent to the standard input of the command, or
+	 * {@code null}
+	 * @return The runner
+	 * @throws InterruptedException If the thread is interrupted while the
+	 * command runs
+	 */
+	protected static CommandRunner runAndWait(List<String> command, String stdin) throws InterruptedException
+	{
+		CommandRunner runner = new CommandRunner(command, stdin);
+		runner.start();
+		try
+		{
+			runner.join();
+		}
+		catch (InterruptedException ex)
+		{
+			runner.stopCommand();
+			runner.interrupt();
+			throw ex;
+		}
+		return runner;
+	}
+
+	/**
+	 * Reads the counters written by {@code perf} and writes them in the
+	 * output parameters of an experiment. If both cycles and instructions are
+	 * counted, the number of instructions per cycle is also written, under
+	 * the name {@code ipc}.
+	 * @param e The experiment
+	 * @param output The file where {@code perf} has written the counters
+	 */
+	public void writeCounters(Experiment e, File output)
+	{
+		String contents = output.exists() ? FileHelper.readToString(output) : null;
+		Map<String,Double> counters = contents == null ? new LinkedHashMap<String,Double>() : parse(contents);
+		if (counters.isEmpty())
+		{
+			e.addWarning("perf did not report any hardware counter");
+			return;
+		}
+		JsonMap map = new JsonMap();
+		for (Map.Entry<String,Double> entry : counters.entrySet())
+		{
+			map.put(entry.getKey(), entry.getValue());
+		}
+		Double cycles = counters.get("cycles");
+		Double instructions = counters.get("instructions");
+		if (cycles != null && instructions != null && cycles > 0)
+		{
+			map.put("ipc", instructions / cycles);
+		}
+		e.write(PERF, map);
+	}
+
+	/**
+	 * Parses the output of {@code perf stat -x ,}. Each line has the form
+	 * {@code value,unit,event,...}; comments and events that could not be
+	 * counted are ignored.
+	 * @param contents The output
+	 * @return A map from event names to their values
+	 */
+	public static Map<String,Double> parse(String contents)
+	{
+		Map<String,Double> counters = new LinkedHashMap<String,Double>();
+		for (String line : contents.split("\n"))
+		{
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+			{
+				continue;
+			}
+			String[] parts = line.split(",");
+			if (parts.length < 3)
+			{
+				continue;
+			}
+			String event = parts[2].trim();
+			// Remove modifiers such as ":u"
+			int colon = event.indexOf(':');
+			if (colon > 0)
+			{
+				event = event.substring(0, colon);
+			}
+			try
+			{
+				counters.put(event, Double.parseDouble(parts[0].trim()));
+			}
+			catch (NumberFormatException ex)
+			{
+				// "<not counted>" or "<not supported>"
+			}
+		}
+		return counters;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Fulfills the prerequisites of experiments in the background. Lab
+ * assistants use it to prepare the next experiments of their queue while
+ * the current ones are running, so that the time spent generating input
+ * data is not spent by the threads running the experiments.
+ * <p>
+ * The pool uses a fixed number of threads running at the lowest priority.
+ * Experiments are prepared by calling {@link Experiment#prepare()}; if an
+ * experiment is started while it is still being prepared, it waits for the
+ * preparation to finish instead of doing it a second time.
+ *
+ * @author Sylvain Hallé
+ */
+public class PreparationPool
+{
+	/**
+	 * The executor running the preparation tasks
+	 */
+	protected final ExecutorService m_executor;
+
+	/**
+	 * The experiments that have been submitted and are not prepared yet
+	 */
+	protected final Set<Experiment> m_pending;
+
+	/**
+	 * Creates a new preparation pool
+	 * @param num_threads The number of threads preparing experiments at the
+	 * same time
+	 */
+	public PreparationPool(int num_threads)
+	{
+		super();
+		m_pending = Collections.synchronizedSet(new HashSet<Experiment>());
+		m_executor = Executors.newFixedThreadPool(Math.max(1, num_threads), new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "LabPal preparer");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Submits experiments for preparation. Experiments that are already
+	 * submitted are ignored.
+	 * @param experiments The experiments
+	 */
+	public void prepare(List<Experiment> experiments)
+	{
+		for (final Experiment e : experiments)
+		{
+			if (!m_pending.add(e))
+			{
+				continue;
+			}
+			m_executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						e.prepare();
+					}
+					finally
+					{
+						m_pending.remove(e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Stops the pool. Preparations that have not started are cancelled.
+	 */
+	public void shutdown()
+	{
+		m_executor.shutdownNow();
+		m_pending.clear();
+	}
+}
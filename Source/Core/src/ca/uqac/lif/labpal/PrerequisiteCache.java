@@ -0,0 +1,529 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A directory where experiments store the data they generate as their
+ * prerequisites. Each piece of data is a file whose name is a key computed
+ * from the parameters that determine its contents, such as the experiment's
+ * input parameters and the lab's random seed (see {@link #getKey(Object...)}).
+ * Since the key does not depend on anything else, data generated once can be
+ * reused by other experiments, or by later runs of the lab.
+ * <p>
+ * The cache has a budget in bytes. When adding a file makes the total size
+ * of the cache exceed this budget, the files that have been used least
+ * recently are deleted until the cache fits its budget again. An experiment
+ * whose data has been evicted simply has to generate it again. Data that
+ * is being read must be pinned, so that another thread adding data to the
+ * cache cannot evict it in the meantime.
+ * <p>
+ * An experiment typically uses the cache as follows:
+ * <pre>
+ * File f = cache.getFile(key);
+ * cache.pin(key);
+ * try {
+ *   if (!cache.lookup(key)) {
+ *     // Generate the data and write it to f
+ *     cache.add(key);
+ *   }
+ *   // Read the data from f
+ * } finally {
+ *   cache.unpin(key);
+ * }
+ * </pre>
+ * The cache counts the lookups that found the data (hits), those that did
+ * not (misses), and the number of bytes added to it.
+ * <p>
+ * Several JVMs can share the same directory, as is the case for the lab and
+ * the children started by a {@link ForkedAssistant}. Each of them keeps its
+ * own record of the use of the files and of their pins, and enforces the
+ * budget on its own: a JVM can evict a file that another one is about to
+ * read. The other JVM then reads a file that no longer exists, and must
+ * generate the data again. On systems where an open file can be deleted,
+ * a file already opened or mapped remains readable.
+ *
+ * @author Sylvain Hallé
+ */
+public class PrerequisiteCache
+{
+	/**
+	 * The default directory of the cache
+	 */
+	public static final String DEFAULT_DIRECTORY = "data/cache";
+
+	/**
+	 * The directory where the files are stored
+	 */
+	protected final File m_directory;
+
+	/**
+	 * The maximum size of the cache, in bytes
+	 */
+	private long m_budget;
+
+	/**
+	 * The files in the cache and their size, from least to most recently used
+	 */
+	protected final LinkedHashMap<String,Long> m_entries;
+
+	/**
+	 * The number of times each key is pinned; pinned files are not evicted
+	 */
+	protected final Map<String,Integer> m_pins = new HashMap<String,Integer>();
+
+	/**
+	 * The total size of the files in the cache, in bytes
+	 */
+	private long m_size = 0;
+
+	/**
+	 * The number of lookups that found their data in the cache
+	 */
+	private long m_hits = 0;
+
+	/**
+	 * The number of lookups that did not find their data in the cache
+	 */
+	private long m_misses = 0;
+
+	/**
+	 * The number of bytes added to the cache
+	 */
+	private long m_bytesAdded = 0;
+
+	/**
+	 * The number of files evicted from the cache
+	 */
+	private long m_evictions = 0;
+
+	/**
+	 * Creates a new cache. Files already present in the directory are
+	 * considered as part of the cache.
+	 * @param directory The directory where the files are stored
+	 * @param budget The maximum size of the cache, in bytes. A negative value
+	 * indicates no limit.
+	 */
+	public PrerequisiteCache(File directory, long budget)
+	{
+		super();
+		m_directory = directory;
+		m_budget = budget < 0 ? Long.MAX_VALUE : budget;
+		m_entries = new LinkedHashMap<String,Long>(16, 0.75f, true);
+		scan();
+	}
+
+	/**
+	 * Creates a new cache with no size limit in the default directory
+	 */
+	public PrerequisiteCache()
+	{
+		this(new File(DEFAULT_DIRECTORY), -1);
+	}
+
+	/**
+	 * Reads the files already present in the directory, from the least to the
+	 * most recently modified
+	 */
+	protected void scan()
+	{
+		File[] files = m_directory.listFiles();
+		if (files == null)
+		{
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>()
+		{
+			@Override
+			public int compare(File f1, File f2)
+			{
+				long t1 = f1.lastModified(), t2 = f2.lastModified();
+				return t1 < t2 ? -1 : (t1 > t2 ? 1 : 0);
+			}
+		});
+		for (File f : files)
+		{
+			if (f.isFile())
+			{
+				m_entries.put(f.getName(), f.length());
+				m_size += f.length();
+			}
+		}
+	}
+
+	/**
+	 * Computes a key from the parameters that determine the contents of a
+	 * piece of data
+	 * @param parts The parameters. Their string representations are used to
+	 * compute the key.
+	 * @return The key
+	 */
+	public static String getKey(Object ... parts)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Object o : parts)
+		{
+			sb.append(o).append("\n");
+		}
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] digest = md.digest(sb.toString().getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest)
+			{
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every JVM is required to support SHA-1
+			throw new IllegalStateException(e);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			// Every JVM is required to support UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Computes a key for the data of an experiment. This key is derived from
+	 * the experiment's input parameters and the random seed of its lab.
+	 * Experiments of different classes, or whose other input parameters are
+	 * different, can share the same data if they give the same names.
+	 * @param e The experiment
+	 * @param names The names of the input parameters that determine the
+	 * data. If none is given, all the input parameters of the experiment
+	 * are used, along with the name of its class.
+	 * @return The key
+	 */
+	public static String getKey(Experiment e, String ... names)
+	{
+		int seed = e.m_lab == null ? 0 : e.m_lab.getRandomSeed();
+		if (names.length == 0)
+		{
+			return getKey(e.getClass().getName(), e.getInputParameters(), seed);
+		}
+		Object[] parts = new Object[2 * names.length + 1];
+		for (int i = 0; i < names.length; i++)
+		{
+			parts[2 * i] = names[i];
+			parts[2 * i + 1] = e.read(names[i]);
+		}
+		parts[parts.length - 1] = seed;
+		return getKey(parts);
+	}
+
+	/**
+	 * Gets the file where the data for a key is stored. The file may not
+	 * exist.
+	 * @param key The key
+	 * @return The file
+	 */
+	public File getFile(String key)
+	{
+		return new File(m_directory, key);
+	}
+
+	/**
+	 * Checks if the data for a key is in the cache. Contrary to
+	 * {@link #lookup(String)}, this does not count as a use of the data.
+	 * @param key The key
+	 * @return {@code true} if the data is in the cache, {@code false}
+	 * otherwise
+	 */
+	public synchronized boolean contains(String key)
+	{
+		return m_entries.containsKey(key) && getFile(key).exists();
+	}
+
+	/**
+	 * Looks for the data for a key in the cache, and marks it as recently
+	 * used if it is found
+	 * @param key The key
+	 * @return {@code true} if the data is in the cache, {@code false}
+	 * otherwise
+	 */
+	public synchronized boolean lookup(String key)
+	{
+		File f = getFile(key);
+		if (m_entries.get(key) != null && f.exists())
+		{
+			m_hits++;
+			// Keep the order of use across runs of the lab
+			f.setLastModified(System.currentTimeMillis());
+			return true;
+		}
+		m_misses++;
+		Long size = m_entries.remove(key);
+		if (size != null)
+		{
+			// The file has been deleted by someone else
+			m_size -= size;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds to the cache the data for a key, once it has been written to the
+	 * file given by {@link #getFile(String)}. Files that have not been used
+	 * recently are evicted if the cache exceeds its budget.
+	 * @param key The key
+	 */
+	public synchronized void add(String key)
+	{
+		File f = getFile(key);
+		if (!f.exists())
+		{
+			return;
+		}
+		long size = f.length();
+		Long old_size = m_entries.put(key, size);
+		if (old_size != null)
+		{
+			m_size -= old_size;
+		}
+		m_size += size;
+		m_bytesAdded += size;
+		evict(key);
+	}
+
+	/**
+	 * Prevents the data for a key from being evicted, until a matching call
+	 * to {@link #unpin(String)}. The key does not need to be in the cache
+	 * yet: data added for it while it is pinned is kept as well.
+	 * @param key The key
+	 */
+	public synchronized void pin(String key)
+	{
+		Integer count = m_pins.get(key);
+		m_pins.put(key, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Allows the data for a key to be evicted again. Files that could not be
+	 * evicted while they were pinned are evicted now if the cache exceeds
+	 * its budget.
+	 * @param key The key
+	 */
+	public synchronized void unpin(String key)
+	{
+		Integer count = m_pins.get(key);
+		if (count == null)
+		{
+			return;
+		}
+		if (count > 1)
+		{
+			m_pins.put(key, count - 1);
+			return;
+		}
+		m_pins.remove(key);
+		evict(null);
+	}
+
+	/**
+	 * Removes the data for a key from the cache
+	 * @param key The key
+	 */
+	public synchronized void remove(String key)
+	{
+		File f = getFile(key);
+		if (!f.delete() && f.exists())
+		{
+			// The file is still there and still counts in the size
+			return;
+		}
+		Long size = m_entries.remove(key);
+		if (size != null)
+		{
+			m_size -= size;
+		}
+	}
+
+	/**
+	 * Deletes the files that have been used least recently, until the size
+	 * of the cache fits the budget. Pinned files are never deleted, and
+	 * files that cannot be deleted (for example because they are open on a
+	 * system that forbids it) are left in the cache.
+	 * @param keep The key of a file that must not be deleted
+	 */
+	protected void evict(String keep)
+	{
+		Iterator<Map.Entry<String,Long>> it = m_entries.entrySet().iterator();
+		while (m_size > m_budget && it.hasNext())
+		{
+			Map.Entry<String,Long> entry = it.next();
+			if (entry.getKey().equals(keep) || m_pins.containsKey(entry.getKey()))
+			{
+				continue;
+			}
+			File f = getFile(entry.getKey());
+			if (!f.delete() && f.exists())
+			{
+				continue;
+			}
+			m_size -= entry.getValue();
+			m_evictions++;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Sets the maximum size of the cache
+	 * @param budget The size, in bytes. A negative value indicates no limit.
+	 * @return This cache
+	 */
+	public synchronized PrerequisiteCache setBudget(long budget)
+	{
+		m_budget = budget < 0 ? Long.MAX_VALUE : budget;
+		evict(null);
+		return this;
+	}
+
+	/**
+	 * Gets the maximum size of the cache
+	 * @return The size, in bytes, or {@link Long#MAX_VALUE} if there is no
+	 * limit
+	 */
+	public synchronized long getBudget()
+	{
+		return m_budget;
+	}
+
+	/**
+	 * Gets the directory where the files are stored
+	 * @return The directory
+	 */
+	public File getDirectory()
+	{
+		return m_directory;
+	}
+
+	/**
+	 * Gets the total size of the files in the cache
+	 * @return The size, in bytes
+	 */
+	public synchronized long getSize()
+	{
+		return m_size;
+	}
+
+	/**
+	 * Gets the number of lookups that found their data in the cache
+	 * @return The number of lookups
+	 */
+	public synchronized long getHits()
+	{
+		return m_hits;
+	}
+
+	/**
+	 * Gets the number of lookups that did not find their data in the cache
+	 * @return The number of lookups
+	 */
+	public synchronized long getMisses()
+	{
+		return m_misses;
+	}
+
+	/**
+	 * Gets the number of bytes added to the cache
+	 * @return The number of bytes
+	 */
+	public synchronized long getBytesAdded()
+	{
+		return m_bytesAdded;
+	}
+
+	/**
+	 * Gets the number of files evicted from the cache
+	 * @return The number of files
+	 */
+	public synchronized long getEvictions()
+	{
+		return m_evictions;
+	}
+
+	/**
+	 * Parses a size expressed in bytes, possibly followed by a unit
+	 * (k, M or G)
+	 * @param s The string to parse, such as {@code 500M}
+	 * @return The size, in bytes
+	 * @throws NumberFormatException If the string is not a valid size
+	 */
+	public static long parseSize(String s)
+	{
+		s = s.trim();
+		long factor = 1;
+		char last = Character.toUpperCase(s.charAt(s.length() - 1));
+		switch (last)
+		{
+		case 'K':
+			factor = 1024L;
+			break;
+		case 'M':
+			factor = 1024L * 1024;
+			break;
+		case 'G':
+			factor = 1024L * 1024 * 1024;
+			break;
+		default:
+			factor = 1;
+		}
+		if (factor > 1)
+		{
+			s = s.substring(0, s.length() - 1).trim();
+		}
+		return (long) (Double.parseDouble(s) * factor);
+	}
+
+	/**
+	 * Formats a size in bytes in a human-readable form
+	 * @param bytes The size, in bytes
+	 * @return The formatted size
+	 */
+	public static String formatSize(long bytes)
+	{
+		if (bytes < 1024)
+		{
+			return bytes + " B";
+		}
+		String[] units = {"kB", "MB", "GB", "TB"};
+		double value = bytes;
+		int unit = -1;
+		while (value >= 1024 && unit < units.length - 1)
+		{
+			value /= 1024;
+			unit++;
+		}
+		return String.format("%.1f %s", value, units[unit]);
+	}
+}
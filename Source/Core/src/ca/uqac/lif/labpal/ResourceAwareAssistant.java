@@ -0,0 +1,182 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2022 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Lab assistant that runs experiments in parallel according to the
+ * resources they declare. The assistant manages a budget of processor
+ * cores (by default, the number of processors available to the JVM):
+ * <ul>
+ * <li>Experiments declared as exclusive (see
+ * {@link Experiment#setExclusive(boolean)}) are always run alone. When such
+ * an experiment reaches the front of the queue, the assistant stops
+ * starting new experiments until all running experiments are finished.</li>
+ * <li>Other experiments are packed together as long as the sum of the cores
+ * they use (see {@link Experiment#setCores(int)}) does not exceed the
+ * budget. An experiment further down the queue can be started before one
+ * that does not fit.</li>
+ * <li>No new experiment is started if the free heap memory, minus the memory
+ * the experiment is expected to use (see
+ * {@link Experiment#setExpectedHeap(long)}), would drop below a
+ * threshold.</li>
+ * </ul>
+ * An experiment that requires more resources than the assistant has is run
+ * when no other experiment is running.
+ *
+ * @author Sylvain Hallé
+ */
+public class ResourceAwareAssistant extends ThreadPoolAssistant
+{
+	/**
+	 * The minimum amount of free heap memory (in bytes) required to start
+	 * a new experiment
+	 */
+	private transient long m_minFreeHeap;
+
+	/**
+	 * Creates a new assistant
+	 * @param lab The lab this assistant will coordinate
+	 * @param cores The number of processor cores that the experiments can
+	 * use at the same time
+	 */
+	public ResourceAwareAssistant(Laboratory lab, int cores)
+	{
+		super(lab, cores);
+		m_minFreeHeap = Runtime.getRuntime().maxMemory() / 10;
+	}
+
+	/**
+	 * Creates a new assistant
+	 * @param cores The number of processor cores that the experiments can
+	 * use at the same time
+	 */
+	public ResourceAwareAssistant(int cores)
+	{
+		this(null, cores);
+	}
+
+	/**
+	 * Creates a new assistant using all the processors available to the JVM
+	 */
+	public ResourceAwareAssistant()
+	{
+		this(null, getDefaultThreads());
+	}
+
+	/**
+	 * Sets the minimum amount of free heap memory required to start a new
+	 * experiment. By default, this value is 10% of the maximum heap size.
+	 * @param bytes The amount of memory, in bytes
+	 * @return This assistant
+	 */
+	public ResourceAwareAssistant setMinFreeHeap(long bytes)
+	{
+		m_minFreeHeap = bytes;
+		return this;
+	}
+
+	/**
+	 * Gets the minimum amount of free heap memory required to start a new
+	 * experiment
+	 * @return The amount of memory, in bytes
+	 */
+	public long getMinFreeHeap()
+	{
+		return m_minFreeHeap;
+	}
+
+	@Override
+	protected Experiment nextExperiment()
+	{
+		int used_cores = 0;
+		long reserved_heap = 0;
+		// Experiments waiting in a worker's batch already hold their resources
+		for (Experiment r : m_assigned.keySet())
+		{
+			if (r.isExclusive())
+			{
+				// Nothing else can run beside an exclusive experiment
+				return null;
+			}
+			used_cores += r.getCores();
+			reserved_heap += r.getExpectedHeap();
+		}
+		boolean idle = m_assigned.isEmpty();
+		Experiment chosen = null;
+		List<Experiment> discarded = new ArrayList<Experiment>();
+		Iterator<Experiment> it = m_queue.iterator();
+		while (it.hasNext())
+		{
+			Experiment e = it.next();
+			if (!isStartable(e))
+			{
+				it.remove();
+				discarded.add(e);
+				continue;
+			}
+			if (idle)
+			{
+				// Whatever its requirements, an experiment can run on an idle machine
+				chosen = e;
+				break;
+			}
+			if (e.isExclusive())
+			{
+				// Wait for the running experiments to finish, and don't let the
+				// ones behind it overtake it
+				break;
+			}
+			if (getFreeHeap(reserved_heap) - e.getExpectedHeap() < m_minFreeHeap)
+			{
+				break;
+			}
+			if (used_cores + e.getCores() <= getThreads())
+			{
+				chosen = e;
+				break;
+			}
+		}
+		if (chosen != null)
+		{
+			m_queue.remove(chosen);
+		}
+		if (discard(discarded) && chosen == null)
+		{
+			// Experiments waiting for the discarded ones may now be startable
+			return nextExperiment();
+		}
+		return chosen;
+	}
+
+	/**
+	 * Estimates the amount of heap memory that is still available
+	 * @param reserved_heap The amount of memory that running experiments
+	 * declared they would use
+	 * @return The amount of memory, in bytes
+	 */
+	protected static long getFreeHeap(long reserved_heap)
+	{
+		Runtime rt = Runtime.getRuntime();
+		long used = rt.totalMemory() - rt.freeMemory();
+		return rt.maxMemory() - Math.max(used, reserved_heap);
+	}
+}
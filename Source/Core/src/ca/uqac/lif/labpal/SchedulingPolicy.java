@@ -0,0 +1,196 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides in which order the experiments of a lab assistant's queue are
+ * started. The policy gives each experiment a rank when it is added to the
+ * queue; experiments are started by increasing rank, and experiments with
+ * the same rank in the order they were queued. This base class is the
+ * default policy, which starts experiments in the order they were queued.
+ * <p>
+ * Since ranks are computed once, when experiments are queued, policies based
+ * on durations use the estimates available at that moment.
+ *
+ * @author Sylvain Hallé
+ * @see ExperimentQueue
+ */
+public class SchedulingPolicy
+{
+	/**
+	 * Creates a new scheduling policy
+	 */
+	public SchedulingPolicy()
+	{
+		super();
+	}
+
+	/**
+	 * Gets the rank of an experiment added to the queue
+	 * @param e The experiment
+	 * @param lab The lab the experiment belongs to, or {@code null} if it is
+	 * not known
+	 * @return The rank. Experiments with a lower rank are started first.
+	 */
+	public double getRank(Experiment e, Laboratory lab)
+	{
+		return 0;
+	}
+
+	/**
+	 * Forgets the state accumulated by the policy. This is called when the
+	 * queue is cleared.
+	 */
+	public void reset()
+	{
+		// Nothing to do
+	}
+
+	/**
+	 * Creates a policy from its name
+	 * @param name The name: one of {@code fifo}, {@code shortest},
+	 * {@code longest}, {@code groups} or {@code priority}
+	 * @return The policy, or {@code null} if the name is not recognized
+	 */
+	public static SchedulingPolicy fromString(String name)
+	{
+		name = name.trim().toLowerCase();
+		if (name.equals("fifo"))
+		{
+			return new SchedulingPolicy();
+		}
+		if (name.equals("shortest"))
+		{
+			return new ShortestFirst();
+		}
+		if (name.equals("longest"))
+		{
+			return new LongestFirst();
+		}
+		if (name.equals("groups"))
+		{
+			return new GroupRoundRobin();
+		}
+		if (name.equals("priority"))
+		{
+			return new Priority();
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the estimated duration of an experiment
+	 * @param e The experiment
+	 * @param lab The lab the experiment belongs to, or {@code null}
+	 * @return The duration, in seconds
+	 */
+	protected static float getEstimate(Experiment e, Laboratory lab)
+	{
+		if (lab != null)
+		{
+			return lab.estimateDuration(e);
+		}
+		return e.getDurationEstimate(Laboratory.s_parkMips);
+	}
+
+	/**
+	 * Policy starting the experiments with the shortest estimated duration
+	 * first. This produces partial results as fast as possible.
+	 */
+	public static class ShortestFirst extends SchedulingPolicy
+	{
+		@Override
+		public double getRank(Experiment e, Laboratory lab)
+		{
+			return getEstimate(e, lab);
+		}
+	}
+
+	/**
+	 * Policy starting the experiments with the longest estimated duration
+	 * first. When experiments run in parallel, this keeps long experiments
+	 * from being started last, which shortens the total running time.
+	 */
+	public static class LongestFirst extends SchedulingPolicy
+	{
+		@Override
+		public double getRank(Experiment e, Laboratory lab)
+		{
+			return -getEstimate(e, lab);
+		}
+	}
+
+	/**
+	 * Policy alternating between the groups of the lab: the first experiment
+	 * of each group is started, then the second of each group, and so on.
+	 * This way, every group gets results early. Experiments that belong to
+	 * no group are treated as a group of their own; an experiment belonging
+	 * to many groups is counted in the one with the lowest ID.
+	 */
+	public static class GroupRoundRobin extends SchedulingPolicy
+	{
+		/**
+		 * The number of experiments queued so far in each group
+		 */
+		private final Map<Integer,Integer> m_counts = new HashMap<Integer,Integer>();
+
+		@Override
+		public double getRank(Experiment e, Laboratory lab)
+		{
+			int group_id = -1;
+			if (lab != null)
+			{
+				Set<Group> groups = lab.getGroups(e.getId());
+				for (Group g : groups)
+				{
+					if (group_id < 0 || g.getId() < group_id)
+					{
+						group_id = g.getId();
+					}
+				}
+			}
+			Integer count = m_counts.get(group_id);
+			int rank = count == null ? 0 : count;
+			m_counts.put(group_id, rank + 1);
+			return rank;
+		}
+
+		@Override
+		public void reset()
+		{
+			m_counts.clear();
+		}
+	}
+
+	/**
+	 * Policy starting the experiments with the highest priority first, as
+	 * set with {@link Experiment#setPriority(int)}
+	 */
+	public static class Priority extends SchedulingPolicy
+	{
+		@Override
+		public double getRank(Experiment e, Laboratory lab)
+		{
+			return -e.getPriority();
+		}
+	}
+}
@@ -0,0 +1,224 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.util.Arrays;
+
+/**
+ * Collects the numerical values measured over several runs of an
+ * experiment, and computes statistics on them. The values are kept in an
+ * array of primitive doubles, which grows as needed.
+ *
+ * @author Sylvain Hallé
+ */
+public class Statistics
+{
+	/**
+	 * Critical values of Student's t distribution for a two-sided 95%
+	 * confidence interval, indexed by the number of degrees of freedom
+	 * minus one
+	 */
+	private static final double[] T_95 = {12.706, 4.303, 3.182, 2.776, 2.571,
+		2.447, 2.365, 2.306, 2.262, 2.228, 2.201, 2.179, 2.160, 2.145, 2.131,
+		2.120, 2.110, 2.101, 2.093, 2.086, 2.080, 2.074, 2.069, 2.064, 2.060,
+		2.056, 2.052, 2.048, 2.045, 2.042};
+
+	/**
+	 * The critical value of the normal distribution for a two-sided 95%
+	 * confidence interval, used when there are many samples
+	 */
+	private static final double Z_95 = 1.960;
+
+	/**
+	 * The values
+	 */
+	private double[] m_samples;
+
+	/**
+	 * The number of values
+	 */
+	private int m_count = 0;
+
+	/**
+	 * Creates a new empty set of values
+	 */
+	public Statistics()
+	{
+		super();
+		m_samples = new double[16];
+	}
+
+	/**
+	 * Adds a value
+	 * @param x The value
+	 * @return This object
+	 */
+	public Statistics add(double x)
+	{
+		if (m_count == m_samples.length)
+		{
+			m_samples = Arrays.copyOf(m_samples, 2 * m_count);
+		}
+		m_samples[m_count++] = x;
+		return this;
+	}
+
+	/**
+	 * Gets the number of values
+	 * @return The number of values
+	 */
+	public int getCount()
+	{
+		return m_count;
+	}
+
+	/**
+	 * Gets a copy of the values, in the order they were added
+	 * @return The values
+	 */
+	public double[] getSamples()
+	{
+		return Arrays.copyOf(m_samples, m_count);
+	}
+
+	/**
+	 * Computes the mean of the values
+	 * @return The mean, or NaN if there is no value
+	 */
+	public double getMean()
+	{
+		if (m_count == 0)
+		{
+			return Double.NaN;
+		}
+		double sum = 0;
+		for (int i = 0; i < m_count; i++)
+		{
+			sum += m_samples[i];
+		}
+		return sum / m_count;
+	}
+
+	/**
+	 * Computes the median of the values
+	 * @return The median, or NaN if there is no value
+	 */
+	public double getMedian()
+	{
+		if (m_count == 0)
+		{
+			return Double.NaN;
+		}
+		double[] sorted = getSamples();
+		Arrays.sort(sorted);
+		int mid = m_count / 2;
+		if (m_count % 2 == 1)
+		{
+			return sorted[mid];
+		}
+		return (sorted[mid - 1] + sorted[mid]) / 2;
+	}
+
+	/**
+	 * Computes the sample standard deviation of the values
+	 * @return The standard deviation, or 0 if there are fewer than two values
+	 */
+	public double getStandardDeviation()
+	{
+		if (m_count < 2)
+		{
+			return 0;
+		}
+		double mean = getMean();
+		double sum = 0;
+		for (int i = 0; i < m_count; i++)
+		{
+			double d = m_samples[i] - mean;
+			sum += d * d;
+		}
+		return Math.sqrt(sum / (m_count - 1));
+	}
+
+	/**
+	 * Gets the smallest value
+	 * @return The value, or NaN if there is no value
+	 */
+	public double getMin()
+	{
+		if (m_count == 0)
+		{
+			return Double.NaN;
+		}
+		double min = m_samples[0];
+		for (int i = 1; i < m_count; i++)
+		{
+			min = Math.min(min, m_samples[i]);
+		}
+		return min;
+	}
+
+	/**
+	 * Gets the largest value
+	 * @return The value, or NaN if there is no value
+	 */
+	public double getMax()
+	{
+		if (m_count == 0)
+		{
+			return Double.NaN;
+		}
+		double max = m_samples[0];
+		for (int i = 1; i < m_count; i++)
+		{
+			max = Math.max(max, m_samples[i]);
+		}
+		return max;
+	}
+
+	/**
+	 * Computes the half-width of the 95% confidence interval of the mean,
+	 * using Student's t distribution
+	 * @return The half-width, or infinity if there are fewer than two values
+	 */
+	public double getConfidenceHalfWidth()
+	{
+		if (m_count < 2)
+		{
+			return Double.POSITIVE_INFINITY;
+		}
+		int df = m_count - 1;
+		double t = df <= T_95.length ? T_95[df - 1] : Z_95;
+		return t * getStandardDeviation() / Math.sqrt(m_count);
+	}
+
+	/**
+	 * Computes the half-width of the 95% confidence interval of the mean,
+	 * relative to the mean
+	 * @return The relative half-width (e.g. 0.05 for 5% of the mean), or
+	 * infinity if it cannot be computed
+	 */
+	public double getRelativeHalfWidth()
+	{
+		double mean = getMean();
+		if (mean == 0 || Double.isNaN(mean))
+		{
+			return Double.POSITIVE_INFINITY;
+		}
+		return getConfidenceHalfWidth() / Math.abs(mean);
+	}
+}
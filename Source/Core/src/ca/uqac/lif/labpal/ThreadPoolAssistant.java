@@ -0,0 +1,853 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2022 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ca.uqac.lif.labpal.Experiment.QueueStatus;
+import ca.uqac.lif.labpal.Experiment.Status;
+
+/**
+ * Lab assistant that executes up to <i>n</i> experiments at the same time.
+ * Experiments are started in the order they have been put in the queue, or
+ * in the order decided by a {@link SchedulingPolicy}; as soon as one of them
+ * finishes, the next one in the queue is started.
+ * <p>
+ * The experiments are run by <i>n</i> worker threads that live as long as
+ * the assistant is running. A worker that finishes an experiment takes the
+ * next one from the queue right away; it does not wait for the assistant to
+ * notice that the experiment is over. This keeps the time spent between two
+ * experiments very low, which matters for labs made of many short
+ * experiments. For such labs, a worker can also be instructed to take
+ * several experiments from the queue at once (see {@link #setBatchSize(int)}).
+ * The average time spent by the assistant to dispatch each experiment is
+ * measured, and can be queried with {@link #getDispatchOverhead()}.
+ * <p>
+ * The time limits of the experiments are enforced by a {@link Watchdog}.
+ * When an experiment does not stop within the grace period after exceeding
+ * its limits, its worker is abandoned and replaced by a new one, so that the
+ * rest of the queue is not blocked.
+ * <p>
+ * This assistant is meant for labs made of independent experiments. Note
+ * that experiments running concurrently compete for the same processor
+ * cores and memory; experiments that measure running times should
+ * generally not be run by this assistant with more than one thread. See
+ * {@link ResourceAwareAssistant} for an assistant that takes into account
+ * the resources declared by each experiment.
+ *
+ * @author Sylvain Hallé
+ */
+public class ThreadPoolAssistant extends LabAssistant implements Watchdog.Listener
+{
+	/**
+	 * Internal flag used to stop the execution of the queue
+	 */
+	private transient volatile boolean m_stop;
+
+	/**
+	 * The maximum number of experiments that can run at the same time
+	 */
+	private transient int m_numThreads;
+
+	/**
+	 * The maximum number of experiments a worker takes from the queue at
+	 * once
+	 */
+	private transient int m_batchSize = 1;
+
+	/**
+	 * The queue of experiments to run. An experiment is removed from the queue
+	 * as soon as it is dispatched to a worker.
+	 */
+	protected transient ExperimentQueue m_queue;
+
+	/**
+	 * The experiments that have been dispatched to a worker and are not
+	 * finished yet, associated with that worker. With batches, some of them
+	 * may still wait for the worker to start them.
+	 */
+	protected transient Map<Experiment,Worker> m_assigned;
+
+	/**
+	 * The experiments that a worker has started and that are not finished
+	 * yet, associated with that worker
+	 */
+	protected transient Map<Experiment,Worker> m_running;
+
+	/**
+	 * The watchdog enforcing the time limits of the experiments
+	 */
+	protected transient final Watchdog m_watchdog = new Watchdog();
+
+	/**
+	 * The number of workers created so far, used to give them a name
+	 */
+	private transient int m_workerCount = 0;
+
+	/**
+	 * The worker threads
+	 */
+	protected transient List<Worker> m_workers;
+
+	/**
+	 * A lock to control concurrent accesses to the queue and to the set of
+	 * running experiments
+	 */
+	protected transient final Lock m_queueLock = new ReentrantLock();
+
+	/**
+	 * A condition signalled every time the queue or the set of running
+	 * experiments changes
+	 */
+	protected transient final Condition m_changed = m_queueLock.newCondition();
+
+	/**
+	 * The total time (in ns) spent by workers outside of the experiments they
+	 * run, in order to get them from the queue and to record their completion
+	 */
+	private transient final AtomicLong m_overhead = new AtomicLong();
+
+	/**
+	 * The number of experiments dispatched to workers so far
+	 */
+	private transient final AtomicLong m_dispatched = new AtomicLong();
+
+	/**
+	 * Creates a new assistant
+	 * @param lab The lab this assistant will coordinate
+	 * @param num_threads The maximum number of experiments that can run
+	 * at the same time
+	 */
+	public ThreadPoolAssistant(Laboratory lab, int num_threads)
+	{
+		super(lab);
+		m_stop = true;
+		m_queue = new ExperimentQueue();
+		m_queue.setLaboratory(lab);
+		m_assigned = new HashMap<Experiment,Worker>();
+		m_running = new HashMap<Experiment,Worker>();
+		m_workers = new ArrayList<Worker>();
+		setThreads(num_threads);
+	}
+
+	/**
+	 * Creates a new assistant
+	 * @param num_threads The maximum number of experiments that can run
+	 * at the same time
+	 */
+	public ThreadPoolAssistant(int num_threads)
+	{
+		this(null, num_threads);
+	}
+
+	/**
+	 * Creates a new assistant running as many experiments at the same
+	 * time as there are processors available to the JVM
+	 */
+	public ThreadPoolAssistant()
+	{
+		this(null, getDefaultThreads());
+	}
+
+	/**
+	 * Gets the default number of threads used by this assistant
+	 * @return The number of processors available to the JVM
+	 */
+	public static int getDefaultThreads()
+	{
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Sets the maximum number of experiments that can run at the same time.
+	 * If the assistant is running, the new value applies the next time
+	 * it is started.
+	 * @param num_threads The number of experiments. Values lower than 1
+	 * are replaced by 1.
+	 * @return This assistant
+	 */
+	public ThreadPoolAssistant setThreads(int num_threads)
+	{
+		m_numThreads = Math.max(1, num_threads);
+		return this;
+	}
+
+	/**
+	 * Gets the maximum number of experiments that can run at the same time
+	 * @return The number of experiments
+	 */
+	public int getThreads()
+	{
+		return m_numThreads;
+	}
+
+	/**
+	 * Sets the maximum number of experiments a worker takes from the queue
+	 * at once. The experiments of a batch are run one after the other by the
+	 * same worker. Values greater than 1 reduce the dispatching overhead for
+	 * very short experiments, at the price of a coarser load balancing
+	 * between workers.
+	 * @param size The number of experiments. Values lower than 1 are
+	 * replaced by 1.
+	 * @return This assistant
+	 */
+	public ThreadPoolAssistant setBatchSize(int size)
+	{
+		m_batchSize = Math.max(1, size);
+		return this;
+	}
+
+	/**
+	 * Gets the maximum number of experiments a worker takes from the queue
+	 * at once
+	 * @return The number of experiments
+	 */
+	public int getBatchSize()
+	{
+		return m_batchSize;
+	}
+
+	/**
+	 * Sets the policy deciding the order in which the experiments of the
+	 * queue are started
+	 * @param policy The policy
+	 * @return This assistant
+	 */
+	public ThreadPoolAssistant setSchedulingPolicy(SchedulingPolicy policy)
+	{
+		m_queueLock.lock();
+		m_queue.setPolicy(policy);
+		m_queueLock.unlock();
+		return this;
+	}
+
+	/**
+	 * Gets the policy deciding the order in which the experiments of the
+	 * queue are started
+	 * @return The policy
+	 */
+	public SchedulingPolicy getSchedulingPolicy()
+	{
+		return m_queue.getPolicy();
+	}
+
+	@Override
+	public void setLaboratory(Laboratory lab)
+	{
+		super.setLaboratory(lab);
+		m_queueLock.lock();
+		m_queue.setLaboratory(lab);
+		m_queueLock.unlock();
+	}
+
+	/**
+	 * Gets the average time spent by the assistant to dispatch an experiment.
+	 * This is the time a worker spends between the end of an experiment and
+	 * the start of the next one, when the queue is not empty.
+	 * @return The time, in nanoseconds; 0 if no experiment was dispatched
+	 * yet
+	 */
+	public long getDispatchOverhead()
+	{
+		long n = m_dispatched.get();
+		if (n == 0)
+		{
+			return 0;
+		}
+		return m_overhead.get() / n;
+	}
+
+	/**
+	 * Gets the number of experiments dispatched by this assistant since it
+	 * was created
+	 * @return The number of experiments
+	 */
+	public long getDispatchedCount()
+	{
+		return m_dispatched.get();
+	}
+
+	@Override
+	public void run()
+	{
+		m_startTime = System.currentTimeMillis();
+		m_stop = false;
+		m_lab.getReporter().start();
+		m_watchdog.start();
+		m_queueLock.lock();
+		m_workers.clear();
+		for (int i = 0; i < m_numThreads; i++)
+		{
+			startWorker();
+		}
+		while (!m_stop && !(m_queue.isEmpty() && m_assigned.isEmpty()))
+		{
+			try
+			{
+				m_changed.await();
+			}
+			catch (InterruptedException e)
+			{
+				// If something bad happens, stop the loop
+				e.printStackTrace();
+				break;
+			}
+		}
+		boolean interrupted = m_stop;
+		m_stop = true;
+		m_changed.signalAll();
+		Set<Experiment> in_progress = new HashSet<Experiment>();
+		for (Experiment e : m_running.keySet())
+		{
+			if (e.getStatus() == Status.RUNNING)
+			{
+				in_progress.add(e);
+			}
+		}
+		List<Worker> workers = new ArrayList<Worker>(m_workers);
+		m_queueLock.unlock();
+		// If some experiments are running, interrupt them
+		for (Experiment e : in_progress)
+		{
+			e.setRunning(false);
+		}
+		// Don't wait forever for experiments that ignore the request to stop
+		long deadline = System.currentTimeMillis() + m_watchdog.getGracePeriod();
+		for (Worker w : workers)
+		{
+			try
+			{
+				w.join(Math.max(1, deadline - System.currentTimeMillis()));
+			}
+			catch (InterruptedException e)
+			{
+				// Do nothing
+			}
+		}
+		for (Experiment e : in_progress)
+		{
+			if (e.getStatus() == Status.RUNNING)
+			{
+				e.interrupt();
+			}
+		}
+		m_watchdog.stop();
+		stopPreparing();
+		if (!interrupted)
+		{
+			stop();
+		}
+		m_lab.getReporter().stop();
+	}
+
+	/**
+	 * Creates and starts a new worker. This method must be called while
+	 * holding the queue lock.
+	 */
+	protected void startWorker()
+	{
+		Worker w = new Worker(m_workerCount++);
+		m_workers.add(w);
+		w.start();
+	}
+
+	/**
+	 * Puts back at the front of the queue experiments that were dispatched
+	 * to a worker but not started
+	 * @param experiments The experiments
+	 */
+	protected void requeue(List<Experiment> experiments)
+	{
+		m_queueLock.lock();
+		for (int i = experiments.size() - 1; i >= 0; i--)
+		{
+			Experiment e = experiments.get(i);
+			m_assigned.remove(e);
+			m_queue.addFirst(e);
+			e.setQueueStatus(QueueStatus.QUEUED);
+		}
+		m_changed.signalAll();
+		m_queueLock.unlock();
+	}
+
+	@Override
+	public void experimentTimedOut(Experiment e, Thread t)
+	{
+		reportResults();
+	}
+
+	@Override
+	public void experimentAbandoned(Experiment e, Thread t)
+	{
+		m_queueLock.lock();
+		Worker w = m_running.get(e);
+		if (w == null || w != t)
+		{
+			m_queueLock.unlock();
+			return;
+		}
+		// Forget about this worker, give back the other experiments of its
+		// batch and replace it with a fresh one
+		w.m_abandoned = true;
+		m_queueLock.unlock();
+		notifyFinished(e);
+		m_queueLock.lock();
+		m_running.remove(e);
+		m_assigned.remove(e);
+		m_workers.remove(w);
+		removeFromEstimate(e);
+		List<Experiment> skipped = m_queue.finished(e);
+		List<Experiment> batch = new ArrayList<Experiment>();
+		for (Map.Entry<Experiment,Worker> entry : m_assigned.entrySet())
+		{
+			if (entry.getValue() == w)
+			{
+				batch.add(entry.getKey());
+			}
+		}
+		if (!m_stop)
+		{
+			startWorker();
+		}
+		m_queueLock.unlock();
+		releaseFixtures(e);
+		releaseSkipped(skipped);
+		requeue(batch);
+	}
+
+	/**
+	 * Gets the watchdog used by this assistant to enforce the time limits of
+	 * the experiments
+	 * @return The watchdog
+	 */
+	public Watchdog getWatchdog()
+	{
+		return m_watchdog;
+	}
+
+	/**
+	 * Takes from the queue the experiments to be run by a worker, and records
+	 * them as dispatched to this worker. This method must be called while
+	 * holding the queue lock.
+	 * @param w The worker
+	 * @return The list of experiments, which is empty if no experiment can
+	 * be started at the moment
+	 */
+	protected List<Experiment> takeBatch(Worker w)
+	{
+		List<Experiment> batch = new ArrayList<Experiment>(m_batchSize);
+		Experiment e = null;
+		while (batch.size() < m_batchSize && (e = nextExperiment()) != null)
+		{
+			e.setWhoRan(m_name);
+			e.setQueueStatus(QueueStatus.NOT_QUEUED);
+			m_assigned.put(e, w);
+			batch.add(e);
+		}
+		if (!batch.isEmpty())
+		{
+			prepareAhead(m_queue.head(getPrepareAhead()));
+		}
+		return batch;
+	}
+
+	/**
+	 * Picks the next experiment to start and removes it from the queue.
+	 * Experiments that are already finished or running are discarded
+	 * from the queue along the way. Among the first
+	 * {@value LabAssistant#WARM_FIXTURE_LOOKAHEAD} experiments of the queue,
+	 * the first one whose fixtures are already available is preferred;
+	 * otherwise, the first experiment of the queue is picked. This method is
+	 * called when a worker is free; descendants of this class can override it
+	 * to implement a different dispatching policy. This method is called
+	 * while holding the queue lock.
+	 * @return The experiment to start, or {@code null} if no experiment
+	 * should be started at the moment
+	 */
+	protected Experiment nextExperiment()
+	{
+		Experiment first = null;
+		int scanned = 0;
+		List<Experiment> discarded = new ArrayList<Experiment>();
+		Iterator<Experiment> it = m_queue.iterator();
+		while (it.hasNext() && scanned < WARM_FIXTURE_LOOKAHEAD)
+		{
+			Experiment e = it.next();
+			if (!isStartable(e))
+			{
+				it.remove();
+				discarded.add(e);
+				continue;
+			}
+			if (hasWarmFixtures(e))
+			{
+				first = e;
+				break;
+			}
+			if (first == null)
+			{
+				first = e;
+			}
+			scanned++;
+		}
+		if (first != null)
+		{
+			m_queue.remove(first);
+		}
+		if (discard(discarded) && first == null)
+		{
+			// Experiments waiting for the discarded ones may now be startable
+			return nextExperiment();
+		}
+		return first;
+	}
+
+	/**
+	 * Forgets about experiments removed from the queue because they are
+	 * already finished or running. This method is called while holding the
+	 * queue lock.
+	 * @param discarded The experiments
+	 * @return {@code true} if the list of experiments is not empty
+	 */
+	protected boolean discard(List<Experiment> discarded)
+	{
+		for (Experiment e : discarded)
+		{
+			releaseFixtures(e);
+			removeFromEstimate(e);
+			releaseSkipped(m_queue.finished(e));
+		}
+		return !discarded.isEmpty();
+	}
+
+	/**
+	 * Determines if an experiment can be started by the assistant
+	 * @param e The experiment
+	 * @return {@code true} if the experiment has not run yet,
+	 * {@code false} otherwise
+	 */
+	protected static boolean isStartable(Experiment e)
+	{
+		Status s = e.getStatus();
+		return s != Status.RUNNING && s != Status.DONE && s != Status.DONE_WARNING && s != Status.FAILED;
+	}
+
+	/**
+	 * Runs an experiment in the current thread. Descendants of this class can
+	 * override this method to run the experiment in a different way.
+	 * @param e The experiment to run
+	 */
+	protected void execute(Experiment e)
+	{
+		e.run();
+	}
+
+	@Override
+	public LabAssistant stop()
+	{
+		m_stop = true;
+		m_queueLock.lock();
+		m_changed.signalAll();
+		m_queueLock.unlock();
+		m_stopTime = System.currentTimeMillis();
+		if (m_startTime > 0)
+		{
+			m_runningTime += m_stopTime - m_startTime;
+		}
+		m_startTime = -1;
+		return this;
+	}
+
+	/**
+	 * Thread that repeatedly takes experiments from the queue and runs them,
+	 * until the queue is empty or the assistant is stopped
+	 */
+	protected class Worker extends Thread
+	{
+		/**
+		 * Whether this worker has been abandoned by the assistant because its
+		 * experiment did not stop when asked
+		 */
+		protected volatile boolean m_abandoned = false;
+
+		/**
+		 * Creates a new worker
+		 * @param index The index of the worker, used to give the thread a name
+		 */
+		public Worker(int index)
+		{
+			super("LabPal worker " + index);
+			// An abandoned worker must not prevent the JVM from exiting
+			setDaemon(true);
+		}
+
+		@Override
+		public void run()
+		{
+			long start_dispatch = System.nanoTime();
+			while (true)
+			{
+				List<Experiment> batch = null;
+				m_queueLock.lock();
+				try
+				{
+					while (true)
+					{
+						if (m_stop || (m_queue.isEmpty() && m_assigned.isEmpty()))
+						{
+							m_changed.signalAll();
+							return;
+						}
+						batch = takeBatch(this);
+						if (!batch.isEmpty())
+						{
+							break;
+						}
+						if (m_assigned.isEmpty() && !m_queue.isEmpty())
+						{
+							// Nothing runs, and the experiments left wait for experiments
+							// that are not in the queue: they would wait forever
+							releaseSkipped(m_queue.skipWaiting());
+							m_changed.signalAll();
+							continue;
+						}
+						m_changed.await();
+						// Time spent waiting for work is not overhead
+						start_dispatch = System.nanoTime();
+					}
+				}
+				catch (InterruptedException ex)
+				{
+					if (!m_stop && !m_abandoned)
+					{
+						// Don't let the pool shrink: hand the work over to a fresh worker
+						m_workers.remove(this);
+						startWorker();
+					}
+					return;
+				}
+				finally
+				{
+					m_queueLock.unlock();
+				}
+				m_overhead.addAndGet(System.nanoTime() - start_dispatch);
+				for (int i = 0; i < batch.size(); i++)
+				{
+					Experiment e = batch.get(i);
+					m_queueLock.lock();
+					boolean stop = m_stop;
+					if (!stop)
+					{
+						m_running.put(e, this);
+					}
+					m_queueLock.unlock();
+					if (stop)
+					{
+						// Give back the experiments of the batch that were not started
+						requeue(batch.subList(i, batch.size()));
+						return;
+					}
+					m_watchdog.watch(e, this, ThreadPoolAssistant.this);
+					try
+					{
+						execute(e);
+					}
+					catch (Throwable t)
+					{
+						// Experiment.run() only catches exceptions; an error such as
+						// a stack overflow must not take the worker down with it
+						StringWriter sw = new StringWriter();
+						t.printStackTrace(new PrintWriter(sw));
+						e.fail(sw.toString());
+					}
+					m_watchdog.unwatch(e);
+					long end_time = System.nanoTime();
+					if (m_abandoned)
+					{
+						// The assistant has moved on without this worker
+						return;
+					}
+					// The experiment is still counted as running, so that the
+					// assistant does not stop before the lab spawns new ones
+					notifyFinished(e);
+					m_queueLock.lock();
+					m_running.remove(e);
+					m_assigned.remove(e);
+					List<Experiment> skipped = m_queue.finished(e);
+					m_changed.signalAll();
+					m_queueLock.unlock();
+					releaseFixtures(e);
+					recordCompletion(e);
+					releaseSkipped(skipped);
+					m_dispatched.incrementAndGet();
+					m_overhead.addAndGet(System.nanoTime() - end_time);
+				}
+				start_dispatch = System.nanoTime();
+			}
+		}
+	}
+
+	@Override
+	public LabAssistant unqueue(Experiment e)
+	{
+		return unqueue(e.getId());
+	}
+
+	@Override
+	public LabAssistant unqueue(int id)
+	{
+		m_queueLock.lock();
+		Experiment e = m_queue.remove(id);
+		if (e != null)
+		{
+			e.setQueueStatus(QueueStatus.NOT_QUEUED);
+			releaseFixtures(e);
+			removeFromEstimate(e);
+			// The experiments depending on it cannot run either
+			releaseSkipped(m_queue.finished(e));
+		}
+		m_queueLock.unlock();
+		reportResults();
+		return this;
+	}
+
+	@Override
+	public LabAssistant queue(Experiment ... experiments)
+	{
+		m_queueLock.lock();
+		for (Experiment e : withDependencies(Arrays.asList(experiments)))
+		{
+			if (!m_assigned.containsKey(e) && m_queue.add(e))
+			{
+				e.setWhoRan(m_name);
+				e.setQueueStatus(QueueStatus.QUEUED);
+				acquireFixtures(e);
+				addToEstimate(e);
+			}
+		}
+		m_changed.signalAll();
+		m_queueLock.unlock();
+		reportResults();
+		return this;
+	}
+
+	@Override
+	public LabAssistant queue(List<Experiment> experiments)
+	{
+		m_queueLock.lock();
+		for (Experiment e : withDependencies(experiments))
+		{
+			if (!m_assigned.containsKey(e) && m_queue.add(e))
+			{
+				e.setWhoRan(m_name);
+				e.setQueueStatus(QueueStatus.QUEUED);
+				acquireFixtures(e);
+				addToEstimate(e);
+			}
+		}
+		m_changed.signalAll();
+		m_queueLock.unlock();
+		reportResults();
+		return this;
+	}
+
+	@Override
+	public boolean isQueued(Experiment e)
+	{
+		m_queueLock.lock();
+		boolean b = m_queue.contains(e);
+		m_queueLock.unlock();
+		return b;
+	}
+
+	@Override
+	public boolean isQueued(int id)
+	{
+		m_queueLock.lock();
+		boolean b = m_queue.contains(id);
+		m_queueLock.unlock();
+		return b;
+	}
+
+	@Override
+	public List<Integer> getCurrentQueue()
+	{
+		m_queueLock.lock();
+		List<Integer> out = m_queue.getIds();
+		m_queueLock.unlock();
+		return out;
+	}
+
+	/**
+	 * Gives an estimate of the time it should take to complete all the
+	 * experiments still in the queue. The estimate is the sum of the
+	 * predicted durations of the queued experiments and the remaining time of
+	 * the running ones, divided by the number of threads. The sum is kept up
+	 * to date as experiments come and go, so that the queue does not need to
+	 * be locked and scanned.
+	 */
+	@Override
+	public float getTimeEstimate()
+	{
+		return getRemainingEstimate(getRunningExperiments()) / m_numThreads;
+	}
+
+	@Override
+	public LabAssistant clear()
+	{
+		stop();
+		m_queueLock.lock();
+		for (Experiment e : m_queue)
+		{
+			e.setQueueStatus(QueueStatus.NOT_QUEUED);
+			releaseFixtures(e);
+			removeFromEstimate(e);
+		}
+		m_queue.clear();
+		m_queueLock.unlock();
+		return this;
+	}
+
+	@Override
+	public boolean isRunning()
+	{
+		return !m_stop;
+	}
+
+	@Override
+	public Set<Experiment> getRunningExperiments()
+	{
+		m_queueLock.lock();
+		Set<Experiment> set = new HashSet<Experiment>(m_running.keySet());
+		m_queueLock.unlock();
+		return set;
+	}
+}
@@ -0,0 +1,529 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Enforces the time limits of running experiments. A single watchdog
+ * thread keeps the experiments it watches in a priority queue sorted by
+ * deadline, and sleeps until the earliest of these deadlines. Two kinds of
+ * limits are supported:
+ * <ul>
+ * <li>a maximum duration in wall-clock time (see
+ * {@link Experiment#setMaxDuration(long)})</li>
+ * <li>a maximum amount of processor time used by the thread running the
+ * experiment (see {@link Experiment#setMaxCpuTime(long)})</li>
+ * </ul>
+ * When an experiment exceeds one of its limits, the watchdog sets its status
+ * to {@link Experiment.Status#TIMEOUT TIMEOUT} and asks it to stop. If the
+ * thread running the experiment is still alive after a grace period, the
+ * experiment is considered as stuck: the watchdog interrupts the thread and
+ * notifies its {@link Listener}, so that the lab assistant can abandon this
+ * thread and move on to other experiments.
+ *
+ * @author Sylvain Hallé
+ */
+public class Watchdog implements Runnable
+{
+	/**
+	 * The default time (in ms) given to an experiment to return once it has
+	 * been asked to stop
+	 */
+	public static final long DEFAULT_GRACE_PERIOD = 1000;
+
+	/**
+	 * The bean used to measure the processor time of threads
+	 */
+	protected static final ThreadMXBean s_threadBean = getThreadBean();
+
+	/**
+	 * The entries for the experiments being watched, sorted by deadline
+	 */
+	protected final PriorityQueue<Entry> m_entries;
+
+	/**
+	 * The entries for the experiments being watched, indexed by experiment
+	 */
+	protected final Map<Experiment,Entry> m_watched;
+
+	/**
+	 * A lock to control concurrent accesses to the entries
+	 */
+	protected final Lock m_lock = new ReentrantLock();
+
+	/**
+	 * A condition signalled when the earliest deadline may have changed
+	 */
+	protected final Condition m_changed = m_lock.newCondition();
+
+	/**
+	 * The time (in ms) given to an experiment to return once it has been asked
+	 * to stop
+	 */
+	private long m_gracePeriod = DEFAULT_GRACE_PERIOD;
+
+	/**
+	 * The thread running the watchdog
+	 */
+	private Thread m_thread;
+
+	/**
+	 * Internal flag used to stop the watchdog
+	 */
+	private volatile boolean m_stop = true;
+
+	/**
+	 * Creates a new watchdog
+	 */
+	public Watchdog()
+	{
+		super();
+		m_entries = new PriorityQueue<Entry>();
+		m_watched = new HashMap<Experiment,Entry>();
+	}
+
+	/**
+	 * Sets the time given to an experiment to return once it has been asked
+	 * to stop. After this period, the thread running the experiment is
+	 * abandoned.
+	 * @param millis The time, in milliseconds
+	 * @return This watchdog
+	 */
+	public Watchdog setGracePeriod(long millis)
+	{
+		m_gracePeriod = Math.max(0, millis);
+		return this;
+	}
+
+	/**
+	 * Gets the time given to an experiment to return once it has been asked
+	 * to stop
+	 * @return The time, in milliseconds
+	 */
+	public long getGracePeriod()
+	{
+		return m_gracePeriod;
+	}
+
+	/**
+	 * Determines if the watchdog can enforce limits on processor time
+	 * @return {@code true} if processor time can be measured,
+	 * {@code false} otherwise
+	 */
+	public static boolean isCpuTimeSupported()
+	{
+		return s_threadBean != null;
+	}
+
+	/**
+	 * Starts the watchdog thread, if it is not already started
+	 * @return This watchdog
+	 */
+	public Watchdog start()
+	{
+		m_lock.lock();
+		if (m_thread == null || !m_thread.isAlive())
+		{
+			m_stop = false;
+			m_thread = new Thread(this, "LabPal watchdog");
+			m_thread.setDaemon(true);
+			m_thread.start();
+		}
+		m_lock.unlock();
+		return this;
+	}
+
+	/**
+	 * Stops the watchdog thread. Experiments that are still watched are
+	 * forgotten.
+	 * @return This watchdog
+	 */
+	public Watchdog stop()
+	{
+		m_lock.lock();
+		m_stop = true;
+		m_entries.clear();
+		m_watched.clear();
+		m_changed.signalAll();
+		m_lock.unlock();
+		return this;
+	}
+
+	/**
+	 * Starts watching an experiment. This method should be called just before
+	 * the experiment starts. Experiments that have neither a maximum duration
+	 * nor a maximum processor time are ignored.
+	 * @param e The experiment
+	 * @param t The thread that will run the experiment
+	 * @param listener An object to notify when the experiment exceeds its
+	 * limits or is abandoned. Can be {@code null}.
+	 */
+	public void watch(Experiment e, Thread t, Listener listener)
+	{
+		long max_duration = e.getMaxDuration();
+		long max_cpu = s_threadBean == null ? -1 : e.getMaxCpuTime();
+		if (max_duration <= 0 && max_cpu <= 0)
+		{
+			return;
+		}
+		Entry en = new Entry(e, t, listener);
+		long now = System.nanoTime();
+		if (max_duration > 0)
+		{
+			en.m_wallDeadline = now + TimeUnit.MILLISECONDS.toNanos(max_duration);
+		}
+		en.m_deadline = en.m_wallDeadline;
+		if (max_cpu > 0)
+		{
+			en.m_cpuBudget = TimeUnit.MILLISECONDS.toNanos(max_cpu);
+			en.m_cpuStart = Math.max(0, s_threadBean.getThreadCpuTime(t.getId()));
+			// A thread cannot use more processor time than the time elapsed, so the
+			// processor time does not need to be checked before the budget is spent
+			en.m_deadline = Math.min(en.m_deadline, now + en.m_cpuBudget);
+		}
+		m_lock.lock();
+		Entry old = m_watched.put(e, en);
+		if (old != null)
+		{
+			m_entries.remove(old);
+		}
+		m_entries.add(en);
+		if (m_entries.peek() == en)
+		{
+			m_changed.signalAll();
+		}
+		m_lock.unlock();
+	}
+
+	/**
+	 * Stops watching an experiment. This method should be called as soon as
+	 * the experiment returns.
+	 * @param e The experiment
+	 */
+	public void unwatch(Experiment e)
+	{
+		m_lock.lock();
+		Entry en = m_watched.remove(e);
+		if (en != null)
+		{
+			m_entries.remove(en);
+		}
+		m_lock.unlock();
+	}
+
+	@Override
+	public void run()
+	{
+		List<Entry> timed_out = new ArrayList<Entry>();
+		List<Entry> abandoned = new ArrayList<Entry>();
+		while (!m_stop)
+		{
+			m_lock.lock();
+			try
+			{
+				long now = System.nanoTime();
+				Entry en = m_entries.peek();
+				while (en != null && en.m_deadline <= now)
+				{
+					m_entries.poll();
+					if (en.m_timedOut)
+					{
+						// The grace period is over
+						if (en.m_thread.isAlive())
+						{
+							abandoned.add(en);
+						}
+						else
+						{
+							m_watched.remove(en.m_experiment);
+						}
+					}
+					else if (isOverLimit(en, now))
+					{
+						en.m_timedOut = true;
+						en.m_deadline = now + TimeUnit.MILLISECONDS.toNanos(m_gracePeriod);
+						m_entries.add(en);
+						timed_out.add(en);
+					}
+					else
+					{
+						m_entries.add(en);
+					}
+					en = m_entries.peek();
+				}
+				if (timed_out.isEmpty() && abandoned.isEmpty())
+				{
+					if (en == null)
+					{
+						m_changed.await();
+					}
+					else
+					{
+						m_changed.awaitNanos(en.m_deadline - now);
+					}
+				}
+			}
+			catch (InterruptedException ex)
+			{
+				break;
+			}
+			finally
+			{
+				m_lock.unlock();
+			}
+			// Listeners are notified outside of the lock, as they will most
+			// likely call back the lab assistant. The experiment may have
+			// returned in the meantime, and its thread moved on to another one:
+			// act only on the entries that are still watched.
+			for (Entry en : timed_out)
+			{
+				m_lock.lock();
+				boolean watched = m_watched.get(en.m_experiment) == en;
+				if (watched && !en.m_experiment.timeOut())
+				{
+					// The experiment ended right before its deadline: it is not to
+					// be abandoned either
+					m_watched.remove(en.m_experiment);
+					m_entries.remove(en);
+					watched = false;
+				}
+				if (watched)
+				{
+					en.m_experiment.prepareToInterrupt();
+				}
+				m_lock.unlock();
+				if (watched && en.m_listener != null)
+				{
+					en.m_listener.experimentTimedOut(en.m_experiment, en.m_thread);
+				}
+			}
+			for (Entry en : abandoned)
+			{
+				m_lock.lock();
+				boolean watched = m_watched.get(en.m_experiment) == en;
+				if (watched)
+				{
+					m_watched.remove(en.m_experiment);
+					interrupt(en.m_thread);
+				}
+				m_lock.unlock();
+				if (watched && en.m_listener != null)
+				{
+					en.m_listener.experimentAbandoned(en.m_experiment, en.m_thread);
+				}
+			}
+			timed_out.clear();
+			abandoned.clear();
+		}
+	}
+
+	/**
+	 * Interrupts the thread running an experiment that did not stop after
+	 * its grace period. An {@link ExperimentThread} is interrupted without
+	 * calling its own {@link ExperimentThread#interrupt() interrupt()}, which
+	 * would wait for the thread and mark the experiment as interrupted
+	 * rather than timed out.
+	 * @param t The thread
+	 */
+	protected static void interrupt(Thread t)
+	{
+		if (t instanceof ExperimentThread)
+		{
+			((ExperimentThread) t).interruptThread();
+		}
+		else
+		{
+			t.interrupt();
+		}
+	}
+
+	/**
+	 * Checks if an experiment has exceeded one of its limits. If not, the
+	 * deadline of its entry is updated to the next time it must be checked.
+	 * @param en The entry for the experiment
+	 * @param now The current time, as given by {@link System#nanoTime()}
+	 * @return {@code true} if the experiment is over one of its limits,
+	 * {@code false} otherwise
+	 */
+	protected static boolean isOverLimit(Entry en, long now)
+	{
+		if (en.m_wallDeadline <= now)
+		{
+			return true;
+		}
+		if (en.m_cpuBudget == Long.MAX_VALUE)
+		{
+			en.m_deadline = en.m_wallDeadline;
+			return false;
+		}
+		long cpu = s_threadBean.getThreadCpuTime(en.m_thread.getId());
+		if (cpu < 0)
+		{
+			// Thread is dead or processor time is not available
+			en.m_deadline = en.m_wallDeadline;
+			return false;
+		}
+		long left = en.m_cpuBudget - (cpu - en.m_cpuStart);
+		if (left <= 0)
+		{
+			return true;
+		}
+		en.m_deadline = Math.min(en.m_wallDeadline, now + left);
+		return false;
+	}
+
+	/**
+	 * Gets the bean used to measure the processor time of threads
+	 * @return The bean, or {@code null} if the JVM cannot measure the
+	 * processor time of threads
+	 */
+	protected static ThreadMXBean getThreadBean()
+	{
+		try
+		{
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (!bean.isThreadCpuTimeSupported())
+			{
+				return null;
+			}
+			if (!bean.isThreadCpuTimeEnabled())
+			{
+				bean.setThreadCpuTimeEnabled(true);
+			}
+			return bean;
+		}
+		catch (UnsupportedOperationException e)
+		{
+			return null;
+		}
+		catch (SecurityException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Object notified by the watchdog when an experiment exceeds its limits
+	 */
+	public interface Listener
+	{
+		/**
+		 * Notifies that an experiment has exceeded one of its limits. At this
+		 * point, the experiment has been asked to stop, and its status is
+		 * {@link Experiment.Status#TIMEOUT TIMEOUT}.
+		 * @param e The experiment
+		 * @param t The thread running the experiment
+		 */
+		public void experimentTimedOut(Experiment e, Thread t);
+
+		/**
+		 * Notifies that an experiment did not return within the grace period
+		 * after being asked to stop. The thread running it should no longer be
+		 * waited for.
+		 * @param e The experiment
+		 * @param t The thread running the experiment
+		 */
+		public void experimentAbandoned(Experiment e, Thread t);
+	}
+
+	/**
+	 * An experiment watched by the watchdog
+	 */
+	protected static class Entry implements Comparable<Entry>
+	{
+		/**
+		 * The experiment
+		 */
+		protected final Experiment m_experiment;
+
+		/**
+		 * The thread running the experiment
+		 */
+		protected final Thread m_thread;
+
+		/**
+		 * The object to notify when the experiment exceeds its limits
+		 */
+		protected final Listener m_listener;
+
+		/**
+		 * The next time (in ns) the experiment must be checked
+		 */
+		protected long m_deadline = Long.MAX_VALUE;
+
+		/**
+		 * The time (in ns) at which the experiment exceeds its maximum duration
+		 */
+		protected long m_wallDeadline = Long.MAX_VALUE;
+
+		/**
+		 * The processor time (in ns) the experiment is allowed to use
+		 */
+		protected long m_cpuBudget = Long.MAX_VALUE;
+
+		/**
+		 * The processor time (in ns) used by the thread when the experiment
+		 * started
+		 */
+		protected long m_cpuStart = 0;
+
+		/**
+		 * Whether the experiment has already exceeded its limits
+		 */
+		protected boolean m_timedOut = false;
+
+		/**
+		 * Creates a new entry
+		 * @param e The experiment
+		 * @param t The thread running the experiment
+		 * @param listener The object to notify
+		 */
+		public Entry(Experiment e, Thread t, Listener listener)
+		{
+			super();
+			m_experiment = e;
+			m_thread = t;
+			m_listener = listener;
+		}
+
+		@Override
+		public int compareTo(Entry en)
+		{
+			if (m_deadline < en.m_deadline)
+			{
+				return -1;
+			}
+			if (m_deadline > en.m_deadline)
+			{
+				return 1;
+			}
+			return 0;
+		}
+	}
+}
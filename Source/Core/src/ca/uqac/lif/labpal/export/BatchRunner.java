@@ -23,6 +23,7 @@ import java.util.Set;
 import ca.uqac.lif.labpal.Experiment;
 import ca.uqac.lif.labpal.LabAssistant;
 import ca.uqac.lif.labpal.Laboratory;
+import ca.uqac.lif.labpal.ThreadPoolAssistant;
 import ca.uqac.lif.labpal.server.LabPalServer;
 import ca.uqac.lif.mtnp.plot.gnuplot.GnuPlot;
 import ca.uqac.lif.tui.AnsiPrinter;
@@ -106,6 +107,12 @@ public abstract class BatchRunner
       }
     }
     showStatus(); // One last time
+    if (m_assistant instanceof ThreadPoolAssistant)
+    {
+      ThreadPoolAssistant tpa = (ThreadPoolAssistant) m_assistant;
+      m_stdout.printf("%d experiments dispatched, average overhead %.1f us\n",
+          tpa.getDispatchedCount(), tpa.getDispatchOverhead() / 1000f);
+    }
     m_stdout.println();
     // Export data
     try
@@ -169,8 +176,21 @@ public abstract class BatchRunner
   {
     Set<Experiment> running = m_assistant.getRunningExperiments();
     int all = m_lab.getExperiments().size();
-    int queued = m_assistant.getCurrentQueue().size();
+    // Depending on the assistant, running experiments may still be in the queue
+    int queued = 0;
+    for (int id : m_assistant.getCurrentQueue())
+    {
+      Experiment e = m_lab.getExperiment(id);
+      if (e == null || !running.contains(e))
+      {
+        queued++;
+      }
+    }
     int done = all - queued - running.size();
+    if (running.size() > 1)
+    {
+      m_stdout.printf("%d experiments running, %d queued, %d/%d done\n", running.size(), queued, done, all);
+    }
     for (Experiment e : running)
     {
       long seconds = System.currentTimeMillis() - e.getStartTime();
@@ -0,0 +1,339 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal.probe;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ca.uqac.lif.json.JsonMap;
+import ca.uqac.lif.labpal.Experiment;
+
+/**
+ * Probe measuring the energy consumed during an experiment, using the
+ * RAPL counters that Linux exposes through the powercap interface. Each
+ * zone (a directory such as {@code intel-rapl:0} or {@code intel-rapl:0:0})
+ * provides a counter of microjoules in a file called {@code energy_uj};
+ * the probe reads it before and after the experiment, taking into account
+ * that the counter wraps around when it reaches the value given in
+ * {@code max_energy_range_uj}. It writes in the output parameter
+ * {@link #ENERGY} the total number of joules, the average power in watts,
+ * and the joules consumed in each zone.
+ * <p>
+ * The total only adds up the top-level zones (the processor packages);
+ * subzones such as {@code core} or {@code dram} are part of their package,
+ * and the {@code psys} zone already covers the whole platform. The counters
+ * concern the whole machine: when several experiments run at the same time,
+ * the values include the energy consumed by the others.
+ * <p>
+ * Recent kernels only let root read the counters. When no counter can be
+ * read, the probe writes nothing.
+ *
+ * @author Sylvain Hallé
+ */
+public class EnergyProbe implements ExperimentProbe
+{
+	/**
+	 * The name of the output parameter containing the measurements
+	 */
+	public static final String ENERGY = "energy";
+
+	/**
+	 * The directory where Linux exposes the powercap zones
+	 */
+	public static final File POWERCAP_ROOT = new File("/sys/class/powercap");
+
+	/**
+	 * The prefix of the names of RAPL zones
+	 */
+	protected static final String RAPL_PREFIX = "intel-rapl";
+
+	/**
+	 * The directory where the zones are looked for
+	 */
+	private final File m_root;
+
+	/**
+	 * Creates a new probe reading the counters of this machine
+	 */
+	public EnergyProbe()
+	{
+		this(POWERCAP_ROOT);
+	}
+
+	/**
+	 * Creates a new probe reading the counters in another directory
+	 * @param root The directory containing the zones
+	 */
+	public EnergyProbe(File root)
+	{
+		super();
+		m_root = root;
+	}
+
+	/**
+	 * Determines if the probe can read at least one counter
+	 * @return {@code true} if energy can be measured, {@code false} otherwise
+	 */
+	public boolean isAvailable()
+	{
+		return !getZones().isEmpty();
+	}
+
+	/**
+	 * Gets the zones whose counter can be read
+	 * @return The list of zones, sorted by name
+	 */
+	protected List<Zone> getZones()
+	{
+		List<Zone> zones = new ArrayList<Zone>();
+		File[] dirs = m_root.listFiles();
+		if (dirs == null)
+		{
+			return zones;
+		}
+		Arrays.sort(dirs);
+		for (File dir : dirs)
+		{
+			if (!dir.getName().startsWith(RAPL_PREFIX))
+			{
+				continue;
+			}
+			File counter = new File(dir, "energy_uj");
+			if (readLong(counter) < 0)
+			{
+				continue;
+			}
+			zones.add(new Zone(dir, counter, readLong(new File(dir, "max_energy_range_uj"))));
+		}
+		return zones;
+	}
+
+	@Override
+	public Measurement start(Experiment e)
+	{
+		List<Zone> zones = getZones();
+		if (zones.isEmpty())
+		{
+			return null;
+		}
+		e.describe(ENERGY, "Energy consumed during the experiment (in J) and average power (in W)");
+		return new EnergyMeasurement(zones);
+	}
+
+	/**
+	 * Reads a number from a file. Errors are silently ignored, since the
+	 * counters are frequently unreadable for ordinary users.
+	 * @param f The file
+	 * @return The number, or -1 if it cannot be read
+	 */
+	protected static long readLong(File f)
+	{
+		BufferedReader br = null;
+		try
+		{
+			br = new BufferedReader(new FileReader(f));
+			String line = br.readLine();
+			return line == null ? -1 : Long.parseLong(line.trim());
+		}
+		catch (IOException e)
+		{
+			return -1;
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+		finally
+		{
+			if (br != null)
+			{
+				try
+				{
+					br.close();
+				}
+				catch (IOException e)
+				{
+					// Nothing to do
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the difference between two readings of a counter
+	 * @param start The first reading, in microjoules
+	 * @param end The second reading, in microjoules
+	 * @param range The value at which the counter wraps around, or -1 if it
+	 * is unknown
+	 * @return The difference, or -1 if it cannot be computed
+	 */
+	public static long getDelta(long start, long end, long range)
+	{
+		if (end >= start)
+		{
+			return end - start;
+		}
+		if (range <= 0)
+		{
+			return -1;
+		}
+		// The counter wrapped around once (it takes minutes to wrap twice)
+		return range - start + end;
+	}
+
+	/**
+	 * A RAPL zone
+	 */
+	protected static class Zone
+	{
+		/**
+		 * The name of the zone's directory, such as {@code intel-rapl:0}
+		 */
+		protected final String m_id;
+
+		/**
+		 * The file containing the counter
+		 */
+		protected final File m_counter;
+
+		/**
+		 * The value at which the counter wraps around
+		 */
+		protected final long m_range;
+
+		/**
+		 * Whether this zone counts in the total
+		 */
+		protected final boolean m_topLevel;
+
+		public Zone(File dir, File counter, long range)
+		{
+			super();
+			m_id = dir.getName();
+			m_counter = counter;
+			m_range = range;
+			String name = readName(new File(dir, "name"));
+			m_topLevel = m_id.matches(RAPL_PREFIX + ":\\d+") && !"psys".equals(name);
+		}
+
+		/**
+		 * Reads the name of a zone
+		 * @param f The file containing the name
+		 * @return The name, or {@code null} if it cannot be read
+		 */
+		protected static String readName(File f)
+		{
+			BufferedReader br = null;
+			try
+			{
+				br = new BufferedReader(new FileReader(f));
+				String line = br.readLine();
+				return line == null ? null : line.trim();
+			}
+			catch (IOException e)
+			{
+				return null;
+			}
+			finally
+			{
+				if (br != null)
+				{
+					try
+					{
+						br.close();
+					}
+					catch (IOException e)
+					{
+						// Nothing to do
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * A measurement of the energy consumed during an experiment
+	 */
+	protected static class EnergyMeasurement implements Measurement
+	{
+		private final List<Zone> m_zones;
+
+		private final long[] m_start;
+
+		private final long m_startTime;
+
+		public EnergyMeasurement(List<Zone> zones)
+		{
+			super();
+			m_zones = zones;
+			m_start = new long[zones.size()];
+			for (int i = 0; i < m_start.length; i++)
+			{
+				m_start[i] = readLong(zones.get(i).m_counter);
+			}
+			m_startTime = System.nanoTime();
+		}
+
+		@Override
+		public void stop(Experiment e)
+		{
+			double seconds = (System.nanoTime() - m_startTime) / 1e9;
+			JsonMap zones = new JsonMap();
+			long total = 0;
+			boolean has_total = false;
+			for (int i = 0; i < m_start.length; i++)
+			{
+				Zone z = m_zones.get(i);
+				long end = readLong(z.m_counter);
+				if (m_start[i] < 0 || end < 0)
+				{
+					// A reading failed: the delta would look like a wraparound
+					continue;
+				}
+				long delta = getDelta(m_start[i], end, z.m_range);
+				if (delta < 0)
+				{
+					continue;
+				}
+				zones.put(z.m_id, delta / 1e6);
+				if (z.m_topLevel)
+				{
+					total += delta;
+					has_total = true;
+				}
+			}
+			if (!has_total)
+			{
+				return;
+			}
+			JsonMap energy = new JsonMap();
+			energy.put("joules", total / 1e6);
+			if (seconds > 0)
+			{
+				energy.put("watts", total / 1e6 / seconds);
+			}
+			energy.put("zones", zones);
+			e.write(ENERGY, energy);
+		}
+	}
+}
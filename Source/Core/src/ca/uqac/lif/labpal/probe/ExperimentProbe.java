@@ -0,0 +1,60 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal.probe;
+
+import ca.uqac.lif.labpal.Experiment;
+
+/**
+ * Measures something about the execution of an experiment, such as the
+ * resources it uses, and writes the result in the experiment's output
+ * parameters. Probes are added to a lab with
+ * {@link ca.uqac.lif.labpal.Laboratory#addProbe(ExperimentProbe)}; every
+ * experiment of the lab then records their measurements, without any change
+ * to the experiment's code.
+ * <p>
+ * Since experiments can run at the same time, a probe does not keep the
+ * state of a measurement itself: each call to {@link #start(Experiment)}
+ * returns a new {@link Measurement}.
+ *
+ * @author Sylvain Hallé
+ */
+public interface ExperimentProbe
+{
+	/**
+	 * Starts measuring. This method is called by the thread running the
+	 * experiment, just before the experiment is executed.
+	 * @param e The experiment
+	 * @return The measurement in progress, or {@code null} if the probe
+	 * cannot measure anything for this experiment
+	 */
+	public Measurement start(Experiment e);
+
+	/**
+	 * A measurement in progress
+	 */
+	public interface Measurement
+	{
+		/**
+		 * Stops measuring and writes the result in the experiment's output
+		 * parameters. This method is called by the thread running the
+		 * experiment, just after its execution, whether it succeeded or not.
+		 * @param e The experiment
+		 */
+		public void stop(Experiment e);
+	}
+}
@@ -0,0 +1,422 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal.probe;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import ca.uqac.lif.json.JsonList;
+import ca.uqac.lif.json.JsonMap;
+import ca.uqac.lif.json.JsonNumber;
+import ca.uqac.lif.json.JsonString;
+import ca.uqac.lif.labpal.Experiment;
+import ca.uqac.lif.labpal.ExperimentFilter;
+
+/**
+ * Probe recording the execution of selected experiments with the Java
+ * Flight Recorder (JFR). Each recording is saved in a file named after the
+ * experiment's ID, which can be opened in a tool such as JDK Mission
+ * Control. In addition, the probe writes in the output parameter
+ * {@link #JFR} a summary of the recording:
+ * <ul>
+ * <li>the methods most often found running in the experiment's thread</li>
+ * <li>the methods of the experiment's thread allocating the most memory</li>
+ * <li>the number and total duration of garbage collection pauses</li>
+ * <li>the classes of the monitors the experiment's thread waited for the
+ * longest</li>
+ * </ul>
+ * The probe requires a JVM providing JFR through the
+ * {@code DiagnosticCommand} management bean (Java 11, or Java 8 from update
+ * 262); on other JVMs, it does nothing. Since recordings slow down the
+ * experiments, they should be limited to the experiments under
+ * investigation. Note that when experiments run in separate JVMs (see
+ * {@link ca.uqac.lif.labpal.ForkedAssistant}), each JVM creates the probe
+ * with its default constructor, and thus records every experiment it runs.
+ *
+ * @author Sylvain Hallé
+ */
+public class JfrProbe implements ExperimentProbe
+{
+	/**
+	 * The name of the output parameter containing the summary of the
+	 * recording
+	 */
+	public static final String JFR = "jfr";
+
+	/**
+	 * The default directory where recordings are saved
+	 */
+	public static final String DEFAULT_DIRECTORY = "jfr";
+
+	/**
+	 * The number of entries in each list of the summary
+	 */
+	protected static final int TOP = 10;
+
+	/**
+	 * The experiments to record
+	 */
+	protected final ExperimentFilter m_filter;
+
+	/**
+	 * The directory where recordings are saved
+	 */
+	protected final File m_directory;
+
+	/**
+	 * The JFR settings used for the recordings
+	 */
+	protected String m_settings = "profile";
+
+	/**
+	 * Creates a new probe
+	 * @param filter The experiments to record
+	 * @param directory The directory where recordings are saved
+	 */
+	public JfrProbe(ExperimentFilter filter, File directory)
+	{
+		super();
+		m_filter = filter;
+		m_directory = directory;
+	}
+
+	/**
+	 * Creates a new probe saving recordings in the default directory
+	 * @param filter The experiments to record
+	 */
+	public JfrProbe(ExperimentFilter filter)
+	{
+		this(filter, new File(DEFAULT_DIRECTORY));
+	}
+
+	/**
+	 * Creates a new probe recording all experiments, and saving recordings in
+	 * the default directory
+	 */
+	public JfrProbe()
+	{
+		this(new ExperimentFilter(""));
+	}
+
+	/**
+	 * Sets the JFR settings used for the recordings
+	 * @param settings The name of the settings ({@code default} or
+	 * {@code profile}), or the path of a settings file
+	 * @return This probe
+	 */
+	public JfrProbe setSettings(String settings)
+	{
+		m_settings = settings;
+		return this;
+	}
+
+	/**
+	 * Gets the file where the recording of an experiment is saved
+	 * @param e The experiment
+	 * @return The file
+	 */
+	public File getFile(Experiment e)
+	{
+		return new File(m_directory, "experiment-" + e.getId() + ".jfr");
+	}
+
+	@Override
+	public Measurement start(Experiment e)
+	{
+		if (!m_filter.include(e))
+		{
+			return null;
+		}
+		String name = "labpal-" + e.getId();
+		try
+		{
+			diagnosticCommand("jfrStart", "name=" + name, "settings=" + m_settings);
+		}
+		catch (Exception ex)
+		{
+			e.addWarning("The Java Flight Recorder is not available: " + ex.getMessage());
+			return null;
+		}
+		return new JfrMeasurement(name, Thread.currentThread().getId());
+	}
+
+	/**
+	 * Invokes a diagnostic command of the JVM
+	 * @param command The name of the command
+	 * @param args The arguments of the command
+	 * @return The output of the command
+	 * @throws Exception If the command cannot be invoked
+	 */
+	protected static String diagnosticCommand(String command, String ... args) throws Exception
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName bean = new ObjectName("com.sun.management:type=DiagnosticCommand");
+		Object out = server.invoke(bean, command, new Object[] {args},
+				new String[] {String[].class.getName()});
+		return out == null ? "" : out.toString();
+	}
+
+	/**
+	 * A recording in progress
+	 */
+	protected class JfrMeasurement implements Measurement
+	{
+		/**
+		 * The name of the recording
+		 */
+		private final String m_name;
+
+		/**
+		 * The ID of the thread running the experiment
+		 */
+		private final long m_threadId;
+
+		public JfrMeasurement(String name, long thread_id)
+		{
+			super();
+			m_name = name;
+			m_threadId = thread_id;
+		}
+
+		@Override
+		public void stop(Experiment e)
+		{
+			File f = getFile(e);
+			m_directory.mkdirs();
+			try
+			{
+				diagnosticCommand("jfrStop", "name=" + m_name, "filename=" + f.getAbsolutePath());
+			}
+			catch (Exception ex)
+			{
+				e.addWarning("The flight recording could not be saved: " + ex.getMessage());
+				return;
+			}
+			JsonMap summary = new JsonMap();
+			summary.put("file", f.getPath());
+			try
+			{
+				summarize(f, m_threadId, summary);
+			}
+			catch (Exception ex)
+			{
+				// The recording is saved; only its summary is missing
+				e.addWarning("The flight recording could not be read: " + ex);
+			}
+			e.write(JFR, summary);
+		}
+	}
+
+	/**
+	 * Reads a recording and computes its summary. The recording is read with
+	 * the {@code jdk.jfr.consumer} API through reflection, so that LabPal can
+	 * still be compiled and run on JVMs that do not have it. Allocations are
+	 * read from {@code jdk.ObjectAllocationSample} events, or, on JVMs that
+	 * do not produce them (before Java 16), from
+	 * {@code jdk.ObjectAllocationInNewTLAB} and
+	 * {@code jdk.ObjectAllocationOutsideTLAB} events.
+	 * @param f The file containing the recording
+	 * @param thread_id The ID of the thread running the experiment
+	 * @param summary The map where the summary is written
+	 * @throws Exception If the recording cannot be read
+	 */
+	protected static void summarize(File f, long thread_id, JsonMap summary) throws Exception
+	{
+		Class<?> path_class = Class.forName("java.nio.file.Path");
+		Object path = File.class.getMethod("toPath").invoke(f);
+		Method read = Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", path_class);
+		List<?> events = (List<?>) read.invoke(null, path);
+		Map<String,Long> samples = new HashMap<String,Long>();
+		Map<String,Long> allocations = new HashMap<String,Long>();
+		Map<String,Long> tlab_allocations = new HashMap<String,Long>();
+		Map<String,Long> locks = new HashMap<String,Long>();
+		long gc_count = 0, gc_pauses = 0;
+		for (Object event : events)
+		{
+			String type = (String) call(call(event, "getEventType"), "getName");
+			if (type.equals("jdk.ExecutionSample"))
+			{
+				if (getThreadId(event, "sampledThread") == thread_id)
+				{
+					increment(samples, getTopFrame(event), 1);
+				}
+			}
+			else if (type.equals("jdk.ObjectAllocationSample"))
+			{
+				if (getThreadId(event, "eventThread") == thread_id)
+				{
+					increment(allocations, getTopFrame(event), (Long) call(event, "getLong", "weight"));
+				}
+			}
+			else if (type.equals("jdk.ObjectAllocationInNewTLAB"))
+			{
+				if (getThreadId(event, "eventThread") == thread_id)
+				{
+					// The event stands for all the objects allocated in the new TLAB
+					increment(tlab_allocations, getTopFrame(event), (Long) call(event, "getLong", "tlabSize"));
+				}
+			}
+			else if (type.equals("jdk.ObjectAllocationOutsideTLAB"))
+			{
+				if (getThreadId(event, "eventThread") == thread_id)
+				{
+					increment(tlab_allocations, getTopFrame(event), (Long) call(event, "getLong", "allocationSize"));
+				}
+			}
+			else if (type.equals("jdk.JavaMonitorEnter"))
+			{
+				if (getThreadId(event, "eventThread") == thread_id)
+				{
+					Object monitor_class = call(event, "getValue", "monitorClass");
+					String name = monitor_class == null ? "?" : (String) call(monitor_class, "getName");
+					increment(locks, name, (Long) call(call(event, "getDuration"), "toNanos"));
+				}
+			}
+			else if (type.equals("jdk.GarbageCollection"))
+			{
+				gc_count++;
+				gc_pauses += (Long) call(call(event, "getDuration", "sumOfPauses"), "toNanos");
+			}
+		}
+		summary.put("hot_methods", top(samples, 1));
+		// Before Java 16, allocations are only recorded with TLAB events
+		summary.put("allocations", top(allocations.isEmpty() ? tlab_allocations : allocations, 1));
+		summary.put("gc_pauses", gc_count);
+		summary.put("gc_pause_time", gc_pauses / 1e6);
+		summary.put("locks", top(locks, 1e6));
+	}
+
+	/**
+	 * Gets the ID of a thread referred to by an event
+	 * @param event The event
+	 * @param field The field of the event containing the thread
+	 * @return The ID, or -1 if the event has no such thread
+	 * @throws Exception If the event cannot be read
+	 */
+	protected static long getThreadId(Object event, String field) throws Exception
+	{
+		Object thread = call(event, "getValue", field);
+		if (thread == null)
+		{
+			return -1;
+		}
+		return (Long) call(thread, "getJavaThreadId");
+	}
+
+	/**
+	 * Gets the method at the top of the stack trace of an event
+	 * @param event The event
+	 * @return The name of the method, prefixed by the name of its class
+	 * @throws Exception If the event cannot be read
+	 */
+	protected static String getTopFrame(Object event) throws Exception
+	{
+		Object trace = call(event, "getStackTrace");
+		if (trace == null)
+		{
+			return "?";
+		}
+		List<?> frames = (List<?>) call(trace, "getFrames");
+		if (frames.isEmpty())
+		{
+			return "?";
+		}
+		Object method = call(frames.get(0), "getMethod");
+		return call(call(method, "getType"), "getName") + "." + call(method, "getName");
+	}
+
+	/**
+	 * Calls a public method with no argument, or with a single string
+	 * argument
+	 * @param o The object
+	 * @param name The name of the method
+	 * @param args The argument, if any
+	 * @return The value returned by the method
+	 * @throws Exception If the method cannot be called
+	 */
+	protected static Object call(Object o, String name, String ... args) throws Exception
+	{
+		Class<?>[] types = new Class<?>[args.length];
+		for (int i = 0; i < args.length; i++)
+		{
+			types[i] = String.class;
+		}
+		Method m = o.getClass().getMethod(name, types);
+		m.setAccessible(true);
+		return m.invoke(o, (Object[]) args);
+	}
+
+	/**
+	 * Adds to the value associated to a key
+	 * @param map The map
+	 * @param key The key
+	 * @param value The value to add
+	 */
+	protected static void increment(Map<String,Long> map, String key, long value)
+	{
+		Long old = map.get(key);
+		map.put(key, old == null ? value : old + value);
+	}
+
+	/**
+	 * Gets the entries of a map with the largest values
+	 * @param map The map
+	 * @param divisor A number by which the values are divided
+	 * @return A list of pairs made of a key and its value, from the largest
+	 * value to the smallest
+	 */
+	protected static JsonList top(Map<String,Long> map, double divisor)
+	{
+		List<Map.Entry<String,Long>> entries = new ArrayList<Map.Entry<String,Long>>(map.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String,Long>>()
+		{
+			@Override
+			public int compare(Map.Entry<String,Long> e1, Map.Entry<String,Long> e2)
+			{
+				return e2.getValue().compareTo(e1.getValue());
+			}
+		});
+		JsonList list = new JsonList();
+		for (int i = 0; i < entries.size() && i < TOP; i++)
+		{
+			JsonList pair = new JsonList();
+			pair.add(new JsonString(entries.get(i).getKey()));
+			long value = entries.get(i).getValue();
+			if (divisor == 1)
+			{
+				pair.add(new JsonNumber(value));
+			}
+			else
+			{
+				pair.add(new JsonNumber(value / divisor));
+			}
+			list.add(pair);
+		}
+		return list;
+	}
+}
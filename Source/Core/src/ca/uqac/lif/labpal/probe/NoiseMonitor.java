@@ -0,0 +1,449 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal.probe;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ca.uqac.lif.json.JsonMap;
+import ca.uqac.lif.labpal.Experiment;
+import ca.uqac.lif.labpal.FileHelper;
+import ca.uqac.lif.labpal.Laboratory;
+
+/**
+ * Probe watching the conditions of the machine while experiments run. A
+ * background thread periodically samples the system load average, the
+ * share of processor time stolen by the hypervisor (read from
+ * {@code /proc} on Linux) and the speed of the machine. For each
+ * experiment, the probe writes in the output parameter {@link #NOISE} the
+ * worst readings observed during its run, and adds a warning if they were
+ * abnormal: the machine was slower than earlier in the lab, overloaded, or
+ * deprived of processor time.
+ * <p>
+ * Where Linux exposes the current frequency of the processors (in
+ * {@code /sys/devices/system/cpu/cpu}<i>N</i>{@code /cpufreq}), the speed is
+ * the highest current frequency of the processors, relative to the highest
+ * one observed so far while experiments were running. Reading it does not
+ * disturb the experiments, so throttling is detected even when the lab
+ * keeps every processor busy. Otherwise, the monitor repeats the speed
+ * calibration of {@link Laboratory#countParkMips()}; since this keeps a
+ * processor busy for a third of a second, it is only done when no
+ * experiment is running. In both cases, the speed is kept by the monitor:
+ * {@link Laboratory#s_parkMips}, which the estimates of durations depend
+ * on, is left unchanged.
+ *
+ * @author Sylvain Hallé
+ */
+public class NoiseMonitor implements ExperimentProbe, Runnable
+{
+	/**
+	 * The name of the output parameter containing the readings
+	 */
+	public static final String NOISE = "noise";
+
+	/**
+	 * The file giving the load average on Linux
+	 */
+	protected static final File PROC_LOADAVG = new File("/proc/loadavg");
+
+	/**
+	 * The file giving processor time counters on Linux
+	 */
+	protected static final File PROC_STAT = new File("/proc/stat");
+
+	/**
+	 * The default directory where Linux describes the processors
+	 */
+	public static final String DEFAULT_CPU_ROOT = "/sys/devices/system/cpu";
+
+	/**
+	 * The directory where the processors are described
+	 */
+	private final File m_cpuRoot;
+
+	/**
+	 * The highest frequency read while experiments were running, in kHz, or
+	 * -1 if none has been read yet
+	 */
+	private double m_bestFrequency = -1;
+
+	/**
+	 * The latest frequency read while experiments were running, relative to
+	 * {@link #m_bestFrequency}, or -1 if the frequency cannot be read
+	 */
+	private volatile float m_frequencyRatio = -1;
+
+	/**
+	 * The interval between two samples of the load, in milliseconds
+	 */
+	private long m_sampleInterval = 5000;
+
+	/**
+	 * The interval between two speed calibrations, in milliseconds
+	 */
+	private long m_calibrationInterval = 10 * 60000;
+
+	/**
+	 * The ratio of the current speed to the initial speed below which an
+	 * experiment is flagged
+	 */
+	private float m_minSpeedRatio = 0.9f;
+
+	/**
+	 * The load average, per processor, above which an experiment is flagged
+	 */
+	private double m_maxLoad = 1.0;
+
+	/**
+	 * The share of stolen processor time above which an experiment is
+	 * flagged
+	 */
+	private double m_maxSteal = 0.05;
+
+	/**
+	 * The speed measured when the monitor was created
+	 */
+	private final float m_baselineSpeed;
+
+	/**
+	 * The latest readings
+	 */
+	private volatile float m_speed;
+	private volatile double m_load = -1;
+	private volatile double m_steal = -1;
+
+	/**
+	 * The processor time counters at the previous sample, used to compute
+	 * the share of stolen time
+	 */
+	private long m_lastTotal = -1;
+	private long m_lastSteal = -1;
+
+	/**
+	 * The measurements of the experiments currently running
+	 */
+	private final List<NoiseMeasurement> m_active = new CopyOnWriteArrayList<NoiseMeasurement>();
+
+	/**
+	 * The background thread
+	 */
+	private Thread m_thread = null;
+
+	/**
+	 * Creates a new monitor
+	 */
+	public NoiseMonitor()
+	{
+		this(new File(DEFAULT_CPU_ROOT));
+	}
+
+	/**
+	 * Creates a new monitor reading the frequency of the processors from
+	 * a given directory
+	 * @param cpu_root The directory, structured like
+	 * {@value #DEFAULT_CPU_ROOT}
+	 */
+	public NoiseMonitor(File cpu_root)
+	{
+		super();
+		m_cpuRoot = cpu_root;
+		m_baselineSpeed = Laboratory.s_parkMips;
+		m_speed = m_baselineSpeed;
+	}
+
+	/**
+	 * Sets how often the monitor takes its readings
+	 * @param sample The interval between two samples of the load, in
+	 * milliseconds
+	 * @param calibration The interval between two speed calibrations, in
+	 * milliseconds
+	 * @return This monitor
+	 */
+	public NoiseMonitor setIntervals(long sample, long calibration)
+	{
+		m_sampleInterval = Math.max(100, sample);
+		m_calibrationInterval = Math.max(m_sampleInterval, calibration);
+		return this;
+	}
+
+	/**
+	 * Sets the conditions under which an experiment is flagged
+	 * @param min_speed_ratio The ratio of the current speed to the initial
+	 * speed below which the machine is considered slowed down
+	 * @param max_load The load average, per processor, above which the
+	 * machine is considered overloaded
+	 * @param max_steal The share of processor time stolen by the hypervisor
+	 * above which the machine is considered deprived
+	 * @return This monitor
+	 */
+	public NoiseMonitor setThresholds(float min_speed_ratio, double max_load, double max_steal)
+	{
+		m_minSpeedRatio = min_speed_ratio;
+		m_maxLoad = max_load;
+		m_maxSteal = max_steal;
+		return this;
+	}
+
+	/**
+	 * Starts the background thread, if it is not already running
+	 */
+	public synchronized void start()
+	{
+		if (m_thread != null)
+		{
+			return;
+		}
+		sample();
+		m_thread = new Thread(this, "LabPal noise monitor");
+		m_thread.setDaemon(true);
+		m_thread.setPriority(Thread.MAX_PRIORITY);
+		m_thread.start();
+	}
+
+	/**
+	 * Stops the background thread
+	 */
+	public synchronized void stop()
+	{
+		if (m_thread != null)
+		{
+			m_thread.interrupt();
+			m_thread = null;
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		long last_calibration = System.currentTimeMillis();
+		while (!Thread.currentThread().isInterrupted())
+		{
+			try
+			{
+				Thread.sleep(m_sampleInterval);
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			if (m_frequencyRatio < 0
+					&& System.currentTimeMillis() - last_calibration >= m_calibrationInterval
+					&& m_active.isEmpty())
+			{
+				m_speed = calibrate();
+				last_calibration = System.currentTimeMillis();
+			}
+			sample();
+			for (NoiseMeasurement m : m_active)
+			{
+				m.update();
+			}
+		}
+	}
+
+	/**
+	 * Reads the load average and the share of stolen processor time
+	 */
+	protected synchronized void sample()
+	{
+		double frequency = readFrequency();
+		if (frequency > 0 && !m_active.isEmpty())
+		{
+			// The frequency of idle processors drops: only compare busy ones
+			m_bestFrequency = Math.max(m_bestFrequency, frequency);
+			m_frequencyRatio = (float) (frequency / m_bestFrequency);
+		}
+		int cpus = Runtime.getRuntime().availableProcessors();
+		double load = -1;
+		if (PROC_LOADAVG.canRead())
+		{
+			String[] parts = FileHelper.readToString(PROC_LOADAVG).trim().split("\\s+");
+			load = Double.parseDouble(parts[0]);
+		}
+		else
+		{
+			load = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+		}
+		m_load = load < 0 ? -1 : load / cpus;
+		if (PROC_STAT.canRead())
+		{
+			// First line: cpu user nice system idle iowait irq softirq steal ...
+			String line = FileHelper.readToString(PROC_STAT).split("\n")[0];
+			String[] parts = line.trim().split("\\s+");
+			long total = 0;
+			for (int i = 1; i < parts.length; i++)
+			{
+				total += Long.parseLong(parts[i]);
+			}
+			long steal = parts.length > 8 ? Long.parseLong(parts[8]) : 0;
+			if (m_lastTotal >= 0 && total > m_lastTotal)
+			{
+				m_steal = (double) (steal - m_lastSteal) / (total - m_lastTotal);
+			}
+			m_lastTotal = total;
+			m_lastSteal = steal;
+		}
+	}
+
+	/**
+	 * Measures the speed of the machine, when its frequency cannot be read
+	 * @return The speed, in the unit of {@link Laboratory#s_parkMips}
+	 */
+	protected float calibrate()
+	{
+		return Laboratory.countParkMips();
+	}
+
+	/**
+	 * Reads the current frequency of the processors
+	 * @return The highest current frequency of the processors, in kHz, or -1
+	 * if it cannot be read
+	 */
+	protected double readFrequency()
+	{
+		File[] cpus = m_cpuRoot.listFiles();
+		if (cpus == null)
+		{
+			return -1;
+		}
+		double max = -1;
+		for (File cpu : cpus)
+		{
+			if (!cpu.getName().matches("cpu\\d+"))
+			{
+				continue;
+			}
+			File f = new File(cpu, "cpufreq/scaling_cur_freq");
+			if (!f.canRead())
+			{
+				continue;
+			}
+			try
+			{
+				max = Math.max(max, Double.parseDouble(FileHelper.readToString(f).trim()));
+			}
+			catch (NumberFormatException e)
+			{
+				// Ignore this processor
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Gets the latest speed measured. This is the frequency of the processors
+	 * relative to the highest one observed while experiments were running if
+	 * it can be read, and otherwise the speed given by the latest calibration
+	 * relative to the speed measured when the monitor was created.
+	 * @return The ratio
+	 */
+	public float getSpeedRatio()
+	{
+		if (m_frequencyRatio >= 0)
+		{
+			return m_frequencyRatio;
+		}
+		return m_baselineSpeed > 0 ? m_speed / m_baselineSpeed : 1;
+	}
+
+	/**
+	 * Gets the latest load average
+	 * @return The load, per processor, or -1 if it cannot be measured
+	 */
+	public double getLoad()
+	{
+		return m_load;
+	}
+
+	/**
+	 * Gets the latest share of processor time stolen by the hypervisor
+	 * @return The share, between 0 and 1, or -1 if it cannot be measured
+	 */
+	public double getSteal()
+	{
+		return m_steal;
+	}
+
+	@Override
+	public Measurement start(Experiment e)
+	{
+		start();
+		e.describe(NOISE, "Conditions of the machine during the experiment");
+		NoiseMeasurement m = new NoiseMeasurement();
+		m_active.add(m);
+		return m;
+	}
+
+	/**
+	 * The worst readings during the run of an experiment
+	 */
+	protected class NoiseMeasurement implements Measurement
+	{
+		private float m_minSpeedRatio = Float.MAX_VALUE;
+		private double m_maxLoad = -1;
+		private double m_maxSteal = -1;
+
+		public NoiseMeasurement()
+		{
+			super();
+			update();
+		}
+
+		/**
+		 * Takes into account the latest readings of the monitor
+		 */
+		protected synchronized void update()
+		{
+			m_minSpeedRatio = Math.min(m_minSpeedRatio, getSpeedRatio());
+			m_maxLoad = Math.max(m_maxLoad, getLoad());
+			m_maxSteal = Math.max(m_maxSteal, getSteal());
+		}
+
+		@Override
+		public void stop(Experiment e)
+		{
+			m_active.remove(this);
+			update();
+			JsonMap readings = new JsonMap();
+			readings.put("speed_ratio", m_minSpeedRatio);
+			if (m_maxLoad >= 0)
+			{
+				readings.put("load", m_maxLoad);
+			}
+			if (m_maxSteal >= 0)
+			{
+				readings.put("steal", m_maxSteal);
+			}
+			e.write(NOISE, readings);
+			if (m_minSpeedRatio < NoiseMonitor.this.m_minSpeedRatio)
+			{
+				e.addWarning(String.format("The machine was running at %.0f%% of its full speed", 100 * m_minSpeedRatio));
+			}
+			if (m_maxLoad > NoiseMonitor.this.m_maxLoad)
+			{
+				e.addWarning(String.format("The machine was overloaded (load average of %.2f per processor)", m_maxLoad));
+			}
+			if (m_maxSteal > NoiseMonitor.this.m_maxSteal)
+			{
+				e.addWarning(String.format("%.0f%% of the processor time was stolen by the hypervisor", 100 * m_maxSteal));
+			}
+		}
+	}
+}
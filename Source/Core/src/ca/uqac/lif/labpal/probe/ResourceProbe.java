@@ -0,0 +1,187 @@
+/*
+  LabPal, a versatile environment for running experiments on a computer
+  Copyright (C) 2015-2017 Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.labpal.probe;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+import ca.uqac.lif.labpal.Experiment;
+
+/**
+ * Probe measuring the resources used by an experiment: processor time and
+ * memory allocated by the thread running it, garbage collections, and peak
+ * heap usage. Measurements the JVM does not support are not written.
+ * <p>
+ * Garbage collections and heap usage concern the whole JVM; when several
+ * experiments run at the same time, these values include the effect of the
+ * other experiments.
+ *
+ * @author Sylvain Hallé
+ */
+public class ResourceProbe implements ExperimentProbe
+{
+	/**
+	 * The name of the parameter holding the processor time used by the
+	 * experiment's thread, in milliseconds
+	 */
+	public static final String CPU_TIME = "cpu_time";
+
+	/**
+	 * The name of the parameter holding the processor time used by the
+	 * experiment's thread in user mode, in milliseconds
+	 */
+	public static final String USER_TIME = "user_time";
+
+	/**
+	 * The name of the parameter holding the number of bytes allocated by
+	 * the experiment's thread
+	 */
+	public static final String ALLOCATED = "allocated_bytes";
+
+	/**
+	 * The name of the parameter holding the number of garbage collections
+	 * during the experiment
+	 */
+	public static final String GC_COUNT = "gc_count";
+
+	/**
+	 * The name of the parameter holding the time spent in garbage
+	 * collection during the experiment, in milliseconds
+	 */
+	public static final String GC_TIME = "gc_time";
+
+	/**
+	 * The name of the parameter holding the peak heap usage during the
+	 * experiment, in bytes
+	 */
+	public static final String PEAK_HEAP = "peak_heap";
+
+	@Override
+	public Measurement start(Experiment e)
+	{
+		e.describe(CPU_TIME, "Processor time used by the experiment (in ms)");
+		e.describe(USER_TIME, "Processor time used by the experiment in user mode (in ms)");
+		e.describe(ALLOCATED, "Memory allocated by the experiment (in bytes)");
+		e.describe(GC_COUNT, "Number of garbage collections during the experiment");
+		e.describe(GC_TIME, "Time spent in garbage collection during the experiment (in ms)");
+		e.describe(PEAK_HEAP, "Peak heap usage during the experiment (in bytes)");
+		return new ResourceMeasurement();
+	}
+
+	/**
+	 * Gets the number of bytes allocated by the current thread
+	 * @param bean The thread bean
+	 * @return The number of bytes, or -1 if the JVM does not support this
+	 * measurement
+	 */
+	protected static long getAllocatedBytes(ThreadMXBean bean)
+	{
+		if (bean instanceof com.sun.management.ThreadMXBean)
+		{
+			com.sun.management.ThreadMXBean sun_bean = (com.sun.management.ThreadMXBean) bean;
+			if (sun_bean.isThreadAllocatedMemorySupported() && sun_bean.isThreadAllocatedMemoryEnabled())
+			{
+				return sun_bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * A measurement of the resources used by an experiment
+	 */
+	protected static class ResourceMeasurement implements Measurement
+	{
+		private final ThreadMXBean m_threadBean;
+
+		private final boolean m_cpuTime;
+
+		private final long m_startCpu;
+
+		private final long m_startUser;
+
+		private final long m_startAllocated;
+
+		private final long m_startGcCount;
+
+		private final long m_startGcTime;
+
+		private final List<MemoryPoolMXBean> m_pools;
+
+		public ResourceMeasurement()
+		{
+			super();
+			m_threadBean = ManagementFactory.getThreadMXBean();
+			m_cpuTime = m_threadBean.isCurrentThreadCpuTimeSupported() && m_threadBean.isThreadCpuTimeEnabled();
+			m_startCpu = m_cpuTime ? m_threadBean.getCurrentThreadCpuTime() : 0;
+			m_startUser = m_cpuTime ? m_threadBean.getCurrentThreadUserTime() : 0;
+			m_startAllocated = getAllocatedBytes(m_threadBean);
+			long count = 0, time = 0;
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			{
+				count += Math.max(0, gc.getCollectionCount());
+				time += Math.max(0, gc.getCollectionTime());
+			}
+			m_startGcCount = count;
+			m_startGcTime = time;
+			m_pools = ManagementFactory.getMemoryPoolMXBeans();
+			for (MemoryPoolMXBean pool : m_pools)
+			{
+				if (pool.getType() == MemoryType.HEAP && pool.isValid())
+				{
+					pool.resetPeakUsage();
+				}
+			}
+		}
+
+		@Override
+		public void stop(Experiment e)
+		{
+			if (m_cpuTime)
+			{
+				e.write(CPU_TIME, (m_threadBean.getCurrentThreadCpuTime() - m_startCpu) / 1e6);
+				e.write(USER_TIME, (m_threadBean.getCurrentThreadUserTime() - m_startUser) / 1e6);
+			}
+			if (m_startAllocated >= 0)
+			{
+				e.write(ALLOCATED, getAllocatedBytes(m_threadBean) - m_startAllocated);
+			}
+			long count = 0, time = 0;
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			{
+				count += Math.max(0, gc.getCollectionCount());
+				time += Math.max(0, gc.getCollectionTime());
+			}
+			e.write(GC_COUNT, count - m_startGcCount);
+			e.write(GC_TIME, time - m_startGcTime);
+			long peak = 0;
+			for (MemoryPoolMXBean pool : m_pools)
+			{
+				if (pool.getType() == MemoryType.HEAP && pool.isValid())
+				{
+					peak += pool.getPeakUsage().getUsed();
+				}
+			}
+			e.write(PEAK_HEAP, peak);
+		}
+	}
+}
@@ -27,6 +27,7 @@ import ca.uqac.lif.labpal.FileHelper;
 import ca.uqac.lif.labpal.LabAssistant;
 import ca.uqac.lif.labpal.Laboratory;
 import ca.uqac.lif.labpal.LabPalTui;
+import ca.uqac.lif.labpal.ThreadPoolAssistant;
 
 /**
  * Callback to display, start and stop the lab assistant.
@@ -97,6 +98,14 @@ public class AssistantPageCallback extends ExperimentsPageCallback
         LabPalTui.formatEta(m_assistant.getRunningTime() / 1000));
     out = out.replaceAll("\\{%ASSISTANT_NAME%\\}",
         Matcher.quoteReplacement(htmlEscape(m_assistant.getName())));
+    if (m_assistant instanceof ThreadPoolAssistant)
+    {
+      ThreadPoolAssistant tpa = (ThreadPoolAssistant) m_assistant;
+      StringBuilder rows = new StringBuilder();
+      rows.append("<tr><th>Experiments run in parallel:</th><td>").append(tpa.getThreads()).append("</td></tr>\n");
+      rows.append("<tr><th>Average dispatch overhead:</th><td>").append(String.format("%.1f", tpa.getDispatchOverhead() / 1000f)).append(" &micro;s</td></tr>\n");
+      out = out.replaceAll("\\{%ASSISTANT_THREADS%\\}", Matcher.quoteReplacement(rows.toString()));
+    }
     out = out.replaceAll("\\{%SEL_ASSISTANT%\\}", "selected");
     out = out.replaceAll("\\{%TIME_ESTIMATE%\\}",
         LabPalTui.formatEta(m_assistant.getTimeEstimate()));
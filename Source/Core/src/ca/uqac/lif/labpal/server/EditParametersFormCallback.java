@@ -85,7 +85,7 @@ public class EditParametersFormCallback extends TemplatePageCallback
     out = out.replaceAll("\\{%EXP_STATUS%\\}",
         ExperimentsPageCallback.getStatusLabel(e, m_assistant));
     out = out.replaceAll("\\{%EXP_ESTIMATE%\\}",
-        LabPalTui.formatEta(e.getDurationEstimate(Laboratory.s_parkMips)));
+        LabPalTui.formatEta(m_lab.estimateDuration(e)));
     if (e.getEndTime() > 0)
     {
       out = out.replaceAll("\\{%EXP_DURATION%\\}",
@@ -19,6 +19,9 @@ package ca.uqac.lif.labpal.server;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -43,6 +46,7 @@ import ca.uqac.lif.labpal.Group;
 import ca.uqac.lif.labpal.LabAssistant;
 import ca.uqac.lif.labpal.LabPalTui;
 import ca.uqac.lif.labpal.Laboratory;
+import ca.uqac.lif.labpal.probe.JfrProbe;
 import ca.uqac.lif.petitpoucet.NodeFunction;
 
 /**
@@ -122,7 +126,7 @@ public class ExperimentPageCallback extends TemplatePageCallback
     out = out.replaceAll("\\{%EXP_STATUS%\\}",
         ExperimentsPageCallback.getStatusLabel(e, m_assistant));
     out = out.replaceAll("\\{%EXP_ESTIMATE%\\}",
-        LabPalTui.formatEta(e.getDurationEstimate(Laboratory.s_parkMips)));
+        LabPalTui.formatEta(m_lab.estimateDuration(e)));
     if (e.getEndTime() > 0)
     {
       out = out.replaceAll("\\{%EXP_DURATION%\\}",
@@ -166,6 +170,8 @@ public class ExperimentPageCallback extends TemplatePageCallback
       out = out.replaceAll("\\{%WARNINGS%\\}",
           Matcher.quoteReplacement("<h2>Warnings</h2>" + warning_msg_build.toString() + ""));
     }
+    out = out.replaceAll("\\{%EXP_PHASES%\\}", Matcher.quoteReplacement(renderPhases(e)));
+    out = out.replaceAll("\\{%EXP_JFR%\\}", Matcher.quoteReplacement(renderJfr(e)));
     Set<Group> groups = m_lab.getGroups(experiment_nb);
     String group_description = "";
     for (Group g : groups)
@@ -181,6 +187,140 @@ public class ExperimentPageCallback extends TemplatePageCallback
     return out;
   }
 
+  /**
+   * Creates HTML code displaying the duration of each phase of the
+   * experiment. Nested phases are indented below their parent, and each
+   * duration is also shown as a fraction of the execution time.
+   * 
+   * @param e
+   *          The experiment
+   * @return The HTML code, or the empty string if the experiment has no
+   *         phase
+   */
+  protected static String renderPhases(Experiment e)
+  {
+    Map<String, Double> durations = e.getPhaseDurations();
+    if (durations.isEmpty())
+    {
+      return "";
+    }
+    List<String> names = new ArrayList<String>();
+    for (String name : new String[] {Experiment.PHASE_PREREQUISITES,
+        Experiment.PHASE_EXECUTE, Experiment.PHASE_VALIDATE})
+    {
+      if (durations.containsKey(name))
+      {
+        names.add(name);
+      }
+    }
+    List<String> user_names = new ArrayList<String>(durations.keySet());
+    user_names.removeAll(names);
+    // Sorting puts nested phases right after their parent
+    Collections.sort(user_names, new Comparator<String>()
+    {
+      @Override
+      public int compare(String s1, String s2)
+      {
+        return s1.replace(Experiment.PHASE_SEPARATOR, "\0")
+            .compareTo(s2.replace(Experiment.PHASE_SEPARATOR, "\0"));
+      }
+    });
+    names.addAll(user_names);
+    Double total = durations.get(Experiment.PHASE_EXECUTE);
+    StringBuilder out = new StringBuilder();
+    out.append("<h2>Phases</h2>\n\n");
+    out.append("<table class=\"status-table phases\">\n");
+    for (String name : names)
+    {
+      String[] parts = name.split(Pattern.quote(Experiment.PHASE_SEPARATOR));
+      double ms = durations.get(name);
+      out.append("<tr><th style=\"padding-left:").append(parts.length - 1).append("em\" title=\"")
+          .append(htmlEscape(Experiment.PHASES + "." + name)).append("\">")
+          .append(htmlEscape(parts[parts.length - 1])).append("</th>");
+      out.append("<td>").append(String.format("%.3f ms", ms)).append("</td>");
+      out.append("<td>");
+      if (total != null && total > 0 && !Experiment.PHASE_EXECUTE.equals(name))
+      {
+        out.append(String.format("%.1f%%", 100 * ms / total));
+      }
+      out.append("</td></tr>\n");
+    }
+    out.append("</table>\n");
+    return out.toString();
+  }
+
+  /**
+   * Creates HTML code displaying the summary of the flight recording of the
+   * experiment, if it has one
+   * 
+   * @param e
+   *          The experiment
+   * @return The HTML code, or the empty string if the experiment has not
+   *         been recorded
+   * @see JfrProbe
+   */
+  protected static String renderJfr(Experiment e)
+  {
+    JsonElement elem = e.read(JfrProbe.JFR);
+    if (!(elem instanceof JsonMap))
+    {
+      return "";
+    }
+    JsonMap summary = (JsonMap) elem;
+    StringBuilder out = new StringBuilder();
+    out.append("<h2>Flight recording</h2>\n\n");
+    out.append("<table class=\"status-table\">\n");
+    out.append("<tr><th>Recording:</th><td>")
+        .append(htmlEscape(((JsonString) summary.get("file")).stringValue())).append("</td></tr>\n");
+    if (summary.get("gc_pause_time") instanceof JsonNumber)
+    {
+      out.append("<tr><th>GC pauses:</th><td>").append(summary.get("gc_pauses")).append(" (")
+          .append(String.format("%.1f ms",
+              ((JsonNumber) summary.get("gc_pause_time")).numberValue().doubleValue()))
+          .append(")</td></tr>\n");
+    }
+    out.append("</table>\n");
+    renderJfrList(out, summary.get("hot_methods"), "Hot methods", "Samples", "%.0f");
+    renderJfrList(out, summary.get("allocations"), "Allocation hot spots", "Bytes", "%.0f");
+    renderJfrList(out, summary.get("locks"), "Lock contention", "Time (ms)", "%.1f");
+    return out.toString();
+  }
+
+  /**
+   * Creates HTML code displaying a list of the flight recording summary
+   * 
+   * @param out
+   *          The builder where the code is appended
+   * @param elem
+   *          The list, made of pairs of a name and a value
+   * @param title
+   *          The title of the list
+   * @param unit
+   *          The header of the column of values
+   * @param format
+   *          The format of the values
+   */
+  protected static void renderJfrList(StringBuilder out, JsonElement elem, String title,
+      String unit, String format)
+  {
+    if (!(elem instanceof JsonList) || ((JsonList) elem).isEmpty())
+    {
+      return;
+    }
+    out.append("<h3>").append(title).append("</h3>\n");
+    out.append("<table class=\"json-table\">\n");
+    out.append("<tr><th></th><th>").append(unit).append("</th></tr>\n");
+    for (JsonElement pair : (JsonList) elem)
+    {
+      JsonList l = (JsonList) pair;
+      out.append("<tr><td><code>").append(htmlEscape(((JsonString) l.get(0)).stringValue()))
+          .append("</code></td><td>")
+          .append(String.format(format, ((JsonNumber) l.get(1)).numberValue().doubleValue()))
+          .append("</td></tr>\n");
+    }
+    out.append("</table>\n");
+  }
+
   /**
    * Formats the date
    * 
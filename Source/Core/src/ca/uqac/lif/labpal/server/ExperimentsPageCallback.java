@@ -240,6 +240,8 @@ public class ExperimentsPageCallback extends TemplatePageCallback
       return "<div class=\"status-icon status-failed\" title=\"Failed\"><span class=\"text-only\">K</span></div>";
     case TIMEOUT:
       return "<div class=\"status-icon status-killed\" title=\"Timed out\"><span class=\"text-only\">T</span></div>";
+    case SKIPPED:
+      return "<div class=\"status-icon status-killed\" title=\"Skipped\"><span class=\"text-only\">S</span></div>";
     case PREREQ_F:
       return "<div class=\"status-icon status-failed\" title=\"Failed\"><span class=\"text-only\">F</span></div>";
     case PREREQ_NOK:
@@ -302,6 +304,8 @@ public class ExperimentsPageCallback extends TemplatePageCallback
       return "Interrupted";
     case TIMEOUT:
       return "Timed out";
+    case SKIPPED:
+      return "Skipped because an experiment it depends on did not complete";
     case PREREQ_F:
       return "Failed when generating prerequisites";
     case PREREQ_NOK:
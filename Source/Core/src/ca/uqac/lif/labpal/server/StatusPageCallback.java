@@ -19,6 +19,7 @@ package ca.uqac.lif.labpal.server;
 
 import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -28,9 +29,11 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import ca.uqac.lif.labpal.Claim;
+import ca.uqac.lif.labpal.EnvironmentFingerprint;
 import ca.uqac.lif.labpal.Experiment;
 import ca.uqac.lif.labpal.LabAssistant;
 import ca.uqac.lif.labpal.Laboratory;
+import ca.uqac.lif.labpal.PrerequisiteCache;
 import ca.uqac.lif.labpal.ResultReporter;
 import ca.uqac.lif.labpal.ResultReporter.ReporterException;
 
@@ -100,11 +103,135 @@ public class StatusPageCallback extends TemplatePageCallback
       out = out.replaceAll("\\{%SERIALIZATION_MESSAGE%\\}",
           "<p class=\"message info\">" + "<span>" + serialization_message + "</span></p>");
     }
+    out = out.replaceAll("\\{%CACHE_DIV%\\}", Matcher.quoteReplacement(getCacheDiv()));
+    out = out.replaceAll("\\{%FINGERPRINT%\\}", Matcher.quoteReplacement(getFingerprintRows()));
+    StringBuilder merge_message = new StringBuilder();
+    appendDifferences(merge_message, "error", "Some results were obtained in a different environment",
+        m_lab.getEnvironmentDifferences());
+    appendDifferences(merge_message, "info", "Some results were obtained with different JVM settings",
+        m_lab.getSettingDifferences());
+    if (merge_message.length() > 0)
+    {
+      out = out.replaceAll("\\{%MERGE_MESSAGE%\\}", Matcher.quoteReplacement(merge_message.toString()));
+    }
     out = out.replaceAll("\\{%REPORTING_DIV%\\}", getReportingDiv());
     out = out.replaceAll("\\{%CLAIM_DIV%\\}", getClaimDiv());
     return out;
   }
 
+  /**
+   * Produces a message listing differences between environments
+   * 
+   * @param out
+   *          The builder where the message is appended
+   * @param css_class
+   *          The class of the message
+   * @param intro
+   *          The text introducing the differences
+   * @param differences
+   *          The differences; nothing is appended if the list is empty
+   */
+  protected static void appendDifferences(StringBuilder out, String css_class, String intro, List<String> differences)
+  {
+    if (differences.isEmpty())
+    {
+      return;
+    }
+    out.append("<p class=\"message ").append(css_class).append("\"><span>").append(intro).append(": ");
+    for (int i = 0; i < differences.size(); i++)
+    {
+      if (i > 0)
+      {
+        out.append("; ");
+      }
+      out.append(htmlEscape(differences.get(i)));
+    }
+    out.append(".</span></p>");
+  }
+
+  /**
+   * Produces the rows of the environment table that describe the hardware
+   * and the JVM running the lab
+   * 
+   * @return The HTML code for these rows
+   */
+  protected String getFingerprintRows()
+  {
+    EnvironmentFingerprint f = m_lab.getFingerprint();
+    if (f == null)
+    {
+      return "";
+    }
+    StringBuilder out = new StringBuilder();
+    if (!f.getCpuModel().isEmpty())
+    {
+      out.append("<tr><th title=\"The model of the processor\">Processor:</th><td>")
+          .append(htmlEscape(f.getCpuModel()));
+      if (f.getCpuMaxFrequency() > 0)
+      {
+        out.append(", up to ").append(f.getCpuMaxFrequency()).append(" MHz");
+      }
+      out.append("</td></tr>\n");
+    }
+    out.append("<tr><th title=\"The number of processors available to the lab\">Processors:</th><td>")
+        .append(f.getCores()).append("</td></tr>\n");
+    if (!f.getGovernor().isEmpty())
+    {
+      out.append("<tr><th title=\"The policy used by the operating system to scale the processor's frequency\">Frequency governor:</th><td>")
+          .append(htmlEscape(f.getGovernor())).append("</td></tr>\n");
+    }
+    if (f.getMemory() > 0)
+    {
+      out.append("<tr><th title=\"The physical memory of the machine\">Memory:</th><td>")
+          .append(PrerequisiteCache.formatSize(f.getMemory() * 1024)).append("</td></tr>\n");
+    }
+    out.append("<tr><th title=\"The Java virtual machine running the lab\">JVM:</th><td>")
+        .append(htmlEscape(f.getJvm())).append("</td></tr>\n");
+    out.append("<tr><th title=\"The maximum size of the JVM's heap\">Maximum heap:</th><td>")
+        .append(PrerequisiteCache.formatSize(f.getMaxHeap())).append("</td></tr>\n");
+    if (!f.getJvmArguments().isEmpty())
+    {
+      out.append("<tr><th title=\"The arguments passed to the JVM\">JVM arguments:</th><td><code>")
+          .append(htmlEscape(f.getJvmArguments())).append("</code></td></tr>\n");
+    }
+    return out.toString();
+  }
+
+  /**
+   * Produces the part of the page that shows the statistics of the
+   * prerequisite cache, if the experiments of the lab use it
+   * 
+   * @return The HTML code for this part of the page
+   */
+  protected String getCacheDiv()
+  {
+    if (!m_lab.hasPrerequisiteCache())
+    {
+      return "";
+    }
+    PrerequisiteCache cache = m_lab.getPrerequisiteCache();
+    StringBuilder out = new StringBuilder();
+    out.append("<h2>Prerequisite cache</h2>\n\n");
+    out.append("<table class=\"status-table\">\n");
+    out.append("<tr><th title=\"The directory where generated prerequisites are stored\">Directory:</th><td>")
+        .append(htmlEscape(cache.getDirectory().getPath())).append("</td></tr>\n");
+    out.append("<tr><th title=\"The size of the cache and its maximum size\">Size:</th><td>")
+        .append(PrerequisiteCache.formatSize(cache.getSize()));
+    if (cache.getBudget() < Long.MAX_VALUE)
+    {
+      out.append(" of ").append(PrerequisiteCache.formatSize(cache.getBudget()));
+    }
+    out.append("</td></tr>\n");
+    out.append("<tr><th title=\"The number of times an experiment found its prerequisites in the cache, or had to generate them\">Hits / misses:</th><td>")
+        .append(cache.getHits()).append(" / ").append(cache.getMisses()).append("</td></tr>\n");
+    out.append("<tr><th title=\"The amount of data generated by experiments since the lab started\">Data generated:</th><td>")
+        .append(PrerequisiteCache.formatSize(cache.getBytesAdded())).append("</td></tr>\n");
+    out.append("<tr><th title=\"The number of files deleted to keep the cache within its maximum size\">Evictions:</th><td>")
+        .append(cache.getEvictions()).append("</td></tr>\n");
+    out.append("</table>\n");
+    return out.toString();
+  }
+
   /**
    * Produces the part of the page that shows the reporting status of the lab
    * 
@@ -196,6 +323,7 @@ public class StatusPageCallback extends TemplatePageCallback
     final float bar_width_px = 400;
     int num_ex = 0, num_q = 0, num_failed = 0, num_done = 0, num_warn = 0;
     StringBuilder out = new StringBuilder();
+    List<Integer> running = new LinkedList<Integer>();
     for (int id : m_lab.getExperimentIds())
     {
       num_ex++;
@@ -203,8 +331,7 @@ public class StatusPageCallback extends TemplatePageCallback
       switch (ex.getStatus())
       {
       case RUNNING:
-        out.delete(0, out.length() + 1);
-        out.append("<div> Running experiment : #").append(ex.getId()).append("</div>\n");
+        running.add(ex.getId());
         break;
       case DONE:
         num_done++;
@@ -224,7 +351,30 @@ public class StatusPageCallback extends TemplatePageCallback
       }
     }
 
-    // StringBuilder out = new StringBuilder();
+    if (!running.isEmpty())
+    {
+      Collections.sort(running);
+      out.append("<div>");
+      if (running.size() == 1)
+      {
+        out.append("Running experiment: ");
+      }
+      else
+      {
+        out.append("Running experiments (").append(running.size()).append("): ");
+      }
+      boolean first = true;
+      for (int id : running)
+      {
+        if (!first)
+        {
+          out.append(", ");
+        }
+        first = false;
+        out.append("<a href=\"/experiment/").append(id).append("\">#").append(id).append("</a>");
+      }
+      out.append("</div>\n");
+    }
     float scale = bar_width_px / num_ex;
     int num_remaining = num_ex - num_done - num_q - num_failed;
 
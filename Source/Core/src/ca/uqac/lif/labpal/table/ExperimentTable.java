@@ -45,7 +45,9 @@ public class ExperimentTable extends Table
 	 * The list of experiments in this table. Note that we use a list,
 	 * and not a set, as we need the experiments to be enumerated in the
 	 * same order every time. Otherwise, the <i>n</i>-th "row" of the
-	 * table would not always refer to the same data point.
+	 * table would not always refer to the same data point. Experiments
+	 * spawned by a running lab can be added while the table is being read:
+	 * the list is only accessed while holding its monitor.
 	 */
 	public List<Experiment> m_experiments;
 
@@ -72,7 +74,10 @@ public class ExperimentTable extends Table
 	 */
 	public ExperimentTable add(Experiment e)
 	{
-		m_experiments.add(e);
+		synchronized (m_experiments)
+		{
+			m_experiments.add(e);
+		}
 		return this;
 	}
 
@@ -95,8 +100,13 @@ public class ExperimentTable extends Table
 		{
 			mt = new TempTable(getId(), ordering);
 		}
+		List<Experiment> experiments;
+		synchronized (m_experiments)
+		{
+			experiments = new ArrayList<Experiment>(m_experiments);
+		}
 		int row_nb = 0;
-		for (Experiment e : m_experiments)
+		for (Experiment e : experiments)
 		{
 			List<TableEntry> entries = getEntries(false, e, row_nb, ordering);
 			mt.addAll(entries);
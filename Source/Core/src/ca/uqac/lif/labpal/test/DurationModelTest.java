@@ -0,0 +1,71 @@
+package ca.uqac.lif.labpal.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import ca.uqac.lif.json.JsonParser.JsonParseException;
+import ca.uqac.lif.labpal.DurationModel;
+import ca.uqac.lif.labpal.Experiment;
+
+public class DurationModelTest
+{
+  @Test
+  public void testEmpty()
+  {
+    DurationModel model = new DurationModel();
+    assertEquals(-1, model.predict(new SizedExperiment()), 0);
+  }
+
+  @Test
+  public void testQuadratic()
+  {
+    DurationModel model = new DurationModel();
+    for (int size = 100; size <= 1000; size += 100)
+    {
+      // The duration is proportional to the square of the size
+      model.record(createExperiment(size, "quick"), size * size / 1e4f);
+    }
+    assertEquals(10, model.getObservationCount(SizedExperiment.class));
+    assertEquals(400, model.predict(createExperiment(2000, "quick")), 1);
+    // A parameter that is not a number is ignored
+    assertEquals(4, model.predict(createExperiment(200, "bubble")), 0.01);
+  }
+
+  @Test
+  public void testSaveLoad() throws IOException, JsonParseException
+  {
+    DurationModel model = new DurationModel();
+    for (int size = 100; size <= 1000; size += 100)
+    {
+      model.record(createExperiment(size, "quick"), size / 100f);
+    }
+    File f = File.createTempFile("durations-", ".json");
+    f.deleteOnExit();
+    model.save(f);
+    DurationModel loaded = new DurationModel();
+    loaded.load(f);
+    assertEquals(10, loaded.getObservationCount(SizedExperiment.class));
+    assertEquals(model.predict(createExperiment(5000, "quick")), loaded.predict(createExperiment(5000, "quick")), 0.01);
+  }
+
+  protected static Experiment createExperiment(int size, String algorithm)
+  {
+    Experiment e = new SizedExperiment();
+    e.setInput("size", size);
+    e.setInput("algorithm", algorithm);
+    return e;
+  }
+
+  public static class SizedExperiment extends Experiment
+  {
+    @Override
+    public void execute()
+    {
+      // Nothing to do
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package ca.uqac.lif.labpal.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uqac.lif.json.JsonMap;
+import ca.uqac.lif.json.JsonNumber;
+import ca.uqac.lif.labpal.Experiment;
+import ca.uqac.lif.labpal.FileHelper;
+import ca.uqac.lif.labpal.probe.EnergyProbe;
+import ca.uqac.lif.labpal.probe.ExperimentProbe.Measurement;
+
+public class EnergyProbeTest
+{
+  protected static final long RANGE = 262143328850L;
+
+  protected File m_root;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    // A fake powercap tree: one package with a core subzone, plus psys
+    m_root = File.createTempFile("powercap-", "");
+    m_root.delete();
+    m_root.mkdir();
+    new File(m_root, "intel-rapl").mkdir();
+    createZone("intel-rapl:0", "package-0", RANGE - 1000000);
+    createZone("intel-rapl:0:0", "core", 5000000);
+    createZone("intel-rapl:1", "psys", 7000000);
+  }
+
+  @After
+  public void tearDown()
+  {
+    for (File dir : m_root.listFiles())
+    {
+      File[] files = dir.listFiles();
+      for (int i = 0; files != null && i < files.length; i++)
+      {
+        files[i].delete();
+      }
+      dir.delete();
+    }
+    m_root.delete();
+  }
+
+  @Test
+  public void testMeasure()
+  {
+    EnergyProbe probe = new EnergyProbe(m_root);
+    assertTrue(probe.isAvailable());
+    Experiment e = new IdleExperiment();
+    Measurement m = probe.start(e);
+    // The package counter wraps around
+    setCounter("intel-rapl:0", 2000000);
+    setCounter("intel-rapl:0:0", 6500000);
+    setCounter("intel-rapl:1", 17000000);
+    m.stop(e);
+    JsonMap energy = (JsonMap) e.read(EnergyProbe.ENERGY);
+    assertEquals(3, ((JsonNumber) energy.get("joules")).numberValue().doubleValue(), 0.001);
+    assertTrue(((JsonNumber) energy.get("watts")).numberValue().doubleValue() > 0);
+    JsonMap zones = (JsonMap) energy.get("zones");
+    assertEquals(1.5, ((JsonNumber) zones.get("intel-rapl:0:0")).numberValue().doubleValue(), 0.001);
+    assertEquals(10, ((JsonNumber) zones.get("intel-rapl:1")).numberValue().doubleValue(), 0.001);
+  }
+
+  @Test
+  public void testUnavailable()
+  {
+    EnergyProbe probe = new EnergyProbe(new File(m_root, "intel-rapl"));
+    assertFalse(probe.isAvailable());
+    assertNull(probe.start(new IdleExperiment()));
+  }
+
+  @Test
+  public void testDelta()
+  {
+    assertEquals(10, EnergyProbe.getDelta(5, 15, 100));
+    assertEquals(15, EnergyProbe.getDelta(95, 10, 100));
+    assertEquals(-1, EnergyProbe.getDelta(95, 10, -1));
+  }
+
+  protected void createZone(String id, String name, long value)
+  {
+    File dir = new File(m_root, id);
+    dir.mkdir();
+    FileHelper.writeFromString(new File(dir, "name"), name + "\n");
+    FileHelper.writeFromString(new File(dir, "max_energy_range_uj"), RANGE + "\n");
+    setCounter(id, value);
+  }
+
+  protected void setCounter(String id, long value)
+  {
+    FileHelper.writeFromString(new File(new File(m_root, id), "energy_uj"), value + "\n");
+  }
+
+  public static class IdleExperiment extends Experiment
+  {
+    @Override
+    public void execute()
+    {
+      // Nothing to do
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package ca.uqac.lif.labpal.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import ca.uqac.lif.labpal.Experiment;
+import ca.uqac.lif.labpal.ExperimentQueue;
+import ca.uqac.lif.labpal.SchedulingPolicy;
+
+public class ExperimentQueueTest
+{
+  @Test
+  public void testFifo()
+  {
+    ExperimentQueue queue = new ExperimentQueue();
+    for (int i = 1; i <= 5; i++)
+    {
+      assertTrue(queue.add(new TimedExperiment(i, 6 - i)));
+    }
+    assertFalse(queue.add(new TimedExperiment(3, 0)));
+    assertEquals(5, queue.size());
+    assertTrue(queue.contains(3));
+    assertEquals(3, queue.remove(3).getId());
+    assertFalse(queue.contains(3));
+    assertNull(queue.remove(3));
+    assertEquals(Arrays.asList(1, 2, 4, 5), queue.getIds());
+    assertEquals(1, queue.poll().getId());
+    queue.addFirst(new TimedExperiment(1, 5));
+    assertEquals(Arrays.asList(1, 2, 4, 5), queue.getIds());
+  }
+
+  @Test
+  public void testDurations()
+  {
+    ExperimentQueue queue = new ExperimentQueue(new SchedulingPolicy.ShortestFirst());
+    queue.add(new TimedExperiment(1, 30));
+    queue.add(new TimedExperiment(2, 10));
+    queue.add(new TimedExperiment(3, 20));
+    queue.add(new TimedExperiment(4, 10));
+    assertEquals(Arrays.asList(2, 4, 3, 1), queue.getIds());
+    queue.setPolicy(new SchedulingPolicy.LongestFirst());
+    assertEquals(Arrays.asList(1, 3, 2, 4), queue.getIds());
+  }
+
+  @Test
+  public void testPriority()
+  {
+    ExperimentQueue queue = new ExperimentQueue(new SchedulingPolicy.Priority());
+    queue.add(new TimedExperiment(1, 0));
+    queue.add(new TimedExperiment(2, 0).setPriority(5));
+    queue.add(new TimedExperiment(3, 0).setPriority(-1));
+    queue.add(new TimedExperiment(4, 0).setPriority(5));
+    assertEquals(2, queue.poll().getId());
+    assertEquals(4, queue.poll().getId());
+    assertEquals(1, queue.poll().getId());
+    assertEquals(3, queue.poll().getId());
+    assertTrue(queue.isEmpty());
+  }
+
+  public static class TimedExperiment extends Experiment
+  {
+    protected final float m_duration;
+
+    public TimedExperiment(int id, float duration)
+    {
+      super();
+      setId(id);
+      m_duration = duration;
+    }
+
+    @Override
+    public float getDurationEstimate(float factor)
+    {
+      return m_duration;
+    }
+
+    @Override
+    public void execute()
+    {
+      // Nothing to do
+    }
+  }
+}
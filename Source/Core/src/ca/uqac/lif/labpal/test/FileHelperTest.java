@@ -0,0 +1,122 @@
+package ca.uqac.lif.labpal.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uqac.lif.labpal.FileHelper;
+
+public class FileHelperTest
+{
+  protected File m_dir;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    m_dir = File.createTempFile("dataset-", "");
+    m_dir.delete();
+    m_dir.mkdir();
+  }
+
+  @After
+  public void tearDown()
+  {
+    for (File f : m_dir.listFiles())
+    {
+      f.delete();
+    }
+    m_dir.delete();
+  }
+
+  @Test
+  public void testInts() throws IOException
+  {
+    File f = new File(m_dir, "ints.bin");
+    int[] values = new int[] {3, -1, Integer.MAX_VALUE, 0, 42};
+    FileHelper.writeInts(f, values);
+    assertArrayEquals(values, FileHelper.readInts(f));
+    IntBuffer buf = FileHelper.mapInts(f);
+    assertEquals(values.length, buf.remaining());
+    assertEquals(Integer.MAX_VALUE, buf.get(2));
+  }
+
+  @Test
+  public void testLongs() throws IOException
+  {
+    File f = new File(m_dir, "longs.bin");
+    long[] values = new long[] {Long.MIN_VALUE, 7, 1L << 40};
+    FileHelper.writeLongs(f, values);
+    assertArrayEquals(values, FileHelper.readLongs(f));
+  }
+
+  @Test
+  public void testDoubles() throws IOException
+  {
+    File f = new File(m_dir, "doubles.bin");
+    double[] values = new double[] {0.5, -2.25, Double.NaN};
+    FileHelper.writeDoubles(f, values);
+    assertArrayEquals(values, FileHelper.readDoubles(f), 0);
+  }
+
+  @Test
+  public void testEmpty() throws IOException
+  {
+    File f = new File(m_dir, "empty.bin");
+    FileHelper.writeInts(f, new int[0]);
+    assertEquals(0, FileHelper.readInts(f).length);
+  }
+
+  @Test
+  public void testOverwrite() throws IOException
+  {
+    File f = new File(m_dir, "ints.bin");
+    FileHelper.writeInts(f, new int[] {1, 2, 3, 4, 5, 6, 7, 8});
+    FileHelper.writeInts(f, new int[] {9, 10});
+    assertArrayEquals(new int[] {9, 10}, FileHelper.readInts(f));
+    // The temporary file has replaced the dataset
+    assertEquals(1, m_dir.listFiles().length);
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncated() throws IOException
+  {
+    File f = new File(m_dir, "ints.bin");
+    FileHelper.writeInts(f, new int[] {1, 2, 3, 4});
+    RandomAccessFile raf = new RandomAccessFile(f, "rw");
+    raf.setLength(raf.length() - 2);
+    raf.close();
+    FileHelper.readInts(f);
+  }
+
+  @Test(expected = IOException.class)
+  public void testShorterThanHeader() throws IOException
+  {
+    File f = new File(m_dir, "short.bin");
+    FileHelper.writeFromString(f, "LPDS");
+    FileHelper.readInts(f);
+  }
+
+  @Test(expected = IOException.class)
+  public void testBadMagic() throws IOException
+  {
+    File f = new File(m_dir, "text.bin");
+    FileHelper.writeFromString(f, "1,2,3,4,5,6,7,8,9,10,11,12");
+    FileHelper.readInts(f);
+  }
+
+  @Test(expected = IOException.class)
+  public void testWrongType() throws IOException
+  {
+    File f = new File(m_dir, "ints.bin");
+    FileHelper.writeInts(f, new int[] {1, 2});
+    FileHelper.readDoubles(f);
+  }
+}
@@ -0,0 +1,195 @@
+package ca.uqac.lif.labpal.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import ca.uqac.lif.labpal.Experiment;
+import ca.uqac.lif.labpal.ExperimentException;
+import ca.uqac.lif.labpal.Fixture;
+import ca.uqac.lif.labpal.FixtureManager;
+
+public class FixtureManagerTest
+{
+  @Test(timeout = 10000)
+  public void testSingleFlight() throws InterruptedException
+  {
+    final FixtureManager manager = new FixtureManager();
+    final CountingFixture fixture = new CountingFixture("shared", 100);
+    for (int i = 0; i < 8; i++)
+    {
+      manager.acquire(new FixtureExperiment(fixture));
+    }
+    final Object[] results = new Object[8];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < results.length; i++)
+    {
+      final int index = i;
+      Thread t = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            results[index] = manager.get(fixture);
+          }
+          catch (ExperimentException e)
+          {
+            // The result stays null
+          }
+        }
+      };
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads)
+    {
+      t.join();
+    }
+    // A single thread created the object; the others waited for it
+    assertEquals(1, fixture.m_created.get());
+    for (Object o : results)
+    {
+      assertSame(results[0], o);
+    }
+    assertTrue(manager.isWarm(fixture));
+  }
+
+  @Test
+  public void testRelease() throws ExperimentException
+  {
+    FixtureManager manager = new FixtureManager();
+    CountingFixture fixture = new CountingFixture("shared", 0);
+    Experiment e1 = new FixtureExperiment(fixture);
+    Experiment e2 = new FixtureExperiment(fixture);
+    manager.acquire(e1);
+    manager.acquire(e2);
+    Object o = manager.get(fixture);
+    manager.release(e1);
+    // The second experiment still needs the object
+    assertTrue(manager.isWarm(e2));
+    assertSame(o, manager.get(fixture));
+    assertEquals(0, fixture.m_disposed.get());
+    manager.release(e2);
+    assertFalse(manager.isWarm(fixture));
+    assertEquals(1, fixture.m_disposed.get());
+    assertEquals(1, fixture.m_created.get());
+  }
+
+  @Test
+  public void testNotDeclared() throws ExperimentException
+  {
+    FixtureManager manager = new FixtureManager();
+    CountingFixture fixture = new CountingFixture("shared", 0);
+    // Without an experiment declaring it, the object is not kept
+    Object o1 = manager.get(fixture);
+    Object o2 = manager.get(fixture);
+    assertNotSame(o1, o2);
+    assertEquals(2, fixture.m_created.get());
+    assertFalse(manager.isWarm(fixture));
+  }
+
+  @Test
+  public void testRetryAfterFailure() throws ExperimentException
+  {
+    FixtureManager manager = new FixtureManager();
+    CountingFixture fixture = new CountingFixture("flaky", 0);
+    fixture.m_failures = 1;
+    manager.acquire(new FixtureExperiment(fixture));
+    try
+    {
+      manager.get(fixture);
+      fail("The first creation should fail");
+    }
+    catch (ExperimentException e)
+    {
+      // Expected
+    }
+    assertFalse(manager.isWarm(fixture));
+    manager.get(fixture);
+    assertTrue(manager.isWarm(fixture));
+    assertEquals(2, fixture.m_created.get());
+  }
+
+  public static class CountingFixture extends Fixture<Object>
+  {
+    protected final AtomicInteger m_created = new AtomicInteger();
+
+    protected final AtomicInteger m_disposed = new AtomicInteger();
+
+    protected final long m_delay;
+
+    protected volatile int m_failures = 0;
+
+    public CountingFixture(String key, long delay)
+    {
+      super(key);
+      m_delay = delay;
+    }
+
+    @Override
+    protected Object create() throws ExperimentException
+    {
+      m_created.incrementAndGet();
+      try
+      {
+        Thread.sleep(m_delay);
+      }
+      catch (InterruptedException e)
+      {
+        throw new ExperimentException(e);
+      }
+      if (m_failures > 0)
+      {
+        m_failures--;
+        throw new ExperimentException("Expected failure");
+      }
+      return new Object();
+    }
+
+    @Override
+    protected void dispose(Object o)
+    {
+      m_disposed.incrementAndGet();
+    }
+  }
+
+  public static class FixtureExperiment extends Experiment
+  {
+    protected transient List<Fixture<?>> m_fixtures = new ArrayList<Fixture<?>>();
+
+    public FixtureExperiment()
+    {
+      super();
+    }
+
+    public FixtureExperiment(Fixture<?> f)
+    {
+      super();
+      m_fixtures.add(f);
+    }
+
+    @Override
+    public Collection<Fixture<?>> getFixtures()
+    {
+      return m_fixtures;
+    }
+
+    @Override
+    public void execute()
+    {
+      // Nothing to do
+    }
+  }
+}
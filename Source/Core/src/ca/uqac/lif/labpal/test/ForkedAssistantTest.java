@@ -0,0 +1,55 @@
+package ca.uqac.lif.labpal.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+
+import ca.uqac.lif.labpal.Experiment;
+import ca.uqac.lif.labpal.Experiment.Status;
+import ca.uqac.lif.labpal.ForkedAssistant;
+import ca.uqac.lif.labpal.Laboratory;
+
+public class ForkedAssistantTest
+{
+  @Test
+  public void testSettingsOfSetup()
+  {
+    RepeatLab lab = new RepeatLab();
+    ForkedAssistant assistant = new ForkedAssistant();
+    lab.setAssistant(assistant);
+    lab.setup();
+    for (Experiment e : lab.getExperiments())
+    {
+      assistant.queue(e);
+    }
+    assistant.run();
+    // The repetitions and sampled parameters are not serialized: the child
+    // must run the instance created by the lab's setup
+    Experiment e = lab.getExperiments().iterator().next();
+    assertEquals(Status.DONE, e.getStatus());
+    assertEquals(3, e.readInt("value_n"));
+    assertNotNull(e.read("value_mean"));
+  }
+
+  public static class RepeatLab extends Laboratory
+  {
+    @Override
+    public void setup()
+    {
+      Experiment e = new RepeatExperiment();
+      e.setRepetitions(3, 1);
+      e.sample("value");
+      add(e);
+    }
+  }
+
+  public static class RepeatExperiment extends Experiment
+  {
+    @Override
+    public void execute()
+    {
+      write("value", 1);
+    }
+  }
+}
@@ -1,8 +1,12 @@
 package ca.uqac.lif.labpal.test;
 
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 
 import ca.uqac.lif.azrael.PrintException;
+import ca.uqac.lif.azrael.ReadException;
+import ca.uqac.lif.json.JsonParser.JsonParseException;
 import ca.uqac.lif.labpal.Laboratory;
 import org.junit.Test;
 
@@ -15,6 +19,18 @@ public class LaboratoryTest
     String s = lab.saveToString();
     assertNotNull(s);
   }
+
+  @Test
+  public void testLoadFingerprint() throws PrintException, ReadException, JsonParseException
+  {
+    Laboratory lab = new MyLab();
+    Laboratory loaded = lab.loadFromString(lab.saveToString());
+    // The environment is collected again, and compared to the saved one
+    assertNotNull(loaded.getSavedFingerprint());
+    assertNotSame(loaded.getSavedFingerprint(), loaded.getFingerprint());
+    assertTrue(loaded.getEnvironmentDifferences().isEmpty());
+    assertTrue(loaded.getSettingDifferences().isEmpty());
+  }
   
   public static class MyLab extends Laboratory
   {
@@ -0,0 +1,141 @@
+package ca.uqac.lif.labpal.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ca.uqac.lif.labpal.Blackhole;
+import ca.uqac.lif.labpal.Experiment;
+import ca.uqac.lif.labpal.ExperimentException;
+import ca.uqac.lif.labpal.Microbenchmark;
+import ca.uqac.lif.labpal.Statistics;
+
+public class MicrobenchmarkTest
+{
+  @Test
+  public void testCalibration() throws Exception
+  {
+    // Each call takes 1 us: batches of 10 ms need 10,000 calls
+    FakeBenchmark mb = new FakeBenchmark(1000, 0);
+    mb.setMinBatchTime(10).setBatches(5).setWarmup(3, 0.01, 1000);
+    Statistics st = mb.run(new NoOperation());
+    assertTrue(mb.getIterations() >= 10000);
+    assertTrue(mb.getIterations() <= 12000);
+    assertEquals(5, st.getCount());
+    assertEquals(1000, st.getMean(), 0.001);
+  }
+
+  @Test
+  public void testSteady() throws Exception
+  {
+    // The first batches are slower, as if the code were not compiled yet
+    FakeBenchmark mb = new FakeBenchmark(1000, 10);
+    mb.setMinBatchTime(10).setWarmup(5, 0.01, 1000);
+    Statistics st = mb.run(new NoOperation());
+    assertTrue(mb.isSteady());
+    assertEquals(1000, st.getMean(), 0.001);
+  }
+
+  @Test
+  public void testNotSteady() throws Exception
+  {
+    UnsteadyBenchmark mb = new UnsteadyBenchmark();
+    mb.setMinBatchTime(10).setWarmup(5, 0.01, 50);
+    mb.run(new NoOperation());
+    assertFalse(mb.isSteady());
+  }
+
+  @Test
+  public void testMeasure()
+  {
+    MeasuredExperiment e = new MeasuredExperiment(new UnsteadyBenchmark().setMinBatchTime(10).setWarmup(5, 0.01, 50));
+    e.run();
+    assertTrue(e.readFloat("op") > 0);
+    assertTrue(e.readFloat("op_ops") > 0);
+    assertEquals(10, e.readInt("op_n"));
+    assertTrue(e.readInt("op_iterations") > 0);
+    // A warmup that did not settle is reported
+    assertEquals(Experiment.Status.DONE_WARNING, e.getStatus());
+  }
+
+  public static class NoOperation extends Microbenchmark.Operation
+  {
+    @Override
+    public void run(Blackhole bh)
+    {
+      bh.consume(0);
+    }
+  }
+
+  /**
+   * A microbenchmark whose batches take a predictable time instead of
+   * being timed
+   */
+  public static class FakeBenchmark extends Microbenchmark
+  {
+    protected final long m_callTime;
+
+    protected int m_slowBatches;
+
+    public FakeBenchmark(long call_time, int slow_batches)
+    {
+      super();
+      m_callTime = call_time;
+      m_slowBatches = slow_batches;
+    }
+
+    @Override
+    protected long timeBatch(Operation op, long n)
+    {
+      if (m_slowBatches > 0)
+      {
+        m_slowBatches--;
+        return 5 * n * m_callTime;
+      }
+      return n * m_callTime;
+    }
+  }
+
+  public static class UnsteadyBenchmark extends Microbenchmark
+  {
+    protected int m_batches = 0;
+
+    @Override
+    protected long timeBatch(Operation op, long n)
+    {
+      m_batches++;
+      return n * (m_batches % 2 == 0 ? 1000 : 3000);
+    }
+  }
+
+  public static class MeasuredExperiment extends Experiment
+  {
+    protected transient Microbenchmark m_benchmark;
+
+    public MeasuredExperiment()
+    {
+      super();
+    }
+
+    public MeasuredExperiment(Microbenchmark mb)
+    {
+      super();
+      m_benchmark = mb;
+    }
+
+    @Override
+    public void execute() throws ExperimentException
+    {
+      try
+      {
+        measure("op", m_benchmark, new NoOperation());
+      }
+      catch (Exception ex)
+      {
+        throw new ExperimentException(ex);
+      }
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package ca.uqac.lif.labpal.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uqac.lif.json.JsonMap;
+import ca.uqac.lif.json.JsonNumber;
+import ca.uqac.lif.labpal.Experiment;
+import ca.uqac.lif.labpal.FileHelper;
+import ca.uqac.lif.labpal.probe.ExperimentProbe.Measurement;
+import ca.uqac.lif.labpal.probe.NoiseMonitor;
+
+public class NoiseMonitorTest
+{
+  protected File m_root;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    // A fake cpu tree with two processors
+    m_root = File.createTempFile("cpu-", "");
+    m_root.delete();
+    m_root.mkdir();
+    setFrequency("cpu0", 3000000);
+    setFrequency("cpu1", 1000000);
+  }
+
+  @After
+  public void tearDown()
+  {
+    for (File cpu : m_root.listFiles())
+    {
+      File dir = new File(cpu, "cpufreq");
+      File[] files = dir.listFiles();
+      for (int i = 0; files != null && i < files.length; i++)
+      {
+        files[i].delete();
+      }
+      dir.delete();
+      cpu.delete();
+    }
+    m_root.delete();
+  }
+
+  @Test(timeout = 10000)
+  public void testThrottling() throws InterruptedException
+  {
+    NoiseMonitor monitor = new NoiseMonitor(m_root);
+    monitor.setIntervals(100, 100).setThresholds(0.9f, Double.MAX_VALUE, 1);
+    Experiment e = new IdleExperiment();
+    Measurement m = monitor.start(e);
+    Thread.sleep(350);
+    assertEquals(1, monitor.getSpeedRatio(), 0.001);
+    setFrequency("cpu0", 2000000);
+    Thread.sleep(350);
+    assertEquals(2f / 3, monitor.getSpeedRatio(), 0.001);
+    m.stop(e);
+    monitor.stop();
+    JsonMap noise = (JsonMap) e.read(NoiseMonitor.NOISE);
+    assertEquals(2f / 3, ((JsonNumber) noise.get("speed_ratio")).numberValue().floatValue(), 0.001);
+    assertTrue(e.hasWarnings());
+  }
+
+  @Test(timeout = 10000)
+  public void testSteady() throws InterruptedException
+  {
+    NoiseMonitor monitor = new NoiseMonitor(m_root);
+    monitor.setIntervals(100, 100).setThresholds(0.9f, Double.MAX_VALUE, 1);
+    Experiment e = new IdleExperiment();
+    Measurement m = monitor.start(e);
+    Thread.sleep(350);
+    m.stop(e);
+    monitor.stop();
+    assertFalse(e.hasWarnings());
+  }
+
+  @Test(timeout = 10000)
+  public void testCalibration() throws InterruptedException
+  {
+    // Without frequencies, the speed is measured again while idle
+    CountingMonitor monitor = new CountingMonitor(new File(m_root, "none"));
+    monitor.setIntervals(100, 100);
+    monitor.start();
+    Thread.sleep(550);
+    monitor.stop();
+    assertTrue(monitor.m_calibrations >= 2);
+  }
+
+  protected void setFrequency(String cpu, long khz)
+  {
+    File dir = new File(new File(m_root, cpu), "cpufreq");
+    dir.mkdirs();
+    FileHelper.writeFromString(new File(dir, "scaling_cur_freq"), khz + "\n");
+  }
+
+  protected static class CountingMonitor extends NoiseMonitor
+  {
+    protected volatile int m_calibrations = 0;
+
+    public CountingMonitor(File cpu_root)
+    {
+      super(cpu_root);
+    }
+
+    @Override
+    protected float calibrate()
+    {
+      m_calibrations++;
+      return 1;
+    }
+  }
+
+  public static class IdleExperiment extends Experiment
+  {
+    @Override
+    public void execute()
+    {
+      // Nothing to do
+    }
+  }
+}
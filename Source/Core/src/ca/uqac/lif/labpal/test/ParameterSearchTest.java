@@ -0,0 +1,107 @@
+package ca.uqac.lif.labpal.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ca.uqac.lif.labpal.Experiment;
+import ca.uqac.lif.labpal.ExperimentFactory;
+import ca.uqac.lif.labpal.Laboratory;
+import ca.uqac.lif.labpal.ParameterSearch;
+import ca.uqac.lif.labpal.Region;
+import ca.uqac.lif.labpal.ThreadPoolAssistant;
+
+public class ParameterSearchTest
+{
+  @Test
+  public void testThreshold()
+  {
+    SearchLab lab = new SearchLab();
+    lab.setAssistant(new ThreadPoolAssistant(1));
+    Region r = new Region();
+    r.addRange("x", 1, 1000);
+    ParameterSearch search = new ParameterSearch(lab, r, new PointFactory(lab), "y", 20).findThreshold(300 * 300);
+    lab.add(search);
+    run(lab);
+    assertEquals(300, search.getBestPoint().getInt("x"));
+    assertTrue(search.getEvaluationCount() <= 11);
+    assertEquals(search.getEvaluationCount(), lab.getExperiments().size());
+    assertTrue(search.isDone());
+  }
+
+  @Test
+  public void testMinimize()
+  {
+    SearchLab lab = new SearchLab();
+    lab.setAssistant(new ThreadPoolAssistant(2));
+    Region r = new Region();
+    r.addRange("x", 0, 20);
+    r.addRange("z", 0, 20);
+    ParameterSearch search = new ParameterSearch(lab, r, new PointFactory(lab), "y", 40).minimize();
+    lab.add(search);
+    run(lab);
+    assertEquals(40, search.getEvaluationCount());
+    Experiment best = search.getBest();
+    assertNotNull(best);
+    // A full sweep of the region would take 441 experiments
+    assertTrue(best.readFloat("y") <= 2);
+  }
+
+  protected static void run(Laboratory lab)
+  {
+    for (Experiment e : lab.getExperiments())
+    {
+      lab.getAssistant().queue(e);
+    }
+    lab.getAssistant().run();
+  }
+
+  public static class SearchLab extends Laboratory
+  {
+    @Override
+    public void setup()
+    {
+      // Experiments are created by the searches
+    }
+  }
+
+  public static class PointFactory extends ExperimentFactory<SearchLab,PointExperiment>
+  {
+    public PointFactory(SearchLab lab)
+    {
+      super(lab, PointExperiment.class);
+    }
+
+    @Override
+    protected PointExperiment createExperiment(Region r)
+    {
+      PointExperiment e = new PointExperiment();
+      e.setInput("x", r.getInt("x"));
+      if (r.hasDimension("z"))
+      {
+        e.setInput("z", r.getInt("z"));
+      }
+      return e;
+    }
+  }
+
+  public static class PointExperiment extends Experiment
+  {
+    @Override
+    public void execute()
+    {
+      int x = readInt("x");
+      if (read("z") == null)
+      {
+        write("y", x * x);
+      }
+      else
+      {
+        int z = readInt("z");
+        write("y", (x - 13) * (x - 13) + (z - 7) * (z - 7));
+      }
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package ca.uqac.lif.labpal.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uqac.lif.json.JsonElement;
+import ca.uqac.lif.json.JsonMap;
+import ca.uqac.lif.json.JsonNumber;
+import ca.uqac.lif.labpal.CommandRunner;
+import ca.uqac.lif.labpal.Experiment;
+import ca.uqac.lif.labpal.FileHelper;
+import ca.uqac.lif.labpal.PerfStat;
+
+public class PerfStatTest
+{
+  /**
+   * A script imitating perf stat: it writes canned counters to the file
+   * given with -o (or to stderr), then runs the command after --
+   */
+  protected static final String STUB = "#!/bin/sh\n"
+      + "out=''\n"
+      + "while [ \"$1\" != '--' ]; do\n"
+      + "  if [ \"$1\" = '-o' ]; then shift; out=\"$1\"; fi\n"
+      + "  shift\n"
+      + "done\n"
+      + "shift\n"
+      + "counters='# started on Mon Jan  1 00:00:00 2024\n"
+      + "\n"
+      + "1000000,,cycles:u,500000,100.00,,\n"
+      + "2000000,,instructions:u,500000,100.00,2.00,insn per cycle\n"
+      + "<not supported>,,cache-misses:u,0,100.00,,\n"
+      + "5000,,branch-misses:u,500000,100.00,,'\n"
+      + "if [ -n \"$out\" ]; then echo \"$counters\" > \"$out\"; else echo \"$counters\" >&2; fi\n"
+      + "exec \"$@\"\n";
+
+  protected File m_stub;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    Assume.assumeTrue(new File("/bin/sh").exists());
+    m_stub = File.createTempFile("perf-stub-", ".sh");
+    m_stub.deleteOnExit();
+    FileHelper.writeFromString(m_stub, STUB);
+    m_stub.setExecutable(true);
+  }
+
+  @Test
+  public void testParse() throws InterruptedException
+  {
+    PerfStat perf = new PerfStat(m_stub.getAbsolutePath());
+    assertTrue(perf.isAvailable());
+    List<String> command = new ArrayList<String>();
+    command.add("echo");
+    command.add("hello");
+    Experiment e = new DummyExperiment();
+    CommandRunner runner = perf.run(e, command, null);
+    assertEquals("hello", runner.getString().trim());
+    JsonElement elem = e.read(PerfStat.PERF);
+    assertTrue(elem instanceof JsonMap);
+    JsonMap counters = (JsonMap) elem;
+    assertEquals(1000000, ((JsonNumber) counters.get("cycles")).numberValue().intValue());
+    assertEquals(2000000, ((JsonNumber) counters.get("instructions")).numberValue().intValue());
+    assertEquals(5000, ((JsonNumber) counters.get("branch-misses")).numberValue().intValue());
+    assertEquals(2, ((JsonNumber) counters.get("ipc")).numberValue().doubleValue(), 0.001);
+    assertNull(counters.get("cache-misses"));
+    assertFalse(e.hasWarnings());
+  }
+
+  @Test
+  public void testNotInstalled() throws InterruptedException
+  {
+    PerfStat perf = new PerfStat(new File(m_stub.getParentFile(), "no-such-perf").getAbsolutePath());
+    assertFalse(perf.isAvailable());
+    List<String> command = new ArrayList<String>();
+    command.add("echo");
+    command.add("hello");
+    Experiment e = new DummyExperiment();
+    CommandRunner runner = perf.run(e, command, null);
+    assertEquals("hello", runner.getString().trim());
+    assertNull(e.read(PerfStat.PERF));
+    assertTrue(e.hasWarnings());
+  }
+
+  public static class DummyExperiment extends Experiment
+  {
+    @Override
+    public void execute()
+    {
+      // Nothing to do
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package ca.uqac.lif.labpal.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import ca.uqac.lif.labpal.Experiment;
+import ca.uqac.lif.labpal.Experiment.Status;
+
+public class PhaseTest
+{
+  @Test
+  public void testNested()
+  {
+    PhasedExperiment e = new PhasedExperiment();
+    e.run();
+    assertEquals(Status.DONE, e.getStatus());
+    Map<String,Double> phases = e.getPhaseDurations();
+    double load = phases.get("load");
+    double parse = phases.get("load" + Experiment.PHASE_SEPARATOR + "parse");
+    // The nested phase is counted in the enclosing one
+    assertTrue(parse >= 20);
+    assertTrue(load >= 40);
+    assertTrue(load >= parse);
+    // A phase timed twice gets the sum of both durations
+    assertTrue(phases.get("step") >= 20);
+    assertTrue(phases.get(Experiment.PHASE_EXECUTE) >= load + phases.get("step"));
+    assertTrue(phases.containsKey(Experiment.PHASE_VALIDATE));
+  }
+
+  @Test
+  public void testRerun()
+  {
+    PhasedExperiment e = new PhasedExperiment();
+    e.run();
+    e.m_extraPhase = false;
+    e.run();
+    // The phases of the previous run are forgotten
+    assertFalse(e.getPhaseDurations().containsKey("extra"));
+    assertTrue(e.getPhaseDurations().containsKey("load"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testUnbalanced()
+  {
+    new PhasedExperiment().stopPhase();
+  }
+
+  public static class PhasedExperiment extends Experiment
+  {
+    protected transient boolean m_extraPhase = true;
+
+    @Override
+    public void execute() throws InterruptedException
+    {
+      startPhase("load");
+      Thread.sleep(20);
+      startPhase("parse");
+      Thread.sleep(20);
+      stopPhase();
+      stopPhase();
+      for (int i = 0; i < 2; i++)
+      {
+        startPhase("step");
+        Thread.sleep(10);
+        stopPhase();
+      }
+      if (m_extraPhase)
+      {
+        startPhase("extra");
+        stopPhase();
+      }
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package ca.uqac.lif.labpal.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uqac.lif.labpal.Experiment;
+import ca.uqac.lif.labpal.FileHelper;
+import ca.uqac.lif.labpal.Laboratory;
+import ca.uqac.lif.labpal.PrerequisiteCache;
+
+public class PrerequisiteCacheTest
+{
+  protected File m_dir;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    m_dir = File.createTempFile("cache-", "");
+    m_dir.delete();
+    m_dir.mkdir();
+  }
+
+  @After
+  public void tearDown()
+  {
+    delete(m_dir);
+  }
+
+  @Test
+  public void testLeastRecentlyUsed()
+  {
+    PrerequisiteCache cache = new PrerequisiteCache(m_dir, 250);
+    put(cache, "a");
+    put(cache, "b");
+    assertEquals(200, cache.getSize());
+    // Using a makes b the least recently used
+    assertTrue(cache.lookup("a"));
+    put(cache, "c");
+    assertTrue(cache.contains("a"));
+    assertFalse(cache.contains("b"));
+    assertFalse(cache.getFile("b").exists());
+    assertTrue(cache.contains("c"));
+    assertEquals(200, cache.getSize());
+    assertEquals(1, cache.getEvictions());
+  }
+
+  @Test
+  public void testPin()
+  {
+    PrerequisiteCache cache = new PrerequisiteCache(m_dir, 150);
+    put(cache, "a");
+    cache.pin("a");
+    put(cache, "b");
+    // Neither the pinned file nor the new one can be evicted
+    assertTrue(cache.contains("a"));
+    assertTrue(cache.contains("b"));
+    assertEquals(200, cache.getSize());
+    cache.unpin("a");
+    assertFalse(cache.contains("a"));
+    assertTrue(cache.contains("b"));
+    assertEquals(100, cache.getSize());
+  }
+
+  @Test
+  public void testStatistics()
+  {
+    PrerequisiteCache cache = new PrerequisiteCache(m_dir, -1);
+    assertFalse(cache.lookup("a"));
+    put(cache, "a");
+    assertTrue(cache.lookup("a"));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertEquals(100, cache.getBytesAdded());
+  }
+
+  @Test
+  public void testScan()
+  {
+    PrerequisiteCache cache = new PrerequisiteCache(m_dir, -1);
+    put(cache, "a");
+    put(cache, "b");
+    // Files left by a previous run are part of the cache
+    PrerequisiteCache other = new PrerequisiteCache(m_dir, -1);
+    assertEquals(200, other.getSize());
+    assertTrue(other.lookup("a"));
+  }
+
+  @Test
+  public void testUndeletable()
+  {
+    PrerequisiteCache cache = new PrerequisiteCache(m_dir, 150);
+    put(cache, "a");
+    // A non-empty directory cannot be deleted
+    File f = cache.getFile("a");
+    f.delete();
+    f.mkdir();
+    FileHelper.writeFromString(new File(f, "data"), "x");
+    put(cache, "b");
+    assertTrue(cache.contains("a"));
+    assertEquals(200, cache.getSize());
+    assertEquals(0, cache.getEvictions());
+  }
+
+  @Test
+  public void testKeys()
+  {
+    CacheLab lab = new CacheLab();
+    Experiment e1 = new KeyedExperiment(10);
+    Experiment e2 = new KeyedExperiment(10);
+    Experiment e3 = new KeyedExperiment(20);
+    lab.add(e1);
+    lab.add(e2);
+    lab.add(e3);
+    lab.setRandomSeed(1);
+    String key = PrerequisiteCache.getKey(e1, "n");
+    assertEquals(key, PrerequisiteCache.getKey(e2, "n"));
+    assertFalse(key.equals(PrerequisiteCache.getKey(e3, "n")));
+    // The same parameters give different data with another seed
+    lab.setRandomSeed(2);
+    assertFalse(key.equals(PrerequisiteCache.getKey(e1, "n")));
+  }
+
+  protected static void put(PrerequisiteCache cache, String key)
+  {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 100; i++)
+    {
+      content.append("x");
+    }
+    FileHelper.writeFromString(cache.getFile(key), content.toString());
+    cache.add(key);
+  }
+
+  protected static void delete(File f)
+  {
+    File[] children = f.listFiles();
+    for (int i = 0; children != null && i < children.length; i++)
+    {
+      delete(children[i]);
+    }
+    f.delete();
+  }
+
+  public static class CacheLab extends Laboratory
+  {
+    @Override
+    public void setup()
+    {
+      // Experiments are added by the tests
+    }
+  }
+
+  public static class KeyedExperiment extends Experiment
+  {
+    public KeyedExperiment()
+    {
+      super();
+    }
+
+    public KeyedExperiment(int n)
+    {
+      super();
+      setInput("n", n);
+    }
+
+    @Override
+    public void execute()
+    {
+      // Nothing to do
+    }
+  }
+}
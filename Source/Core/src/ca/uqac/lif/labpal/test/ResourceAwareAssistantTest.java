@@ -0,0 +1,185 @@
+package ca.uqac.lif.labpal.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ca.uqac.lif.labpal.Experiment;
+import ca.uqac.lif.labpal.Experiment.Status;
+import ca.uqac.lif.labpal.Laboratory;
+import ca.uqac.lif.labpal.ResourceAwareAssistant;
+
+public class ResourceAwareAssistantTest
+{
+  @Test
+  public void testExclusive()
+  {
+    ResourceLab lab = new ResourceLab();
+    ResourceAwareAssistant assistant = new ResourceAwareAssistant(lab, 4);
+    assistant.setMinFreeHeap(0);
+    lab.setAssistant(assistant);
+    for (int i = 0; i < 6; i++)
+    {
+      lab.add(new ResourceExperiment(lab));
+    }
+    ResourceExperiment exclusive = new ResourceExperiment(lab);
+    exclusive.setExclusive(true);
+    lab.add(exclusive);
+    for (int i = 0; i < 6; i++)
+    {
+      lab.add(new ResourceExperiment(lab));
+    }
+    runAll(lab, assistant);
+    // Nothing ran beside the exclusive experiment
+    assertEquals(1, exclusive.m_maxConcurrent);
+    assertTrue(lab.m_maxConcurrent > 1);
+  }
+
+  @Test
+  public void testCorePacking()
+  {
+    ResourceLab lab = new ResourceLab();
+    ResourceAwareAssistant assistant = new ResourceAwareAssistant(lab, 4);
+    assistant.setMinFreeHeap(0);
+    lab.setAssistant(assistant);
+    for (int i = 0; i < 8; i++)
+    {
+      ResourceExperiment e = new ResourceExperiment(lab);
+      e.setCores(2);
+      lab.add(e);
+    }
+    runAll(lab, assistant);
+    // Two experiments of two cores fill the budget of four
+    assertEquals(4, lab.m_maxCores);
+    assertEquals(2, lab.m_maxConcurrent);
+  }
+
+  @Test
+  public void testOversized()
+  {
+    ResourceLab lab = new ResourceLab();
+    ResourceAwareAssistant assistant = new ResourceAwareAssistant(lab, 4);
+    assistant.setMinFreeHeap(0);
+    lab.setAssistant(assistant);
+    ResourceExperiment big = new ResourceExperiment(lab);
+    big.setCores(8);
+    lab.add(big);
+    for (int i = 0; i < 4; i++)
+    {
+      lab.add(new ResourceExperiment(lab));
+    }
+    runAll(lab, assistant);
+    // An experiment needing more cores than available runs alone
+    assertEquals(Status.DONE, big.getStatus());
+    assertEquals(1, big.m_maxConcurrent);
+  }
+
+  @Test
+  public void testHeapThreshold()
+  {
+    ResourceLab lab = new ResourceLab();
+    ResourceAwareAssistant assistant = new ResourceAwareAssistant(lab, 4);
+    // No experiment can start beside another one
+    assistant.setMinFreeHeap(Runtime.getRuntime().maxMemory());
+    lab.setAssistant(assistant);
+    for (int i = 0; i < 4; i++)
+    {
+      lab.add(new ResourceExperiment(lab));
+    }
+    runAll(lab, assistant);
+    assertEquals(1, lab.m_maxConcurrent);
+  }
+
+  @Test
+  public void testExpectedHeap()
+  {
+    ResourceLab lab = new ResourceLab();
+    ResourceAwareAssistant assistant = new ResourceAwareAssistant(lab, 4);
+    assistant.setMinFreeHeap(0);
+    lab.setAssistant(assistant);
+    for (int i = 0; i < 4; i++)
+    {
+      ResourceExperiment e = new ResourceExperiment(lab);
+      e.setExpectedHeap(Runtime.getRuntime().maxMemory());
+      lab.add(e);
+    }
+    runAll(lab, assistant);
+    assertEquals(1, lab.m_maxConcurrent);
+  }
+
+  protected static void runAll(Laboratory lab, ResourceAwareAssistant assistant)
+  {
+    for (Experiment e : lab.getExperiments())
+    {
+      assistant.queue(e);
+    }
+    assistant.run();
+    for (Experiment e : lab.getExperiments())
+    {
+      assertEquals(Status.DONE, e.getStatus());
+    }
+  }
+
+  public static class ResourceLab extends Laboratory
+  {
+    protected transient Set<ResourceExperiment> m_running = new HashSet<ResourceExperiment>();
+
+    protected transient int m_maxConcurrent = 0;
+
+    protected transient int m_maxCores = 0;
+
+    @Override
+    public void setup()
+    {
+      // Experiments are added by the tests
+    }
+
+    protected synchronized void started(ResourceExperiment e)
+    {
+      m_running.add(e);
+      int cores = 0;
+      for (ResourceExperiment r : m_running)
+      {
+        cores += r.getCores();
+        r.m_maxConcurrent = Math.max(r.m_maxConcurrent, m_running.size());
+      }
+      m_maxConcurrent = Math.max(m_maxConcurrent, m_running.size());
+      m_maxCores = Math.max(m_maxCores, cores);
+    }
+
+    protected synchronized void ended(ResourceExperiment e)
+    {
+      m_running.remove(e);
+    }
+  }
+
+  public static class ResourceExperiment extends Experiment
+  {
+    protected transient ResourceLab m_resourceLab;
+
+    protected transient int m_maxConcurrent = 0;
+
+    public ResourceExperiment()
+    {
+      super();
+    }
+
+    public ResourceExperiment(ResourceLab lab)
+    {
+      super();
+      m_resourceLab = lab;
+    }
+
+    @Override
+    public void execute() throws InterruptedException
+    {
+      m_resourceLab.started(this);
+      Thread.sleep(50);
+      m_resourceLab.ended(this);
+    }
+  }
+}
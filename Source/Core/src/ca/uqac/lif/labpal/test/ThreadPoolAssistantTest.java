@@ -0,0 +1,311 @@
+package ca.uqac.lif.labpal.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import ca.uqac.lif.azrael.PrintException;
+import ca.uqac.lif.azrael.ReadException;
+import ca.uqac.lif.json.JsonParser.JsonParseException;
+import ca.uqac.lif.labpal.Experiment;
+import ca.uqac.lif.labpal.Experiment.Status;
+import ca.uqac.lif.labpal.Laboratory;
+import ca.uqac.lif.labpal.ThreadPoolAssistant;
+
+public class ThreadPoolAssistantTest
+{
+  @Test
+  public void testParallel()
+  {
+    ParallelLab lab = new ParallelLab();
+    ThreadPoolAssistant assistant = new ThreadPoolAssistant(4);
+    lab.setAssistant(assistant);
+    lab.setup();
+    for (Experiment e : lab.getExperiments())
+    {
+      assistant.queue(e);
+    }
+    assertEquals(8, assistant.getCurrentQueue().size());
+    assistant.run();
+    assertTrue(assistant.getCurrentQueue().isEmpty());
+    assertTrue(assistant.getRunningExperiments().isEmpty());
+    for (Experiment e : lab.getExperiments())
+    {
+      assertEquals(Status.DONE, e.getStatus());
+    }
+    assertTrue(lab.m_maxConcurrent.get() > 1);
+    assertTrue(lab.m_maxConcurrent.get() <= 4);
+  }
+
+  @Test
+  public void testBatchRunning() throws InterruptedException
+  {
+    ParallelLab lab = new ParallelLab();
+    ThreadPoolAssistant assistant = new ThreadPoolAssistant(2).setBatchSize(4);
+    lab.setAssistant(assistant);
+    lab.setup();
+    for (Experiment e : lab.getExperiments())
+    {
+      assistant.queue(e);
+    }
+    Thread t = new Thread(assistant);
+    t.start();
+    int max_running = 0;
+    while (t.isAlive())
+    {
+      // Experiments waiting in a worker's batch are not running yet
+      max_running = Math.max(max_running, assistant.getRunningExperiments().size());
+      Thread.sleep(5);
+    }
+    assertTrue(max_running > 0);
+    assertTrue(max_running <= 2);
+    for (Experiment e : lab.getExperiments())
+    {
+      assertEquals(Status.DONE, e.getStatus());
+    }
+  }
+
+  @Test
+  public void testStuckExperiment()
+  {
+    ParallelLab lab = new ParallelLab();
+    ThreadPoolAssistant assistant = new ThreadPoolAssistant(2);
+    assistant.getWatchdog().setGracePeriod(100);
+    lab.setAssistant(assistant);
+    lab.setup();
+    StuckExperiment stuck = new StuckExperiment();
+    stuck.setMaxDuration(200);
+    lab.add(stuck);
+    assistant.queue(stuck);
+    for (Experiment e : lab.getExperiments())
+    {
+      assistant.queue(e);
+    }
+    long start = System.currentTimeMillis();
+    assistant.run();
+    long duration = System.currentTimeMillis() - start;
+    assertEquals(Status.TIMEOUT, stuck.getStatus());
+    assertTrue(duration < 2000);
+    for (Experiment e : lab.getExperiments())
+    {
+      if (e != stuck)
+      {
+        assertEquals(Status.DONE, e.getStatus());
+      }
+    }
+  }
+
+  @Test
+  public void testDependencies()
+  {
+    ParallelLab lab = new ParallelLab();
+    ThreadPoolAssistant assistant = new ThreadPoolAssistant(2);
+    lab.setAssistant(assistant);
+    Experiment a = new SleepExperiment(lab);
+    Experiment b = new FailingExperiment();
+    Experiment c = new SleepExperiment(lab);
+    Experiment d = new SleepExperiment(lab);
+    Experiment e = new SleepExperiment(lab);
+    c.addDependency(a);
+    d.addDependency(b);
+    e.addDependency(c, d);
+    for (Experiment x : new Experiment[] {a, b, c, d, e})
+    {
+      lab.add(x);
+    }
+    // Dependencies are queued along with the experiments that need them
+    assistant.queue(c);
+    assistant.queue(e);
+    assertEquals(5, assistant.getCurrentQueue().size());
+    assistant.run();
+    assertEquals(Status.DONE, a.getStatus());
+    assertEquals(Status.FAILED, b.getStatus());
+    assertEquals(Status.DONE, c.getStatus());
+    assertEquals(Status.SKIPPED, d.getStatus());
+    assertEquals(Status.SKIPPED, e.getStatus());
+    assertTrue(c.getEndTime() >= a.getEndTime());
+  }
+
+  @Test
+  public void testDependenciesAfterLoad() throws PrintException, ReadException, JsonParseException
+  {
+    DependentLab lab = new DependentLab();
+    lab.setup();
+    Laboratory loaded = lab.loadFromString(lab.saveToString());
+    Experiment a = loaded.getExperiment(lab.m_first.getId());
+    Experiment b = loaded.getExperiment(lab.m_second.getId());
+    // The dependency declared in setup() links the loaded experiments
+    assertEquals(1, b.getDependencies().size());
+    assertSame(a, b.getDependencies().get(0));
+    ThreadPoolAssistant assistant = new ThreadPoolAssistant(2);
+    loaded.setAssistant(assistant);
+    assistant.queue(b);
+    assistant.run();
+    assertEquals(Status.FAILED, a.getStatus());
+    assertEquals(Status.SKIPPED, b.getStatus());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDependencyCycle()
+  {
+    Experiment a = new StuckExperiment();
+    Experiment b = new StuckExperiment();
+    Experiment c = new StuckExperiment();
+    b.addDependency(a);
+    c.addDependency(b);
+    a.addDependency(c);
+  }
+
+  @Test
+  public void testSpawn()
+  {
+    SpawningLab lab = new SpawningLab();
+    ThreadPoolAssistant assistant = new ThreadPoolAssistant(4);
+    lab.setAssistant(assistant);
+    lab.setup();
+    for (Experiment e : lab.getExperiments())
+    {
+      assistant.queue(e);
+    }
+    assistant.run();
+    // Each experiment spawns two more, down to depth 3
+    assertEquals(15, lab.getExperiments().size());
+    for (Experiment e : lab.getExperiments())
+    {
+      assertEquals(Status.DONE, e.getStatus());
+    }
+  }
+
+  public static class SpawningLab extends Laboratory
+  {
+    @Override
+    public void setup()
+    {
+      add(new DepthExperiment(0));
+    }
+
+    @Override
+    public void experimentFinished(Experiment e)
+    {
+      int depth = ((DepthExperiment) e).m_depth;
+      if (depth < 3)
+      {
+        spawn(new DepthExperiment(depth + 1));
+        spawn(new DepthExperiment(depth + 1));
+      }
+    }
+  }
+
+  public static class DepthExperiment extends Experiment
+  {
+    protected int m_depth;
+
+    public DepthExperiment()
+    {
+      this(0);
+    }
+
+    public DepthExperiment(int depth)
+    {
+      super();
+      m_depth = depth;
+    }
+
+    @Override
+    public void execute() throws InterruptedException
+    {
+      Thread.sleep(10);
+    }
+  }
+
+  public static class ParallelLab extends Laboratory
+  {
+    protected AtomicInteger m_concurrent = new AtomicInteger();
+
+    protected AtomicInteger m_maxConcurrent = new AtomicInteger();
+
+    @Override
+    public void setup()
+    {
+      for (int i = 0; i < 8; i++)
+      {
+        add(new SleepExperiment(this));
+      }
+    }
+  }
+
+  public static class SleepExperiment extends Experiment
+  {
+    protected transient ParallelLab m_lab;
+
+    public SleepExperiment()
+    {
+      super();
+    }
+
+    public SleepExperiment(ParallelLab lab)
+    {
+      super();
+      m_lab = lab;
+    }
+
+    @Override
+    public void execute() throws InterruptedException
+    {
+      int n = m_lab.m_concurrent.incrementAndGet();
+      synchronized (m_lab)
+      {
+        if (n > m_lab.m_maxConcurrent.get())
+        {
+          m_lab.m_maxConcurrent.set(n);
+        }
+      }
+      Thread.sleep(100);
+      m_lab.m_concurrent.decrementAndGet();
+    }
+  }
+
+  public static class DependentLab extends Laboratory
+  {
+    protected transient Experiment m_first;
+
+    protected transient Experiment m_second;
+
+    @Override
+    public void setup()
+    {
+      m_first = new FailingExperiment();
+      m_second = new FailingExperiment();
+      add(m_first);
+      add(m_second);
+      m_second.addDependency(m_first);
+    }
+  }
+
+  public static class FailingExperiment extends Experiment
+  {
+    @Override
+    public void execute()
+    {
+      throw new IllegalStateException("Expected failure");
+    }
+  }
+
+  public static class StuckExperiment extends Experiment
+  {
+    @Override
+    public void execute()
+    {
+      // Ignores requests to stop
+      long start = System.currentTimeMillis();
+      while (System.currentTimeMillis() - start < 5000)
+      {
+        // Busy wait
+      }
+    }
+  }
+}
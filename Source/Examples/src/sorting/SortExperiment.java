@@ -17,20 +17,28 @@
  */
 package sorting;
 
-import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Random;
 
 import ca.uqac.lif.labpal.Experiment;
 import ca.uqac.lif.labpal.ExperimentException;
 import ca.uqac.lif.labpal.FileHelper;
+import ca.uqac.lif.labpal.Fixture;
+import ca.uqac.lif.labpal.PrerequisiteCache;
 
 public abstract class SortExperiment extends Experiment
 {
 	/**
-	 * The folder where the generated data will be put
+	 * The number of times each array is sorted
 	 */
-	protected static final transient String s_dataDir = "data/";
+	protected static final int REPETITIONS = 5;
 
+	/**
+	 * The number of sorts done before the timed ones
+	 */
+	protected static final int WARMUP = 2;
 
 	SortExperiment()
 	{
@@ -39,6 +47,11 @@ public abstract class SortExperiment extends Experiment
 		describe("size", "Size of the array to sort");
 		describe("time", "Sorting time (in ms)");
 		setEditableParameters("size");
+		// A single sort is too short to be timed reliably
+		setRepetitions(REPETITIONS, WARMUP);
+		sample("time");
+		// Sorting times would be skewed by other experiments running alongside
+		setExclusive(true);
 	}
 
 	public SortExperiment(String name, int size)
@@ -52,78 +65,148 @@ public abstract class SortExperiment extends Experiment
 	@Override
 	public final boolean prerequisitesFulfilled()
 	{
-		return FileHelper.fileExists(getDataFilename());
+		return getPrerequisiteCache().contains(getDataKey());
 	}
 
 	@Override
 	public final void cleanPrerequisites()
 	{
-		String filename = getDataFilename();
-		if (FileHelper.fileExists(filename))
-		{
-			FileHelper.deleteFile(filename);
-		}
+		getPrerequisiteCache().remove(getDataKey());
 	}
 
 	@Override
-	public final void fulfillPrerequisites()
+	public final void fulfillPrerequisites() throws ExperimentException
 	{
-		// Generates a random list of integers of given size, and saves it
-		// to a file
-		Random random = getRandom();
-		String filename = getDataFilename();
-		StringBuilder out = new StringBuilder();
-		int size = readInt("size");
-		int range = 2 * size;
-		for (int i = 0; i < size; i++)
-		{
-			int number = random.nextInt(range);
-			if (i > 0)
-			{
-				out.append(",");
-			}
-			out.append(number);
-		}
-		FileHelper.writeFromString(new File(filename), out.toString());
+		// All the experiments sorting arrays of the same size share the same
+		// cached file; the fixture makes sure it is generated only once
+		getFixture(getArrayFixture());
+	}
+
+	@Override
+	public Collection<Fixture<?>> getFixtures()
+	{
+		return Collections.<Fixture<?>>singletonList(getArrayFixture());
+	}
+
+	/**
+	 * Gets the fixture providing the array to sort
+	 * @return The fixture
+	 */
+	protected final ArrayFixture getArrayFixture()
+	{
+		return new ArrayFixture(readInt("size"), getPrerequisiteCache(), getDataKey());
 	}
 
 	/**
-	 * Generates the data filename based on the experiment's parameters
-	 * @param input The experiment's input parameters
-	 * @return
+	 * Gets the key of the array to sort in the prerequisite cache. It only
+	 * depends on the size of the array, so that all the algorithms sort the
+	 * same arrays.
+	 * @return The key
 	 */
-	protected final String getDataFilename()
+	protected final String getDataKey()
 	{
-		int size = readInt("size");
-		return s_dataDir + "list-" + size + ".txt";
+		return PrerequisiteCache.getKey(this, "size");
 	}
 
 	@Override
 	public void execute() throws ExperimentException
 	{
-		int[] array = getArray();
-		if (array == null)
+		// The array is shared with other experiments: sort a copy
+		int[] shared = getFixture(getArrayFixture());
+		if (shared == null)
 		{
 			throw new ExperimentException("A null array was passed to this experiment");
 		}
+		int[] array = shared.clone();
 		long start_time = System.nanoTime();
 		sort(array);
 		long end_time = System.nanoTime();
 		write("time", (end_time - start_time) / 1000000f);
 	}
 
-	protected final int[] getArray()
+	/**
+	 * Fixture providing an array of random integers of a given size. The
+	 * array is read from a file in the prerequisite cache, which is generated
+	 * first if it is not there. The array is drawn from a generator seeded
+	 * with the key of the file, so that its contents only depend on the key,
+	 * and not on the order in which the fixtures are created.
+	 */
+	protected static class ArrayFixture extends Fixture<int[]>
 	{
-		int size = readInt("size");
-		int[] array = new int[size];
-		String filename = getDataFilename();
-		String contents = FileHelper.readToString(new File(filename));
-		String[] str = contents.split(",");
-		for (int i = 0; i < size; i++)
+		/**
+		 * The size of the array
+		 */
+		protected final int m_size;
+
+		/**
+		 * The cache containing the file
+		 */
+		protected final PrerequisiteCache m_cache;
+
+		/**
+		 * The key of the file in the cache
+		 */
+		protected final String m_key;
+
+		public ArrayFixture(int size, PrerequisiteCache cache, String key)
+		{
+			super("list-" + size);
+			m_size = size;
+			m_cache = cache;
+			m_key = key;
+		}
+
+		@Override
+		protected int[] create() throws ExperimentException
+		{
+			// Don't let another experiment evict the file before it is read
+			m_cache.pin(m_key);
+			try
+			{
+				if (!m_cache.lookup(m_key))
+				{
+					generate();
+					m_cache.add(m_key);
+				}
+				try
+				{
+					return FileHelper.readInts(m_cache.getFile(m_key));
+				}
+				catch (IOException e)
+				{
+					// The lab and the forked JVMs do not share their pins: another
+					// JVM may have evicted the file in the meantime
+					generate();
+					m_cache.add(m_key);
+					return FileHelper.readInts(m_cache.getFile(m_key));
+				}
+			}
+			catch (IOException e)
+			{
+				throw new ExperimentException(e);
+			}
+			finally
+			{
+				m_cache.unpin(m_key);
+			}
+		}
+
+		/**
+		 * Generates a random list of integers of given size, and saves it
+		 * to a file
+		 * @throws IOException If the file cannot be written
+		 */
+		protected void generate() throws IOException
 		{
-			array[i] = Integer.parseInt(str[i].trim());
+			int[] array = new int[m_size];
+			int range = 2 * m_size;
+			Random random = new Random(m_key.hashCode());
+			for (int i = 0; i < m_size; i++)
+			{
+				array[i] = random.nextInt(range);
+			}
+			FileHelper.writeInts(m_cache.getFile(m_key), array);
 		}
-		return array;
 	}
 
 	protected abstract void sort(int[] array);
@@ -132,7 +215,7 @@ public abstract class SortExperiment extends Experiment
 	public float getDurationEstimate(float factor)
 	{
 		float size = readFloat("size");
-		return (size / 20000) / factor;
+		return (REPETITIONS + WARMUP) * (size / 20000) / factor;
 	}
 
 	@Override